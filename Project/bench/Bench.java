@@ -0,0 +1,246 @@
+package Project.bench;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Small self-contained microbenchmark harness.
+ * <p>
+ * Each benchmark runs a number of timed warmup iterations (results discarded)
+ * followed by timed measurement iterations. Every iteration calls the operation
+ * in a tight loop until the iteration time has elapsed and records the average
+ * nanoseconds per operation and, when the JVM supports it, the bytes allocated
+ * per operation on the calling thread (similar to JMH's {@code -prof gc}).
+ * </p>
+ */
+public class Bench {
+
+    /**
+     * A single benchmarked operation
+     */
+    @FunctionalInterface
+    public interface Op {
+        /**
+         * @return any value produced; it's consumed so the JIT can't drop the work
+         * @throws Exception
+         */
+        Object run() throws Exception;
+    }
+
+    /**
+     * Outcome of a single benchmark
+     */
+    public static class Result {
+        private final String name;
+        private final double nsPerOp;
+        private final double nsPerOpError;
+        private final double bytesPerOp;
+        private final long operations;
+        private final int iterations;
+
+        public Result(String name, double nsPerOp, double nsPerOpError, double bytesPerOp, long operations,
+                int iterations) {
+            this.name = name;
+            this.nsPerOp = nsPerOp;
+            this.nsPerOpError = nsPerOpError;
+            this.bytesPerOp = bytesPerOp;
+            this.operations = operations;
+            this.iterations = iterations;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getNsPerOp() {
+            return nsPerOp;
+        }
+
+        public double getNsPerOpError() {
+            return nsPerOpError;
+        }
+
+        public double getOpsPerSec() {
+            return nsPerOp > 0 ? 1_000_000_000d / nsPerOp : 0;
+        }
+
+        /**
+         * @return bytes allocated per operation, or -1 if allocation tracking isn't
+         *         supported by this JVM
+         */
+        public double getBytesPerOp() {
+            return bytesPerOp;
+        }
+
+        public long getOperations() {
+            return operations;
+        }
+
+        public int getIterations() {
+            return iterations;
+        }
+
+        /**
+         * @return this result as a single line JSON object
+         */
+        public String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"benchmark\":\"%s\",\"nsPerOp\":%.3f,\"nsPerOpError\":%.3f,\"opsPerSec\":%.1f,\"bytesPerOp\":%.1f,\"operations\":%d,\"iterations\":%d}",
+                    name, nsPerOp, nsPerOpError, getOpsPerSec(), bytesPerOp, operations, iterations);
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.ROOT, "%-50s %12.1f ns/op (+/- %.1f) %14.1f ops/s %10.1f B/op",
+                    name, nsPerOp, nsPerOpError, getOpsPerSec(), bytesPerOp);
+        }
+    }
+
+    // results are written here so the JIT can't treat the benchmarked work as dead code
+    public static volatile Object sink;
+
+    private int warmupIterations = 3;
+    private int measurementIterations = 5;
+    private long iterationMillis = 500;
+    private Pattern filter = null;
+    private final List<Result> results = new ArrayList<>();
+
+    public int getWarmupIterations() {
+        return warmupIterations;
+    }
+
+    public void setWarmupIterations(int warmupIterations) {
+        this.warmupIterations = warmupIterations;
+    }
+
+    public int getMeasurementIterations() {
+        return measurementIterations;
+    }
+
+    public void setMeasurementIterations(int measurementIterations) {
+        this.measurementIterations = measurementIterations;
+    }
+
+    public long getIterationMillis() {
+        return iterationMillis;
+    }
+
+    public void setIterationMillis(long iterationMillis) {
+        this.iterationMillis = iterationMillis;
+    }
+
+    /**
+     * Only benchmarks whose name contains a match of the regex will run
+     *
+     * @param regex null or empty to run everything
+     */
+    public void setFilter(String regex) {
+        this.filter = regex == null || regex.isEmpty() ? null : Pattern.compile(regex);
+    }
+
+    /**
+     * @param name benchmark name
+     * @return true if the benchmark passes the filter
+     */
+    public boolean isSelected(String name) {
+        return filter == null || filter.matcher(name).find();
+    }
+
+    public List<Result> getResults() {
+        return results;
+    }
+
+    /**
+     * Consumes a value so it's considered "used"
+     *
+     * @param value
+     */
+    public static void consume(Object value) {
+        sink = value;
+    }
+
+    /**
+     * Runs (if selected by the filter) and records a benchmark
+     *
+     * @param name unique name, dotted by suite (i.e., room.sendMessage.fanout100)
+     * @param op   the operation to measure
+     * @return the result, or null if it was filtered out
+     */
+    public Result run(String name, Op op) {
+        if (!isSelected(name)) {
+            return null;
+        }
+        try {
+            for (int i = 0; i < warmupIterations; i++) {
+                iteration(op);
+            }
+            double[] nsPerOp = new double[measurementIterations];
+            double bytes = 0;
+            long operations = 0;
+            for (int i = 0; i < measurementIterations; i++) {
+                long[] sample = iteration(op);
+                operations += sample[0];
+                nsPerOp[i] = (double) sample[1] / sample[0];
+                bytes = sample[2] < 0 || bytes < 0 ? -1 : bytes + sample[2];
+            }
+            double mean = 0;
+            for (double v : nsPerOp) {
+                mean += v;
+            }
+            mean /= nsPerOp.length;
+            double variance = 0;
+            for (double v : nsPerOp) {
+                variance += (v - mean) * (v - mean);
+            }
+            double error = nsPerOp.length > 1 ? Math.sqrt(variance / (nsPerOp.length - 1)) : 0;
+            Result result = new Result(name, mean, error, bytes < 0 ? -1 : bytes / operations, operations,
+                    measurementIterations);
+            results.add(result);
+            System.out.println(result);
+            return result;
+        } catch (Exception e) {
+            System.err.println("Benchmark " + name + " failed: " + e);
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * @return [operations, elapsed nanos, allocated bytes or -1]
+     */
+    private long[] iteration(Op op) throws Exception {
+        long deadline = System.nanoTime() + iterationMillis * 1_000_000L;
+        long operations = 0;
+        long allocatedBefore = allocatedBytes();
+        long start = System.nanoTime();
+        long now;
+        do {
+            // batch calls so reading the clock doesn't dominate very cheap operations
+            for (int i = 0; i < 64; i++) {
+                sink = op.run();
+            }
+            operations += 64;
+            now = System.nanoTime();
+        } while (now < deadline);
+        long allocatedAfter = allocatedBytes();
+        long allocated = allocatedBefore < 0 || allocatedAfter < 0 ? -1 : allocatedAfter - allocatedBefore;
+        return new long[] { operations, now - start, allocated };
+    }
+
+    /**
+     * @return bytes allocated so far by the current thread, or -1 if unsupported
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+}
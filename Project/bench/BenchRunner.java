@@ -0,0 +1,140 @@
+package Project.bench;
+
+import Project.common.LoggerUtil;
+import Project.server.ServerBenchmarks;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Entry point for the benchmark suites.
+ * <p>
+ * Usage: {@code java Project.bench.BenchRunner [--filter regex] [--out file.json]
+ * [--warmup n] [--iterations n] [--time ms]}
+ * </p>
+ * <p>
+ * Or, to diff two result files: {@code java Project.bench.BenchRunner --compare base.json new.json}
+ * </p>
+ * Results are written as JSON (one benchmark object per line) so runs from
+ * different commits can be compared.
+ * <p>
+ * Room scheduling fairness (a firehose room next to quiet ones) is a latency
+ * scenario rather than a per-operation cost, see {@link FairnessScenario}.
+ * </p>
+ */
+public class BenchRunner {
+    private static final Pattern RESULT_PATTERN = Pattern
+            .compile("\"benchmark\":\"([^\"]+)\",\"nsPerOp\":([0-9.]+).*\"bytesPerOp\":(-?[0-9.]+)");
+
+    public static void main(String[] args) throws IOException {
+        Bench bench = new Bench();
+        String outFile = "bench-" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()) + ".json";
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--filter":
+                    bench.setFilter(args[++i]);
+                    break;
+                case "--out":
+                    outFile = args[++i];
+                    break;
+                case "--warmup":
+                    bench.setWarmupIterations(Integer.parseInt(args[++i]));
+                    break;
+                case "--iterations":
+                    bench.setMeasurementIterations(Integer.parseInt(args[++i]));
+                    break;
+                case "--time":
+                    bench.setIterationMillis(Long.parseLong(args[++i]));
+                    break;
+                case "--compare":
+                    compare(new File(args[i + 1]), new File(args[i + 2]));
+                    return;
+                default:
+                    System.err.println("Unknown argument " + args[i]);
+                    return;
+            }
+        }
+
+        // keep logging out of the measurements (the message path only pays for
+        // the level checks, which is what we want to observe)
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setFileSizeLimit(2048 * 1024); // 2MB
+        config.setFileCount(1);
+        config.setLogLocation(new File(System.getProperty("java.io.tmpdir"), "bench.log").getPath());
+        config.setFileLogLevel(Level.OFF);
+        config.setConsoleLogLevel(Level.OFF);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        PayloadBenchmarks.run(bench);
+        ServerBenchmarks.run(bench);
+        LoggingBenchmarks.run(bench);
+
+        write(bench, new File(outFile));
+        System.out.println("Results written to " + outFile);
+        System.exit(0); // benchmark clients/rooms don't need a graceful shutdown
+    }
+
+    private static void write(Bench bench, File file) throws IOException {
+        String commit = System.getProperty("bench.commit", System.getenv().getOrDefault("BENCH_COMMIT", "unknown"));
+        try (BufferedWriter writer = new BufferedWriter(new FileWriter(file))) {
+            writer.write(String.format(Locale.ROOT,
+                    "{\"commit\":\"%s\",\"timestamp\":%d,\"jvm\":\"%s\",\"warmup\":%d,\"iterations\":%d,\"iterationMillis\":%d,\"results\":[",
+                    commit, System.currentTimeMillis(), System.getProperty("java.vm.version"),
+                    bench.getWarmupIterations(), bench.getMeasurementIterations(), bench.getIterationMillis()));
+            writer.newLine();
+            for (int i = 0; i < bench.getResults().size(); i++) {
+                writer.write(bench.getResults().get(i).toJson());
+                if (i < bench.getResults().size() - 1) {
+                    writer.write(",");
+                }
+                writer.newLine();
+            }
+            writer.write("]}");
+            writer.newLine();
+        }
+    }
+
+    /**
+     * Prints the relative change of every benchmark present in both files
+     */
+    private static void compare(File base, File next) throws IOException {
+        Map<String, double[]> baseResults = read(base);
+        Map<String, double[]> nextResults = read(next);
+        System.out.println(String.format("%-50s %12s %12s %9s %10s %10s", "benchmark", "base ns/op", "new ns/op",
+                "change", "base B/op", "new B/op"));
+        for (Map.Entry<String, double[]> entry : nextResults.entrySet()) {
+            double[] before = baseResults.get(entry.getKey());
+            double[] after = entry.getValue();
+            if (before == null) {
+                System.out.println(String.format(Locale.ROOT, "%-50s %12s %12.1f %9s %10s %10.1f", entry.getKey(), "-",
+                        after[0], "new", "-", after[1]));
+                continue;
+            }
+            double change = (after[0] - before[0]) / before[0] * 100;
+            System.out.println(String.format(Locale.ROOT, "%-50s %12.1f %12.1f %+8.1f%% %10.1f %10.1f",
+                    entry.getKey(), before[0], after[0], change, before[1], after[1]));
+        }
+    }
+
+    private static Map<String, double[]> read(File file) throws IOException {
+        Map<String, double[]> results = new LinkedHashMap<>();
+        for (String line : Files.readAllLines(file.toPath())) {
+            Matcher m = RESULT_PATTERN.matcher(line);
+            if (m.find()) {
+                results.put(m.group(1),
+                        new double[] { Double.parseDouble(m.group(2)), Double.parseDouble(m.group(3)) });
+            }
+        }
+        return results;
+    }
+}
@@ -0,0 +1,227 @@
+package Project.bench;
+
+import Project.loadtest.LatencyHistogram;
+import Project.server.RoomScheduler;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Shows whether one flooding room slows down the quiet ones: N quiet rooms
+ * send a message now and then while a firehose room keeps a deep backlog of
+ * fan-out queued, and the quiet rooms' delivery latency (submit to the last
+ * recipient) is compared across three runs:
+ * <ol>
+ * <li>quiet rooms alone on a RoomScheduler</li>
+ * <li>quiet rooms next to the firehose on a RoomScheduler (deficit round
+ * robin: a quiet room waits at most one turn of the firehose)</li>
+ * <li>quiet rooms next to the firehose on a plain FIFO pool with the same
+ * number of workers (a quiet message waits behind the whole backlog)</li>
+ * </ol>
+ * Runs in process without sockets so the result is about scheduling, not the
+ * machine: sending to a recipient is simulated by spinning for
+ * {@code --send-us}.
+ * <p>
+ * Usage: {@code java Project.bench.FairnessScenario [--workers n] [--quiet-rooms 10]
+ * [--quiet-recipients 50] [--quiet-rate 50] [--backlog 32] [--send-us 2] [--duration 5]}
+ * </p>
+ * <ul>
+ * <li>quiet-rate: messages per second per quiet room</li>
+ * <li>backlog: fan-out quanta the firehose keeps queued</li>
+ * <li>quiet-recipients above the quantum (256) exercise the queued path instead
+ * of the inline one an idle room's small message takes</li>
+ * </ul>
+ */
+public class FairnessScenario {
+    private int workers = RoomScheduler.DEFAULT_WORKERS;
+    private int quietRooms = 10;
+    private int quietRecipients = 50;
+    private double quietRate = 50;
+    private int backlog = 32;
+    private long sendNanos = 2_000;
+    private long durationMs = 5_000;
+    private final int quantum = RoomScheduler.DEFAULT_QUANTUM;
+
+    // where one run's room work goes
+    private interface Target {
+        void submit(int roomIndex, int cost, Runnable work);
+
+        // queued cost of the firehose
+        long getBacklog();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        FairnessScenario scenario = new FairnessScenario();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--workers":
+                    scenario.workers = Integer.parseInt(args[++i]);
+                    break;
+                case "--quiet-rooms":
+                    scenario.quietRooms = Integer.parseInt(args[++i]);
+                    break;
+                case "--quiet-recipients":
+                    scenario.quietRecipients = Integer.parseInt(args[++i]);
+                    break;
+                case "--quiet-rate":
+                    scenario.quietRate = Double.parseDouble(args[++i]);
+                    break;
+                case "--backlog":
+                    scenario.backlog = Integer.parseInt(args[++i]);
+                    break;
+                case "--send-us":
+                    scenario.sendNanos = (long) (Double.parseDouble(args[++i]) * 1000);
+                    break;
+                case "--duration":
+                    scenario.durationMs = (long) (Double.parseDouble(args[++i]) * 1000);
+                    break;
+                default:
+                    System.err.println("Unknown argument " + args[i]);
+                    return;
+            }
+        }
+        System.out.println(String.format(Locale.ROOT,
+                "%d workers, %d quiet rooms x %d recipients at %.0f msg/s, firehose backlog %d x %d sends of %d ns",
+                scenario.workers, scenario.quietRooms, scenario.quietRecipients, scenario.quietRate,
+                scenario.backlog, scenario.quantum, scenario.sendNanos));
+        scenario.report("drr, quiet rooms only", scenario.runScheduler(false));
+        scenario.report("drr, with firehose", scenario.runScheduler(true));
+        scenario.report("fifo, with firehose", scenario.runFifo());
+        System.exit(0);
+    }
+
+    private void report(String name, LatencyHistogram quiet) {
+        System.out.println(String.format(Locale.ROOT, "%-24s quiet rooms: %6d msgs  p50 %7.2f ms  p99 %7.2f ms  max %7.2f ms",
+                name, quiet.getCount(), quiet.getPercentile(50) / 1000.0, quiet.getPercentile(99) / 1000.0,
+                quiet.getMax() / 1000.0));
+    }
+
+    private LatencyHistogram runScheduler(boolean isFirehose) throws InterruptedException {
+        RoomScheduler scheduler = new RoomScheduler(workers, quantum, RoomScheduler.DEFAULT_MAILBOX_LIMIT);
+        RoomScheduler.Mailbox firehose = new RoomScheduler.Mailbox("firehose");
+        List<RoomScheduler.Mailbox> rooms = new ArrayList<>();
+        for (int i = 0; i < quietRooms; i++) {
+            rooms.add(new RoomScheduler.Mailbox("quiet-" + i));
+        }
+        return run(isFirehose, new Target() {
+            @Override
+            public void submit(int roomIndex, int cost, Runnable work) {
+                RoomScheduler.Mailbox mailbox = roomIndex < 0 ? firehose : rooms.get(roomIndex);
+                // cut into quantum sized slices like Room does
+                List<RoomScheduler.Task> tasks = new ArrayList<>();
+                for (int sent = 0; sent < cost; sent += quantum) {
+                    int slice = Math.min(quantum, cost - sent);
+                    boolean isLast = sent + slice >= cost;
+                    tasks.add(new RoomScheduler.Task(slice, () -> {
+                        spin(slice);
+                        if (isLast) {
+                            work.run();
+                        }
+                    }));
+                }
+                scheduler.submit(mailbox, tasks.toArray(new RoomScheduler.Task[0]));
+            }
+
+            @Override
+            public long getBacklog() {
+                return firehose.getQueuedCost();
+            }
+        });
+    }
+
+    private LatencyHistogram runFifo() throws InterruptedException {
+        ExecutorService pool = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "fifo-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        AtomicInteger firehoseQueued = new AtomicInteger();
+        try {
+            return run(true, new Target() {
+                @Override
+                public void submit(int roomIndex, int cost, Runnable work) {
+                    if (roomIndex < 0) {
+                        firehoseQueued.addAndGet(cost);
+                    }
+                    pool.execute(() -> {
+                        spin(cost);
+                        if (roomIndex < 0) {
+                            firehoseQueued.addAndGet(-cost);
+                        }
+                        work.run();
+                    });
+                }
+
+                @Override
+                public long getBacklog() {
+                    return firehoseQueued.get();
+                }
+            });
+        } finally {
+            pool.shutdownNow();
+            pool.awaitTermination(1, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Runs the quiet rooms' senders (one thread each, like a client's reader)
+     * and, if wanted, a producer keeping the firehose's backlog topped up
+     *
+     * @return the quiet rooms' delivery latencies
+     */
+    private LatencyHistogram run(boolean isFirehose, Target target) throws InterruptedException {
+        LatencyHistogram quiet = new LatencyHistogram();
+        long deadline = System.nanoTime() + durationMs * 1_000_000L;
+        List<Thread> threads = new ArrayList<>();
+        if (isFirehose) {
+            threads.add(new Thread(() -> {
+                while (System.nanoTime() < deadline) {
+                    if (target.getBacklog() < (long) backlog * quantum) {
+                        target.submit(-1, quantum, () -> {
+                        });
+                    } else {
+                        LockSupport.parkNanos(100_000);
+                    }
+                }
+            }, "firehose"));
+        }
+        long intervalNanos = (long) (1_000_000_000L / quietRate);
+        for (int i = 0; i < quietRooms; i++) {
+            int room = i;
+            threads.add(new Thread(() -> {
+                // start spread out so the rooms don't all send at once
+                long next = System.nanoTime() + ThreadLocalRandom.current().nextLong(intervalNanos);
+                while (next < deadline) {
+                    LockSupport.parkNanos(next - System.nanoTime());
+                    long submitted = System.nanoTime();
+                    target.submit(room, quietRecipients,
+                            () -> quiet.record((System.nanoTime() - submitted) / 1000));
+                    next += intervalNanos;
+                }
+            }, "quiet-" + i));
+        }
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Thread.sleep(200); // let the last quiet messages land
+        return quiet;
+    }
+
+    // stands in for writing to that many recipients
+    private void spin(int recipients) {
+        long until = System.nanoTime() + recipients * sendNanos;
+        while (System.nanoTime() < until) {
+            Thread.onSpinWait();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package Project.bench;
+
+import Project.common.BinaryLogHandler;
+import Project.common.LogFileHandler;
+import Project.common.LoggerUtil;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Benchmarks what a log call costs the caller when its level is filtered out
+ * (BenchRunner turns logging off), comparing the ways a message can be built,
+ * the per-record work done once a level is enabled, and the text vs binary
+ * log files.
+ */
+public class LoggingBenchmarks {
+
+    public static void run(Bench bench) throws IOException {
+        LoggerUtil logger = LoggerUtil.INSTANCE;
+        String message = "hello <b>world</b>, this is a typical chat line with some formatting";
+        long senderId = 4242;
+        int[] recipients = { 1000 };
+
+        bench.run("logging.filtered.concat",
+                () -> {
+                    logger.fine("sending message to " + recipients[0] + " recipients: " + message);
+                    return null;
+                });
+        bench.run("logging.filtered.eagerFormat",
+                () -> {
+                    logger.fine(String.format("sending message to %s recipients: %s", recipients[0], message));
+                    return null;
+                });
+        bench.run("logging.filtered.formatArgs",
+                () -> {
+                    logger.fine("sending message to %s recipients: %s", recipients[0], message);
+                    return null;
+                });
+        bench.run("logging.filtered.supplier",
+                () -> {
+                    logger.fine(() -> String.format("Message from %s to %s avoided due to mute", senderId,
+                            recipients[0]));
+                    return null;
+                });
+        bench.run("logging.filtered.guarded",
+                () -> {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(String.format("sending message to %s recipients: %s", recipients[0], message));
+                    }
+                    return null;
+                });
+        records(bench, message);
+        sinks(bench, message);
+    }
+
+    /**
+     * What an enabled record costs: finding the calling class (done on the
+     * logging thread) and formatting it (done by the writer)
+     */
+    private static void records(Bench bench, String message) {
+        LoggerUtil.CustomFormatter formatter = new LoggerUtil.CustomFormatter();
+        LogRecord record = new LogRecord(Level.INFO, message);
+        record.setSourceClassName(LoggingBenchmarks.class.getName());
+        bench.run("logging.record.caller", LoggerUtil::getCallingClassName);
+        bench.run("logging.record.format", () -> formatter.format(record));
+    }
+
+    /**
+     * Writing a typical room record (format plus arguments, as the Room and
+     * ServerThread helpers log them) as text vs binary
+     */
+    private static void sinks(Bench bench, String message) throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "bench-logs");
+        dir.mkdirs();
+        LogRecord record = new LogRecord(Level.FINE, "Room[%s]: sending message to %s recipients: %s");
+        record.setSourceClassName("Project.server.Room");
+        record.setParameters(new Object[] { "lobby", 42, message });
+
+        LogFileHandler text = new LogFileHandler(new File(dir, "bench-%g.log").getPath(), 64L << 20, 1, false);
+        text.setFormatter(new LoggerUtil.CustomFormatter());
+        text.setLevel(Level.ALL);
+        BinaryLogHandler binary = new BinaryLogHandler(new File(dir, "bench-%g.blog").getPath(), 64L << 20, 1);
+        try {
+            bench.run("logging.sink.text", () -> {
+                text.publish(record);
+                return null;
+            });
+            bench.run("logging.sink.binary", () -> {
+                binary.publish(record);
+                return null;
+            });
+        } finally {
+            text.close();
+            binary.close();
+        }
+    }
+}
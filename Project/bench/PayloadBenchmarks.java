@@ -0,0 +1,127 @@
+package Project.bench;
+
+import Project.common.CompressedPayload;
+import Project.common.ConnectionPayload;
+import Project.common.DeliveryState;
+import Project.common.Payload;
+import Project.common.PayloadChannel;
+import Project.common.PayloadCodec;
+import Project.common.PayloadType;
+import Project.common.RetransmitBuffer;
+import Project.common.RoomResultsPayload;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmarks the cost of putting a Payload on/off the wire with the same
+ * ObjectOutputStream/ObjectInputStream pairing used by the client and server.
+ */
+public class PayloadBenchmarks {
+
+    public static void run(Bench bench) throws IOException {
+        Payload message = new Payload();
+        message.setPayloadType(PayloadType.MESSAGE);
+        message.setClientId(42);
+        message.setMessage("hello <b>world</b>, this is a typical chat line with some formatting");
+
+        ConnectionPayload connection = new ConnectionPayload();
+        connection.setPayloadType(PayloadType.ROOM_JOIN);
+        connection.setClientId(42);
+        connection.setClientName("benchmark-user");
+        connection.setMessage("lobby");
+        connection.setConnect(true);
+
+        RoomResultsPayload roomList = new RoomResultsPayload();
+        List<String> rooms = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            rooms.add("room-" + i);
+        }
+        roomList.setRooms(rooms);
+
+        benchmark(bench, "message", message);
+        benchmark(bench, "connection", connection);
+        benchmark(bench, "roomList100", roomList);
+        sequencing(bench, message);
+
+        Payload longMessage = new Payload();
+        longMessage.setPayloadType(PayloadType.MESSAGE);
+        longMessage.setClientId(42);
+        longMessage.setMessage("<b>release notes</b>: <i>" + "the quick brown fox jumps over the lazy dog, ".repeat(8)
+                + "</i><font color=\"red\">done</font>");
+        compression(bench, "message", message);
+        compression(bench, "longMessage", longMessage);
+        compression(bench, "roomList100", roomList);
+    }
+
+    /**
+     * Cost of PayloadCodec per payload. The ratio it buys is printed alongside
+     * since the harness only records time and allocation.
+     */
+    private static void compression(Bench bench, String name, Payload payload) throws IOException {
+        PayloadCodec encoder = new PayloadCodec();
+        bench.run("payloadCodec.encode." + name, () -> encoder.encode(payload));
+
+        PayloadCodec decoder = new PayloadCodec();
+        Payload encoded = new PayloadCodec().encode(payload);
+        bench.run("payloadCodec.decode." + name, () -> decoder.decode(encoded));
+        if (bench.isSelected("payloadCodec.encode." + name)) {
+            System.out.println(String.format(Locale.ROOT, "  %s: %s", name, encoded instanceof CompressedPayload
+                    ? String.format(Locale.ROOT, "%d -> %d bytes (ratio %.2f)", ((CompressedPayload) encoded).getLength(),
+                            ((CompressedPayload) encoded).getData().length, encoder.getRatio())
+                    : "sent uncompressed"));
+        }
+    }
+
+    /**
+     * Cost of the per-connection sequencing/retransmit bookkeeping
+     */
+    private static void sequencing(Bench bench, Payload payload) throws IOException {
+        RetransmitBuffer buffer = new RetransmitBuffer(DeliveryState.DEFAULT_BUFFER_SIZE);
+        long[] seq = { 0 };
+        bench.run("retransmitBuffer.addAndAck", () -> {
+            buffer.add(++seq[0], payload);
+            if (seq[0] % PayloadChannel.ACK_INTERVAL == 0) {
+                buffer.acknowledge(seq[0]);
+            }
+            return buffer;
+        });
+
+        PayloadChannel channel = new PayloadChannel(OutputStream.nullOutputStream(), null, new DeliveryState());
+        bench.run("payloadChannel.write.message", () -> {
+            channel.write(payload);
+            return channel;
+        });
+    }
+
+    private static void benchmark(Bench bench, String name, Payload payload) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(4096);
+        bench.run("payload.serialize." + name, () -> {
+            buffer.reset();
+            ObjectOutputStream out = new ObjectOutputStream(buffer);
+            out.writeObject(payload);
+            out.flush();
+            return buffer;
+        });
+
+        byte[] bytes = serialize(payload);
+        bench.run("payload.deserialize." + name, () -> {
+            ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+            return in.readObject();
+        });
+    }
+
+    private static byte[] serialize(Payload payload) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(payload);
+        }
+        return buffer.toByteArray();
+    }
+}
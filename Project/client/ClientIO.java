@@ -0,0 +1,80 @@
+package Project.client;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The threads every ClientSession in the process shares, so a session costs
+ * its socket's reader and little else.
+ * <p>
+ * Reading a socket blocks, so each connected session has a thread reading it
+ * (with a smaller stack than the default, chat.client.stackKb); payloads are
+ * written by tasks on the same pool only while there's something to write, and
+ * reconnect attempts run there too. Waiting (between pings, before the next
+ * reconnect attempt) is done by a single timer thread instead of parked
+ * threads. All threads are daemons.
+ * </p>
+ */
+enum ClientIO {
+    INSTANCE;
+
+    // a reader needs far less than the default (usually 1 MB), and there's one per session
+    private final long stackKb = Long.getLong("chat.client.stackKb", 256);
+    private final AtomicInteger threadCount = new AtomicInteger();
+    // readers, writers and reconnect attempts, grows with the number of sessions reading
+    private final ExecutorService threads = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(null, r, "client-io-" + threadCount.incrementAndGet(), stackKb * 1024);
+        thread.setDaemon(true);
+        return thread;
+    });
+    // short tasks only (they hold up every session's timers)
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "client-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Runs a task that may block (i.e., reading a socket or connecting)
+     *
+     * @param task
+     */
+    void execute(Runnable task) {
+        threads.execute(task);
+    }
+
+    /**
+     * @return runs OutboundQueue writes
+     */
+    Executor writers() {
+        return threads;
+    }
+
+    /**
+     * Runs a task that may block once the delay is up
+     *
+     * @param task
+     * @param delayMs
+     * @return to cancel it
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayMs) {
+        return timer.schedule(() -> threads.execute(task), delayMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a short, non-blocking task repeatedly on the timer thread
+     *
+     * @param task
+     * @param initialDelayMs
+     * @param delayMs        between the end of one run and the start of the next
+     * @return to cancel it
+     */
+    ScheduledFuture<?> scheduleWithFixedDelay(Runnable task, long initialDelayMs, long delayMs) {
+        return timer.scheduleWithFixedDelay(task, initialDelayMs, delayMs, TimeUnit.MILLISECONDS);
+    }
+}
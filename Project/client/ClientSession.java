@@ -0,0 +1,1434 @@
+package Project.client;
+
+import Project.client.Interfaces.IClientEvents;
+import Project.client.Interfaces.IConnectionEvents;
+import Project.client.Interfaces.ILatencyEvents;
+import Project.client.Interfaces.IMessageEvents;
+import Project.client.Interfaces.IRoomEvents;
+import Project.common.ConnectionPayload;
+import Project.common.DeliveryState;
+import Project.common.FilePayload;
+import Project.common.FileSender;
+import Project.common.LoggerUtil;
+import Project.common.MessageLog;
+import Project.common.OutboundQueue;
+import Project.common.Payload;
+import Project.common.PayloadCodec;
+import Project.common.PayloadChannel;
+import Project.common.PayloadType;
+import Project.common.PingPayload;
+import Project.common.RollPayload;
+import Project.common.RoomMessagePayload;
+import Project.common.RoomResultsPayload;
+import Project.common.SearchPayload;
+import Project.common.TextFX;
+import Project.common.TextFX.Color;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.net.UnknownHostException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One user's connection to a server: who we are, the room we're in and who's
+ * in it, the room's history on disk, the latency probes and getting the
+ * session back after the connection drops.
+ * <p>
+ * Sessions don't share any state, so a process can have as many as it wants
+ * (i.e., a bot bridging rooms, or a load test); the threads they need come
+ * from {@link ClientIO}. The UI's session is the one behind {@link Client}.
+ * Events are reported to the callback the session was made with, on the
+ * thread reading its socket. LoggerUtil has to be configured before the first
+ * session connects, as it is by Client.
+ * </p>
+ */
+public class ClientSession {
+    private static final long FLUSH_TIMEOUT_MS = 500; // how long closing waits for queued payloads
+    // reconnecting after a dropped connection doubles the wait from the base up to the max, see reconnect()
+    private static final long RECONNECT_BASE_MS = 250;
+    private static final long RECONNECT_MAX_MS = Long.getLong("chat.client.reconnect.maxDelayMs", 8_000);
+    // the server only keeps a dropped session for a minute, there's no resuming it after that
+    private static final long RECONNECT_WINDOW_MS = Long.getLong("chat.client.reconnect.windowMs", 60_000);
+    // sends held while resuming, past this they fail
+    private static final int RESUME_QUEUE_LIMIT = Integer.getInteger("chat.client.resumeQueue", 256);
+    // each room's messages are kept on disk under here (not at all if empty), see openRoomLog()
+    private static final String HISTORY_DIR = System.getProperty("chat.client.history", "history");
+    private static final int HISTORY_LINES = Integer.getInteger("chat.client.historyLines", 100);
+    // latency probes, see sendPing()
+    private static final long PING_INTERVAL_MS = Long.getLong("chat.client.pingMs", 5_000);
+    private static final long SLOW_RTT_MS = Long.getLong("chat.client.slowRttMs", 500);
+
+    private Socket server = null;
+    private PayloadChannel channel = null;
+    // everything we send goes through here so no caller (i.e., the Swing EDT) ever blocks on the socket
+    private volatile OutboundQueue outbound = null;
+    // kept across a dropped connection so the next connect can resume the session
+    private DeliveryState deliveryState = null;
+    private volatile String sessionToken = null;
+    private String sessionName = null;
+    private String host = null;
+    private int port;
+    private volatile boolean isResuming = false; // reconnected, waiting to be back in our room
+    // sends made while resuming, in order, sent once we're back in our room; guarded by itself
+    private final ArrayDeque<HeldSend> heldSends = new ArrayDeque<>();
+    private long droppedAt = 0; // when the connection we're trying to resume dropped, 0 if it hasn't
+    // the room we're in and its last message we got, so a resumed session can catch up on what it missed
+    private String currentRoom = null;
+    private long lastRoomSeq = 0;
+    private volatile MessageLog roomLog = null; // currentRoom's messages, null if it couldn't be opened
+    private ScheduledFuture<?> pingTask = null;
+    // smoothed round trip and its variation (as TCP estimates them), -1 until the first reply; reader thread only
+    private double smoothedRttMs = -1;
+    private double rttVarianceMs = 0;
+    static final Pattern ipAddressPattern = Pattern
+            .compile("/connect\\s+(\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}\\.\\d{1,3}:\\d{3,5})");
+    static final Pattern localhostPattern = Pattern.compile("/connect\\s+(localhost:\\d{3,5})");
+    private volatile boolean isRunning = true; // volatile for thread-safe visibility
+    private ConcurrentHashMap<Long, ClientData> knownClients = new ConcurrentHashMap<>();
+    // lower-cased name to id index of knownClients for constant time name lookups
+    private ConcurrentHashMap<String, Long> knownClientIds = new ConcurrentHashMap<>();
+    private ClientData myData;
+    private final FileTransfers fileTransfers = new FileTransfers();
+
+    // constants (used to reduce potential types when using them in code)
+    private final String COMMAND_CHARACTER = "/";
+    private final String CREATE_ROOM = "createroom";
+    private final String JOIN_ROOM = "joinroom";
+    private final String LIST_ROOMS = "listrooms";
+    private final String DISCONNECT = "disconnect";
+    private final String LOGOFF = "logoff";
+    private final String LOGOUT = "logout";
+    private final String SINGLE_SPACE = " ";
+    private long clientId;
+
+    // callback that updates the UI
+    private final IClientEvents events;
+    private final boolean isEchoing; // events are also printed to the console
+
+    /**
+     * Stands in for a missing callback so every event can be passed on without
+     * checking
+     */
+    private static class NoEvents implements IConnectionEvents, IMessageEvents, IRoomEvents {
+        @Override
+        public void onClientDisconnect(long id, String clientName) {
+        }
+
+        @Override
+        public void onReceiveClientId(long id) {
+        }
+
+        @Override
+        public void onSyncClient(long id, String clientName) {
+        }
+
+        @Override
+        public void onResetUserList() {
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delayMs) {
+        }
+
+        @Override
+        public void onReconnectFinished(boolean isResumed) {
+        }
+
+        @Override
+        public void onMessageReceive(long id, String message) {
+        }
+
+        @Override
+        public void onReceiveHistory(String roomName, List<String> lines) {
+        }
+
+        @Override
+        public void onSearchResults(String query, List<String> results) {
+        }
+
+        @Override
+        public void onReceiveRoomList(long requestId, int offset, int total, List<String> rooms, String message) {
+        }
+
+        @Override
+        public void onRoomAction(long clientId, String clientName, String roomName, boolean isJoin) {
+        }
+    }
+
+    /**
+     * @param events gets the session's events, or null to ignore them; it's
+     *               cast to the Project.client.Interfaces it needs, so it
+     *               should implement IConnectionEvents, IMessageEvents and
+     *               IRoomEvents (and ILatencyEvents to get latency updates)
+     */
+    public ClientSession(IClientEvents events) {
+        this(events, false);
+    }
+
+    ClientSession(IClientEvents events, boolean isEchoing) {
+        this.events = events != null ? events : new NoEvents();
+        this.isEchoing = isEchoing;
+        myData = new ClientData();
+    }
+
+    public boolean isConnected() {
+        if (server == null) {
+            return false;
+        }
+        // https://stackoverflow.com/a/10241044
+        // Note: these check the client's end of the socket connect; therefore they
+        // don't really help determine if the server had a problem
+        // and is just for lesson's sake
+        return server.isConnected() && !server.isClosed() && !server.isInputShutdown() && !server.isOutputShutdown();
+    }
+    public long getClientId() {
+        return clientId;
+    }
+
+    /**
+     * Takes an IP address and a port to attempt a socket connection to a server.
+     * 
+     * @param address
+     * @param port
+     * @return true if connection was successful
+     */
+    @Deprecated
+    private boolean connect(String address, int port) {
+        this.host = address;
+        this.port = port;
+        try {
+            openChannel(address, port);
+            LoggerUtil.INSTANCE.info("Client connected");
+            ClientIO.INSTANCE.execute(this::listenToServer);
+        } catch (UnknownHostException e) {
+            LoggerUtil.INSTANCE.warning("Unknown host", e);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.severe("IOException", e);
+        }
+        return isConnected();
+    }
+
+    /**
+     * Takes an ip address and a port to attempt a socket connection to a server.
+     * 
+     * @param address
+     * @param port
+     * @param username
+     * @return true if connection was successful
+     */
+    public boolean connect(String address, int port, String username) {
+        myData.setClientName(username);
+        this.host = address;
+        this.port = port;
+        try {
+            openChannel(address, port);
+            LoggerUtil.INSTANCE.info("Client connected");
+            ClientIO.INSTANCE.execute(this::listenToServer);
+            sendClientName();
+        } catch (UnknownHostException e) {
+            e.printStackTrace();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        return isConnected();
+    }
+
+    /**
+     * Opens the socket and the framed channel over it. The previous delivery
+     * state is kept if there's a session to resume so its unacknowledged
+     * payloads can be replayed.
+     * 
+     * @param address
+     * @param port
+     * @throws IOException
+     */
+    private void openChannel(String address, int port) throws IOException {
+        if (sessionToken == null || deliveryState == null
+                || !Objects.equals(myData.getClientName(), sessionName)) {
+            sessionToken = null;
+            failUnwritten();
+            deliveryState = new DeliveryState();
+        }
+        Socket socket = new Socket(address, port);
+        try {
+            // the channel flushes whole payloads, holding a small one back for the previous one's ack only adds lag
+            socket.setTcpNoDelay(true);
+            // channel to send to and listen to the server
+            channel = new PayloadChannel(socket.getOutputStream(), socket.getInputStream(), deliveryState);
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        server = socket;
+        outbound = new OutboundQueue(channel, e -> {
+            LoggerUtil.INSTANCE.severe("Socket send exception", e);
+            try {
+                socket.close(); // the reader notices and cleans up
+            } catch (IOException ignored) {
+            }
+        }, ClientIO.INSTANCE.writers());
+    }
+
+    /**
+     * <p>
+     * Check if the string contains the <i>connect</i> command
+     * followed by an IP address and port or localhost and port.
+     * </p>
+     * <p>
+     * Example format: 123.123.123.123:3000
+     * </p>
+     * <p>
+     * Example format: localhost:3000
+     * </p>
+     * https://www.w3schools.com/java/java_regex.asp
+     * 
+     * @param text
+     * @return true if the text is a valid connection command
+     */
+    private boolean isConnection(String text) {
+        Matcher ipMatcher = ipAddressPattern.matcher(text);
+        Matcher localhostMatcher = localhostPattern.matcher(text);
+        return ipMatcher.matches() || localhostMatcher.matches();
+    }
+
+    /**
+     * Controller for handling various text commands.
+     * <p>
+     * Add more here as needed
+     * </p>
+     * 
+     * @param text
+     * @return true if the text was a command or triggered a command
+     * @throws IOException
+     */
+    boolean processClientCommand(String text) throws IOException {
+        if (text.startsWith("/mute")) { // jah89 07-20-2024
+            String targetName = text.replace("/mute", "").trim();
+            if (targetName.isEmpty() || getClientIdByName(targetName) == ClientData.DEFAULT_CLIENT_ID) {
+                System.out.println("User not found.");
+            } else {
+                sendMute(targetName);
+            }
+            return true;
+        } else if (text.startsWith("/unmute")) { // jah89 07-20-2024
+            String targetName = text.replace("/unmute", "").trim();
+            if (targetName.isEmpty() || getClientIdByName(targetName) == ClientData.DEFAULT_CLIENT_ID) {
+                System.out.println("User not found.");
+            } else {
+                sendUnmute(targetName);
+            }
+            return true;
+        }
+        if (isConnection(text)) {
+            if (myData.getClientName() == null || myData.getClientName().length() == 0) {
+                System.out.println(TextFX.colorize("Name must be set first via /name command", Color.RED));
+                return true;
+            }
+            // replaces multiple spaces with a single space
+            // splits on the space after connect (gives us host and port)
+            // splits on : to get host as index 0 and port as index 1
+            String[] parts = text.trim().replaceAll(" +", " ").split(" ")[1].split(":");
+            connect(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+            sendClientName();
+            return true;
+        } else if ("/quit".equalsIgnoreCase(text)) {
+            close();
+            LoggerUtil.INSTANCE.flush(); // the log writer is a daemon thread
+            return true;
+        } else if (text.startsWith("/name")) {
+            myData.setClientName(text.replace("/name", "").trim());
+            System.out.println(TextFX.colorize("Set client name to " + myData.getClientName(), Color.CYAN));
+            return true;
+        } else if (text.equalsIgnoreCase("/users")) {
+            System.out.println(
+                    String.join("\n", knownClients.values().stream()
+                            .map(c -> String.format("%s(%s)", c.getClientName(), c.getClientId())).toList()));
+            return true;
+        } else if (text.equalsIgnoreCase("/rollstats")) {
+            Payload p = new Payload();
+            p.setPayloadType(PayloadType.ROLL_STATS);
+            send(p);
+            return true;
+        } else if (text.startsWith("/roll")) { // Handle roll jah90 07/03/2024
+            handleRollCommand(text);
+            return true;
+        } else if (text.equalsIgnoreCase("/flip")) { // Handle flip jah89
+            handleFlipCommand();
+            return true;
+        } else if (text.startsWith("/sendfile")) {
+            String path = text.replace("/sendfile", "").trim();
+            if (path.isEmpty()) {
+                System.out.println(TextFX.colorize("Usage: /sendfile <path>", Color.RED));
+            } else {
+                sendFile(new File(path));
+            }
+            return true;
+        } else { // logic previously from Room.java
+            // decided to make this as separate block to separate the core client-side items
+            // vs the ones that generally are used after connection and that send requests
+            if (text.startsWith(COMMAND_CHARACTER)) {
+                boolean wasCommand = false;
+                String fullCommand = text.replace(COMMAND_CHARACTER, "");
+                String part1 = fullCommand;
+                String[] commandParts = part1.split(SINGLE_SPACE, 2);// using limit so spaces in the command value
+                                                                     // aren't split
+                final String command = commandParts[0];
+                final String commandValue = commandParts.length >= 2 ? commandParts[1] : "";
+                switch (command) {
+                    case CREATE_ROOM:
+                        sendCreateRoom(commandValue);
+                        wasCommand = true;
+                        break;
+                    case JOIN_ROOM:
+                        sendJoinRoom(commandValue);
+                        wasCommand = true;
+                        break;
+                    case LIST_ROOMS:
+                        sendListRooms(commandValue);
+                        wasCommand = true;
+                        break;
+                    // Note: these are to disconnect, they're not for changing rooms
+                    case DISCONNECT:
+                    case LOGOFF:
+                    case LOGOUT:
+                        sendDisconnect();
+                        wasCommand = true;
+                        break;
+                }
+                return wasCommand;
+            }
+        }
+        return false;
+    }
+
+    public long getMyClientId() {
+        return myData.getClientId();
+    }
+    // send methods to pass data to the ServerThread
+
+    // The public send methods only queue the payload and return right away; the
+    // future completes on the writer thread once it's written (or fails if it
+    // can't be), so UI callbacks need to hop back to the EDT themselves.
+
+    /**
+     * Sends a search to the server-side to get a list of potentially matching Rooms
+     * 
+     * @param roomQuery optional partial match search String
+     * @return completed once the request is written
+     */
+    public CompletableFuture<Void> sendListRooms(String roomQuery) {
+        return sendListRooms(roomQuery, 0, 0, RoomResultsPayload.MAX_PAGE);
+    }
+
+    /**
+     * Asks for a page of a room search; the answer carries the same request id
+     * so answers to searches that were replaced in the meantime can be told
+     * apart
+     * 
+     * @param roomQuery part of the room name, empty for all rooms
+     * @param requestId the search's id
+     * @param offset    first (sorted) match wanted
+     * @param limit     matches wanted
+     * @return completed once the request is written
+     */
+    public CompletableFuture<Void> sendListRooms(String roomQuery, long requestId, int offset, int limit) {
+        RoomResultsPayload p = new RoomResultsPayload();
+        p.setMessage(roomQuery);
+        p.setRequestId(requestId);
+        p.setOffset(offset);
+        p.setLimit(limit);
+        return sendAsync(p);
+    }
+
+    /**
+     * Sends the room name we intend to create
+     * 
+     * @param room
+     * @return completed once the request is written
+     */
+    public CompletableFuture<Void> sendCreateRoom(String room) {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.ROOM_CREATE);
+        p.setMessage(room);
+        return sendAsync(p);
+    }
+
+    /**
+     * Sends the room name we intend to join
+     * 
+     * @param room
+     * @return completed once the request is written
+     */
+    public CompletableFuture<Void> sendJoinRoom(String room) {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.ROOM_JOIN);
+        p.setMessage(room);
+        return sendAsync(p);
+    }
+
+    /**
+     * Tells the server-side we want to disconnect
+     * 
+     * @return completed once the request is written
+     */
+    public CompletableFuture<Void> sendDisconnect() {
+        sessionToken = null; // deliberate disconnects aren't resumed
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.DISCONNECT);
+        return sendAsync(p);
+    }
+
+    /**
+     * Sends desired message over the socket
+     * 
+     * @param message
+     * @return completed once the message is written (right away for
+     *         commands handled locally)
+     */
+    public CompletableFuture<Void> sendMessage(String message) {
+        try {
+            if (processClientCommand(message)) {
+                return CompletableFuture.completedFuture(null);
+            }
+        } catch (IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.MESSAGE);
+        p.setMessage(message);
+        return sendAsync(p);
+    }
+
+    /**
+     * Shares a file with the current room. Only the offer is sent here; chunks
+     * follow as the server acknowledges them, interleaved with other traffic.
+     * 
+     * @param file
+     * @throws IOException
+     */
+    public void sendFile(File file) throws IOException {
+        try {
+            FileSender upload = fileTransfers.upload(file, myData.getClientId(), this::send);
+            LoggerUtil.INSTANCE.info("Offered " + upload);
+        } catch (IOException e) {
+            System.out.println(TextFX.colorize("Can't send file: " + e.getMessage(), Color.RED));
+            throw e;
+        }
+    }
+
+    /**
+     * Sends chosen client name after socket handshake
+     * 
+     * @throws IOException
+     */
+    private void sendClientName() throws IOException {
+        if (myData.getClientName() == null || myData.getClientName().length() == 0) {
+            System.out.println(TextFX.colorize("Name must be set first via /name command", Color.RED));
+            return;
+        }
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setClientName(myData.getClientName());
+        cp.setSessionToken(sessionToken);
+        cp.setCompression(PayloadCodec.ENABLED);
+        send(cp);
+    }
+
+    /**
+     * Generic send that queues any Payload for the writer thread to pass over
+     * the socket (to ServerThread)
+     * 
+     * @param p
+     * @throws IOException if it can't be queued
+     */
+    private void send(Payload p) throws IOException {
+        OutboundQueue queue = outbound;
+        if (queue == null || !queue.offer(p)) {
+            IOException e = notQueued(queue);
+            LoggerUtil.INSTANCE.severe("Socket send exception", e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param p
+     * @return completed (on the writer thread) once the payload is written,
+     *         failed if it can't be queued or the connection drops first
+     */
+    private CompletableFuture<Void> sendAsync(Payload p) {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        synchronized (heldSends) {
+            // held until we know the server still has the session, and behind any held before it
+            if (isResuming || !heldSends.isEmpty()) {
+                if (heldSends.size() >= RESUME_QUEUE_LIMIT) {
+                    written.completeExceptionally(new IOException("Reconnecting, too many messages waiting"));
+                } else {
+                    heldSends.add(new HeldSend(p, written));
+                }
+                return written;
+            }
+        }
+        offer(p, written);
+        return written;
+    }
+
+    private void offer(Payload p, CompletableFuture<Void> written) {
+        OutboundQueue queue = outbound;
+        if (queue == null || !queue.offer(p, written)) {
+            written.completeExceptionally(notQueued(queue));
+        }
+    }
+
+    /**
+     * A send made while resuming
+     */
+    private static class HeldSend {
+        private final Payload payload;
+        private final CompletableFuture<Void> written;
+
+        private HeldSend(Payload payload, CompletableFuture<Void> written) {
+            this.payload = payload;
+            this.written = written;
+        }
+    }
+
+    // back in our room: the held sends go out in order, ahead of any new ones
+    private void sendHeld() {
+        synchronized (heldSends) {
+            if (!heldSends.isEmpty()) {
+                LoggerUtil.INSTANCE.info("Sending %s payloads held while reconnecting", heldSends.size());
+            }
+            HeldSend held;
+            while ((held = heldSends.poll()) != null) {
+                offer(held.payload, held.written);
+            }
+        }
+    }
+
+    private void failHeld(String reason) {
+        List<HeldSend> failed;
+        synchronized (heldSends) {
+            failed = new ArrayList<>(heldSends);
+            heldSends.clear();
+        }
+        IOException e = new IOException(reason);
+        for (HeldSend held : failed) {
+            held.written.completeExceptionally(e);
+        }
+    }
+
+    private static IOException notQueued(OutboundQueue queue) {
+        return new IOException(queue == null ? "Not connected" : "Not connected or too many messages waiting to be sent");
+    }
+    // end send methods
+
+    /**
+     * Listens for messages from the server
+     */
+    private void listenToServer() {
+        try {
+            while (isRunning && isConnected()) {
+                Payload fromServer = channel.read(); // blocking read
+                if (fromServer != null) {
+                    // System.out.println(fromServer);
+                    processPayload(fromServer);
+                } else {
+                    LoggerUtil.INSTANCE.info("Server disconnected");
+                    break;
+                }
+            }
+        } catch (ClassCastException | ClassNotFoundException cce) {
+            LoggerUtil.INSTANCE.severe("Error reading object as specified type: ", cce);
+        } catch (IOException e) {
+            if (isRunning) {
+                LoggerUtil.INSTANCE.info("Connection dropped", e);
+            }
+        } finally {
+            if (isResumable()) {
+                closeSocket(); // keep who we are and where we were for the reconnect
+            } else {
+                closeServerConnection();
+            }
+        }
+        LoggerUtil.INSTANCE.info("listenToServer thread stopped");
+        if (isResumable()) {
+            if (droppedAt == 0) {
+                droppedAt = System.currentTimeMillis();
+            }
+            isResuming = true;
+            reconnect(1, RECONNECT_BASE_MS);
+        }
+    }
+
+    // the connection dropped rather than being closed by either side
+    private boolean isResumable() {
+        return isRunning && sessionToken != null && host != null;
+    }
+
+    /**
+     * Tries to get the session back after the connection dropped. The wait
+     * between attempts doubles up to RECONNECT_MAX_MS and is jittered so clients
+     * dropped together (i.e., by a server restart) don't all come back at once.
+     * Once connected, the server's CLIENT_ID says whether the session resumed.
+     * Gives up once the server won't have the session any more.
+     * <p>
+     * Nothing waits on a thread of its own: the attempt is scheduled, and the
+     * thread that makes it goes on to read the new connection.
+     * </p>
+     * 
+     * @param attempt
+     * @param delay   wait before this attempt, before jitter
+     */
+    private void reconnect(int attempt, long delay) {
+        long wait = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        if (!isResumable() || System.currentTimeMillis() + wait - droppedAt > RECONNECT_WINDOW_MS) {
+            giveUpReconnecting();
+            return;
+        }
+        ((IConnectionEvents) events).onReconnecting(attempt, wait);
+        ClientIO.INSTANCE.schedule(() -> {
+            if (!isResumable()) {
+                giveUpReconnecting();
+                return;
+            }
+            try {
+                openChannel(host, port);
+                LoggerUtil.INSTANCE.info("Reconnected to %s:%s (attempt %s), resuming session", host, port, attempt);
+                sendClientName();
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.info("Reconnect attempt %s failed: %s", attempt, e.getMessage());
+                reconnect(attempt + 1, Math.min(delay * 2, RECONNECT_MAX_MS));
+                return;
+            }
+            listenToServer();
+        }, wait);
+    }
+
+    private void giveUpReconnecting() {
+        if (!isRunning || sessionToken == null) {
+            return; // closed or disconnected on purpose meanwhile
+        }
+        LoggerUtil.INSTANCE.warning("Giving up on reconnecting to %s:%s", host, port);
+        isResuming = false;
+        droppedAt = 0;
+        sessionToken = null;
+        long myId = myData.getClientId();
+        String myName = myData.getClientName();
+        ((IConnectionEvents) events).onReconnectFinished(false);
+        ((IConnectionEvents) events).onClientDisconnect(myId, myName);
+        closeServerConnection();
+    }
+
+    /**
+     * Closes the connection and associated resources for good, without
+     * telling the server (see {@link #sendDisconnect()})
+     */
+    public void close() {
+        isRunning = false;
+        sessionToken = null;
+        fileTransfers.closeAll();
+        closeServerConnection();
+        LoggerUtil.INSTANCE.info("Session closed");
+    }
+
+    boolean isRunning() {
+        return isRunning;
+    }
+
+    /**
+     * Closes the server connection and associated resources
+     */
+    private void closeServerConnection() {
+        myData.reset();
+        clearKnownClients();
+        currentRoom = null;
+        lastRoomSeq = 0;
+        closeRoomLog();
+        closeSocket();
+        failUnwritten(); // after the socket, whatever was still queued has been buffered by now
+        failHeld("Not connected");
+    }
+
+    // the delivery state won't be resumed, so what it never wrote won't be either
+    private void failUnwritten() {
+        if (deliveryState != null) {
+            deliveryState.failUnwritten(new IOException("Not connected"));
+        }
+    }
+
+    /**
+     * Closes the socket and its channel, keeping the session (who we are, our
+     * room and its users) for a reconnect
+     */
+    private void closeSocket() {
+        stopPinging();
+        OutboundQueue queue = outbound;
+        if (queue != null) {
+            queue.close(FLUSH_TIMEOUT_MS); // let what's queued (i.e., a disconnect) go out first
+            LoggerUtil.INSTANCE.info("Outbound " + queue);
+        }
+        if (channel != null) {
+            LoggerUtil.INSTANCE.info("Closing channel " + channel.getState());
+            if (channel.getCodecIfUsed() != null) {
+                LoggerUtil.INSTANCE.info("Compression " + channel.getCodecIfUsed());
+            }
+            channel.close();
+        }
+        try {
+            if (server != null) {
+                LoggerUtil.INSTANCE.info("Closing connection");
+                server.close();
+                LoggerUtil.INSTANCE.info("Closed socket");
+            }
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info("Error closing socket", e);
+        }
+    }
+
+    /**
+     * Handles received message from the ServerThread
+     * 
+     * @param payload
+     */
+    private void processPayload(Payload payload) {
+        try {
+            if (payload.getPayloadType() == PayloadType.PING) {
+                LoggerUtil.INSTANCE.fine("Received Payload: %s", payload); // every few seconds, see processPing()
+            } else {
+                LoggerUtil.INSTANCE.info("Received Payload: " + payload);
+            }
+            switch (payload.getPayloadType()) {
+                case CLIENT_ID: // get id assigned
+                    ConnectionPayload cp = (ConnectionPayload) payload;
+                    channel.setCompression(cp.isCompression());
+                    // a resumed session keeps its token (ids alone don't tell, a restarted server reuses them)
+                    if (sessionToken != null && !sessionToken.equals(cp.getSessionToken())) {
+                        // not resumed (server restarted or the session expired), the server numbers from 1 again
+                        channel.restart();
+                        deliveryState = channel.getState();
+                        if (isResuming) {
+                            processSessionLost();
+                        }
+                    }
+                    processSession(cp.getSessionToken(), cp.getClientName());
+                    processClientData(cp.getClientId(), cp.getClientName());
+                    break;
+                case SYNC_CLIENT: // silent add
+                    cp = (ConnectionPayload) payload;
+                    processClientSync(cp.getClientId(), cp.getClientName());
+                    break;
+                case DISCONNECT: // remove a disconnected client (mostly for the specific message vs leaving a room)
+                    cp = (ConnectionPayload) payload;
+                    processDisconnect(cp.getClientId(), cp.getClientName());
+                    // note: we want this to cascade
+                case ROOM_JOIN: // add/remove client info from known clients
+                    cp = (ConnectionPayload) payload;
+                    processRoomAction(cp.getClientId(), cp.getClientName(), cp.getMessage(), cp.isConnect());
+                    break;
+                case ROOM_LIST:
+                    processRoomsList((RoomResultsPayload) payload);
+                    break;
+                case MESSAGE: // displays a received message
+                    if (payload instanceof RoomMessagePayload) {
+                        // catch-up messages come after newer ones, so keep the highest
+                        lastRoomSeq = Math.max(lastRoomSeq, ((RoomMessagePayload) payload).getRoomSeq());
+                    }
+                    processMessage(payload.getClientId(), payload.getMessage());
+                    break;
+                case ROLL:
+                    RollPayload rollPayload = (RollPayload) payload;
+                    processRollPayload(rollPayload);
+                    break;
+                case FLIP:
+                    processFlipPayload(payload);
+                    break;
+                case PING:
+                    processPing((PingPayload) payload);
+                    break;
+                case SEARCH:
+                    SearchPayload sp = (SearchPayload) payload;
+                    ((IMessageEvents) events).onSearchResults(sp.getMessage(), sp.getResults());
+                    break;
+                case MUTE_STATUS: // handle mute status update // jah89 07-27-2024
+                    handleMuteStatus(payload);
+                    break;
+                case FILE_OFFER:
+                case FILE_CHUNK:
+                case FILE_ACK:
+                    processFilePayload((FilePayload) payload);
+                    break;
+                default:
+                    break;
+            }
+        } catch (Exception e) {
+            LoggerUtil.INSTANCE.severe("Could not process Payload: " + payload, e);
+        }
+    }
+    
+    /**
+     * Handles both directions of file sharing: offers/chunks of files shared with
+     * us and acks for our own uploads
+     * 
+     * @param fp
+     * @throws IOException
+     */
+    private void processFilePayload(FilePayload fp) throws IOException {
+        switch (fp.getPayloadType()) {
+            case FILE_OFFER:
+                FilePayload ack = fileTransfers.onOffer(fp);
+                send(ack);
+                if (ack.getOffset() >= 0) {
+                    processFileDownloaded(fp);
+                }
+                break;
+            case FILE_CHUNK:
+                ack = fileTransfers.onChunk(fp);
+                if (ack != null) {
+                    send(ack);
+                    processFileDownloaded(fp);
+                }
+                break;
+            case FILE_ACK:
+                FileSender upload = fileTransfers.onAck(fp, this::send);
+                if (upload != null) {
+                    String message = upload.isCancelled()
+                            ? String.format("Couldn't send %s: %s", upload.getFileName(), fp.getMessage())
+                            : String.format("Uploaded %s (%d bytes)", upload.getFileName(), upload.getSize());
+                    echo(TextFX.colorize(message, upload.isCancelled() ? Color.RED : Color.CYAN));
+                    ((IMessageEvents) events).onMessageReceive(ClientData.DEFAULT_CLIENT_ID, message);
+                }
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void processFileDownloaded(FilePayload fp) throws IOException {
+        Path saved = fileTransfers.complete(fp.getTransferId());
+        if (saved != null) {
+            String message = String.format("%s shared %s, saved to %s", getClientNameFromId(fp.getClientId()),
+                    saved.getFileName(), saved.toAbsolutePath());
+            echo(TextFX.colorize(message, Color.CYAN));
+            ((IMessageEvents) events).onMessageReceive(ClientData.DEFAULT_CLIENT_ID, message);
+        }
+    }
+
+    // jah89 07-27-2024
+    private void handleMuteStatus(Payload payload) {
+        long clientId = payload.getClientId();
+        boolean isMuted = "MUTED".equals(payload.getMessage());
+        if (events instanceof ClientUI) {
+            ((ClientUI) events).updateUserStatus(clientId, isMuted, false);
+        }
+    }
+    /**
+     * Processes a RollPayload object received from the server.
+     * 
+     * @param rollPayload The RollPayload object.
+     */
+    private void processRollPayload(RollPayload rollPayload) {
+        // Extract roll details from rollPayload and display them
+        String message = rollPayload.getMessage();
+        echo(TextFX.colorize(message, Color.BLUE));
+        record(rollPayload.getClientId(), message);
+        // invoke onMessageReceive callback
+        ((IMessageEvents) events).onMessageReceive(rollPayload.getClientId(), message);
+    }
+
+    /**
+     * Processes a flip payload received from the server.
+     * 
+     * @param flipPayload The flip payload object.
+     */
+    private void processFlipPayload(Payload flipPayload) {
+        // Extract flip result from flipPayload and display it
+        String message = flipPayload.getMessage();
+        echo(TextFX.colorize(message, Color.BLUE));
+        record(flipPayload.getClientId(), message);
+        // invoke onMessageReceive callback
+        ((IMessageEvents) events).onMessageReceive(flipPayload.getClientId(), message);
+    }
+
+    /**
+     * Returns the ClientName of a specific Client by ID.
+     * 
+     * @param id
+     * @return the name, or Room if id is -1, or [Unknown] if failed to find
+     */
+    public String getClientNameFromId(long id) {
+        if (id == ClientData.DEFAULT_CLIENT_ID) {
+            return "Room";
+        }
+        if (knownClients.containsKey(id)) {
+            return knownClients.get(id).getClientName();
+        }
+        return "[Unknown]";
+    }
+
+    private void echo(String text) {
+        if (isEchoing) {
+            System.out.println(text);
+        }
+    }
+
+    // payload processors
+    private void processRoomsList(RoomResultsPayload rrp) {
+        List<String> rooms = rrp.getRooms();
+        // invoke onReceiveRoomList callback
+        ((IRoomEvents) events).onReceiveRoomList(rrp.getRequestId(), rrp.getOffset(), rrp.getTotal(), rooms,
+                rrp.getMessage());
+        if (rrp.getOffset() > 0) {
+            return; // further pages are only for the UI scrolling through them
+        }
+        if (rooms == null || rooms.size() == 0) {
+            echo(
+                    TextFX.colorize("No rooms found matching your query",
+                            Color.RED));
+            return;
+        }
+        echo(TextFX.colorize(String.format("Room Results (%d of %d):", rooms.size(), rrp.getTotal()),
+                Color.PURPLE));
+        echo(
+                String.join("\n", rooms));
+
+    }
+
+    private void processDisconnect(long clientId, String clientName) {
+        // invoke onClientDisconnect callback
+        ((IConnectionEvents) events).onClientDisconnect(clientId, clientName);
+        echo(
+                TextFX.colorize(String.format("*%s disconnected*",
+                        clientId == myData.getClientId() ? "You" : clientName),
+                        Color.RED));
+        if (clientId == myData.getClientId()) {
+            sessionToken = null; // the server ended it, nothing to resume
+            closeServerConnection();
+        }
+    }
+
+    /**
+     * Remembers the resume token and re-sends anything the server didn't get
+     * before a previous connection dropped
+     * 
+     * @param token
+     * @param clientName
+     * @throws IOException
+     */
+    private void processSession(String token, String clientName) throws IOException {
+        sessionToken = token;
+        sessionName = clientName;
+        if (deliveryState.getPending() > 0) {
+            LoggerUtil.INSTANCE.info("Replaying unacknowledged payloads " + deliveryState);
+            channel.replay();
+        }
+        fileTransfers.resumeUploads(this::send);
+        startPinging();
+    }
+
+    // (re)starts the latency probes for this connection, the estimates start over with it
+    private synchronized void startPinging() {
+        stopPinging();
+        smoothedRttMs = -1;
+        rttVarianceMs = 0;
+        if (PING_INTERVAL_MS > 0) {
+            // not right away, the first exchanges of a connection are slower than it is
+            pingTask = ClientIO.INSTANCE.scheduleWithFixedDelay(this::sendPing, Math.min(1_000, PING_INTERVAL_MS),
+                    PING_INTERVAL_MS);
+        }
+    }
+
+    private synchronized void stopPinging() {
+        if (pingTask != null) {
+            pingTask.cancel(false);
+            pingTask = null;
+        }
+    }
+
+    /**
+     * Sends a latency probe; it goes through the same queues (ours and the
+     * server's) as chat, so the round trip is what a message would see
+     */
+    private void sendPing() {
+        if (isResuming || !isConnected()) {
+            return;
+        }
+        PingPayload p = new PingPayload();
+        p.setSentAt(System.nanoTime());
+        sendAsync(p); // a failed one just isn't answered
+    }
+
+    /**
+     * Folds a probe's round trip into the smoothed estimates (RFC 6298 weights:
+     * 1/8 for the average, 1/4 for the variation) and reports them
+     * 
+     * @param pong
+     */
+    private void processPing(PingPayload pong) {
+        double rttMs = (System.nanoTime() - pong.getSentAt()) / 1_000_000.0;
+        double serverMs = pong.getServerNanos() / 1_000_000.0;
+        if (smoothedRttMs < 0) {
+            smoothedRttMs = rttMs;
+            rttVarianceMs = rttMs / 2;
+        } else {
+            rttVarianceMs = 0.75 * rttVarianceMs + 0.25 * Math.abs(smoothedRttMs - rttMs);
+            smoothedRttMs = 0.875 * smoothedRttMs + 0.125 * rttMs;
+        }
+        if (rttMs >= SLOW_RTT_MS) {
+            // with the server's breakdown, to compare against its log at the same time
+            LoggerUtil.INSTANCE.info("Slow round trip %.1f ms: server %.1f ms (room %.1f ms), average %.1f ms",
+                    rttMs, serverMs, pong.getRoomNanos() / 1_000_000.0, smoothedRttMs);
+        } else {
+            LoggerUtil.INSTANCE.fine("Round trip %.1f ms: server %.1f ms, average %.1f ms +/- %.1f ms", rttMs,
+                    serverMs, smoothedRttMs, rttVarianceMs);
+        }
+        if (events instanceof ILatencyEvents) {
+            ((ILatencyEvents) events).onLatencyUpdate(rttMs, smoothedRttMs, rttVarianceMs, serverMs);
+        }
+    }
+
+    /**
+     * Reconnected, but the server no longer had our session: we're a new client
+     * now, in the lobby, and what was said meanwhile is gone
+     */
+    private void processSessionLost() {
+        LoggerUtil.INSTANCE.info("Session couldn't be resumed, continuing as a new client");
+        isResuming = false;
+        droppedAt = 0;
+        String name = myData.getClientName();
+        myData.reset();
+        myData.setClientName(name);
+        clearKnownClients();
+        currentRoom = null;
+        lastRoomSeq = 0;
+        closeRoomLog();
+        failHeld("Session not resumed"); // they were meant for a room we're no longer in
+        ((IConnectionEvents) events).onReconnectFinished(false);
+        ((IConnectionEvents) events).onResetUserList();
+    }
+
+    /**
+     * Back in a room after resuming the session. Everyone in it is synced again
+     * right after this (whoever left meanwhile is dropped from the list) without
+     * any join/leave messages, and if it's the room we were in we ask for the
+     * messages we missed.
+     * 
+     * @param roomName
+     */
+    private void processRoomResumed(String roomName) {
+        isResuming = false;
+        droppedAt = 0;
+        long myId = myData.getClientId();
+        clearKnownClients();
+        addKnownClient(myId, myData.getClientName());
+        ((IConnectionEvents) events).onResetUserList();
+        ((IConnectionEvents) events).onReconnectFinished(true);
+        if (roomName != null && roomName.equalsIgnoreCase(currentRoom)) {
+            ((IConnectionEvents) events).onSyncClient(myId, myData.getClientName());
+            RoomMessagePayload p = new RoomMessagePayload();
+            p.setPayloadType(PayloadType.CATCH_UP);
+            p.setMessage(roomName);
+            p.setRoomSeq(lastRoomSeq);
+            offer(p, new CompletableFuture<>()); // ahead of the held sends
+            sendHeld();
+        } else {
+            // our room closed meanwhile, the server put us in the lobby
+            failHeld("Your room closed while reconnecting");
+            currentRoom = roomName;
+            lastRoomSeq = 0;
+            openRoomLog(roomName);
+            ((IRoomEvents) events).onRoomAction(myId, myData.getClientName(), roomName, true);
+        }
+    }
+
+    private void processClientData(long clientId, String clientName) {
+
+        if (myData.getClientId() == ClientData.DEFAULT_CLIENT_ID) {
+            myData.setClientId(clientId);
+            myData.setClientName(clientName);
+            // invoke onReceiveClientId callback
+            ((IConnectionEvents) events).onReceiveClientId(clientId);
+            // knownClients.put(cp.getClientId(), myData);// <-- this is handled later
+        }
+    }
+
+    private void processMessage(long clientId, String message) {
+        String name = knownClients.containsKey(clientId) ? knownClients.get(clientId).getClientName() : "Room";
+        echo(TextFX.colorize(String.format("%s: %s", name, message), Color.BLUE));
+        record(clientId, message);
+        // invoke onMessageReceive callback
+        ((IMessageEvents) events).onMessageReceive(clientId, message);
+    }
+
+    /**
+     * Opens the log of a room we just joined (closing the last room's) and
+     * hands its newest lines to the UI
+     * 
+     * @param roomName
+     */
+    private void openRoomLog(String roomName) {
+        closeRoomLog();
+        if (roomName == null || HISTORY_DIR.isEmpty()) {
+            return;
+        }
+        // one folder per server and user, so different accounts don't share history
+        Path file = Path.of(HISTORY_DIR, logName(host + "_" + port), logName(myData.getClientName()),
+                logName(roomName) + ".log");
+        List<String> recent;
+        try {
+            roomLog = new MessageLog(file);
+            recent = roomLog.tail(HISTORY_LINES);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Couldn't open the history of room " + roomName, e);
+            closeRoomLog();
+            return;
+        }
+        if (!recent.isEmpty()) {
+            ((IMessageEvents) events).onReceiveHistory(roomName, recent);
+        }
+    }
+
+    private static String logName(String name) {
+        return name == null ? "_" : name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_.-]", "_");
+    }
+
+    private void closeRoomLog() {
+        MessageLog log = roomLog;
+        roomLog = null;
+        if (log != null) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Error closing " + log.getFile(), e);
+            }
+        }
+    }
+
+    // appends a received message to the room's log the way the chat shows it
+    private void record(long clientId, String message) {
+        MessageLog log = roomLog;
+        if (log == null) {
+            return;
+        }
+        try {
+            log.append(String.format("%s[%s]: %s", getClientNameFromId(clientId), clientId, message));
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Couldn't write to " + log.getFile() + ", no more history for this room", e);
+            closeRoomLog();
+        }
+    }
+
+    /**
+     * Copies the current room's history to a file
+     * 
+     * @param target
+     * @return bytes written
+     * @throws IOException if we're not in a room or the copy failed
+     */
+    public long exportHistory(Path target) throws IOException {
+        MessageLog log = roomLog;
+        if (log == null) {
+            throw new IOException("No history for this room");
+        }
+        return log.exportTo(target);
+    }
+
+    /**
+     * Searches the current room's history on this device
+     * 
+     * @param query words the messages must all have
+     * @return the newest matching lines, newest first
+     * @throws IOException if we're not in a room or the log can't be read
+     */
+    public List<String> searchHistory(String query) throws IOException {
+        MessageLog log = roomLog;
+        if (log == null) {
+            throw new IOException("No history for this room");
+        }
+        return log.search(query, SearchPayload.MAX_RESULTS);
+    }
+
+    /**
+     * Asks the server to search the current room's history; the results come
+     * back through {@link IMessageEvents#onSearchResults(String, List)}
+     * 
+     * @param query words the messages must all have
+     * @return completed once the request is written
+     */
+    public CompletableFuture<Void> sendSearch(String query) {
+        SearchPayload p = new SearchPayload();
+        p.setMessage(query);
+        return sendAsync(p);
+    }
+
+    private void processClientSync(long clientId, String clientName) {
+
+        if (!knownClients.containsKey(clientId)) {
+            addKnownClient(clientId, clientName);
+            // invoke onSyncClient callback
+            ((IConnectionEvents) events).onSyncClient(clientId, clientName);
+        }
+    }
+
+    private void processRoomAction(long clientId, String clientName, String message, boolean isJoin) {
+        if (isJoin && clientId == myData.getClientId()) {
+            if (isResuming) {
+                processRoomResumed(message);
+                return;
+            }
+            if (!Objects.equals(message, currentRoom)) {
+                currentRoom = message;
+                lastRoomSeq = 0;
+            }
+            // joining (or starting up in the lobby) shows what was last said here before the server says more
+            openRoomLog(message);
+        }
+        if (isJoin && !knownClients.containsKey(clientId)) {
+            addKnownClient(clientId, clientName);
+            echo(TextFX
+                    .colorize(String.format("*%s[%s] joined the Room %s*", clientName, clientId, message),
+                            Color.GREEN));
+            // invoke onRoomJoin callback
+            ((IRoomEvents) events).onRoomAction(clientId, clientName, message, isJoin);
+        } else if (!isJoin) {
+            ClientData removed = removeKnownClient(clientId);
+            if (removed != null) {
+                echo(
+                        TextFX.colorize(String.format("*%s[%s] left the Room %s*", clientName, clientId, message),
+                                Color.YELLOW));
+                // invoke onRoomJoin callback
+                ((IRoomEvents) events).onRoomAction(clientId, clientName, message, isJoin);
+            }
+            // clear our list
+            if (clientId == myData.getClientId()) {
+                clearKnownClients();
+                // invoke onResetUserList()
+                ((IConnectionEvents) events).onResetUserList();
+            }
+        }
+    }
+
+    /**
+     * Asks the server to roll: {@code /roll 20} rolls one 20 sided die,
+     * {@code /roll 3d6} three 6 sided ones. The server makes the roll and sends
+     * the result to the room.
+     */
+    private void handleRollCommand(String text) {   //jah89 07/03/2024
+        try {
+            RollPayload rollPayload = new RollPayload();
+            String[] parts = text.split(" ");
+            if (parts.length == 2) {
+                String rollCommand = parts[1];
+                if (rollCommand.matches("\\d+")) {
+                    rollPayload.setSides(Integer.parseInt(rollCommand));
+                    rollPayload.setRolls(1);
+                } else if (rollCommand.matches("\\d+d\\d+")) {  //jah89 07-07-2024
+                    String[] diceParts = rollCommand.split("d");
+                    rollPayload.setRolls(Integer.parseInt(diceParts[0]));
+                    rollPayload.setSides(Integer.parseInt(diceParts[1]));
+                } else {
+                    System.out.println(TextFX.colorize("Usage: /roll <sides> or /roll <dice>d<sides>", Color.RED));
+                    return;
+                }
+                rollPayload.setPayloadType(PayloadType.ROLL);
+                send(rollPayload);
+            }
+        } catch (NumberFormatException e) {
+            System.out.println(TextFX.colorize("That's more dice (or sides) than anyone can roll", Color.RED));
+        } catch (IOException e) {
+            e.printStackTrace();
+            LoggerUtil.INSTANCE.severe("Error sending roll payload", e);
+        }
+    }
+    
+    private void handleFlipCommand() { 
+        try {
+            Payload flipPayload = new Payload();
+            flipPayload.setPayloadType(PayloadType.FLIP); // the server flips
+            send(flipPayload);
+        } catch (IOException e) {
+            e.printStackTrace();
+            LoggerUtil.INSTANCE.severe("Error sending flip payload", e);
+        }
+    }
+    public void sendMute(String targetName) throws IOException { // jah89 07-20-2024
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.MUTE);
+        p.setMessage(targetName);
+        send(p);
+    }
+    public void sendUnmute(String targetName) throws IOException { // jah89 07-20-2024
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.UNMUTE);
+        p.setMessage(targetName);
+        send(p);
+    }
+    /**
+     * Sends a private message to a user by name. Users outside our room aren't
+     * in knownClients, so those are sent by name for the server to resolve.
+     * 
+     * @param targetName
+     * @param message
+     * @return completed once the message is written
+     */
+    public CompletableFuture<Void> sendPrivateMessage(String targetName, String message) {
+        long targetId = getClientIdByName(targetName);
+        if (targetId != ClientData.DEFAULT_CLIENT_ID) {
+            return sendPrivateMessage(targetId, message);
+        }
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setPayloadType(PayloadType.PRIVATE_MESSAGE);
+        cp.setClientId(ClientData.DEFAULT_CLIENT_ID);
+        cp.setClientName(targetName);
+        cp.setMessage(message);
+        return sendAsync(cp);
+    }
+
+    public CompletableFuture<Void> sendPrivateMessage(long targetId, String message) {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.PRIVATE_MESSAGE); // Add this new PayloadType
+        p.setClientId(targetId);
+        p.setMessage(message);
+        return sendAsync(p);
+    }
+    public long getClientIdByName(String name) {
+        if (name == null) {
+            return ClientData.DEFAULT_CLIENT_ID;
+        }
+        Long id = knownClientIds.get(name.toLowerCase());
+        return id != null ? id : ClientData.DEFAULT_CLIENT_ID; // Client not found
+    }
+
+    private void addKnownClient(long clientId, String clientName) {
+        ClientData cd = new ClientData();
+        cd.setClientId(clientId);
+        cd.setClientName(clientName);
+        knownClients.put(clientId, cd);
+        if (clientName != null) {
+            knownClientIds.put(clientName.toLowerCase(), clientId);
+        }
+    }
+
+    private ClientData removeKnownClient(long clientId) {
+        ClientData removed = knownClients.remove(clientId);
+        if (removed != null && removed.getClientName() != null) {
+            knownClientIds.remove(removed.getClientName().toLowerCase(), clientId);
+        }
+        return removed;
+    }
+
+    private void clearKnownClients() {
+        knownClients.clear();
+        knownClientIds.clear();
+    }
+    // end payload processors
+}
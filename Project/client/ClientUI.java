@@ -2,6 +2,7 @@ package Project.client;
 
 import Project.client.Interfaces.ICardControls;
 import Project.client.Interfaces.IConnectionEvents;
+import Project.client.Interfaces.ILatencyEvents;
 import Project.client.Interfaces.IMessageEvents;
 import Project.client.Interfaces.IRoomEvents;
 import Project.client.Views.ChatPanel;
@@ -12,6 +13,7 @@ import Project.client.Views.UserDetailsPanel;
 import Project.common.LoggerUtil;
 import java.awt.BorderLayout;
 import java.awt.CardLayout;
+import java.awt.Color;
 import java.awt.Component;
 import java.awt.Container;
 import java.awt.Dimension;
@@ -19,16 +21,25 @@ import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JMenuBar;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel; 
 import javax.swing.SwingUtilities; 
+import javax.swing.border.EmptyBorder;
 
-public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvents, IRoomEvents, ICardControls {
+public class ClientUI extends JFrame
+        implements IConnectionEvents, IMessageEvents, IRoomEvents, ILatencyEvents, ICardControls {
     private static ClientUI instance; // Singleton instance
 
     private CardLayout card = new CardLayout();
@@ -43,6 +54,13 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
     private ChatPanel chatPanel;
     private RoomsPanel roomsPanel;
     private JLabel roomLabel = new JLabel();
+    private JLabel banner = new JLabel(); // shown while reconnecting
+    private JLabel latencyLabel = new JLabel(); // connection quality, from the client's pings
+    // events arrive on the client's reader thread and are applied on the EDT a frame at a time
+    private EventCoalescer events;
+    // user list changes of the current batch, applied in bulk at its end (EDT only)
+    private final Map<Long, String> usersAdded = new LinkedHashMap<>();
+    private final Set<Long> usersRemoved = new LinkedHashSet<>();
 
     {
         LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
@@ -65,7 +83,18 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         container = getContentPane();
         cardContainer = new JPanel();
         cardContainer.setLayout(card);
-        container.add(roomLabel, BorderLayout.NORTH);
+        JPanel header = new JPanel(new BorderLayout());
+        JPanel status = new JPanel(new BorderLayout());
+        status.add(roomLabel, BorderLayout.CENTER);
+        latencyLabel.setBorder(new EmptyBorder(0, 5, 0, 5));
+        status.add(latencyLabel, BorderLayout.EAST);
+        header.add(status, BorderLayout.NORTH);
+        banner.setOpaque(true);
+        banner.setBackground(new Color(255, 236, 179));
+        banner.setBorder(new EmptyBorder(2, 5, 2, 5));
+        banner.setVisible(false);
+        header.add(banner, BorderLayout.SOUTH);
+        container.add(header, BorderLayout.NORTH);
         container.add(cardContainer, BorderLayout.CENTER);
 
         cardContainer.addComponentListener(new ComponentAdapter() {
@@ -90,6 +119,7 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         userDetailsPanel = new UserDetailsPanel(this);
         chatPanel = new ChatPanel(this);
         roomsPanel = new RoomsPanel(this);
+        events = new EventCoalescer(this::onBatchApplied);
 
         setDefaultCloseOperation(JFrame.DO_NOTHING_ON_CLOSE);
         this.addWindowListener(new WindowAdapter() {
@@ -100,10 +130,12 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
                         JOptionPane.YES_NO_OPTION, JOptionPane.QUESTION_MESSAGE);
                 if (response == JOptionPane.YES_OPTION) {
                     try {
-                        Client.INSTANCE.sendDisconnect();
-                    } catch (NullPointerException | IOException e) {
+                        // the writer thread is a daemon, give the disconnect a moment to go out
+                        Client.INSTANCE.sendDisconnect().get(500, TimeUnit.MILLISECONDS);
+                    } catch (InterruptedException | ExecutionException | TimeoutException e) {
                         LoggerUtil.INSTANCE.severe("Error during disconnect: " + e.getMessage());
                     }
+                    LoggerUtil.INSTANCE.shutdown();
                     System.exit(0);
                 }
             }
@@ -157,7 +189,9 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
         String host = connectionPanel.getHost();
         int port = connectionPanel.getPort();
         setTitle(originalTitle + " - " + username);
-        Client.INSTANCE.connect(host, port, username, this);
+        // connecting blocks on the network, so keep it off the EDT (the UI moves on
+        // when the server sends our client id)
+        CompletableFuture.runAsync(() -> Client.INSTANCE.connect(host, port, username, this));
     }
 
     public static void main(String[] args) {
@@ -166,78 +200,181 @@ public class ClientUI extends JFrame implements IConnectionEvents, IMessageEvent
 
     @Override
     public void onClientDisconnect(long clientId, String clientName) {
-        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
-            chatPanel.removeUserListItem(clientId);
-            boolean isMe = clientId == Client.INSTANCE.getMyClientId();
-            String message = String.format("*%s disconnected*",
-                    isMe ? "You" : String.format("%s[%s]", clientName, clientId));
-            chatPanel.addText(message);
-            if (isMe) {
-                LoggerUtil.INSTANCE.info("I disconnected");
-                previous();
+        // checked now, our own id is gone by the time the batch runs
+        boolean isMe = clientId == Client.INSTANCE.getMyClientId();
+        events.post(() -> {
+            if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+                removeUser(clientId);
+                String message = String.format("*%s disconnected*",
+                        isMe ? "You" : String.format("%s[%s]", clientName, clientId));
+                chatPanel.addText(message);
+                if (isMe) {
+                    LoggerUtil.INSTANCE.info("I disconnected");
+                    latencyLabel.setText("");
+                    previous();
+                }
             }
-        }
+        });
     }
 
     @Override
     public void onMessageReceive(long clientId, String message) {
-        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
-            String clientName = Client.INSTANCE.getClientNameFromId(clientId);
-            chatPanel.addText(String.format("%s[%s]: %s", clientName, clientId, message));
-        }
+        // the name is looked up now, the client may be gone by the time the batch runs
+        String clientName = Client.INSTANCE.getClientNameFromId(clientId);
+        events.post(() -> {
+            if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+                chatPanel.addText(String.format("%s[%s]: %s", clientName, clientId, message));
+            }
+        });
+    }
+
+    @Override
+    public void onReceiveHistory(String roomName, List<String> lines) {
+        events.post(() -> {
+            if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+                chatPanel.addText(String.format("-- Earlier in %s --", roomName));
+                for (String line : lines) {
+                    chatPanel.addText(line);
+                }
+                chatPanel.addText("-- Now --");
+            }
+        });
+    }
+
+    @Override
+    public void onSearchResults(String query, List<String> results) {
+        events.post(() -> chatPanel.showSearchResults(query, results, true));
     }
 
     @Override
     public void onReceiveClientId(long id) {
-        show(CardView.CHAT.name());
-        chatPanel.addText("*You connected*");
+        events.post(() -> {
+            show(CardView.CHAT.name());
+            chatPanel.addText("*You connected*");
+        });
     }
 
     @Override
     public void onResetUserList() {
-        chatPanel.clearUserList();
+        events.post(() -> {
+            usersAdded.clear();
+            usersRemoved.clear();
+            chatPanel.clearUserList();
+        });
     }
 
     @Override
     public void onSyncClient(long clientId, String clientName) {
-        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
-            chatPanel.addUserListItem(clientId, String.format("%s (%s)", clientName, clientId));
+        events.post(() -> {
+            if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+                addUser(clientId, clientName);
+            }
+        });
+    }
+
+    // a room's worth of syncs (joining, or resuming) arrive together, so the list takes them in one go
+    private void addUser(long clientId, String clientName) {
+        usersAdded.put(clientId, String.format("%s (%s)", clientName, clientId));
+    }
+
+    private void removeUser(long clientId) {
+        usersAdded.remove(clientId);
+        usersRemoved.add(clientId);
+    }
+
+    // before anything that needs the list up to date
+    private void applyUserChanges() {
+        if (!usersRemoved.isEmpty()) {
+            chatPanel.removeUserListItems(usersRemoved);
+            usersRemoved.clear();
         }
+        if (!usersAdded.isEmpty()) {
+            chatPanel.addUserListItems(usersAdded);
+            usersAdded.clear();
+        }
+    }
+
+    private void onBatchApplied() {
+        applyUserChanges();
+        chatPanel.onBatchApplied();
     }
 
     @Override
-    public void onReceiveRoomList(List<String> rooms, String message) {
-        roomsPanel.removeAllRooms();
-        if (message != null && !message.isEmpty()) {
-            roomsPanel.setMessage(message);
-        }
-        if (rooms != null) {
-            for (String room : rooms) {
-                roomsPanel.addRoom(room);
+    public void onReceiveRoomList(long requestId, int offset, int total, List<String> rooms, String message) {
+        events.post(() -> {
+            if (message != null && !message.isEmpty()) {
+                roomsPanel.setMessage(message);
             }
-        }
+            roomsPanel.onRoomPage(requestId, offset, total, rooms);
+        });
     }
 
     @Override
     public void onRoomAction(long clientId, String clientName, String roomName, boolean isJoin) {
-        LoggerUtil.INSTANCE.info("Current card: " + currentCard.name());
-        if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
-            boolean isMe = clientId == Client.INSTANCE.getMyClientId();
-            String message = String.format("*%s %s the Room %s*",
-                    isMe ? "You" : String.format("%s[%s]", clientName, clientId),
-                    isJoin ? "joined" : "left",
-                    roomName == null ? "" : roomName); 
-            chatPanel.addText(message);
-            if (isJoin) {
-                roomLabel.setText("Room: " + roomName);
-                chatPanel.addUserListItem(clientId, String.format("%s (%s)", clientName, clientId));
+        events.post(() -> {
+            LoggerUtil.INSTANCE.fine("Current card: %s", currentCard);
+            if (currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+                boolean isMe = clientId == Client.INSTANCE.getMyClientId();
+                String message = String.format("*%s %s the Room %s*",
+                        isMe ? "You" : String.format("%s[%s]", clientName, clientId),
+                        isJoin ? "joined" : "left",
+                        roomName == null ? "" : roomName); 
+                chatPanel.addText(message);
+                if (isJoin) {
+                    roomLabel.setText("Room: " + roomName);
+                    addUser(clientId, clientName);
+                } else {
+                    removeUser(clientId);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void onReconnecting(int attempt, long delayMs) {
+        events.post(() -> {
+            banner.setText(String.format("Connection lost, reconnecting in %.1fs (attempt %d)...", delayMs / 1000.0,
+                    attempt));
+            banner.setVisible(true);
+        });
+    }
+
+    @Override
+    public void onReconnectFinished(boolean isResumed) {
+        events.post(() -> {
+            banner.setVisible(false);
+            if (!isResumed && currentCard.ordinal() >= CardView.CHAT.ordinal()) {
+                chatPanel.addText("*Connection lost, your session couldn't be resumed*");
+            }
+        });
+    }
+
+    @Override
+    public void onLatencyUpdate(double rttMs, double smoothedMs, double jitterMs, double serverMs) {
+        events.post(() -> {
+            String quality;
+            Color color;
+            if (smoothedMs < 150) {
+                quality = "Good";
+                color = new Color(0, 128, 0);
+            } else if (smoothedMs < 400) {
+                quality = "Fair";
+                color = new Color(200, 120, 0);
             } else {
-                chatPanel.removeUserListItem(clientId);
+                quality = "Poor";
+                color = Color.RED;
             }
-        }
+            latencyLabel.setText(String.format("%s: %.0f ms \u00b1%.0f", quality, smoothedMs, jitterMs));
+            latencyLabel.setForeground(color);
+            latencyLabel.setToolTipText(String.format("Last round trip %.0f ms, %.0f ms of it on the server", rttMs,
+                    serverMs));
+        });
     }
 
     public void updateUserStatus(long clientId, boolean isMuted, boolean isActive) {
-        chatPanel.updateUserStatus(clientId, isMuted, isActive);
+        events.post(() -> {
+            applyUserChanges(); // the user may have only just been synced
+            chatPanel.updateUserStatus(clientId, isMuted, isActive);
+        });
     }
 }
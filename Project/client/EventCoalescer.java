@@ -0,0 +1,83 @@
+package Project.client;
+
+import Project.common.LoggerUtil;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+
+/**
+ * Hands UI updates from the client's reader thread to the EDT in batches, at
+ * most one batch per frame.
+ * <p>
+ * Updates are queued (in order) as they arrive and a single EDT task applies
+ * everything queued since the last one, then runs the after-batch callback so
+ * the views lay out and scroll once per batch instead of once per event. A
+ * batch stops early once it has used up its share of the frame and the rest
+ * goes in the next one, so a flood of events can't freeze the window.
+ * </p>
+ */
+class EventCoalescer {
+    public static final int FRAME_MS = Integer.getInteger("chat.client.frameMs", 16);
+    private static final long BATCH_BUDGET_NANOS = FRAME_MS * 1_000_000L / 2;
+
+    private final ConcurrentLinkedQueue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private final Runnable afterBatch;
+    private final Timer timer; // EDT only
+    private long lastBatch = 0; // nanoTime, EDT only
+
+    /**
+     * @param afterBatch run on the EDT after each batch (layout, scrolling)
+     */
+    EventCoalescer(Runnable afterBatch) {
+        this.afterBatch = afterBatch;
+        this.timer = new Timer(FRAME_MS, e -> applyBatch());
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Queues an update to run on the EDT with the next batch
+     *
+     * @param update
+     */
+    void post(Runnable update) {
+        pending.add(update);
+        if (isScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::schedule);
+        }
+    }
+
+    // on the EDT: apply now if a frame has passed since the last batch, otherwise when it has
+    private void schedule() {
+        long wait = FRAME_MS - (System.nanoTime() - lastBatch) / 1_000_000L;
+        if (wait <= 0) {
+            applyBatch();
+        } else {
+            timer.setInitialDelay((int) wait);
+            timer.restart();
+        }
+    }
+
+    private void applyBatch() {
+        long start = System.nanoTime();
+        lastBatch = start;
+        // cleared first: an update posted from here on schedules the next batch
+        isScheduled.set(false);
+        Runnable update;
+        while ((update = pending.poll()) != null) {
+            try {
+                update.run();
+            } catch (RuntimeException e) {
+                LoggerUtil.INSTANCE.severe("UI update failed", e);
+            }
+            if (System.nanoTime() - start > BATCH_BUDGET_NANOS) {
+                break;
+            }
+        }
+        afterBatch.run();
+        if (!pending.isEmpty() && isScheduled.compareAndSet(false, true)) {
+            schedule();
+        }
+    }
+}
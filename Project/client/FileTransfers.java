@@ -0,0 +1,187 @@
+package Project.client;
+
+import Project.common.FilePayload;
+import Project.common.FileReceiver;
+import Project.common.FileSender;
+import Project.common.LoggerUtil;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.HexFormat;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Client side of file sharing: uploads of files we share to our room and
+ * downloads of files others share with us.
+ * <p>
+ * Downloads are written to a .part file in the downloads directory (named
+ * after the transfer so a re-offered transfer resumes from what's on disk) and
+ * renamed once complete. Unfinished uploads are offered again after a
+ * reconnect.
+ * </p>
+ */
+class FileTransfers {
+    private static final long MAX_FILE_SIZE = Long.getLong("chat.file.maxSize", 64L * 1024 * 1024);
+
+    private final Path downloadDir = Paths.get(System.getProperty("chat.file.downloads", "downloads"));
+    private final ConcurrentHashMap<String, FileSender> uploads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, FileReceiver> downloads = new ConcurrentHashMap<>();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Starts sharing a file (the server asks for chunks as it's ready for them)
+     *
+     * @param file
+     * @param senderId our client id
+     * @param sink
+     * @return the upload
+     * @throws IOException
+     */
+    FileSender upload(File file, long senderId, FileSender.Sink sink) throws IOException {
+        if (!file.isFile()) {
+            throw new IOException("Not a file: " + file);
+        }
+        if (file.length() > MAX_FILE_SIZE) {
+            throw new IOException(String.format("%s is larger than %d bytes", file.getName(), MAX_FILE_SIZE));
+        }
+        byte[] id = new byte[8];
+        random.nextBytes(id);
+        FileSender upload = new FileSender(HexFormat.of().formatHex(id), file.getName(), senderId,
+                FileChannel.open(file.toPath(), StandardOpenOption.READ));
+        uploads.put(upload.getTransferId(), upload);
+        upload.offer(sink);
+        return upload;
+    }
+
+    /**
+     * Applies the server's ack to one of our uploads
+     *
+     * @param ack
+     * @param sink
+     * @return the upload if it just finished (or was rejected), null otherwise
+     * @throws IOException
+     */
+    FileSender onAck(FilePayload ack, FileSender.Sink sink) throws IOException {
+        FileSender upload = uploads.get(ack.getTransferId());
+        if (upload == null) {
+            return null;
+        }
+        upload.onAck(ack, sink);
+        if (upload.isComplete() || upload.isCancelled()) {
+            uploads.remove(ack.getTransferId());
+            upload.close();
+            return upload;
+        }
+        return null;
+    }
+
+    /**
+     * Offers unfinished uploads again (after a reconnect) so they resume where
+     * the server's copy ends
+     *
+     * @param sink
+     * @throws IOException
+     */
+    void resumeUploads(FileSender.Sink sink) throws IOException {
+        for (FileSender upload : uploads.values()) {
+            upload.offer(sink);
+        }
+    }
+
+    /**
+     * Accepts a file someone shared, resuming a partial download if there is one
+     *
+     * @param offer
+     * @return the FILE_ACK to send back
+     */
+    FilePayload onOffer(FilePayload offer) {
+        if (offer.getSize() < 0 || offer.getSize() > MAX_FILE_SIZE) {
+            return FileReceiver.reject(offer, "Too large");
+        }
+        try {
+            FileReceiver download = downloads.get(offer.getTransferId());
+            if (download == null) {
+                Files.createDirectories(downloadDir);
+                FileChannel target = FileChannel.open(partFile(offer), StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE);
+                download = new FileReceiver(offer, target);
+                downloads.put(offer.getTransferId(), download);
+            }
+            return download.ack();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Can't save " + offer.getFileName(), e);
+            return FileReceiver.reject(offer, "Can't save the file");
+        }
+    }
+
+    /**
+     * Writes a chunk of a download
+     *
+     * @param chunk
+     * @return the FILE_ACK to send back, or null if it's not a download we know
+     * @throws IOException
+     */
+    FilePayload onChunk(FilePayload chunk) throws IOException {
+        FileReceiver download = downloads.get(chunk.getTransferId());
+        return download == null ? null : download.onChunk(chunk);
+    }
+
+    /**
+     * Moves a finished download to its final name
+     *
+     * @param transferId
+     * @return where it was saved, or null if it isn't complete
+     * @throws IOException
+     */
+    Path complete(String transferId) throws IOException {
+        FileReceiver download = downloads.get(transferId);
+        if (download == null || !download.isComplete()) {
+            return null;
+        }
+        downloads.remove(transferId);
+        download.close();
+        Path part = downloadDir.resolve(partName(download.getTransferId()));
+        String name = safeName(download.getFileName());
+        Path target = downloadDir.resolve(name);
+        for (int i = 1; Files.exists(target); i++) {
+            int dot = name.lastIndexOf('.');
+            target = downloadDir.resolve(dot > 0 ? String.format("%s (%d)%s", name.substring(0, dot), i,
+                    name.substring(dot)) : String.format("%s (%d)", name, i));
+        }
+        return Files.move(part, target);
+    }
+
+    /**
+     * Closes open files (partial downloads stay on disk to be resumed)
+     */
+    void closeAll() {
+        uploads.values().forEach(FileSender::close);
+        uploads.clear();
+        downloads.values().forEach(FileReceiver::close);
+        downloads.clear();
+    }
+
+    private Path partFile(FilePayload offer) {
+        return downloadDir.resolve(partName(offer.getTransferId()));
+    }
+
+    private static String partName(String transferId) {
+        return transferId.replaceAll("[^0-9a-zA-Z]", "_") + ".part";
+    }
+
+    /**
+     * @param fileName name chosen by the sender
+     * @return the name without any path or characters that aren't safe in one
+     */
+    private static String safeName(String fileName) {
+        String name = fileName == null ? "" : fileName.substring(Math.max(fileName.lastIndexOf('/'),
+                fileName.lastIndexOf('\\')) + 1);
+        name = name.replaceAll("[^\\w .()-]", "_").trim();
+        return name.isEmpty() || name.startsWith(".") ? "file" + name : name;
+    }
+}
@@ -34,4 +34,20 @@ public interface IConnectionEvents extends IClientEvents {
      * transition.
      */
     void onResetUserList();
-}
\ No newline at end of file
+
+    /**
+     * The connection dropped and the client is trying to resume the session.
+     *
+     * @param attempt 1 for the first try.
+     * @param delayMs How long until this try.
+     */
+    void onReconnecting(int attempt, long delayMs);
+
+    /**
+     * The client stopped trying to reconnect.
+     *
+     * @param isResumed True if it's back in its session (same id and room),
+     *                  false if the session was lost.
+     */
+    void onReconnectFinished(boolean isResumed);
+}
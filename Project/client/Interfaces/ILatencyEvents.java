@@ -0,0 +1,17 @@
+package Project.client.Interfaces;
+
+/**
+ * Interface for handling connection quality events.
+ */
+public interface ILatencyEvents extends IClientEvents {
+    /**
+     * Triggered when a latency probe comes back from the server.
+     *
+     * @param rttMs      This probe's round trip.
+     * @param smoothedMs Round trip averaged over recent probes.
+     * @param jitterMs   How much round trips vary around that average.
+     * @param serverMs   How long the server held this probe (waiting on the room
+     *                   and to be written back), part of rttMs.
+     */
+    void onLatencyUpdate(double rttMs, double smoothedMs, double jitterMs, double serverMs);
+}
@@ -1,5 +1,7 @@
 package Project.client.Interfaces;
 
+import java.util.List;
+
 /**
  * Interface for handling message events.
  */
@@ -11,4 +13,21 @@ public interface IMessageEvents extends IClientEvents {
      * @param message The message.
      */
     void onMessageReceive(long id, String message);
-}
\ No newline at end of file
+
+    /**
+     * Triggered on joining a room we have history for, before anything new
+     * arrives.
+     *
+     * @param roomName The room.
+     * @param lines    Its most recent messages from disk, oldest first.
+     */
+    void onReceiveHistory(String roomName, List<String> lines);
+
+    /**
+     * Triggered when the server answers a search of the room's history.
+     *
+     * @param query   The search.
+     * @param results The newest matching messages, newest first.
+     */
+    void onSearchResults(String query, List<String> results);
+}
@@ -7,13 +7,16 @@ import java.util.List;
  */
 public interface IRoomEvents extends IClientEvents {
     /**
-     * Received room list from server.
+     * Received a page of a room search from server.
      *
-     * @param rooms   List of rooms or null if error.
-     * @param message A message related to the action, may be null (usually if
-     *                rooms.length > 0).
+     * @param requestId The search the page is for.
+     * @param offset    Position of the page's first room among all matches.
+     * @param total     Number of rooms matching the search.
+     * @param rooms     The page of rooms, or null if error.
+     * @param message   A message related to the action, may be null (usually if
+     *                  rooms.length > 0).
      */
-    void onReceiveRoomList(List<String> rooms, String message);
+    void onReceiveRoomList(long requestId, int offset, int total, List<String> rooms, String message);
 
     /**
      * Receives the room name when the client is added to the room.
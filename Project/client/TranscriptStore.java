@@ -0,0 +1,139 @@
+package Project.client;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Append-only, disk-backed list of transcript lines, so the chat view only has
+ * to keep the lines near what's on screen in memory.
+ * <p>
+ * Lines are numbered from 0 in the order they're appended and read back a page
+ * (a range of lines) at a time with a single read. Appends are buffered; a
+ * read that reaches into the buffer writes it out first. Apart from the file
+ * the only cost per line is its offset (8 bytes).
+ * </p>
+ * <p>
+ * Not thread safe; the chat view only touches it from the EDT.
+ * </p>
+ */
+public class TranscriptStore {
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final File file;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private long[] offsets = new long[1024]; // start of each line, plus the end of the last one
+    private int count = 0;
+    private long flushed = 0; // bytes on disk, the rest is in the buffer
+
+    /**
+     * @param file where the lines go (truncated)
+     * @throws IOException
+     */
+    public TranscriptStore(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.READ, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * @return a store in a temp file that's deleted when closed (or on exit)
+     * @throws IOException
+     */
+    public static TranscriptStore createTemp() throws IOException {
+        File file = File.createTempFile("chat-transcript-", ".txt");
+        file.deleteOnExit();
+        return new TranscriptStore(file);
+    }
+
+    /**
+     * @param line
+     * @return the line's index
+     * @throws IOException
+     */
+    public int append(String line) throws IOException {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > buffer.remaining()) {
+            drain();
+        }
+        long start = offsets[count];
+        if (bytes.length > buffer.capacity()) {
+            channel.write(ByteBuffer.wrap(bytes), start);
+            flushed += bytes.length;
+        } else {
+            buffer.put(bytes);
+        }
+        if (count + 2 > offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+        }
+        offsets[++count] = start + bytes.length;
+        return count - 1;
+    }
+
+    /**
+     * @param from first line (inclusive)
+     * @param to   last line (exclusive)
+     * @return the lines in order
+     * @throws IOException
+     */
+    public List<String> read(int from, int to) throws IOException {
+        if (from < 0 || to > count || from > to) {
+            throw new IndexOutOfBoundsException(String.format("[%d, %d) of %d lines", from, to, count));
+        }
+        List<String> lines = new ArrayList<>(to - from);
+        if (from == to) {
+            return lines;
+        }
+        if (offsets[to] > flushed) {
+            drain();
+        }
+        ByteBuffer bytes = ByteBuffer.allocate((int) (offsets[to] - offsets[from]));
+        long position = offsets[from];
+        while (bytes.hasRemaining()) {
+            int read = channel.read(bytes, position);
+            if (read < 0) {
+                throw new IOException("Transcript truncated: " + file);
+            }
+            position += read;
+        }
+        byte[] array = bytes.array();
+        for (int i = from; i < to; i++) {
+            int start = (int) (offsets[i] - offsets[from]);
+            lines.add(new String(array, start, (int) (offsets[i + 1] - offsets[i]), StandardCharsets.UTF_8));
+        }
+        return lines;
+    }
+
+    private void drain() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushed += channel.write(buffer, flushed);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * @return lines appended so far
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Closes and deletes the file
+     */
+    public void close() {
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        file.delete();
+    }
+}
@@ -4,34 +4,38 @@ import Project.client.CardView;
 import Project.client.Client;
 import Project.client.Interfaces.ICardControls;
 import Project.common.LoggerUtil;
+import Project.common.SearchPayload;
 import java.awt.BorderLayout;
-import java.awt.Color;
-import java.awt.Component;
 import java.awt.Dimension;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.Insets;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.ComponentListener;
-import java.awt.event.ContainerEvent;
-import java.awt.event.ContainerListener;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
-import java.io.BufferedWriter;
-import java.io.FileWriter;
+import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.text.SimpleDateFormat;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import javax.swing.BorderFactory;
-import javax.swing.Box;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
-import javax.swing.JEditorPane;
+import javax.swing.DefaultListModel;
+import javax.swing.JComboBox;
+import javax.swing.JFileChooser;
+import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollBar;
 import javax.swing.JScrollPane;
 import javax.swing.JSplitPane;
-import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
@@ -42,13 +46,25 @@ import javax.swing.border.EmptyBorder;
  * received.
  */
 public class ChatPanel extends JPanel {
-    private JPanel chatArea = null;
+    private static final int BOTTOM_SLACK = 5; // px from the bottom that still counts as following
+    private final TranscriptModel transcript = new TranscriptModel();
+    private JList<TranscriptModel.Line> transcriptList;
+    private JScrollPane scroll;
+    private Boolean isBatchFollowing = null; // whether the view followed the newest line when the batch began
     private UserListPanel userListPanel;
     private final float CHAT_SPLIT_PERCENT = 0.7f;
-    private JTextArea chatHistory; // jah89 07-20-2024
     private JTextField messageInput; // jah89 
     private JButton sendButton; // jah89 
     private JButton exportButton; // jah89 07-26-2024
+    private JButton fileButton;
+    private JTextField searchInput;
+    private JComboBox<String> searchScope;
+    private final DefaultListModel<String> searchResults = new DefaultListModel<>();
+    private JLabel searchStatus;
+    private JPanel searchResultsPanel;
+    private String pendingSearch = null; // the search whose results we're waiting for
+    private static final String SEARCH_HERE = "This device";
+    private static final String SEARCH_SERVER = "Server";
 
     /**
      * Constructor to create the ChatPanel UI.
@@ -58,16 +74,36 @@ public class ChatPanel extends JPanel {
     public ChatPanel(ICardControls controls) {
         super(new BorderLayout(10, 10));
 
-        JPanel chatContent = new JPanel(new GridBagLayout());
-        chatContent.setAlignmentY(Component.TOP_ALIGNMENT);
+        // only the visible lines are rendered (one renderer for all of them) and only
+        // the scrollback window is in memory, see TranscriptModel
+        transcriptList = new JList<>(transcript) {
+            @Override
+            public boolean getScrollableTracksViewportWidth() {
+                return true; // lines wrap instead of scrolling sideways
+            }
+        };
+        transcriptList.setCellRenderer(new TranscriptCellRenderer());
+        transcriptList.setOpaque(false);
+        transcriptList.addComponentListener(new ComponentAdapter() {
+            private int width = -1;
+
+            @Override
+            public void componentResized(ComponentEvent e) {
+                if (transcriptList.getWidth() != width) {
+                    width = transcriptList.getWidth();
+                    // the list only measures rows again when told its cell size changed
+                    transcriptList.setFixedCellHeight(0);
+                    transcriptList.setFixedCellHeight(-1);
+                }
+            }
+        });
 
         // Wraps a viewport to provide scroll capabilities
-        JScrollPane scroll = new JScrollPane(chatContent);
+        scroll = new JScrollPane(transcriptList);
         scroll.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
         scroll.setBorder(BorderFactory.createEmptyBorder());
-
-        chatArea = chatContent;
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> pageTranscript());
 
         userListPanel = new UserListPanel();
 
@@ -96,10 +132,6 @@ public class ChatPanel extends JPanel {
             }
         });
 
-        chatHistory = new JTextArea(); // jah89 07-20-2024
-        chatHistory.setEditable(false); 
-        JScrollPane chatScrollPane = new JScrollPane(chatHistory); 
-
         JPanel input = new JPanel();
         input.setLayout(new BoxLayout(input, BoxLayout.X_AXIS));
         input.setBorder(new EmptyBorder(5, 5, 5, 5));
@@ -125,34 +157,37 @@ public class ChatPanel extends JPanel {
         });
 
         sendButton.addActionListener((event) -> {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    String text = messageInput.getText().trim(); //JAH89 07-20-2024
-                    if (!text.isEmpty()) {
-                        long clientId = Client.INSTANCE.getClientId(); // Get the client ID - jah89 07-26-2024
-                        if (text.startsWith("@")) {
-                            int spaceIndex = text.indexOf(" ");
-                            if (spaceIndex != -1) {
-                                String targetName = text.substring(1, spaceIndex);
-                                String privateMessage = text.substring(spaceIndex + 1);
-                                long targetId = Client.INSTANCE.getClientIdByName(targetName);  
-                                if (targetId == -1) {
-                                    chatHistory.append("User " + targetName + " not found.\n");
-                                } else {
-                                    Client.INSTANCE.sendPrivateMessage(targetId, privateMessage);
-                                    chatHistory.append("To " + targetName + ": " + privateMessage + "\n");
-                                    updateUserStatus(clientId, false, true); // jah89 07-26-2024
-                                }
-                            }
-                        } else {
-                            Client.INSTANCE.sendMessage(text);
-                            chatHistory.append("Me: " + text + "\n");
-                            updateUserStatus(clientId, false, true); // jah89 07-26-2024
-                        }
-                        messageInput.setText(""); // Clear the original text
-                    }
-                } catch (NullPointerException | IOException e) {
-                    LoggerUtil.INSTANCE.severe("Error sending message", e);
+            // sending only queues the message, so nothing here waits on the network
+            String text = messageInput.getText().trim(); //JAH89 07-20-2024
+            if (text.isEmpty()) {
+                return;
+            }
+            long clientId = Client.INSTANCE.getClientId(); // Get the client ID - jah89 07-26-2024
+            CompletableFuture<Void> sent;
+            String unsent; // shown only if it couldn't be written
+            if (text.startsWith("@")) {
+                int spaceIndex = text.indexOf(" ");
+                if (spaceIndex == -1) {
+                    return;
+                }
+                String targetName = text.substring(1, spaceIndex);
+                String privateMessage = text.substring(spaceIndex + 1);
+                // the server resolves users that aren't in our room; nothing is echoed
+                // here, its "(private)" copy back to us confirms delivery and
+                // otherwise it replies "User not found."
+                sent = Client.INSTANCE.sendPrivateMessage(targetName, privateMessage);
+                unsent = "To " + targetName + ": " + privateMessage;
+            } else {
+                sent = Client.INSTANCE.sendMessage(text);
+                unsent = "Me: " + text;
+            }
+            showLatest(); // so the reply isn't paged out of sight
+            updateUserStatus(clientId, false, true); // jah89 07-26-2024
+            messageInput.setText(""); // Clear the original text
+            sent.whenComplete((ignored, e) -> {
+                if (e != null) {
+                    LoggerUtil.INSTANCE.warning("Error sending message", e);
+                    SwingUtilities.invokeLater(() -> note("Not sent (" + e.getMessage() + "): " + unsent));
                 }
             });
         });
@@ -160,82 +195,165 @@ public class ChatPanel extends JPanel {
         input.add(sendButton); // jah89 07-20-2024
 
         exportButton = new JButton("Export Chat");
-        exportButton.addActionListener((event) -> {  // jah89 07-26-2024
-            SwingUtilities.invokeLater(() -> {
+        exportButton.addActionListener((event) -> exportChatHistory()); // jah89 07-26-2024
+
+        input.add(exportButton); // jah89 07-26-2024
+
+        fileButton = new JButton("Send File");
+        fileButton.addActionListener((event) -> {
+            JFileChooser chooser = new JFileChooser();
+            if (chooser.showOpenDialog(this) == JFileChooser.APPROVE_OPTION) {
+                File file = chooser.getSelectedFile();
                 try {
-                    exportChatHistory();
+                    Client.INSTANCE.sendFile(file);
+                    note("Sending file " + file.getName());
                 } catch (IOException e) {
-                    LoggerUtil.INSTANCE.severe("Error exporting chat history", e);
+                    note("Can't send " + file.getName() + ": " + e.getMessage());
+                    LoggerUtil.INSTANCE.warning("Error sending file", e);
                 }
-            });
+            }
         });
 
-        input.add(exportButton); // jah89 07-26-2024
+        input.add(fileButton);
 
+        this.add(createSearchPanel(), BorderLayout.NORTH);
         this.add(splitPane, BorderLayout.CENTER);
         this.add(input, BorderLayout.SOUTH);
 
         this.setName(CardView.CHAT.name());
         controls.addPanel(CardView.CHAT.name(), this);
+    }
 
-        chatArea.addContainerListener(new ContainerListener() {
-            @Override
-            public void componentAdded(ContainerEvent e) {
-                SwingUtilities.invokeLater(() -> {
-                    if (chatArea.isVisible()) {
-                        chatArea.revalidate();
-                        chatArea.repaint();
-                    }
-                });
-            }
+    // search box over the room's history, with the results showing under it once there are any
+    private JPanel createSearchPanel() {
+        JPanel bar = new JPanel();
+        bar.setLayout(new BoxLayout(bar, BoxLayout.X_AXIS));
+        bar.setBorder(new EmptyBorder(5, 5, 0, 5));
+        searchInput = new JTextField();
+        searchScope = new JComboBox<>(new String[] { SEARCH_HERE, SEARCH_SERVER });
+        searchScope.setToolTipText("Search what this device saved of the room, or everything the server has");
+        JButton searchButton = new JButton("Search");
+        searchButton.addActionListener(e -> search());
+        searchInput.addActionListener(e -> search());
+        bar.add(searchInput);
+        bar.add(searchScope);
+        bar.add(searchButton);
+
+        searchStatus = new JLabel();
+        JButton closeButton = new JButton("Close");
+        closeButton.addActionListener(e -> {
+            pendingSearch = null;
+            searchResults.clear();
+            searchResultsPanel.setVisible(false);
+            revalidate();
+        });
+        JPanel header = new JPanel(new BorderLayout());
+        header.add(searchStatus, BorderLayout.CENTER);
+        header.add(closeButton, BorderLayout.EAST);
+        JScrollPane resultsScroll = new JScrollPane(new JList<>(searchResults));
+        resultsScroll.setPreferredSize(new Dimension(0, 150));
+        searchResultsPanel = new JPanel(new BorderLayout());
+        searchResultsPanel.setBorder(new EmptyBorder(0, 5, 0, 5));
+        searchResultsPanel.add(header, BorderLayout.NORTH);
+        searchResultsPanel.add(resultsScroll, BorderLayout.CENTER);
+        searchResultsPanel.setVisible(false);
+
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.add(bar, BorderLayout.NORTH);
+        panel.add(searchResultsPanel, BorderLayout.CENTER);
+        return panel;
+    }
 
-            @Override
-            public void componentRemoved(ContainerEvent e) {
-                SwingUtilities.invokeLater(() -> {
-                    if (chatArea.isVisible()) {
-                        chatArea.revalidate();
-                        chatArea.repaint();
-                    }
-                });
+    private void search() {
+        String query = searchInput.getText().trim();
+        if (query.isEmpty()) {
+            return;
+        }
+        pendingSearch = query;
+        searchStatus.setText("Searching for " + query + "...");
+        searchResultsPanel.setVisible(true);
+        revalidate();
+        if (SEARCH_SERVER.equals(searchScope.getSelectedItem())) {
+            Client.INSTANCE.sendSearch(query).whenComplete((ignored, e) -> {
+                if (e != null) {
+                    SwingUtilities.invokeLater(() -> searchFailed(query, e));
+                }
+            });
+            return;
+        }
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return Client.INSTANCE.searchHistory(query);
+            } catch (IOException e) {
+                throw new CompletionException(e);
             }
-        });
+        }).whenComplete((results, e) -> SwingUtilities.invokeLater(() -> {
+            if (e != null) {
+                searchFailed(query, e.getCause());
+            } else {
+                showSearchResults(query, results, false);
+            }
+        }));
+    }
 
-        // Add vertical glue to push messages to the top
-        GridBagConstraints gbc = new GridBagConstraints();
-        gbc.gridx = 0; // Column index 0
-        gbc.gridy = GridBagConstraints.RELATIVE; // Automatically move to the next row
-        gbc.weighty = 1.0; // Give extra space vertically to this component
-        gbc.fill = GridBagConstraints.BOTH; // Fill both horizontally and vertically
-        chatArea.add(Box.createVerticalGlue(), gbc);
+    private void searchFailed(String query, Throwable e) {
+        if (query.equals(pendingSearch)) {
+            LoggerUtil.INSTANCE.warning("Search failed", e);
+            searchStatus.setText("Couldn't search for " + query + ": " + e.getMessage());
+        }
     }
 
-    private void exportChatHistory() throws IOException { // jah89 07-24-2024
-        StringBuilder chatContent = new StringBuilder();
-        chatContent.append(chatHistory.getText());  
+    /**
+     * Shows the results of the latest search (anything older is dropped)
+     * 
+     * @param query
+     * @param results  newest first
+     * @param isServer they're from the server rather than this device
+     */
+    public void showSearchResults(String query, List<String> results, boolean isServer) {
+        if (!query.equals(pendingSearch)) {
+            return;
+        }
+        pendingSearch = null;
+        searchResults.clear();
+        searchResults.addAll(results);
+        searchStatus.setText(String.format("%d%s results for %s (%s)", results.size(),
+                results.size() >= SearchPayload.MAX_RESULTS ? " newest" : "", query,
+                isServer ? "server" : "this device"));
+        searchResultsPanel.setVisible(true);
+        revalidate();
+    }
 
+    /**
+     * Copies the room's history log to a file, off the EDT since it can be
+     * large
+     */
+    private void exportChatHistory() { // jah89 07-24-2024
         String fileName = String.format("chat_history_%s.txt", new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date()));
-        try (BufferedWriter writer = new BufferedWriter(new FileWriter(fileName))) {
-            writer.write(chatContent.toString());
-        }
-        chatHistory.append("Chat history exported to " + fileName + "\n");
+        CompletableFuture.supplyAsync(() -> {
+            try {
+                return Client.INSTANCE.exportHistory(Path.of(fileName));
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            }
+        }).whenComplete((bytes, e) -> SwingUtilities.invokeLater(() -> {
+            if (e != null) {
+                LoggerUtil.INSTANCE.severe("Error exporting chat history", e);
+                note("Couldn't export chat history: " + e.getCause().getMessage());
+            } else {
+                note(String.format("Chat history exported to %s (%d bytes)", fileName, bytes));
+            }
+        }));
+    }
+
+    // a line of our own in the transcript, outside of a batch of server events
+    private void note(String text) {
+        addText(text);
+        onBatchApplied();
     }
 
     public void updateUserStatus(long clientId, boolean isMuted, boolean isActive) { // jah89 07-26-2024
-        SwingUtilities.invokeLater(() -> {
-            UserListItem userItem = userListPanel.getUserItem(clientId);
-            if (userItem != null) {
-                if (isMuted) {
-                    userItem.setMuted(true);
-                } else {
-                    userItem.setMuted(false);
-                }
-                if (isActive) {
-                    userItem.setActive(true);
-                } else {
-                    userItem.setActive(false);
-                }
-            }
-        });
+        userListPanel.setUserStatus(clientId, isMuted, isActive);
     }
 
     public void addUserListItem(long clientId, String clientName) { // jah89 07-26-2024
@@ -246,47 +364,94 @@ public class ChatPanel extends JPanel {
         userListPanel.removeUserListItem(clientId);
     }
 
+    /**
+     * @param clients client names by ID
+     */
+    public void addUserListItems(Map<Long, String> clients) {
+        userListPanel.addUserListItems(clients);
+    }
+
+    public void removeUserListItems(Collection<Long> clientIds) {
+        userListPanel.removeUserListItems(clientIds);
+    }
+
     public void clearUserList() { // jah89 07-26-2024
         userListPanel.clearUserList();
     }
 
+    /**
+     * Adds a line to the transcript. Must be called on the EDT, by a batch of
+     * updates that ends with {@link #onBatchApplied()}.
+     * 
+     * @param text
+     */
     public void addText(String text) { // jah89 07-26-2024
-        SwingUtilities.invokeLater(() -> {
-            JEditorPane textContainer = new JEditorPane("text/plain", text);
-            textContainer.setEditable(false);
-            textContainer.setBorder(BorderFactory.createEmptyBorder());
-
-            // Account for the width of the vertical scrollbar
-            JScrollPane parentScrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, chatArea);
-            int scrollBarWidth = parentScrollPane.getVerticalScrollBar().getPreferredSize().width;
-
-            // Adjust the width of the text container
-            int availableWidth = chatArea.getWidth() - scrollBarWidth - 10; // Subtract an additional padding
-            textContainer.setSize(new Dimension(availableWidth, Integer.MAX_VALUE));
-            Dimension d = textContainer.getPreferredSize();
-            textContainer.setPreferredSize(new Dimension(availableWidth, d.height));
-            // Remove background and border
-            textContainer.setOpaque(false);
-            textContainer.setBorder(BorderFactory.createEmptyBorder());
-            textContainer.setBackground(new Color(0, 0, 0, 0));
-
-            // GridBagConstraints settings for each message
-            GridBagConstraints gbc = new GridBagConstraints();
-            gbc.gridx = 0; // Column index 0
-            gbc.gridy = GridBagConstraints.RELATIVE; // Automatically move to the next row
-            gbc.weightx = 1; // Let the component grow horizontally to fill the space
-            gbc.fill = GridBagConstraints.HORIZONTAL; // Fill horizontally
-            gbc.insets = new Insets(0, 0, 5, 0); // Add spacing between messages
-
-            chatArea.add(textContainer, gbc);
-            chatArea.revalidate();
-            chatArea.repaint();
-
-            // Scroll down on new message
-            SwingUtilities.invokeLater(() -> {
-                JScrollBar vertical = parentScrollPane.getVerticalScrollBar();
-                vertical.setValue(vertical.getMaximum());
-            });
-        });
+        if (isBatchFollowing == null) {
+            isBatchFollowing = transcript.isAtEnd() && isAtBottom();
+        }
+        transcript.append(text, isBatchFollowing);
+    }
+
+    /**
+     * Lays out and scrolls once for everything a batch of updates changed
+     */
+    public void onBatchApplied() {
+        if (Boolean.TRUE.equals(isBatchFollowing)) {
+            scrollToBottom();
+        }
+        isBatchFollowing = null;
+        userListPanel.onBatchApplied();
+    }
+
+    /**
+     * Pages transcript lines in from disk when the view reaches either end of
+     * what's in memory, keeping the lines on screen where they were
+     */
+    private void pageTranscript() {
+        JScrollBar vertical = scroll.getVerticalScrollBar();
+        if (vertical.getValue() == vertical.getMinimum() && transcript.hasOlder()) {
+            int added = transcript.loadOlder();
+            if (added > 0) {
+                layoutNow();
+                Rectangle page = transcriptList.getCellBounds(0, added - 1);
+                scroll.getViewport().setViewPosition(new Point(0, page.height));
+            }
+        } else if (isAtBottom() && !transcript.isAtEnd()) {
+            int added = transcript.loadNewer();
+            if (added > 0) {
+                // drop as many from the front so memory stays bounded
+                Rectangle page = transcriptList.getCellBounds(0, added - 1);
+                Point position = scroll.getViewport().getViewPosition();
+                transcript.trimFront(added);
+                layoutNow();
+                scroll.getViewport().setViewPosition(new Point(0, Math.max(0, position.y - page.height)));
+            }
+        }
+    }
+
+    private void showLatest() {
+        if (!transcript.isAtEnd()) {
+            transcript.jumpToEnd();
+            scrollToBottom();
+        }
+    }
+
+    private boolean isAtBottom() {
+        JScrollBar vertical = scroll.getVerticalScrollBar();
+        return vertical.getValue() + vertical.getVisibleAmount() >= vertical.getMaximum() - BOTTOM_SLACK;
+    }
+
+    private void scrollToBottom() {
+        layoutNow();
+        int last = transcript.getSize() - 1;
+        if (last >= 0) {
+            transcriptList.ensureIndexIsVisible(last);
+        }
+    }
+
+    // lays the list out now instead of on the next pass, so scroll positions can be set against it
+    private void layoutNow() {
+        transcriptList.revalidate();
+        scroll.validate();
     }
 }
@@ -0,0 +1,94 @@
+package Project.client.Views;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+/**
+ * The rooms found by the current room search, as a list model the server
+ * fills in a page at a time.
+ * <p>
+ * Each search has an id; pages for any other search (one the user already
+ * typed past) are ignored, as are pages that don't continue where the list
+ * ends. Only the EDT may use it.
+ * </p>
+ */
+public class RoomListModel extends AbstractListModel<String> {
+    private final List<String> rooms = new ArrayList<>();
+    private long requestId = -1;
+    private int total = 0;
+    private boolean isLoading = false;
+
+    @Override
+    public int getSize() {
+        return rooms.size();
+    }
+
+    @Override
+    public String getElementAt(int index) {
+        return rooms.get(index);
+    }
+
+    /**
+     * Empties the list for a new search; its first page is on the way
+     *
+     * @param requestId the new search's id
+     */
+    public void reset(long requestId) {
+        this.requestId = requestId;
+        this.total = 0;
+        this.isLoading = true;
+        int size = rooms.size();
+        rooms.clear();
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+
+    /**
+     * @param requestId the search the page is for
+     * @param offset    where the page starts among all matches
+     * @param total     matches in all
+     * @param page
+     * @return false if the page isn't for the current search or not the next one
+     */
+    public boolean addPage(long requestId, int offset, int total, List<String> page) {
+        if (requestId != this.requestId || offset != rooms.size()) {
+            return false;
+        }
+        isLoading = false;
+        this.total = total;
+        if (page != null && !page.isEmpty()) {
+            int start = rooms.size();
+            rooms.addAll(page);
+            fireIntervalAdded(this, start, rooms.size() - 1);
+        }
+        return true;
+    }
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    /**
+     * @return matches of the current search, including ones not loaded yet
+     */
+    public int getTotal() {
+        return total;
+    }
+
+    /**
+     * @return the server has more matches than are loaded
+     */
+    public boolean hasMore() {
+        return rooms.size() < total;
+    }
+
+    public boolean isLoading() {
+        return isLoading;
+    }
+
+    public void setLoading(boolean isLoading) {
+        this.isLoading = isLoading;
+    }
+}
@@ -1,26 +1,31 @@
 package Project.client.Views;
 
 import java.awt.BorderLayout;
-import java.awt.Color;
 import java.awt.Component;
-import java.awt.Dimension;
-import java.awt.event.ContainerEvent;
-import java.awt.event.ContainerListener;
-import java.io.IOException;
-import java.util.ArrayList;
+import java.awt.event.ComponentAdapter;
+import java.awt.event.ComponentEvent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import javax.swing.BorderFactory;
 import javax.swing.BoxLayout;
 import javax.swing.JButton;
 import javax.swing.JLabel;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextField;
+import javax.swing.ListSelectionModel;
 import javax.swing.ScrollPaneConstants;
 import javax.swing.SwingUtilities;
+import javax.swing.Timer;
 import javax.swing.border.EmptyBorder;
-import javax.swing.border.LineBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 import Project.client.CardView;
 import Project.client.Client;
@@ -29,11 +34,24 @@ import Project.common.LoggerUtil;
 
 /**
  * RoomsPanel class represents the UI for managing chat rooms.
+ * <p>
+ * The room list searches as you type: a search goes out once typing pauses
+ * for {@link #SEARCH_DELAY_MS}, and the list only ever shows the latest
+ * search's results (see {@link RoomListModel}). Rooms come a page at a time,
+ * the next page being asked for as the list scrolls near the end of what's
+ * loaded; the list only renders the rows in view.
+ * </p>
  */
 public class RoomsPanel extends JPanel {
-    private final JPanel container;
-    private final List<RoomListItem> rooms = new ArrayList<>();
+    public static final int PAGE_SIZE = Integer.getInteger("chat.client.roomPage", 50);
+    public static final int SEARCH_DELAY_MS = Integer.getInteger("chat.client.searchDelayMs", 250);
+    private final RoomListModel results = new RoomListModel();
+    private final JList<String> roomList;
+    private final JTextField searchValue;
     private final JLabel message;
+    private final Timer searchDelay;
+    private long lastRequestId = 0;
+    private String query = "";
 
     /**
      * Constructor to create the RoomsPanel UI.
@@ -42,15 +60,32 @@ public class RoomsPanel extends JPanel {
      */
     public RoomsPanel(ICardControls controls) {
         super(new BorderLayout(10, 10));
-        container = new JPanel();
-        container.setLayout(new BoxLayout(container, BoxLayout.Y_AXIS));
-        container.setBorder(BorderFactory.createCompoundBorder(
-                new LineBorder(Color.RED, 0),
-                new EmptyBorder(10, 10, 0, 10))); // Add padding and colored border
+        roomList = new JList<>(results);
+        roomList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        // every row the same size, so the list never measures the rooms it isn't showing
+        roomList.setPrototypeCellValue("A room with a fairly long name");
+        roomList.setToolTipText("Double click (or Enter) to join");
+        roomList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2 && roomList.getSelectedValue() != null) {
+                    handleSelection(roomList.getSelectedValue());
+                }
+            }
+        });
+        roomList.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent e) {
+                if (e.getKeyCode() == KeyEvent.VK_ENTER && roomList.getSelectedValue() != null) {
+                    handleSelection(roomList.getSelectedValue());
+                }
+            }
+        });
 
-        JScrollPane scroll = new JScrollPane(container, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
+        JScrollPane scroll = new JScrollPane(roomList, ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED,
                 ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
-        scroll.setBorder(BorderFactory.createEmptyBorder());
+        scroll.setBorder(BorderFactory.createEmptyBorder(10, 10, 0, 10));
+        scroll.getVerticalScrollBar().addAdjustmentListener(e -> loadMoreIfNeeded());
 
         JButton back = new JButton("Go Back");
         back.addActionListener(event -> controls.previous());
@@ -62,67 +97,56 @@ public class RoomsPanel extends JPanel {
         JPanel searchContent = new JPanel();
         searchContent.setLayout(new BoxLayout(searchContent, BoxLayout.X_AXIS));
         JLabel searchLabel = new JLabel("Room Name");
-        JTextField searchValue = new JTextField();
+        searchValue = new JTextField();
         JButton searchButton = new JButton("Search");
         message = new JLabel("", 0);
         JPanel messageContainer = new JPanel(); // wrapper to help fix alignment
         messageContainer.setBorder(new EmptyBorder(5, 0, 0, 0)); // Add padding
 
-        // Search button action
-        searchButton.addActionListener(event -> {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    String query = searchValue.getText().trim();
-                    if (!query.isEmpty()) {
-                        removeAllRooms();
-                        Client.INSTANCE.sendListRooms(query);
-                        message.setText("Sent query");
-                    } else {
-                        message.setText("Can't search with an empty query");
-                    }
-                } catch (IOException e) {
-                    LoggerUtil.INSTANCE.warning("Error sending request: " + e.getMessage(), e);
-                    message.setText("Error sending request: " + e.getMessage());
-                }
-            });
+        // searches once typing pauses, each keystroke pushes it back
+        searchValue.setToolTipText("Type part of a room's name, leave empty to list every room");
+        searchDelay = new Timer(SEARCH_DELAY_MS, event -> search(searchValue.getText().trim()));
+        searchDelay.setRepeats(false);
+        searchValue.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) {
+                searchDelay.restart();
+            }
+
+            @Override
+            public void removeUpdate(DocumentEvent e) {
+                searchDelay.restart();
+            }
+
+            @Override
+            public void changedUpdate(DocumentEvent e) {
+            }
         });
 
+        // Search button action
+        searchButton.addActionListener(event -> search(searchValue.getText().trim()));
+
         JButton createButton = new JButton("Create");
         createButton.addActionListener(event -> {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    String query = searchValue.getText().trim();
-                    if (!query.isEmpty()) {
-                        Client.INSTANCE.sendCreateRoom(query);
-                        message.setText("Created room");
-                    } else {
-                        message.setText("Can't create a room without a name");
-                    }
-                } catch (IOException e) {
-                    LoggerUtil.INSTANCE.warning("Error sending request: " + e.getMessage(), e);
-                    message.setText("Error sending request: " + e.getMessage());
-                }
-            });
+            String query = searchValue.getText().trim();
+            if (!query.isEmpty()) {
+                onFailure(Client.INSTANCE.sendCreateRoom(query));
+                message.setText("Created room");
+            } else {
+                message.setText("Can't create a room without a name");
+            }
         });
 
         JButton joinButton = new JButton("Join");
         joinButton.addActionListener(event -> {
-            SwingUtilities.invokeLater(() -> {
-                try {
-                    String query = searchValue.getText().trim();
-                    if (!query.isEmpty()) {
-                        Client.INSTANCE.sendJoinRoom(query);
-                        message.setText("Joined room");
-                    } else {
-                        message.setText("Can't join a room without a name");
-                    }
-                } catch (NullPointerException ne) {
-                    message.setText("Not connected");
-                } catch (IOException e) {
-                    LoggerUtil.INSTANCE.warning("Not connected", e);
-                    message.setText("Error sending request: " + e.getMessage());
-                }
-            });
+            String query = roomList.getSelectedValue() != null ? roomList.getSelectedValue()
+                    : searchValue.getText().trim();
+            if (!query.isEmpty()) {
+                onFailure(Client.INSTANCE.sendJoinRoom(query));
+                message.setText("Joined room");
+            } else {
+                message.setText("Can't join a room without a name");
+            }
         });
 
         searchContent.add(searchLabel);
@@ -138,21 +162,11 @@ public class RoomsPanel extends JPanel {
         this.add(back, BorderLayout.SOUTH);
         this.add(scroll, BorderLayout.CENTER);
 
-        container.addContainerListener(new ContainerListener() {
-            @Override
-            public void componentAdded(ContainerEvent e) {
-                if (container.isVisible()) {
-                    revalidate();
-                    repaint();
-                }
-            }
-
+        // coming to the panel shows the rooms there are now
+        this.addComponentListener(new ComponentAdapter() {
             @Override
-            public void componentRemoved(ContainerEvent e) {
-                if (container.isVisible()) {
-                    revalidate();
-                    repaint();
-                }
+            public void componentShown(ComponentEvent e) {
+                search(searchValue.getText().trim());
             }
         });
 
@@ -170,55 +184,59 @@ public class RoomsPanel extends JPanel {
     }
 
     /**
-     * Adds a room to the rooms list.
+     * Starts a new search; whatever earlier searches still send back is ignored
      * 
-     * @param room The name of the room to add.
+     * @param query part of the room name, empty for every room
      */
-    public void addRoom(String room) {
-        if (room != null) {
-            LoggerUtil.INSTANCE.info("Adding: " + room);
-            RoomListItem roomListItem = new RoomListItem(room, this::handleSelection);
-            Dimension size = new Dimension(this.getSize().width, 40);
-            roomListItem.setPreferredSize(size);
-            roomListItem.setMaximumSize(size);
-            roomListItem.setMinimumSize(size);
-            container.add(roomListItem);
-            rooms.add(roomListItem);
-            revalidate();
-            repaint();
-        }
+    private void search(String query) {
+        searchDelay.stop();
+        this.query = query;
+        results.reset(++lastRequestId);
+        message.setText("Searching...");
+        requestPage(0);
     }
 
-    /**
-     * Removes a room from the rooms list.
-     * 
-     * @param room The name of the room to remove.
-     */
-    public void removeRoom(String room) {
-        rooms.removeIf(r -> {
-            if (r.getRoomName().equalsIgnoreCase(room)) {
-                r.removeAll();
-                container.remove(r);
-                revalidate();
-                repaint();
-                return true;
+    private void requestPage(int offset) {
+        long requestId = results.getRequestId();
+        results.setLoading(true);
+        Client.INSTANCE.sendListRooms(query, requestId, offset, PAGE_SIZE).whenComplete((ignored, e) -> {
+            if (e != null) {
+                LoggerUtil.INSTANCE.warning("Error sending request: " + e.getMessage(), e);
+                SwingUtilities.invokeLater(() -> {
+                    if (requestId == results.getRequestId()) {
+                        results.setLoading(false); // scrolling asks again
+                        message.setText("Error sending request: " + e.getMessage());
+                    }
+                });
             }
-            return false;
         });
     }
 
     /**
-     * Removes all rooms from the rooms list.
+     * Adds a page of search results (pages of replaced searches are dropped)
+     * 
+     * @param requestId
+     * @param offset
+     * @param total
+     * @param rooms
      */
-    public void removeAllRooms() {
-        LoggerUtil.INSTANCE.info("Clearing rooms");
-        for (RoomListItem roomListItem : rooms) {
-            LoggerUtil.INSTANCE.info("Removing " + roomListItem.getRoomName());
-            container.remove(roomListItem);
+    public void onRoomPage(long requestId, int offset, int total, List<String> rooms) {
+        if (!results.addPage(requestId, offset, total, rooms)) {
+            return;
+        }
+        message.setText(total == 0 ? "No rooms found" : String.format("%d rooms", total));
+        loadMoreIfNeeded(); // in case the page doesn't fill the view
+    }
+
+    // asks for the next page once the view is within half a page of the end of what's loaded
+    private void loadMoreIfNeeded() {
+        if (!results.hasMore() || results.isLoading()) {
+            return;
+        }
+        int lastVisible = roomList.getLastVisibleIndex();
+        if (lastVisible >= results.getSize() - PAGE_SIZE / 2) {
+            requestPage(results.getSize());
         }
-        rooms.clear();
-        revalidate();
-        repaint();
     }
 
     /**
@@ -227,12 +245,21 @@ public class RoomsPanel extends JPanel {
      * @param room The name of the room to join.
      */
     public void handleSelection(String room) {
-        SwingUtilities.invokeLater(() -> {
-            try {
-                Client.INSTANCE.sendJoinRoom(room);
-            } catch (IOException e) {
-                LoggerUtil.INSTANCE.severe("Error joining room: " + e.getMessage(), e);
+        onFailure(Client.INSTANCE.sendJoinRoom(room));
+    }
+
+    /**
+     * Requests are only queued when they're sent, so a failure (i.e., not
+     * connected) shows up later, off the EDT
+     * 
+     * @param sent the request's future
+     */
+    private void onFailure(CompletableFuture<Void> sent) {
+        sent.whenComplete((ignored, e) -> {
+            if (e != null) {
+                LoggerUtil.INSTANCE.warning("Error sending request: " + e.getMessage(), e);
+                SwingUtilities.invokeLater(() -> message.setText("Error sending request: " + e.getMessage()));
             }
         });
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,56 @@
+package Project.client.Views;
+
+import java.awt.Component;
+import java.awt.Dimension;
+import java.awt.Insets;
+import javax.swing.BorderFactory;
+import javax.swing.JList;
+import javax.swing.JTextArea;
+import javax.swing.ListCellRenderer;
+
+/**
+ * Draws every transcript line with the same word-wrapping text area.
+ * <p>
+ * Wrapping a line to find its height is the expensive part of laying the list
+ * out, so the height is kept on the line for the width it was measured at and
+ * only measured again when the list's width changes.
+ * </p>
+ */
+public class TranscriptCellRenderer extends JTextArea implements ListCellRenderer<TranscriptModel.Line> {
+    private static final int SPACING = 5; // between messages
+    private TranscriptModel.Line line;
+    private int width;
+
+    public TranscriptCellRenderer() {
+        setLineWrap(true);
+        setWrapStyleWord(true);
+        setEditable(false);
+        setOpaque(false);
+        setBorder(BorderFactory.createEmptyBorder(0, 0, SPACING, 0));
+    }
+
+    @Override
+    public Component getListCellRendererComponent(JList<? extends TranscriptModel.Line> list,
+            TranscriptModel.Line value, int index, boolean isSelected, boolean cellHasFocus) {
+        line = value;
+        setText(value.getText());
+        setFont(list.getFont());
+        setForeground(list.getForeground());
+        Insets insets = list.getInsets();
+        width = list.getWidth() - insets.left - insets.right;
+        return this;
+    }
+
+    @Override
+    public Dimension getPreferredSize() {
+        if (line == null || width <= 0) {
+            return super.getPreferredSize(); // not laid out yet, so no wrapping either
+        }
+        if (line.width != width) {
+            setSize(width, Short.MAX_VALUE); // wraps the text at this width
+            line.height = super.getPreferredSize().height;
+            line.width = width;
+        }
+        return new Dimension(width, line.height);
+    }
+}
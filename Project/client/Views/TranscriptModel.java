@@ -0,0 +1,257 @@
+package Project.client.Views;
+
+import Project.client.TranscriptStore;
+import Project.common.LoggerUtil;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.swing.AbstractListModel;
+
+/**
+ * The chat transcript as a list model: a window of at most
+ * {@link #SCROLLBACK} (plus a page) lines held in memory over every line
+ * received, which live in a {@link TranscriptStore} on disk.
+ * <p>
+ * While the view follows the newest line the window slides with it and older
+ * lines drop out of memory. Scrolling to either end of the window pages lines
+ * back in from the store. Only the EDT may use it.
+ * </p>
+ */
+public class TranscriptModel extends AbstractListModel<TranscriptModel.Line> {
+    public static final int SCROLLBACK = Math.max(16, Integer.getInteger("chat.client.scrollback", 1000));
+
+    /**
+     * A transcript line; the renderer caches its height for the width it was
+     * last laid out at
+     */
+    public static class Line {
+        private final String text;
+        int width = -1;
+        int height;
+
+        Line(String text) {
+            this.text = text;
+        }
+
+        public String getText() {
+            return text;
+        }
+    }
+
+    private final int capacity;
+    private final int pageSize;
+    private final List<Line> window = new ArrayList<>();
+    private TranscriptStore store;
+    private int first = 0; // store index of window.get(0)
+    private int total = 0; // lines received
+
+    public TranscriptModel() {
+        this(SCROLLBACK);
+    }
+
+    /**
+     * @param capacity lines kept in memory while following the newest
+     */
+    public TranscriptModel(int capacity) {
+        this.capacity = capacity;
+        this.pageSize = Math.max(1, capacity / 4);
+        try {
+            store = TranscriptStore.createTemp();
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("No transcript store, scrollback is limited to memory", e);
+        }
+    }
+
+    @Override
+    public int getSize() {
+        return window.size();
+    }
+
+    @Override
+    public Line getElementAt(int index) {
+        return window.get(index);
+    }
+
+    /**
+     * Adds a line. It joins the window if the window reaches the newest line and
+     * there's room (when not following, up to a page past capacity); otherwise
+     * it's only stored until the view pages forward to it.
+     *
+     * @param text
+     * @param isFollowing the view is at the newest line, so older lines can go
+     */
+    public void append(String text, boolean isFollowing) {
+        boolean isAdded = isAtEnd();
+        if (store != null) {
+            try {
+                store.append(text);
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Failed to store transcript line, dropping the store", e);
+                dropStore();
+            }
+        }
+        total++;
+        if (store == null) {
+            isAdded = true; // nowhere else for it to go
+        } else if (!isFollowing && window.size() >= capacity + pageSize) {
+            isAdded = false;
+        }
+        if (!isAdded) {
+            return;
+        }
+        window.add(new Line(text));
+        fireIntervalAdded(this, window.size() - 1, window.size() - 1);
+        int limit = isFollowing ? capacity : capacity + pageSize;
+        if (window.size() > limit) {
+            trimFront(window.size() - limit);
+        }
+    }
+
+    /**
+     * Pages older lines in ahead of the window
+     *
+     * @return lines added at the front
+     */
+    public int loadOlder() {
+        int count = Math.min(pageSize, first);
+        if (count == 0) {
+            return 0;
+        }
+        List<Line> lines = read(first - count, first);
+        if (lines == null) {
+            return 0;
+        }
+        window.addAll(0, lines);
+        first -= count;
+        fireIntervalAdded(this, 0, count - 1);
+        if (window.size() > capacity + pageSize) {
+            trimBack(window.size() - capacity - pageSize);
+        }
+        return count;
+    }
+
+    /**
+     * Pages newer lines in after the window (the caller trims the front once
+     * it's kept its place)
+     *
+     * @return lines added at the end
+     */
+    public int loadNewer() {
+        int end = first + window.size();
+        int count = Math.min(pageSize, total - end);
+        if (count == 0) {
+            return 0;
+        }
+        List<Line> lines = read(end, end + count);
+        if (lines == null) {
+            return 0;
+        }
+        int start = window.size();
+        window.addAll(lines);
+        fireIntervalAdded(this, start, window.size() - 1);
+        return count;
+    }
+
+    /**
+     * Replaces the window with the newest lines
+     */
+    public void jumpToEnd() {
+        if (isAtEnd()) {
+            return;
+        }
+        int from = Math.max(0, total - capacity);
+        List<Line> lines = read(from, total);
+        if (lines == null) {
+            return;
+        }
+        int size = window.size();
+        window.clear();
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+        window.addAll(lines);
+        first = from;
+        if (!window.isEmpty()) {
+            fireIntervalAdded(this, 0, window.size() - 1);
+        }
+    }
+
+    /**
+     * @param count lines to drop from the front of the window (for good if
+     *              there's no store)
+     */
+    public void trimFront(int count) {
+        count = Math.min(count, window.size());
+        if (count <= 0) {
+            return;
+        }
+        window.subList(0, count).clear();
+        first += count;
+        fireIntervalRemoved(this, 0, count - 1);
+    }
+
+    private void trimBack(int count) {
+        count = Math.min(count, window.size());
+        if (count <= 0) {
+            return;
+        }
+        int size = window.size();
+        window.subList(size - count, size).clear();
+        fireIntervalRemoved(this, size - count, size - 1);
+    }
+
+    private List<Line> read(int from, int to) {
+        if (store == null) {
+            return null;
+        }
+        try {
+            List<Line> lines = new ArrayList<>(to - from);
+            for (String text : store.read(from, to)) {
+                lines.add(new Line(text));
+            }
+            return lines;
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Failed to read transcript, dropping the store", e);
+            dropStore();
+            return null;
+        }
+    }
+
+    // what's in memory is all there is from here on
+    private void dropStore() {
+        store.close();
+        store = null;
+        total = first + window.size();
+    }
+
+    /**
+     * @return the window holds the newest line
+     */
+    public boolean isAtEnd() {
+        return first + window.size() == total;
+    }
+
+    /**
+     * @return older lines can be paged in
+     */
+    public boolean hasOlder() {
+        return first > 0 && store != null;
+    }
+
+    /**
+     * Removes every line and the store's file
+     */
+    public void close() {
+        if (store != null) {
+            store.close();
+            store = null;
+        }
+        int size = window.size();
+        window.clear();
+        first = 0;
+        total = 0;
+        if (size > 0) {
+            fireIntervalRemoved(this, 0, size - 1);
+        }
+    }
+}
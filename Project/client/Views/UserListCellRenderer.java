@@ -0,0 +1,36 @@
+package Project.client.Views;
+
+import java.awt.Color;
+import java.awt.Component;
+import java.awt.Font;
+import javax.swing.BorderFactory;
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JList;
+
+/**
+ * Draws every row of the user list with the same label; muted users are red
+ * and active ones (i.e., you after sending) bold.
+ */
+public class UserListCellRenderer extends DefaultListCellRenderer {
+    // derived from the list's font once, not on every paint
+    private Font listFont;
+    private Font plainFont;
+    private Font boldFont;
+
+    @Override
+    public Component getListCellRendererComponent(JList<?> list, Object value, int index, boolean isSelected,
+            boolean cellHasFocus) {
+        super.getListCellRendererComponent(list, value, index, false, false);
+        UserListModel.User user = (UserListModel.User) value;
+        setText(user.getName());
+        setForeground(user.isMuted() ? Color.RED : Color.BLACK); // jah89 07-20-2024
+        if (list.getFont() != listFont) {
+            listFont = list.getFont();
+            plainFont = listFont.deriveFont(Font.PLAIN);
+            boldFont = listFont.deriveFont(Font.BOLD);
+        }
+        setFont(user.isActive() ? boldFont : plainFont);
+        setBorder(BorderFactory.createEmptyBorder(0, 0, 5, 0)); // spacing between users
+        return this;
+    }
+}
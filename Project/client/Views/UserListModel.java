@@ -0,0 +1,241 @@
+package Project.client.Views;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.swing.AbstractListModel;
+import javax.swing.SwingUtilities;
+
+/**
+ * The users in the room as a list model, sorted by name and optionally
+ * filtered.
+ * <p>
+ * Changes only touch the map of users; the sorted, filtered rows the list
+ * shows are rebuilt once per batch of changes ({@link #refresh()}). Small
+ * rosters are rebuilt right away, large ones on a background thread from a
+ * snapshot, and the result is only used if nothing changed in the meantime.
+ * Until then the list shows the previous rows; status changes still show up
+ * immediately since the flags live on the shared {@link User}. Apart from the
+ * sorting, everything runs on the EDT.
+ * </p>
+ */
+public class UserListModel extends AbstractListModel<UserListModel.User> {
+    // sorting fewer than this on the EDT is quicker than handing it off
+    private static final int BACKGROUND_SORT_SIZE = 1000;
+    private static final Comparator<User> ORDER = Comparator.comparing((User u) -> u.sortKey)
+            .thenComparingLong(u -> u.clientId);
+    private static final ExecutorService sorter = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "user-list-sort");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * A user in the list, with the flags shown for them
+     */
+    public static class User {
+        private final long clientId;
+        private final String name;
+        private final String sortKey;
+        private boolean isMuted = false;
+        private boolean isActive = false;
+        private int row = -1; // where it is in the rows, -1 if not shown
+
+        public User(long clientId, String name) {
+            this.clientId = clientId;
+            this.name = name;
+            this.sortKey = name.toLowerCase(Locale.ROOT);
+        }
+
+        public long getClientId() {
+            return clientId;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isMuted() {
+            return isMuted;
+        }
+
+        public boolean isActive() {
+            return isActive;
+        }
+    }
+
+    private final HashMap<Long, User> users = new HashMap<>();
+    private List<User> rows = new ArrayList<>();
+    private String filter = "";
+    private boolean isDirty = false;
+    private long generation = 0; // bumped by every change so stale sorts are dropped
+
+    @Override
+    public int getSize() {
+        return rows.size();
+    }
+
+    @Override
+    public User getElementAt(int index) {
+        return rows.get(index);
+    }
+
+    /**
+     * @param user
+     * @return false if the user is already listed
+     */
+    public boolean add(User user) {
+        if (users.putIfAbsent(user.clientId, user) != null) {
+            return false;
+        }
+        changed();
+        return true;
+    }
+
+    /**
+     * @param added users to list (ones already listed are skipped)
+     */
+    public void addAll(Collection<User> added) {
+        for (User user : added) {
+            users.putIfAbsent(user.clientId, user);
+        }
+        changed();
+    }
+
+    /**
+     * @param clientId
+     * @return false if the user wasn't listed
+     */
+    public boolean remove(long clientId) {
+        if (users.remove(clientId) == null) {
+            return false;
+        }
+        changed();
+        return true;
+    }
+
+    /**
+     * @param clientIds users to take off the list
+     */
+    public void removeAll(Collection<Long> clientIds) {
+        for (long clientId : clientIds) {
+            users.remove(clientId);
+        }
+        changed();
+    }
+
+    public void clear() {
+        users.clear();
+        changed();
+    }
+
+    /**
+     * Updates a user's flags (shown right away, the order doesn't depend on
+     * them)
+     *
+     * @param clientId
+     * @param isMuted
+     * @param isActive
+     */
+    public void setStatus(long clientId, boolean isMuted, boolean isActive) {
+        User user = users.get(clientId);
+        if (user == null) {
+            return;
+        }
+        user.isMuted = isMuted;
+        user.isActive = isActive;
+        if (user.row >= 0 && user.row < rows.size() && rows.get(user.row) == user) {
+            fireContentsChanged(this, user.row, user.row);
+        }
+    }
+
+    /**
+     * @param filter only list users whose name contains this (case insensitive)
+     */
+    public void setFilter(String filter) {
+        filter = filter == null ? "" : filter.trim().toLowerCase(Locale.ROOT);
+        if (!filter.equals(this.filter)) {
+            this.filter = filter;
+            changed();
+        }
+    }
+
+    private void changed() {
+        isDirty = true;
+        generation++;
+    }
+
+    /**
+     * Rebuilds the rows if anything changed since the last time; called once
+     * per batch of changes
+     */
+    public void refresh() {
+        if (!isDirty) {
+            return;
+        }
+        isDirty = false;
+        List<User> snapshot = new ArrayList<>(users.values());
+        String filter = this.filter;
+        long generation = this.generation;
+        if (snapshot.size() < BACKGROUND_SORT_SIZE) {
+            setRows(sortAndFilter(snapshot, filter));
+            return;
+        }
+        sorter.execute(() -> {
+            List<User> sorted = sortAndFilter(snapshot, filter);
+            SwingUtilities.invokeLater(() -> {
+                if (generation == this.generation) {
+                    setRows(sorted);
+                }
+            });
+        });
+    }
+
+    private static List<User> sortAndFilter(List<User> users, String filter) {
+        if (!filter.isEmpty()) {
+            users.removeIf(u -> !u.sortKey.contains(filter));
+        }
+        users.sort(ORDER);
+        return users;
+    }
+
+    private void setRows(List<User> sorted) {
+        for (User user : rows) {
+            user.row = -1;
+        }
+        for (int i = 0; i < sorted.size(); i++) {
+            sorted.get(i).row = i;
+        }
+        int before = rows.size();
+        rows = sorted;
+        // one event for the whole list, not one per user
+        if (before > sorted.size()) {
+            fireIntervalRemoved(this, sorted.size(), before - 1);
+        } else if (sorted.size() > before) {
+            fireIntervalAdded(this, before, sorted.size() - 1);
+        }
+        if (!sorted.isEmpty() && before > 0) {
+            fireContentsChanged(this, 0, Math.min(before, sorted.size()) - 1);
+        }
+    }
+
+    /**
+     * @param clientId
+     * @return the user, whether or not they're shown
+     */
+    public User get(long clientId) {
+        return users.get(clientId);
+    }
+
+    /**
+     * @return users listed, including ones filtered out
+     */
+    public int getUserCount() {
+        return users.size();
+    }
+}
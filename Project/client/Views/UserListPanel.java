@@ -2,99 +2,76 @@ package Project.client.Views;
 
 import Project.common.LoggerUtil;
 import java.awt.BorderLayout;
-import java.awt.Dimension;
-import java.awt.GridBagConstraints;
-import java.awt.GridBagLayout;
-import java.awt.Insets;
-import java.awt.event.ComponentAdapter;
-import java.awt.event.ComponentEvent;
-import java.awt.event.ContainerEvent;
-import java.awt.event.ContainerListener;
-import java.util.HashMap;
-import javax.swing.Box;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import javax.swing.JList;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
+import javax.swing.JTextField;
 import javax.swing.ScrollPaneConstants;
-import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 
 /**
  * UserListPanel represents a UI component that displays a list of users.
+ * <p>
+ * The users live in a {@link UserListModel}; the list only renders the rows
+ * on screen, all with one renderer and a fixed row height, so a large room
+ * costs no more to show than a small one. Everything here must be called on
+ * the EDT; changes show up at the end of the batch ({@link #onBatchApplied()}).
+ * </p>
  */
 public class UserListPanel extends JPanel {
-    private JPanel userListArea;
-    private GridBagConstraints lastConstraints; // Keep track of the last constraints for the glue
-    private HashMap<Long, UserListItem> userItemsMap; // Maintain a map of client IDs to UserListItems
+    private final UserListModel users = new UserListModel();
+    private final JList<UserListModel.User> userList;
 
     /**
      * Constructor to create the UserListPanel UI.
      */
     public UserListPanel() {
         super(new BorderLayout(10, 10));
-        userItemsMap = new HashMap<>(); // Initialize the map
 
-        JPanel content = new JPanel(new GridBagLayout());
-        userListArea = content;
+        userList = new JList<>(users);
+        userList.setCellRenderer(new UserListCellRenderer());
+        // every row is one line, so the list never has to measure them
+        userList.setPrototypeCellValue(new UserListModel.User(0, "Prototype user (0)"));
+        userList.setOpaque(false);
 
         // Wraps a viewport to provide scroll capabilities
-        JScrollPane scroll = new JScrollPane(userListArea);
+        JScrollPane scroll = new JScrollPane(userList);
         scroll.setHorizontalScrollBarPolicy(ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
         scroll.setVerticalScrollBarPolicy(ScrollPaneConstants.VERTICAL_SCROLLBAR_AS_NEEDED);
         scroll.setBorder(new EmptyBorder(0, 0, 0, 0)); // Remove border
 
-        this.add(scroll, BorderLayout.CENTER);
-
-        userListArea.addContainerListener(new ContainerListener() {
+        JTextField filter = new JTextField();
+        filter.setToolTipText("Filter users");
+        filter.getDocument().addDocumentListener(new DocumentListener() {
             @Override
-            public void componentAdded(ContainerEvent e) {
-                if (userListArea.isVisible()) {
-                    SwingUtilities.invokeLater(() -> {
-                        userListArea.revalidate();
-                        userListArea.repaint();
-                    });
-                }
+            public void insertUpdate(DocumentEvent e) {
+                onFilter(filter.getText());
             }
 
             @Override
-            public void componentRemoved(ContainerEvent e) {
-                if (userListArea.isVisible()) {
-                    SwingUtilities.invokeLater(() -> {
-                        userListArea.revalidate();
-                        userListArea.repaint();
-                    });
-                }
+            public void removeUpdate(DocumentEvent e) {
+                onFilter(filter.getText());
             }
-        });
-
-        // Add vertical glue to push items to the top
-        lastConstraints = new GridBagConstraints();
-        lastConstraints.gridx = 0;
-        lastConstraints.gridy = GridBagConstraints.RELATIVE;
-        lastConstraints.weighty = 1.0;
-        lastConstraints.fill = GridBagConstraints.VERTICAL;
-        userListArea.add(Box.createVerticalGlue(), lastConstraints);
 
-        // Listen for resize events to adjust user list items accordingly
-        this.addComponentListener(new ComponentAdapter() {
             @Override
-            public void componentResized(ComponentEvent e) {
-                SwingUtilities.invokeLater(() -> adjustUserListItemsWidth());
+            public void changedUpdate(DocumentEvent e) {
+                onFilter(filter.getText());
             }
         });
+
+        this.add(filter, BorderLayout.NORTH);
+        this.add(scroll, BorderLayout.CENTER);
     }
 
-    /**
-     * Adjusts the width of all user list items. // jah89 07-20-2024
-     */
-    private void adjustUserListItemsWidth() { 
-        SwingUtilities.invokeLater(() -> { 
-            for (UserListItem item : userItemsMap.values()) { 
-                item.setPreferredSize( 
-                        new Dimension(userListArea.getWidth() - 20, item.getPreferredSize().height));
-            }
-            userListArea.revalidate();
-            userListArea.repaint(); 
-        }); 
+    private void onFilter(String text) {
+        users.setFilter(text);
+        users.refresh();
     }
 
     /**
@@ -104,36 +81,22 @@ public class UserListPanel extends JPanel {
      * @param clientName The name of the client.
      */
     protected void addUserListItem(long clientId, String clientName) { // jah89 07-20-2024
-        SwingUtilities.invokeLater(() -> { 
-            if (userItemsMap.containsKey(clientId)) { 
-                LoggerUtil.INSTANCE.warning("User already in the list: " + clientName); 
-                return; 
-            }
-
-            LoggerUtil.INSTANCE.info("Adding user to list: " + clientName);
-
-            UserListItem userItem = new UserListItem(clientId, clientName, userListArea); 
-
-            GridBagConstraints gbc = new GridBagConstraints(); 
-            gbc.gridx = 0; 
-            gbc.gridy = userListArea.getComponentCount() - 1; 
-            gbc.weightx = 1; 
-            gbc.anchor = GridBagConstraints.NORTH; 
-            gbc.fill = GridBagConstraints.HORIZONTAL; 
-            gbc.insets = new Insets(0, 0, 5, 0);
+        if (!users.add(new UserListModel.User(clientId, clientName))) {
+            LoggerUtil.INSTANCE.warning("User already in the list: " + clientName);
+        }
+    }
 
-            if (lastConstraints != null) { // jah89 07-20-2024
-                int index = userListArea.getComponentCount() - 1; 
-                if (index > -1) { 
-                    userListArea.remove(index); 
-                }
-            }
-            userListArea.add(userItem, gbc); 
-            userListArea.add(Box.createVerticalGlue(), lastConstraints);
-            userItemsMap.put(clientId, userItem); 
-            userListArea.revalidate(); 
-            userListArea.repaint(); 
-        }); 
+    /**
+     * Adds users to the list.
+     *
+     * @param clients client names by ID
+     */
+    protected void addUserListItems(Map<Long, String> clients) {
+        List<UserListModel.User> added = new ArrayList<>(clients.size());
+        for (Map.Entry<Long, String> client : clients.entrySet()) {
+            added.add(new UserListModel.User(client.getKey(), client.getValue()));
+        }
+        users.addAll(added);
     }
 
     /**
@@ -142,37 +105,41 @@ public class UserListPanel extends JPanel {
      * @param clientId The ID of the client to be removed.
      */
     protected void removeUserListItem(long clientId) { // jah89 07-20-2024
-        SwingUtilities.invokeLater(() -> { 
-            LoggerUtil.INSTANCE.info("Removing user list item for id " + clientId); 
-            UserListItem item = userItemsMap.remove(clientId); 
-            if (item != null) { 
-                userListArea.remove(item); 
-                userListArea.revalidate(); 
-                userListArea.repaint(); 
-            }
-        }); 
+        users.remove(clientId);
+    }
+
+    /**
+     * Removes users from the list.
+     *
+     * @param clientIds The IDs of the clients to be removed.
+     */
+    protected void removeUserListItems(Collection<Long> clientIds) {
+        users.removeAll(clientIds);
     }
 
     /**
      * Clears the user list.
      */
     protected void clearUserList() { // jah89 07-20-2024
-        SwingUtilities.invokeLater(() -> { 
-            LoggerUtil.INSTANCE.info("Clearing user list"); 
-            userItemsMap.clear(); 
-            userListArea.removeAll(); 
-            userListArea.revalidate();
-            userListArea.repaint(); 
-        }); 
+        LoggerUtil.INSTANCE.info("Clearing user list");
+        users.clear();
     }
 
     /**
-     * Get a UserListItem by clientId.
+     * Updates the flags shown for a user
      *
      * @param clientId The ID of the client.
-     * @return The UserListItem if found, null otherwise.
+     * @param isMuted
+     * @param isActive
+     */
+    protected void setUserStatus(long clientId, boolean isMuted, boolean isActive) { // jah89 07-20-2024
+        users.setStatus(clientId, isMuted, isActive);
+    }
+
+    /**
+     * Shows the changes a batch of updates made (the rows are rebuilt once)
      */
-    protected UserListItem getUserItem(long clientId) { // jah89 07-20-2024
-        return userItemsMap.get(clientId);
+    protected void onBatchApplied() {
+        users.refresh();
     }
 }
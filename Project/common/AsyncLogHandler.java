@@ -0,0 +1,219 @@
+package Project.common;
+
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Hands log records to a background writer so logging never makes the caller
+ * wait on disk or console I/O.
+ * <p>
+ * Records go into a fixed-size ring buffer allocated up front. A single writer
+ * thread takes everything that's waiting in one go, publishes it to the target
+ * handlers and flushes them once per batch. When the ring is full the
+ * {@link Overflow} policy decides: DROP discards the record (counted, and
+ * reported in the log once there's room again), BLOCK makes the caller wait
+ * for space.
+ * </p>
+ * <p>
+ * After {@link #shutdown()} everything queued has been written and later
+ * records are written synchronously, so nothing logged while the JVM exits is
+ * lost.
+ * </p>
+ */
+public class AsyncLogHandler extends Handler {
+    /**
+     * What publish() does when the ring is full
+     */
+    public enum Overflow {
+        BLOCK, DROP
+    }
+
+    private final Handler[] targets;
+    private final LogRecord[] ring;
+    private final LogRecord[] batch; // writer's copy of the ring, reused
+    private final Overflow overflow;
+    private final Thread writer;
+    private int head = 0; // oldest record; guarded by this
+    private int size = 0; // guarded by this
+    private long dropped = 0; // guarded by this
+    private long reportedDropped = 0; // writer only
+    private boolean isWriting = false; // writer is publishing a batch; guarded by this
+    private boolean isShutdown = false; // guarded by this
+    private boolean isClosed = false; // guarded by this
+
+    /**
+     * Starts the writer thread
+     *
+     * @param capacity records the ring holds
+     * @param overflow what to do when it's full
+     * @param targets  handlers that do the actual writing (their own levels
+     *                 still apply)
+     */
+    public AsyncLogHandler(int capacity, Overflow overflow, Handler... targets) {
+        this.targets = targets;
+        this.ring = new LogRecord[Math.max(1, capacity)];
+        this.batch = new LogRecord[ring.length];
+        this.overflow = overflow;
+        writer = new Thread(this::write, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void publish(LogRecord record) {
+        if (record == null || !isLoggable(record)) {
+            return;
+        }
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            if (!isShutdown) {
+                while (size == ring.length && overflow == Overflow.BLOCK && !isShutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        dropped++;
+                        return;
+                    }
+                }
+                if (!isShutdown) {
+                    if (size == ring.length) {
+                        dropped++;
+                        return;
+                    }
+                    ring[(head + size) % ring.length] = record;
+                    size++;
+                    if (size == 1) {
+                        notifyAll();
+                    }
+                    return;
+                }
+            }
+            // the writer is gone, write it ourselves
+            publishToTargets(record);
+            flushTargets();
+        }
+    }
+
+    private void write() {
+        while (true) {
+            int taken;
+            long droppedSoFar;
+            synchronized (this) {
+                while (size == 0 && !isShutdown) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        // only shutdown() stops the writer
+                    }
+                }
+                if (size == 0) {
+                    notifyAll(); // tell shutdown() everything's written
+                    return;
+                }
+                taken = size;
+                for (int i = 0; i < taken; i++) {
+                    int index = (head + i) % ring.length;
+                    batch[i] = ring[index];
+                    ring[index] = null;
+                }
+                head = (head + taken) % ring.length;
+                size = 0;
+                droppedSoFar = dropped;
+                isWriting = true;
+                notifyAll(); // blocked publishers have room again
+            }
+            for (int i = 0; i < taken; i++) {
+                publishToTargets(batch[i]);
+                batch[i] = null;
+            }
+            if (droppedSoFar > reportedDropped) {
+                LogRecord lost = new LogRecord(Level.WARNING, String.format(
+                        "Log buffer was full, dropped %d records", droppedSoFar - reportedDropped));
+                lost.setSourceClassName(AsyncLogHandler.class.getName());
+                publishToTargets(lost);
+                reportedDropped = droppedSoFar;
+            }
+            flushTargets();
+            synchronized (this) {
+                isWriting = false;
+                notifyAll();
+            }
+        }
+    }
+
+    private void publishToTargets(LogRecord record) {
+        for (Handler target : targets) {
+            try {
+                target.publish(record);
+            } catch (RuntimeException e) {
+                // a failing handler reports through its ErrorManager; keep the others going
+            }
+        }
+    }
+
+    private void flushTargets() {
+        for (Handler target : targets) {
+            target.flush();
+        }
+    }
+
+    /**
+     * @return records discarded because the ring was full
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    /**
+     * Waits until everything published so far has been written out
+     */
+    @Override
+    public void flush() {
+        synchronized (this) {
+            while ((size > 0 || isWriting) && writer.isAlive()) {
+                try {
+                    wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        flushTargets();
+    }
+
+    /**
+     * Writes out everything queued and stops the writer thread; records
+     * published afterwards are written synchronously
+     */
+    public void shutdown() {
+        synchronized (this) {
+            if (isShutdown) {
+                return;
+            }
+            isShutdown = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flushTargets();
+    }
+
+    @Override
+    public void close() {
+        shutdown();
+        synchronized (this) {
+            isClosed = true;
+            for (Handler target : targets) {
+                target.close();
+            }
+        }
+    }
+}
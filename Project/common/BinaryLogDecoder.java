@@ -0,0 +1,423 @@
+package Project.common;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Reads logs written by {@link BinaryLogHandler} and prints them as text or
+ * JSON lines.
+ * <p>
+ * Usage: {@code java Project.common.BinaryLogDecoder [--json] [--level LEVEL]
+ * [--source regex] [--grep regex] file.blog[.gz]...}
+ * </p>
+ * <p>
+ * --level keeps records at or above the level, --source those whose class
+ * matches, --grep those whose message matches (all matches are partial,
+ * like grep). Files are read in the order given; rotated archives are named
+ * by time, so a sorted glob lists them oldest first.
+ * </p>
+ */
+public class BinaryLogDecoder {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss.SSS")
+            .withZone(ZoneId.systemDefault());
+
+    /**
+     * One decoded record
+     */
+    public static class Entry {
+        private final long millis;
+        private final Level level;
+        private final long threadId;
+        private final String source;
+        private final String event;
+        private final Object[] fields;
+        private final String thrownClass;
+        private final String thrownMessage;
+        private final String[] frames;
+
+        private Entry(long millis, Level level, long threadId, String source, String event, Object[] fields,
+                String thrownClass, String thrownMessage, String[] frames) {
+            this.millis = millis;
+            this.level = level;
+            this.threadId = threadId;
+            this.source = source;
+            this.event = event;
+            this.fields = fields;
+            this.thrownClass = thrownClass;
+            this.thrownMessage = thrownMessage;
+            this.frames = frames;
+        }
+
+        public long getMillis() {
+            return millis;
+        }
+
+        public Level getLevel() {
+            return level;
+        }
+
+        public long getThreadId() {
+            return threadId;
+        }
+
+        public String getSource() {
+            return source;
+        }
+
+        /**
+         * @return the format the record was logged with (or its message if it
+         *         had no arguments)
+         */
+        public String getEvent() {
+            return event;
+        }
+
+        public Object[] getFields() {
+            return fields;
+        }
+
+        /**
+         * @return the message as the text log would have shown it
+         */
+        public String getMessage() {
+            if (fields.length == 0 || event == null) {
+                return event;
+            }
+            try {
+                return String.format(event, fields);
+            } catch (IllegalFormatException e) {
+                return event + " " + Arrays.toString(fields);
+            }
+        }
+
+        public String getThrownClass() {
+            return thrownClass;
+        }
+
+        public String getThrownMessage() {
+            return thrownMessage;
+        }
+
+        public String[] getFrames() {
+            return frames;
+        }
+    }
+
+    /**
+     * Reads the entries of one file
+     */
+    public static class Reader implements Closeable {
+        private final DataInputStream in;
+        private final List<String> strings = new ArrayList<>();
+        private long lastMillis;
+
+        /**
+         * @param in
+         * @throws IOException if it isn't a binary log
+         */
+        public Reader(InputStream in) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(in));
+            byte[] magic = new byte[BinaryLogHandler.MAGIC.length];
+            this.in.readFully(magic);
+            if (!Arrays.equals(magic, BinaryLogHandler.MAGIC)) {
+                throw new IOException("Not a binary log");
+            }
+            int version = this.in.readUnsignedByte();
+            if (version != BinaryLogHandler.VERSION) {
+                throw new IOException("Unsupported binary log version " + version);
+            }
+            lastMillis = readVarLong();
+        }
+
+        /**
+         * @return the next record, or null at the end of the file
+         * @throws IOException if the file is corrupt (a record cut short by a
+         *                     crash just ends the file)
+         */
+        public Entry next() throws IOException {
+            try {
+                while (true) {
+                    int tag = in.read();
+                    if (tag < 0) {
+                        return null;
+                    }
+                    if (tag == BinaryLogHandler.STRING) {
+                        int id = (int) readVarLong();
+                        if (id != BinaryLogHandler.FIRST_ID + strings.size()) {
+                            throw new IOException("Unexpected string id " + id);
+                        }
+                        strings.add(readUtf8());
+                    } else if (tag == BinaryLogHandler.RECORD) {
+                        return readRecord();
+                    } else {
+                        throw new IOException("Unknown entry " + tag);
+                    }
+                }
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        private Entry readRecord() throws IOException {
+            int code = in.readUnsignedByte();
+            Level level;
+            if (code == 0) {
+                level = Level.parse(Long.toString(readZigZag()));
+            } else if (code < BinaryLogHandler.LEVELS.length) {
+                level = BinaryLogHandler.LEVELS[code];
+            } else {
+                throw new IOException("Unknown level " + code);
+            }
+            lastMillis += readZigZag();
+            long threadId = readVarLong();
+            String source = readRef();
+            String event = readRef();
+            Object[] fields = new Object[(int) readVarLong()];
+            for (int i = 0; i < fields.length; i++) {
+                fields[i] = readField();
+            }
+            String thrownClass = null;
+            String thrownMessage = null;
+            String[] frames = null;
+            long thrown = readVarLong();
+            if (thrown > 0) {
+                thrownClass = readRef();
+                thrownMessage = readRef();
+                frames = new String[(int) thrown - 1];
+                for (int i = 0; i < frames.length; i++) {
+                    frames[i] = readRef();
+                }
+            }
+            return new Entry(lastMillis, level, threadId, source, event, fields, thrownClass, thrownMessage, frames);
+        }
+
+        private Object readField() throws IOException {
+            int type = in.readUnsignedByte();
+            switch (type) {
+                case BinaryLogHandler.FIELD_NULL:
+                    return null;
+                case BinaryLogHandler.FIELD_LONG:
+                    return readZigZag();
+                case BinaryLogHandler.FIELD_DOUBLE:
+                    return in.readDouble();
+                case BinaryLogHandler.FIELD_TRUE:
+                    return true;
+                case BinaryLogHandler.FIELD_FALSE:
+                    return false;
+                case BinaryLogHandler.FIELD_STRING:
+                    return readUtf8();
+                case BinaryLogHandler.FIELD_ENUM:
+                    return readRef();
+                default:
+                    throw new IOException("Unknown field type " + type);
+            }
+        }
+
+        private String readRef() throws IOException {
+            long ref = readVarLong();
+            if (ref == BinaryLogHandler.NULL_REF) {
+                return null;
+            }
+            if (ref == BinaryLogHandler.INLINE_REF) {
+                return readUtf8();
+            }
+            int index = (int) (ref - BinaryLogHandler.FIRST_ID);
+            if (index < 0 || index >= strings.size()) {
+                throw new IOException("Undefined string " + ref);
+            }
+            return strings.get(index);
+        }
+
+        private String readUtf8() throws IOException {
+            byte[] bytes = new byte[(int) readVarLong()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = in.readUnsignedByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        private long readZigZag() throws IOException {
+            long value = readVarLong();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private static String toText(Entry entry) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(DATE_FORMAT.format(Instant.ofEpochMilli(entry.getMillis()))).append(' ')
+                .append(entry.getLevel().getName()).append(" [").append(entry.getSource()).append("] #")
+                .append(entry.getThreadId()).append(": ").append(entry.getMessage());
+        if (entry.getThrownClass() != null) {
+            sb.append('\n').append(entry.getThrownClass());
+            if (entry.getThrownMessage() != null) {
+                sb.append(": ").append(entry.getThrownMessage());
+            }
+            for (String frame : entry.getFrames()) {
+                sb.append("\n\tat ").append(frame);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String toJson(Entry entry) {
+        StringBuilder sb = new StringBuilder("{\"time\":");
+        appendJson(sb, Instant.ofEpochMilli(entry.getMillis()).toString());
+        sb.append(",\"millis\":").append(entry.getMillis()).append(",\"level\":");
+        appendJson(sb, entry.getLevel().getName());
+        sb.append(",\"thread\":").append(entry.getThreadId()).append(",\"source\":");
+        appendJson(sb, entry.getSource());
+        sb.append(",\"event\":");
+        appendJson(sb, entry.getEvent());
+        sb.append(",\"fields\":[");
+        for (int i = 0; i < entry.getFields().length; i++) {
+            Object field = entry.getFields()[i];
+            if (i > 0) {
+                sb.append(',');
+            }
+            if (field instanceof Double && !((Double) field).isNaN() && !((Double) field).isInfinite()
+                    || field instanceof Long || field instanceof Boolean) {
+                sb.append(field);
+            } else {
+                appendJson(sb, field == null ? null : field.toString());
+            }
+        }
+        sb.append("],\"message\":");
+        appendJson(sb, entry.getMessage());
+        if (entry.getThrownClass() != null) {
+            sb.append(",\"thrown\":{\"class\":");
+            appendJson(sb, entry.getThrownClass());
+            sb.append(",\"message\":");
+            appendJson(sb, entry.getThrownMessage());
+            sb.append(",\"frames\":[");
+            for (int i = 0; i < entry.getFrames().length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                appendJson(sb, entry.getFrames()[i]);
+            }
+            sb.append("]}");
+        }
+        return sb.append('}').toString();
+    }
+
+    private static void appendJson(StringBuilder sb, String value) {
+        if (value == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+    public static void main(String[] args) throws IOException {
+        boolean isJson = false;
+        Level level = Level.ALL;
+        Pattern source = null;
+        Pattern grep = null;
+        List<String> files = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--json":
+                    isJson = true;
+                    break;
+                case "--level":
+                    level = Level.parse(args[++i].toUpperCase());
+                    break;
+                case "--source":
+                    source = Pattern.compile(args[++i]);
+                    break;
+                case "--grep":
+                    grep = Pattern.compile(args[++i]);
+                    break;
+                default:
+                    files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            System.err.println(
+                    "Usage: BinaryLogDecoder [--json] [--level LEVEL] [--source regex] [--grep regex] file.blog...");
+            return;
+        }
+        Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+        for (String file : files) {
+            try (Reader reader = new Reader(file.endsWith(".gz") ? new GZIPInputStream(new FileInputStream(file))
+                    : new FileInputStream(file))) {
+                Entry entry;
+                while ((entry = reader.next()) != null) {
+                    if (entry.getLevel().intValue() < level.intValue()
+                            || source != null && (entry.getSource() == null || !source.matcher(entry.getSource()).find())
+                            || grep != null && (entry.getMessage() == null || !grep.matcher(entry.getMessage()).find())) {
+                        continue;
+                    }
+                    out.write(isJson ? toJson(entry) : toText(entry));
+                    out.write('\n');
+                }
+            } catch (IOException e) {
+                out.flush();
+                System.err.println(file + ": " + e.getMessage());
+            }
+        }
+        out.flush();
+    }
+}
@@ -0,0 +1,362 @@
+package Project.common;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Writes log records in a compact binary form instead of formatted text; read
+ * them back with {@link BinaryLogDecoder}.
+ * <p>
+ * Nothing is formatted on the way out. A record logged with a format and
+ * arguments (see LoggerUtil) is stored as the format's id plus its arguments
+ * as typed fields, so the format string, source class and stack frames are
+ * written once per file and referred to by a small number afterwards.
+ * Timestamps are stored as the difference to the previous record and numbers
+ * as varints, so a typical record takes a couple of dozen bytes.
+ * </p>
+ * <p>
+ * Files rotate like {@link LogFileHandler} ({@code %g} in the pattern is the
+ * generation, full files go to a {@link LogArchiver}) and each one starts with
+ * its own header and string table, so any file decodes on its own. Output is
+ * buffered and only written by flush(), unless the handler flushes after every
+ * record (see {@link #setAutoFlush(boolean)}).
+ * </p>
+ *
+ * <pre>
+ * file    := MAGIC VERSION varlong(base millis) entry*
+ * entry   := STRING varint(id) utf8
+ *          | RECORD level zigzag(millis delta) varlong(thread) ref(source) ref(event)
+ *                   varint(field count) field* thrown
+ * ref     := varint 0 (null) | varint 1 utf8 (inline) | varint id (defined by STRING)
+ * utf8    := varint(length) bytes
+ * field   := NULL | LONG zigzag | DOUBLE 8 bytes | TRUE | FALSE | STR utf8 | ENUM ref
+ * thrown  := varint 0 | varint(frames + 1) ref(class) ref(message) ref(frame)*
+ * </pre>
+ */
+public class BinaryLogHandler extends Handler {
+    static final byte[] MAGIC = { 'C', 'L', 'O', 'G' };
+    static final int VERSION = 1;
+
+    static final int STRING = 1;
+    static final int RECORD = 2;
+
+    static final int NULL_REF = 0;
+    static final int INLINE_REF = 1;
+    static final int FIRST_ID = 2;
+
+    static final int FIELD_NULL = 0;
+    static final int FIELD_LONG = 1;
+    static final int FIELD_DOUBLE = 2;
+    static final int FIELD_TRUE = 3;
+    static final int FIELD_FALSE = 4;
+    static final int FIELD_STRING = 5;
+    static final int FIELD_ENUM = 6;
+
+    // level codes; anything else is written as 0 followed by its value
+    static final Level[] LEVELS = { null, Level.SEVERE, Level.WARNING, Level.INFO, Level.CONFIG, Level.FINE,
+            Level.FINER, Level.FINEST, Level.ALL, Level.OFF };
+
+    // strings given an id per file; past this they're written inline
+    private static final int MAX_STRINGS = 1 << 16;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String pattern;
+    private final long limit;
+    private final LogArchiver archiver;
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position = 0;
+    private OutputStream out;
+    private long written = 0; // bytes in the current file, buffered included
+    private long lastMillis = 0;
+    private boolean isAutoFlush = false;
+
+    /**
+     * @param pattern file name with {@code %g} for the generation
+     * @param limit   bytes per file before rotating (0 for no limit)
+     * @param count   number of files to keep
+     * @throws IOException
+     */
+    public BinaryLogHandler(String pattern, long limit, int count) throws IOException {
+        this(pattern, limit, new LogArchiver(pattern, count, 0, 0, true));
+    }
+
+    /**
+     * @param pattern  file name with {@code %g} for the generation
+     * @param limit    bytes per file before rotating (0 for no limit)
+     * @param archiver what becomes of full files (made for the same pattern)
+     * @throws IOException
+     */
+    public BinaryLogHandler(String pattern, long limit, LogArchiver archiver) throws IOException {
+        this.pattern = pattern;
+        this.limit = limit;
+        this.archiver = archiver;
+        File previous = generation(0);
+        if (previous.length() > 0) {
+            archiver.archive(previous); // a binary file can't be appended to, so keep the last run's
+        }
+        open();
+    }
+
+    /**
+     * Flush after every record, for when nothing else flushes the handler
+     * (i.e., it's not behind an AsyncLogHandler); otherwise whatever is still
+     * buffered is lost if the process dies
+     *
+     * @param isAutoFlush
+     */
+    public synchronized void setAutoFlush(boolean isAutoFlush) {
+        this.isAutoFlush = isAutoFlush;
+    }
+
+    private File generation(int generation) {
+        return new File(pattern.replace("%g", Integer.toString(generation)));
+    }
+
+    // always a new file: string ids only mean something within the file that defined them
+    private void open() throws IOException {
+        File file = generation(0);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        out = new FileOutputStream(file);
+        written = 0;
+        strings.clear();
+        lastMillis = System.currentTimeMillis();
+        for (byte b : MAGIC) {
+            writeByte(b);
+        }
+        writeByte(VERSION);
+        writeVarLong(lastMillis);
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        if (out == null || !isLoggable(record)) {
+            return;
+        }
+        try {
+            Object[] fields = record.getParameters();
+            String event = record.getMessage();
+            int sourceRef = ref(record.getSourceClassName());
+            // a format is shared by every record logged with it; a plain message usually isn't
+            int eventRef = fields != null && fields.length > 0 ? ref(event) : event == null ? NULL_REF : INLINE_REF;
+            if (fields != null) {
+                // definitions can't go in the middle of a record, so get every id first
+                for (Object field : fields) {
+                    if (field instanceof Enum) {
+                        ref(((Enum<?>) field).name());
+                    }
+                }
+            }
+            Throwable thrown = record.getThrown();
+            int classRef = 0;
+            String[] frames = null;
+            int[] frameRefs = null;
+            if (thrown != null) {
+                classRef = ref(thrown.getClass().getName());
+                StackTraceElement[] trace = thrown.getStackTrace();
+                frames = new String[trace.length];
+                frameRefs = new int[trace.length];
+                for (int i = 0; i < trace.length; i++) {
+                    frames[i] = trace[i].toString();
+                    frameRefs[i] = ref(frames[i]);
+                }
+            }
+
+            writeByte(RECORD);
+            writeLevel(record.getLevel());
+            long millis = record.getMillis();
+            writeZigZag(millis - lastMillis);
+            lastMillis = millis;
+            writeVarLong(record.getLongThreadID());
+            writeRef(sourceRef, record.getSourceClassName());
+            writeRef(eventRef, event);
+            writeFields(fields);
+            if (thrown == null) {
+                writeVarLong(0);
+            } else {
+                writeVarLong(frameRefs.length + 1);
+                writeRef(classRef, thrown.getClass().getName());
+                writeRef(thrown.getMessage() == null ? NULL_REF : INLINE_REF, thrown.getMessage());
+                for (int i = 0; i < frames.length; i++) {
+                    writeRef(frameRefs[i], frames[i]);
+                }
+            }
+            if (limit > 0 && written >= limit) {
+                rotate();
+            }
+        } catch (IOException e) {
+            reportError("Failed to write log record", e, ErrorManager.WRITE_FAILURE);
+        }
+        if (isAutoFlush) {
+            flush();
+        }
+    }
+
+    /**
+     * Gives a string an id, writing its definition the first time
+     *
+     * @return the reference to write for it
+     */
+    private int ref(String value) throws IOException {
+        if (value == null) {
+            return NULL_REF;
+        }
+        Integer id = strings.get(value);
+        if (id != null) {
+            return id;
+        }
+        if (strings.size() >= MAX_STRINGS) {
+            return INLINE_REF;
+        }
+        id = FIRST_ID + strings.size();
+        strings.put(value, id);
+        writeByte(STRING);
+        writeVarLong(id);
+        writeUtf8(value);
+        return id;
+    }
+
+    private void writeRef(int ref, String value) throws IOException {
+        writeVarLong(ref);
+        if (ref == INLINE_REF) {
+            writeUtf8(value);
+        }
+    }
+
+    private void writeLevel(Level level) throws IOException {
+        for (int i = 1; i < LEVELS.length; i++) {
+            if (LEVELS[i] == level) {
+                writeByte(i);
+                return;
+            }
+        }
+        writeByte(0);
+        writeZigZag(level.intValue());
+    }
+
+    private void writeFields(Object[] fields) throws IOException {
+        if (fields == null) {
+            writeVarLong(0);
+            return;
+        }
+        writeVarLong(fields.length);
+        for (Object field : fields) {
+            if (field == null) {
+                writeByte(FIELD_NULL);
+            } else if (field instanceof Long || field instanceof Integer || field instanceof Short
+                    || field instanceof Byte) {
+                writeByte(FIELD_LONG);
+                writeZigZag(((Number) field).longValue());
+            } else if (field instanceof Double || field instanceof Float) {
+                writeByte(FIELD_DOUBLE);
+                long bits = Double.doubleToRawLongBits(((Number) field).doubleValue());
+                for (int shift = 56; shift >= 0; shift -= 8) {
+                    writeByte((int) (bits >>> shift));
+                }
+            } else if (field instanceof Boolean) {
+                writeByte((Boolean) field ? FIELD_TRUE : FIELD_FALSE);
+            } else if (field instanceof Enum) {
+                String name = ((Enum<?>) field).name();
+                int ref = ref(name);
+                writeByte(FIELD_ENUM);
+                writeRef(ref, name);
+            } else {
+                writeByte(FIELD_STRING);
+                writeUtf8(field.toString());
+            }
+        }
+    }
+
+    private void writeByte(int b) throws IOException {
+        if (position == buffer.length) {
+            drain();
+        }
+        buffer[position++] = (byte) b;
+        written++;
+    }
+
+    private void writeVarLong(long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        writeByte((int) value);
+    }
+
+    private void writeZigZag(long value) throws IOException {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    private void writeUtf8(String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(bytes.length);
+        if (bytes.length > buffer.length - position) {
+            drain();
+            if (bytes.length > buffer.length) {
+                out.write(bytes);
+                written += bytes.length;
+                return;
+            }
+        }
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+        written += bytes.length;
+    }
+
+    private void drain() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void rotate() {
+        try {
+            drain();
+            out.close();
+            archiver.archive(generation(0)); // if it can't, the file just starts over
+            open();
+        } catch (IOException e) {
+            out = null;
+            reportError("Failed to rotate " + generation(0), e, ErrorManager.OPEN_FAILURE);
+        }
+    }
+
+    @Override
+    public synchronized void flush() {
+        if (out == null) {
+            return;
+        }
+        try {
+            drain();
+            out.flush();
+        } catch (IOException e) {
+            reportError("Failed to flush log", e, ErrorManager.FLUSH_FAILURE);
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        flush();
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException e) {
+                reportError("Failed to close log", e, ErrorManager.CLOSE_FAILURE);
+            }
+            out = null;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package Project.common;
+
+/**
+ * Deflated form of another Payload, produced and consumed by PayloadCodec. Only
+ * sent on connections that negotiated compression in CLIENT_CONNECT.
+ */
+public class CompressedPayload extends Payload {
+    private byte[] data;
+    private int length; // serialized size before compression
+
+    public CompressedPayload(PayloadType payloadType, byte[] data, int length) {
+        setPayloadType(payloadType);
+        this.data = data;
+        this.length = length;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("CompressedPayload[%s] %d -> %d bytes", getPayloadType(), length, data.length);
+    }
+}
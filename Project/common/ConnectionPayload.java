@@ -3,6 +3,8 @@ package Project.common;
 public class ConnectionPayload extends Payload {
     private String clientName;
     private boolean isConnect;
+    private String sessionToken; // issued with CLIENT_ID, sent back in CLIENT_CONNECT to resume a session
+    private boolean isCompression; // CLIENT_CONNECT: client can compress, CLIENT_ID: server agreed to
 
     public ConnectionPayload(){
         setPayloadType(PayloadType.CLIENT_CONNECT);
@@ -24,7 +26,21 @@ public class ConnectionPayload extends Payload {
         this.isConnect = isConnect;
     }
 
-    
+    public String getSessionToken() {
+        return sessionToken;
+    }
+
+    public void setSessionToken(String sessionToken) {
+        this.sessionToken = sessionToken;
+    }
+
+    public boolean isCompression() {
+        return isCompression;
+    }
+
+    public void setCompression(boolean isCompression) {
+        this.isCompression = isCompression;
+    }
 
     @Override
     public String toString(){
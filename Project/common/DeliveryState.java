@@ -0,0 +1,190 @@
+package Project.common;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Per-session sequencing state for one side of a connection.
+ * <p>
+ * Outbound payloads get monotonically increasing sequence numbers and are kept
+ * in a bounded RetransmitBuffer until the peer's cumulative ack covers them.
+ * Inbound sequence numbers are tracked to drop duplicates and to produce our
+ * own cumulative ack. The state is kept separate from the socket so it can
+ * outlive a dropped connection and be resumed on a new one.
+ * </p>
+ * <p>
+ * A payload buffered without being written (still queued when its connection
+ * dropped) can carry its sender's future: it's completed when a replay writes
+ * the payload, or failed if the payload is lost (evicted from the buffer, or
+ * the session isn't resumed).
+ * </p>
+ */
+public class DeliveryState {
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private final RetransmitBuffer unacknowledged;
+    private long lastSent = 0; // guarded by the owning PayloadChannel's write lock
+    private volatile long lastReceived = 0;
+    private volatile long lastAckSent = 0;
+    private volatile long peerAck = 0;
+    private volatile long duplicates = 0;
+    // futures of buffered payloads that haven't been written yet, by sequence number
+    private final TreeMap<Long, CompletableFuture<Void>> unwritten = new TreeMap<>(); // guarded by this
+
+    public DeliveryState() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public DeliveryState(int bufferSize) {
+        unacknowledged = new RetransmitBuffer(bufferSize);
+    }
+
+    /**
+     * Assigns the next outbound sequence number and buffers the payload for
+     * retransmission
+     *
+     * @param payload
+     * @return the sequence number
+     */
+    long onSend(Payload payload) {
+        long seq = ++lastSent;
+        unacknowledged.add(seq, payload);
+        failEvicted();
+        return seq;
+    }
+
+    /**
+     * Keeps the future of a buffered payload that hasn't been written yet
+     *
+     * @param seq     the payload's sequence number
+     * @param written completed once a replay writes it
+     */
+    synchronized void awaitReplay(long seq, CompletableFuture<Void> written) {
+        unwritten.put(seq, written);
+    }
+
+    /**
+     * @param seq a payload a replay just wrote
+     * @return its future, if one was waiting for it, to be completed
+     */
+    synchronized CompletableFuture<Void> onReplayed(long seq) {
+        return unwritten.isEmpty() ? null : unwritten.remove(seq);
+    }
+
+    // the buffer is full and dropped the oldest; a future waiting for one of those never gets its replay
+    private void failEvicted() {
+        List<CompletableFuture<Void>> evicted = new ArrayList<>();
+        synchronized (this) {
+            if (unwritten.isEmpty()) {
+                return;
+            }
+            Map<Long, CompletableFuture<Void>> head = unwritten.headMap(unacknowledged.getOldestSeq());
+            evicted.addAll(head.values());
+            head.clear();
+        }
+        IOException e = new IOException("Too many messages waiting to be sent");
+        for (CompletableFuture<Void> written : evicted) {
+            written.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Fails every buffered payload's future that's still waiting for a replay,
+     * for when this state won't be resumed
+     *
+     * @param cause
+     */
+    public void failUnwritten(IOException cause) {
+        List<CompletableFuture<Void>> failed;
+        synchronized (this) {
+            failed = new ArrayList<>(unwritten.values());
+            unwritten.clear();
+        }
+        for (CompletableFuture<Void> written : failed) {
+            written.completeExceptionally(cause);
+        }
+    }
+
+    /**
+     * Applies a cumulative ack received from the peer
+     *
+     * @param ack
+     */
+    public void onPeerAck(long ack) {
+        if (ack > peerAck) {
+            peerAck = ack;
+            unacknowledged.acknowledge(ack);
+        }
+    }
+
+    /**
+     * Tracks an inbound sequence number
+     *
+     * @param seq
+     * @return false if it was already received (a duplicate from a replay)
+     */
+    boolean onReceive(long seq) {
+        if (seq <= lastReceived) {
+            duplicates++;
+            return false;
+        }
+        lastReceived = seq;
+        return true;
+    }
+
+    /**
+     * @param interval
+     * @return true if at least interval payloads arrived since our last ack
+     */
+    boolean isAckDue(int interval) {
+        return lastReceived - lastAckSent >= interval;
+    }
+
+    void setLastAckSent(long ack) {
+        lastAckSent = ack;
+    }
+
+    RetransmitBuffer getUnacknowledged() {
+        return unacknowledged;
+    }
+
+    public long getLastSent() {
+        return lastSent;
+    }
+
+    public long getLastReceived() {
+        return lastReceived;
+    }
+
+    public long getPeerAck() {
+        return peerAck;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @return payloads sent but not yet acknowledged
+     */
+    public int getPending() {
+        return unacknowledged.size();
+    }
+
+    /**
+     * @return unacknowledged payloads lost to buffer overflow (can't be replayed)
+     */
+    public long getDropped() {
+        return unacknowledged.getDropped();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("DeliveryState[sent=%d received=%d peerAck=%d pending=%d dropped=%d duplicates=%d]",
+                lastSent, lastReceived, peerAck, getPending(), getDropped(), duplicates);
+    }
+}
@@ -0,0 +1,76 @@
+package Project.common;
+
+/**
+ * Carries one step of a chunked file transfer:
+ * <ul>
+ * <li>FILE_OFFER: announces transferId, fileName and size</li>
+ * <li>FILE_CHUNK: data starting at offset</li>
+ * <li>FILE_ACK: the receiver has everything before offset and will take up to
+ * window more bytes (a negative offset rejects/cancels the transfer, the
+ * message says why)</li>
+ * </ul>
+ * The clientId is the original sender of the file.
+ */
+public class FilePayload extends Payload {
+    private String transferId;
+    private String fileName;
+    private long size;
+    private long offset;
+    private int window;
+    private byte[] data;
+
+    public FilePayload(PayloadType payloadType, String transferId) {
+        setPayloadType(payloadType);
+        this.transferId = transferId;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public void setSize(long size) {
+        this.size = size;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public void setOffset(long offset) {
+        this.offset = offset;
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    public void setWindow(int window) {
+        this.window = window;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public void setData(byte[] data) {
+        this.data = data;
+    }
+
+    @Override
+    public String toString() {
+        return super.toString() + String.format(" Transfer [%s] File [%s] Size [%d] Offset [%d] Window [%d] Data [%d]",
+                transferId, fileName, size, offset, window, data == null ? 0 : data.length);
+    }
+}
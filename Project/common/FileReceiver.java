@@ -0,0 +1,134 @@
+package Project.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Receiving side of one chunked file transfer. Chunks are written straight to
+ * the target file at their offset; what's already on disk is where an offered
+ * transfer resumes from.
+ */
+public class FileReceiver {
+    // bytes the sender may have in flight beyond our ack
+    public static final int WINDOW = 4 * FileSender.CHUNK_SIZE;
+
+    private final String transferId;
+    private final String fileName;
+    private final long senderId;
+    private final long size;
+    private final FileChannel target;
+    private long received; // contiguous bytes on disk
+    private long lastActivity = System.currentTimeMillis();
+
+    /**
+     * @param offer  the FILE_OFFER being accepted
+     * @param target open, writable file (closed by close()); its current size is
+     *               taken as already received
+     * @throws IOException
+     */
+    public FileReceiver(FilePayload offer, FileChannel target) throws IOException {
+        this.transferId = offer.getTransferId();
+        this.fileName = offer.getFileName();
+        this.senderId = offer.getClientId();
+        this.size = offer.getSize();
+        this.target = target;
+        this.received = Math.min(target.size(), size);
+    }
+
+    /**
+     * @return the FILE_ACK accepting the offer (or resuming it) from what's
+     *         already been received
+     */
+    public synchronized FilePayload ack() {
+        FilePayload ack = new FilePayload(PayloadType.FILE_ACK, transferId);
+        ack.setClientId(senderId);
+        ack.setOffset(received);
+        ack.setWindow(WINDOW);
+        return ack;
+    }
+
+    /**
+     * Writes a chunk (ignoring any part that was already received)
+     *
+     * @param chunk
+     * @return the FILE_ACK to send back
+     * @throws IOException
+     */
+    public synchronized FilePayload onChunk(FilePayload chunk) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        byte[] data = chunk.getData();
+        long skip = received - chunk.getOffset();
+        if (skip >= 0 && skip < data.length && received < size) {
+            ByteBuffer buffer = ByteBuffer.wrap(data, (int) skip, (int) Math.min(data.length - skip, size - received));
+            while (buffer.hasRemaining()) {
+                received += target.write(buffer, received);
+            }
+        }
+        // a gap (skip < 0) can't happen on an ordered connection; the ack makes the
+        // sender back up if it ever does
+        return ack();
+    }
+
+    /**
+     * Builds a FILE_ACK that turns down an offer
+     *
+     * @param offer
+     * @param reason
+     * @return the rejection
+     */
+    public static FilePayload reject(FilePayload offer, String reason) {
+        FilePayload ack = new FilePayload(PayloadType.FILE_ACK, offer.getTransferId());
+        ack.setClientId(offer.getClientId());
+        ack.setOffset(-1);
+        ack.setMessage(reason);
+        return ack;
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSenderId() {
+        return senderId;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized boolean isComplete() {
+        return received >= size;
+    }
+
+    /**
+     * @return when the last chunk arrived (epoch millis)
+     */
+    public synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Closes the target file, ignoring errors
+     */
+    public void close() {
+        try {
+            target.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("FileReceiver[%s %s %d/%d bytes]", transferId, fileName, received, size);
+    }
+}
@@ -0,0 +1,161 @@
+package Project.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sending side of one chunked file transfer.
+ * <p>
+ * Chunks are only sent while they fit in the window the receiver granted in
+ * its last FILE_ACK, so each transfer is clocked by its receiver and a file
+ * never queues more than a window's worth of data ahead of chat payloads on
+ * the same connection. The file is read chunk by chunk with positional reads
+ * through a per-thread direct buffer; it's never held in memory as a whole.
+ * </p>
+ */
+public class FileSender {
+    public static final int CHUNK_SIZE = 32 * 1024;
+    // reused by every transfer pumped from the same thread
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal
+            .withInitial(() -> ByteBuffer.allocateDirect(CHUNK_SIZE));
+
+    /**
+     * Where a transfer's payloads go (usually a connection's send method)
+     */
+    @FunctionalInterface
+    public interface Sink {
+        void send(Payload payload) throws IOException;
+    }
+
+    private final String transferId;
+    private final String fileName;
+    private final long senderId;
+    private final FileChannel source;
+    private final long size;
+    private long nextOffset = 0; // next byte to send
+    private long acked = 0; // bytes the receiver confirmed
+    private long limit = 0; // bytes the receiver allows us to have sent
+    private boolean isCancelled = false;
+    private long lastActivity = System.currentTimeMillis();
+
+    /**
+     * @param transferId id shared by both sides of the transfer
+     * @param fileName   name presented to the receiver
+     * @param senderId   client id of the file's original sender
+     * @param source     open file to read from (closed by close())
+     * @throws IOException
+     */
+    public FileSender(String transferId, String fileName, long senderId, FileChannel source) throws IOException {
+        this.transferId = transferId;
+        this.fileName = fileName;
+        this.senderId = senderId;
+        this.source = source;
+        this.size = source.size();
+    }
+
+    /**
+     * Announces the transfer; nothing else is sent until the receiver acks it.
+     * Offering again (e.g. after a reconnect) lets the receiver tell us where to
+     * resume; anything sent past its last ack is sent again.
+     *
+     * @param sink
+     * @throws IOException
+     */
+    public synchronized void offer(Sink sink) throws IOException {
+        nextOffset = acked;
+        limit = acked;
+        FilePayload fp = new FilePayload(PayloadType.FILE_OFFER, transferId);
+        fp.setClientId(senderId);
+        fp.setFileName(fileName);
+        fp.setSize(size);
+        sink.send(fp);
+    }
+
+    /**
+     * Applies a FILE_ACK and sends as many chunks as its window allows
+     *
+     * @param ack
+     * @param sink
+     * @throws IOException
+     */
+    public synchronized void onAck(FilePayload ack, Sink sink) throws IOException {
+        lastActivity = System.currentTimeMillis();
+        if (ack.getOffset() < 0) {
+            isCancelled = true;
+            return;
+        }
+        acked = Math.max(acked, Math.min(ack.getOffset(), size));
+        // an ack past what we sent means the receiver already had it (resume)
+        nextOffset = Math.max(nextOffset, acked);
+        limit = Math.max(limit, ack.getOffset() + ack.getWindow());
+        ByteBuffer buffer = READ_BUFFER.get();
+        while (nextOffset < size && nextOffset < limit) {
+            buffer.clear();
+            buffer.limit((int) Math.min(CHUNK_SIZE, Math.min(size, limit) - nextOffset));
+            int read = source.read(buffer, nextOffset);
+            if (read <= 0) {
+                throw new IOException(String.format("%s ended at %d of %d bytes", fileName, nextOffset, size));
+            }
+            buffer.flip();
+            byte[] data = new byte[read]; // owned by the payload (it may sit in the retransmit buffer)
+            buffer.get(data);
+            FilePayload chunk = new FilePayload(PayloadType.FILE_CHUNK, transferId);
+            chunk.setClientId(senderId);
+            chunk.setOffset(nextOffset);
+            chunk.setData(data);
+            sink.send(chunk);
+            nextOffset += read;
+        }
+    }
+
+    public String getTransferId() {
+        return transferId;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public synchronized long getAcked() {
+        return acked;
+    }
+
+    /**
+     * @return true once the receiver confirmed every byte
+     */
+    public synchronized boolean isComplete() {
+        return acked >= size;
+    }
+
+    public synchronized boolean isCancelled() {
+        return isCancelled;
+    }
+
+    /**
+     * @return when the receiver last acked (epoch millis)
+     */
+    public synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /**
+     * Closes the source file, ignoring errors
+     */
+    public void close() {
+        try {
+            source.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("FileSender[%s %s %d/%d bytes]", transferId, fileName, acked, size);
+    }
+}
@@ -0,0 +1,215 @@
+package Project.common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Keeps the history of a rotated log file ({@code %g} in the pattern, the
+ * current file being generation 0) without making the writer wait for it.
+ * <p>
+ * Rotating only renames the full file to a timestamped archive (i.e.,
+ * {@code server-20240722-101500-123.log}), which is instant. Compressing it
+ * to {@code .gz} and deleting archives past the retention limits (file count,
+ * total size, age) happens on the archiver's own low-priority thread.
+ * </p>
+ * <p>
+ * The thread is a daemon, so the JVM may exit mid-compression; archives left
+ * uncompressed (or half-written {@code .gz.tmp} files) are cleaned up when the
+ * next archiver for the same pattern starts.
+ * </p>
+ */
+public class LogArchiver {
+    private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final String GZ = ".gz";
+    private static final String TMP = ".tmp";
+
+    private final File directory;
+    private final String prefix; // file name before %g
+    private final String suffix; // file name after %g
+    private final Pattern archiveName;
+    private final int maxFiles;
+    private final long maxTotalBytes;
+    private final long maxAgeMillis;
+    private final boolean isCompressed;
+    private final LinkedBlockingQueue<File> pending = new LinkedBlockingQueue<>();
+    private String lastStamp = "";
+    private int sameStampCount = 0;
+
+    /**
+     * Starts the archiver thread, which first tidies up after any earlier run
+     *
+     * @param pattern       log file name with {@code %g} for the generation
+     * @param maxFiles      files kept, counting the current one (1 keeps no
+     *                      history)
+     * @param maxTotalBytes archived bytes kept, 0 for no limit
+     * @param maxAgeMillis  how long archives are kept, 0 for no limit
+     * @param isCompressed  gzip archives
+     */
+    public LogArchiver(String pattern, int maxFiles, long maxTotalBytes, long maxAgeMillis, boolean isCompressed) {
+        File file = new File(pattern);
+        File parent = file.getAbsoluteFile().getParentFile();
+        this.directory = parent != null ? parent : new File(".");
+        String name = file.getName();
+        int generation = name.indexOf("%g");
+        this.prefix = generation < 0 ? name + "." : name.substring(0, generation);
+        this.suffix = generation < 0 ? "" : name.substring(generation + 2);
+        this.archiveName = Pattern.compile(Pattern.quote(prefix) + "\\d{8}-\\d{6}-\\d{3}(-\\d+)?" + Pattern.quote(suffix)
+                + "(" + Pattern.quote(GZ) + ")?");
+        this.maxFiles = Math.max(1, maxFiles);
+        this.maxTotalBytes = maxTotalBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.isCompressed = isCompressed;
+        Thread thread = new Thread(this::run, "log-archiver-" + prefix + "*" + suffix);
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        thread.start();
+    }
+
+    /**
+     * Moves a full log file out of the way. Only renames it; compression and
+     * retention happen later on the archiver thread.
+     *
+     * @param current the file that was being written (closed)
+     * @return false if it couldn't be moved, in which case the caller should
+     *         start over in the same file
+     */
+    public boolean archive(File current) {
+        if (maxFiles == 1) {
+            return false; // no history wanted
+        }
+        File archive = new File(directory, prefix + nextStamp() + suffix);
+        if (!current.renameTo(archive)) {
+            return false;
+        }
+        pending.add(archive);
+        return true;
+    }
+
+    // archive names sort by time, and two rotations in the same millisecond still get different names
+    private synchronized String nextStamp() {
+        String stamp = TIMESTAMP.format(Instant.now());
+        if (stamp.equals(lastStamp)) {
+            return stamp + "-" + (++sameStampCount);
+        }
+        lastStamp = stamp;
+        sameStampCount = 0;
+        return stamp;
+    }
+
+    private void run() {
+        recover();
+        prune();
+        while (true) {
+            File archive;
+            try {
+                archive = pending.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (isCompressed) {
+                compress(archive);
+            }
+            if (pending.isEmpty()) {
+                prune();
+            }
+        }
+    }
+
+    /**
+     * Compresses archives a previous run didn't get to and removes its partial
+     * output
+     */
+    private void recover() {
+        // only this pattern's: another archiver may share the directory and prefix (i.e., text and binary logs)
+        File[] tmps = directory.listFiles((dir, name) -> name.endsWith(GZ + TMP)
+                && archiveName.matcher(name.substring(0, name.length() - TMP.length())).matches());
+        if (tmps != null) {
+            for (File tmp : tmps) {
+                tmp.delete();
+            }
+        }
+        if (isCompressed) {
+            for (File archive : archives()) {
+                if (!archive.getName().endsWith(GZ)) {
+                    compress(archive);
+                }
+            }
+        }
+    }
+
+    private void compress(File archive) {
+        File tmp = new File(archive.getPath() + GZ + TMP);
+        try (InputStream in = new FileInputStream(archive);
+                OutputStream out = new GZIPOutputStream(new FileOutputStream(tmp), 64 * 1024)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            tmp.delete();
+            LoggerUtil.INSTANCE.warning("Failed to compress log " + archive, e);
+            return;
+        }
+        File gz = new File(archive.getPath() + GZ);
+        tmp.setLastModified(archive.lastModified()); // age is when the log was written
+        if (tmp.renameTo(gz)) {
+            archive.delete();
+        } else {
+            tmp.delete();
+        }
+    }
+
+    /**
+     * @return archived files, oldest first
+     */
+    private List<File> archives() {
+        File[] files = directory.listFiles((dir, name) -> archiveName.matcher(name).matches());
+        if (files == null) {
+            return new ArrayList<>();
+        }
+        Arrays.sort(files, (a, b) -> a.getName().compareTo(b.getName()));
+        return new ArrayList<>(Arrays.asList(files));
+    }
+
+    /**
+     * Deletes the oldest archives until the count, size and age limits hold
+     */
+    private void prune() {
+        List<File> archives = archives();
+        long total = 0;
+        for (File archive : archives) {
+            total += archive.length();
+        }
+        long oldest = maxAgeMillis > 0 ? System.currentTimeMillis() - maxAgeMillis : Long.MIN_VALUE;
+        while (!archives.isEmpty()) {
+            File archive = archives.get(0);
+            boolean isOver = archives.size() > maxFiles - 1
+                    || maxTotalBytes > 0 && total > maxTotalBytes
+                    || archive.lastModified() < oldest;
+            if (!isOver) {
+                break;
+            }
+            total -= archive.length();
+            archive.delete();
+            archives.remove(0);
+        }
+    }
+
+    /**
+     * @return archives waiting to be compressed
+     */
+    public int getPending() {
+        return pending.size();
+    }
+}
@@ -0,0 +1,172 @@
+package Project.common;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Function;
+import java.util.logging.ErrorManager;
+import java.util.logging.LogRecord;
+import java.util.logging.StreamHandler;
+
+/**
+ * Size-rotated log file, like FileHandler ({@code %g} in the pattern is the
+ * generation, 0 being the current file) but buffered: records are only written
+ * out by flush(), so a caller publishing a batch pays for one write instead of
+ * one per record. A full file is handed to a {@link LogArchiver}, which
+ * compresses and expires the history in the background.
+ * <p>
+ * Like FileHandler, a process holds a lock on {@code <file>.lck} while it
+ * writes the file. If another process already has it, the next unique number
+ * is used instead: {@code %u} in the pattern, or appended as {@code .1},
+ * {@code .2}, ... without one. Two processes in one directory then never
+ * write (or archive) the same file.
+ * </p>
+ */
+public class LogFileHandler extends StreamHandler {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_UNIQUE = 100; // as FileHandler
+
+    private final String pattern; // with the unique number this process got
+    private File lockFile;
+    private FileChannel lockChannel;
+    private final long limit;
+    private final LogArchiver archiver;
+    private long written = 0;
+
+    /**
+     * Counts what reaches the file so rotation knows when it's full
+     */
+    private class CountingStream extends FilterOutputStream {
+        private CountingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            written++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            written += len;
+        }
+    }
+
+    /**
+     * @param pattern file name with {@code %g} for the generation (and
+     *                optionally {@code %u} for the unique number)
+     * @param limit   bytes per file before rotating (0 for no limit)
+     * @param count   number of files to keep
+     * @param append  continue the current file rather than starting over
+     * @throws IOException
+     */
+    public LogFileHandler(String pattern, long limit, int count, boolean append) throws IOException {
+        this(pattern, limit, append, unique -> new LogArchiver(unique, count, 0, 0, true));
+    }
+
+    /**
+     * @param pattern   file name with {@code %g} for the generation (and
+     *                  optionally {@code %u} for the unique number)
+     * @param limit     bytes per file before rotating (0 for no limit)
+     * @param append    continue the current file rather than starting over
+     * @param archivers makes what becomes of full files, given the pattern
+     *                  with this process's unique number
+     * @throws IOException
+     */
+    public LogFileHandler(String pattern, long limit, boolean append, Function<String, LogArchiver> archivers)
+            throws IOException {
+        this.pattern = lock(pattern);
+        this.limit = limit;
+        this.archiver = archivers.apply(this.pattern);
+        open(append);
+    }
+
+    // the pattern for the first unique number no other process has locked
+    private String lock(String pattern) throws IOException {
+        for (int unique = 0; unique < MAX_UNIQUE; unique++) {
+            String candidate = pattern.contains("%u") ? pattern.replace("%u", Integer.toString(unique))
+                    : unique == 0 ? pattern : pattern + "." + unique;
+            File file = new File(candidate.replace("%g", "0") + ".lck");
+            File parent = file.getAbsoluteFile().getParentFile();
+            if (parent != null) {
+                parent.mkdirs();
+            }
+            FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+            FileLock lock = null;
+            try {
+                lock = channel.tryLock();
+            } catch (OverlappingFileLockException e) {
+                // another handler in this process has it
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            if (lock != null) {
+                lockFile = file;
+                lockChannel = channel; // the lock is held until it's closed
+                return candidate;
+            }
+            channel.close();
+        }
+        throw new IOException("Couldn't lock a log file for " + pattern + ", " + MAX_UNIQUE + " are in use");
+    }
+
+    private File generation(int generation) {
+        return new File(pattern.replace("%g", Integer.toString(generation)));
+    }
+
+    private void open(boolean append) throws IOException {
+        File file = generation(0);
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        written = append && file.exists() ? file.length() : 0;
+        setOutputStream(new CountingStream(new BufferedOutputStream(new FileOutputStream(file, append), BUFFER_SIZE)));
+    }
+
+    @Override
+    public synchronized void publish(LogRecord record) {
+        super.publish(record); // buffered, no flush
+        if (limit > 0 && written >= limit) {
+            rotate();
+        }
+    }
+
+    private void rotate() {
+        try {
+            setOutputStream(OutputStream.nullOutputStream()); // flushes and closes the full file
+            archiver.archive(generation(0)); // if it can't, the file just starts over
+            open(false);
+        } catch (IOException e) {
+            reportError("Failed to rotate " + generation(0), e, ErrorManager.OPEN_FAILURE);
+        }
+    }
+
+    /**
+     * Closes the file and gives up its lock
+     */
+    @Override
+    public synchronized void close() {
+        super.close();
+        if (lockChannel == null) {
+            return;
+        }
+        try {
+            lockChannel.close();
+        } catch (IOException e) {
+            reportError("Failed to unlock " + lockFile, e, ErrorManager.CLOSE_FAILURE);
+        }
+        lockChannel = null;
+        lockFile.delete();
+    }
+}
@@ -1,14 +1,24 @@
 package Project.common;
 
+import java.io.FilterOutputStream;
 import java.io.IOException;
-import java.text.SimpleDateFormat;
-import java.util.Date;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IllegalFormatException;
+import java.util.List;
+import java.util.function.Supplier;
 import java.util.logging.ConsoleHandler;
 import java.util.logging.FileHandler;
 import java.util.logging.Formatter;
+import java.util.logging.Handler;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 import java.util.logging.Logger;
+import java.util.logging.StreamHandler;
 
 /**
  * Utility class for logging messages to a log file.
@@ -19,8 +29,11 @@ public enum LoggerUtil {
     INSTANCE;
 
     private Logger logger;
+    private AsyncLogHandler asyncHandler; // set when logging asynchronously (records bypass logger)
     private LoggerConfig config;
     private boolean isConfigured = false;
+    // lowest level any handler writes; anything below it is discarded anyway
+    private volatile int minLevel = Level.ALL.intValue();
 
     LoggerUtil() {
     }
@@ -38,10 +51,12 @@ public enum LoggerUtil {
     /**
      * CustomFormatter class for formatting the log messages.
      * This class formats the log messages to include the date, log level, source,
-     * and message.
+     * and message. The date only changes once a second, so its text is cached
+     * and reused for every record within the same second.
      */
-    private static class CustomFormatter extends Formatter {
-        private static final String PATTERN = "MM/dd/yyyy HH:mm:ss";
+    public static class CustomFormatter extends Formatter {
+        private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MM/dd/yyyy HH:mm:ss")
+                .withZone(ZoneId.systemDefault());
         private static final String RESET = "\u001B[0m";
         private static final String BLACK = "\u001B[30m";
         private static final String RED = "\u001B[31m";
@@ -52,40 +67,62 @@ public enum LoggerUtil {
         private static final String CYAN = "\u001B[36m";
         private static final String WHITE = "\u001B[37m";
 
-        @Override
-        public String format(LogRecord record) {
-            SimpleDateFormat dateFormat = new SimpleDateFormat(PATTERN);
-            String date = dateFormat.format(new Date(record.getMillis()));
-            String callingClass = getCallingClassName();
-            String source = callingClass != null ? callingClass
-                    : record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
-            String message = formatMessage(record);
-            String level = getColoredLevel(record.getLevel());
-            String throwable = "";
-            if (record.getThrown() != null) {
-                throwable = "\n" +getStackTrace(record.getThrown());
+        /**
+         * Formatted date of one second; replaced as a whole so any thread can
+         * read it without locking
+         */
+        private static class CachedDate {
+            private final long second;
+            private final String text;
+
+            private CachedDate(long second) {
+                this.second = second;
+                this.text = DATE_FORMAT.format(Instant.ofEpochSecond(second));
             }
-            return String.format("%s [%s] (%s):\n> %s%s\n", date, source, level, message, throwable);
+        }
+
+        private volatile CachedDate date = new CachedDate(0);
+
+        private String date(long millis) {
+            long second = Math.floorDiv(millis, 1000);
+            CachedDate cached = date;
+            if (cached.second != second) {
+                cached = new CachedDate(second);
+                date = cached;
+            }
+            return cached.text;
         }
 
         /**
-         * Determines the name of the class that called the logging method.
-         * 
-         * @return the name of the calling class
+         * Records logged with a format and arguments are formatted here, on
+         * whichever thread writes them, rather than by the caller
          */
-        private static String getCallingClassName() {
-            String loggerUtilPackage = LoggerUtil.class.getPackage().getName();
-            StackTraceElement[] stackTrace = Thread.currentThread().getStackTrace();
-            for (StackTraceElement element : stackTrace) {
-                String className = element.getClassName();
-                // Skip all classes in the logging framework and the package of LoggerUtil
-                if (!className.startsWith("java.util.logging") &&
-                        !className.startsWith(loggerUtilPackage) &&
-                        !className.equals(Thread.class.getName())) {
-                    return className;
-                }
+        @Override
+        public String formatMessage(LogRecord record) {
+            Object[] args = record.getParameters();
+            if (args == null || args.length == 0 || record.getMessage() == null) {
+                return record.getMessage();
+            }
+            try {
+                return String.format(record.getMessage(), args);
+            } catch (IllegalFormatException e) {
+                return record.getMessage() + " " + Arrays.toString(args);
             }
-            return null;
+        }
+
+        @Override
+        public String format(LogRecord record) {
+            // resolved by LoggerUtil.log() on the logging thread (this may run on the log writer)
+            String source = record.getSourceClassName() != null ? record.getSourceClassName() : "unknown";
+            String message = formatMessage(record);
+            StringBuilder sb = new StringBuilder(64 + source.length() + message.length());
+            sb.append(date(record.getMillis())).append(" [").append(source).append("] (")
+                    .append(getColoredLevel(record.getLevel())).append("):\n> ").append(message);
+            if (record.getThrown() != null) {
+                sb.append('\n');
+                appendStackTrace(sb, record.getThrown());
+            }
+            return sb.append('\n').toString();
         }
 
         private static String getColoredLevel(Level level) {
@@ -109,15 +146,34 @@ public enum LoggerUtil {
             }
         }
 
-        private static String getStackTrace(Throwable throwable) {
-            StringBuilder sb = new StringBuilder();
+        private static void appendStackTrace(StringBuilder sb, Throwable throwable) {
             for (StackTraceElement element : throwable.getStackTrace()) {
                 sb.append("\tat ").append(element).append("\n");
             }
-            return sb.toString();
         }
     }
 
+    private static final String LOGGER_UTIL_PACKAGE = LoggerUtil.class.getPackage().getName();
+    // frames looked at before giving up; the caller is only a few frames above log()
+    private static final int MAX_CALLER_DEPTH = 16;
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    /**
+     * Determines the name of the class that called the logging method. Walks
+     * only as many frames as it needs instead of capturing the whole stack.
+     * 
+     * @return the name of the calling class
+     */
+    public static String getCallingClassName() {
+        return WALKER.walk(frames -> frames.limit(MAX_CALLER_DEPTH)
+                .map(StackWalker.StackFrame::getClassName)
+                // Skip all classes in the logging framework and the package of LoggerUtil
+                .filter(className -> !className.startsWith("java.util.logging")
+                        && !className.startsWith(LOGGER_UTIL_PACKAGE))
+                .findFirst()
+                .orElse(null));
+    }
+
     /**
      * Ensures the logger is configured only once.
      */
@@ -134,32 +190,79 @@ public enum LoggerUtil {
                 rootLogger.removeHandler(handler);
             }
 
-            // Customize the file naming pattern
-            String logPattern = config.getLogLocation().replace(".log", "-%g.log");
-            // FileHandler writes log messages to a specified file, with support for
-            // rotating log files
-            FileHandler fileHandler = new FileHandler(
-                    logPattern,
-                    config.getFileSizeLimit(),
-                    config.getFileCount(),
-                    true);
-            fileHandler.setFormatter(new CustomFormatter());
-            fileHandler.setLevel(config.getFileLogLevel());
-            logger.addHandler(fileHandler);
-
-            // ConsoleHandler prints log messages to the console
-            ConsoleHandler consoleHandler = new ConsoleHandler();
+            List<Handler> handlers = new ArrayList<>();
+            if (config.getFormat() != LogFormat.BINARY) {
+                // Customize the file naming pattern
+                String logPattern = config.getLogLocation().replace(".log", "-%g.log");
+                Handler fileHandler;
+                if (config.isAsync()) {
+                    // buffered version of FileHandler; the async writer flushes it once per batch
+                    fileHandler = new LogFileHandler(logPattern, config.getFileSizeLimit(), true,
+                            this::newArchiver);
+                } else {
+                    // FileHandler writes log messages to a specified file, with support for
+                    // rotating log files
+                    fileHandler = new FileHandler(
+                            logPattern,
+                            config.getFileSizeLimit(),
+                            config.getFileCount(),
+                            true);
+                }
+                fileHandler.setFormatter(new CustomFormatter());
+                fileHandler.setLevel(config.getFileLogLevel());
+                handlers.add(fileHandler);
+            }
+            if (config.getFormat() != LogFormat.TEXT) {
+                String binaryPattern = config.getLogLocation().replace(".log", "-%g.blog");
+                BinaryLogHandler binaryHandler = new BinaryLogHandler(binaryPattern, config.getFileSizeLimit(),
+                        newArchiver(binaryPattern));
+                // the async writer flushes it once per batch; nothing does otherwise
+                binaryHandler.setAutoFlush(!config.isAsync());
+                binaryHandler.setLevel(config.getFileLogLevel());
+                handlers.add(binaryHandler);
+            }
+            // ConsoleHandler prints log messages to the console (the async writer flushes
+            // its buffered stand-in once per batch)
+            Handler consoleHandler = config.isAsync()
+                    ? new StreamHandler(new NonClosingStream(System.err), new CustomFormatter())
+                    : new ConsoleHandler();
             consoleHandler.setFormatter(new CustomFormatter());
             consoleHandler.setLevel(config.getConsoleLogLevel());
-            logger.addHandler(consoleHandler);
+            handlers.add(consoleHandler);
+            if (config.isAsync()) {
+                // not added to logger: records are handed over directly, so the logging
+                // framework's own shutdown can't close it before shutdown() flushes it
+                asyncHandler = new AsyncLogHandler(config.getBufferSize(), config.getOverflow(),
+                        handlers.toArray(new Handler[0]));
+            } else {
+                for (Handler handler : handlers) {
+                    logger.addHandler(handler);
+                }
+            }
 
             logger.setLevel(Level.ALL);
+            minLevel = Math.min(config.getFileLogLevel().intValue(), config.getConsoleLogLevel().intValue());
             isConfigured = true;
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
 
+    private LogArchiver newArchiver(String pattern) {
+        return new LogArchiver(pattern, config.getFileCount(), config.getMaxTotalSize(),
+                config.getMaxAgeHours() * 3600_000L, config.isCompressed());
+    }
+
+    /**
+     * Lets hot paths skip building a message nobody will see.
+     * 
+     * @param level
+     * @return true if a message at this level would be written anywhere
+     */
+    public boolean isLoggable(Level level) {
+        return level.intValue() >= minLevel;
+    }
+
     /**
      * Logs a message at the specified level.
      * 
@@ -167,9 +270,7 @@ public enum LoggerUtil {
      * @param message the log message
      */
     public void log(Level level, String message) {
-        if (!isConfigured)
-            setupLogger();
-        logger.log(level, message);
+        log(level, message, (Throwable) null);
     }
 
     /**
@@ -226,6 +327,75 @@ public enum LoggerUtil {
         log(Level.FINEST, message);
     }
 
+    /**
+     * Logs a message built with String.format. Nothing is done unless the
+     * level is enabled, so a filtered call costs little more than the level
+     * check (plus the varargs array). The format and arguments are kept apart
+     * in the record: text handlers format them when they write it, the binary
+     * log stores them as they are.
+     *
+     * @param level  the level of the log message
+     * @param format String.format pattern
+     * @param args   the pattern's arguments
+     */
+    public void log(Level level, String format, Object... args) {
+        if (args == null || args.length == 0) {
+            log(level, format);
+            return;
+        }
+        if (!isConfigured)
+            setupLogger();
+        if (!isLoggable(level)) {
+            return;
+        }
+        publish(level, getCallingClassName(), format, snapshot(args.clone()), null);
+    }
+
+    /**
+     * Logs a message that's only built if the level is enabled
+     *
+     * @param level   the level of the log message
+     * @param message builds the log message
+     */
+    public void log(Level level, Supplier<String> message) {
+        if (!isLoggable(level)) {
+            return;
+        }
+        log(level, message.get());
+    }
+
+    public void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    public void info(Supplier<String> message) {
+        log(Level.INFO, message);
+    }
+
+    public void warning(String format, Object... args) {
+        log(Level.WARNING, format, args);
+    }
+
+    public void warning(Supplier<String> message) {
+        log(Level.WARNING, message);
+    }
+
+    public void severe(String format, Object... args) {
+        log(Level.SEVERE, format, args);
+    }
+
+    public void severe(Supplier<String> message) {
+        log(Level.SEVERE, message);
+    }
+
+    public void fine(String format, Object... args) {
+        log(Level.FINE, format, args);
+    }
+
+    public void fine(Supplier<String> message) {
+        log(Level.FINE, message);
+    }
+
     /**
      * Logs an exception at the specified level.
      * 
@@ -236,7 +406,116 @@ public enum LoggerUtil {
     public void log(Level level, String message, Throwable throwable) {
         if (!isConfigured)
             setupLogger();
-        logger.log(level, message, throwable);
+        if (!isLoggable(level)) {
+            return;
+        }
+        publish(level, getCallingClassName(), message, null, throwable);
+    }
+
+    /**
+     * Logs a message on behalf of a known class, skipping the stack walk that
+     * finds the caller. Meant for the per-class info()/fine() helpers that
+     * most server logging goes through.
+     * 
+     * @param source the class the message is attributed to
+     * @param level  the level of the log message
+     * @param format String.format pattern, or the message itself if there are
+     *               no args
+     * @param args   the pattern's arguments; the array is kept, so pass a
+     *               fresh one
+     */
+    public void log(Class<?> source, Level level, String format, Object... args) {
+        if (!isConfigured)
+            setupLogger();
+        if (!isLoggable(level)) {
+            return;
+        }
+        publish(level, source.getName(), format, args.length == 0 ? null : snapshot(args), null);
+    }
+
+    /**
+     * Puts context arguments (i.e., the room name for a "Room[%s]: " prefix)
+     * in front of a format's own
+     * 
+     * @param args    the format's arguments
+     * @param context what goes first
+     * @return a new array
+     */
+    public static Object[] withContext(Object[] args, Object... context) {
+        Object[] all = Arrays.copyOf(context, context.length + args.length);
+        System.arraycopy(args, 0, all, context.length, args.length);
+        return all;
+    }
+
+    /**
+     * Arguments may be formatted later on the log writer, so anything that
+     * isn't an immutable value is turned into its text now, while it still
+     * says what it did when it was logged
+     */
+    private static Object[] snapshot(Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            Object arg = args[i];
+            if (arg != null && !(arg instanceof String || arg instanceof Number || arg instanceof Boolean
+                    || arg instanceof Character || arg instanceof Enum)) {
+                args[i] = String.valueOf(arg);
+            }
+        }
+        return args;
+    }
+
+    private void publish(Level level, String source, String message, Object[] args, Throwable throwable) {
+        LogRecord record = new LogRecord(level, message);
+        record.setLoggerName(logger.getName());
+        record.setSourceClassName(source);
+        record.setParameters(args);
+        record.setThrown(throwable);
+        AsyncLogHandler async = asyncHandler;
+        if (async != null) {
+            async.publish(record);
+        } else {
+            logger.log(record);
+        }
+    }
+
+    /**
+     * Writes out everything logged so far (waits for the async writer)
+     */
+    public void flush() {
+        AsyncLogHandler async = asyncHandler;
+        if (async != null) {
+            async.flush();
+        }
+    }
+
+    /**
+     * Writes out everything still queued and stops the async writer; anything
+     * logged afterwards is written synchronously. Call from shutdown hooks.
+     */
+    public void shutdown() {
+        AsyncLogHandler async = asyncHandler;
+        if (async != null) {
+            async.shutdown();
+        }
+    }
+
+    /**
+     * System.err for a handler, which would otherwise close it along with
+     * itself
+     */
+    private static class NonClosingStream extends FilterOutputStream {
+        private NonClosingStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
     }
 
     /**
@@ -269,6 +548,15 @@ public enum LoggerUtil {
         log(Level.SEVERE, message, throwable);
     }
 
+    /**
+     * What the log file is written as (the console is always text)
+     */
+    public enum LogFormat {
+        TEXT, // *.log, formatted lines
+        BINARY, // *.blog, see BinaryLogHandler; read with BinaryLogDecoder
+        BOTH
+    }
+
     /**
      * Configuration class for the LoggerUtil.
      * This class encapsulates all the properties for configuring the logger.
@@ -279,6 +567,15 @@ public enum LoggerUtil {
         private String logLocation = "application.log";
         private Level fileLogLevel = Level.ALL; // default log level for file
         private Level consoleLogLevel = Level.ALL; // default log level for console
+        private boolean isAsync = Boolean.parseBoolean(System.getProperty("chat.log.async", "true"));
+        private int bufferSize = Integer.getInteger("chat.log.bufferSize", 8192); // records the async ring holds
+        private AsyncLogHandler.Overflow overflow = AsyncLogHandler.Overflow
+                .valueOf(System.getProperty("chat.log.overflow", "DROP").toUpperCase());
+        private LogFormat format = LogFormat.valueOf(System.getProperty("chat.log.format", "TEXT").toUpperCase());
+        // history kept by the asynchronous handlers besides fileCount (0 for no limit)
+        private long maxTotalSize = Long.getLong("chat.log.maxTotalSize", 0); // bytes of archived logs
+        private int maxAgeHours = Integer.getInteger("chat.log.maxAgeHours", 0);
+        private boolean isCompressed = Boolean.parseBoolean(System.getProperty("chat.log.compress", "true"));
 
         // Getters and Setters for each property
 
@@ -371,6 +668,132 @@ public enum LoggerUtil {
         public void setConsoleLogLevel(Level consoleLogLevel) {
             this.consoleLogLevel = consoleLogLevel;
         }
+
+        /**
+         * Gets whether records are written by a background thread.
+         * 
+         * @return true for asynchronous logging
+         */
+        public boolean isAsync() {
+            return isAsync;
+        }
+
+        /**
+         * Sets whether records are written by a background thread.
+         * 
+         * @param isAsync true for asynchronous logging
+         */
+        public void setAsync(boolean isAsync) {
+            this.isAsync = isAsync;
+        }
+
+        /**
+         * Gets how many records the asynchronous buffer holds.
+         * 
+         * @return the buffer size in records
+         */
+        public int getBufferSize() {
+            return bufferSize;
+        }
+
+        /**
+         * Sets how many records the asynchronous buffer holds.
+         * 
+         * @param bufferSize the buffer size in records
+         */
+        public void setBufferSize(int bufferSize) {
+            this.bufferSize = bufferSize;
+        }
+
+        /**
+         * Gets what happens when the asynchronous buffer is full.
+         * 
+         * @return the overflow policy
+         */
+        public AsyncLogHandler.Overflow getOverflow() {
+            return overflow;
+        }
+
+        /**
+         * Sets what happens when the asynchronous buffer is full.
+         * 
+         * @param overflow the overflow policy
+         */
+        public void setOverflow(AsyncLogHandler.Overflow overflow) {
+            this.overflow = overflow;
+        }
+
+        /**
+         * Gets what the log file is written as.
+         * 
+         * @return the log file format
+         */
+        public LogFormat getFormat() {
+            return format;
+        }
+
+        /**
+         * Sets what the log file is written as.
+         * 
+         * @param format the log file format
+         */
+        public void setFormat(LogFormat format) {
+            this.format = format;
+        }
+
+        /**
+         * Gets how many bytes of rotated logs are kept.
+         * 
+         * @return the limit in bytes, 0 for none
+         */
+        public long getMaxTotalSize() {
+            return maxTotalSize;
+        }
+
+        /**
+         * Sets how many bytes of rotated logs are kept.
+         * 
+         * @param maxTotalSize the limit in bytes, 0 for none
+         */
+        public void setMaxTotalSize(long maxTotalSize) {
+            this.maxTotalSize = maxTotalSize;
+        }
+
+        /**
+         * Gets how long rotated logs are kept.
+         * 
+         * @return the limit in hours, 0 for none
+         */
+        public int getMaxAgeHours() {
+            return maxAgeHours;
+        }
+
+        /**
+         * Sets how long rotated logs are kept.
+         * 
+         * @param maxAgeHours the limit in hours, 0 for none
+         */
+        public void setMaxAgeHours(int maxAgeHours) {
+            this.maxAgeHours = maxAgeHours;
+        }
+
+        /**
+         * Gets whether rotated logs are gzipped.
+         * 
+         * @return true to compress rotated logs
+         */
+        public boolean isCompressed() {
+            return isCompressed;
+        }
+
+        /**
+         * Sets whether rotated logs are gzipped.
+         * 
+         * @param isCompressed true to compress rotated logs
+         */
+        public void setCompressed(boolean isCompressed) {
+            this.isCompressed = isCompressed;
+        }
     }
 
     /**
@@ -0,0 +1,71 @@
+package Project.common;
+
+import java.util.Arrays;
+
+/**
+ * Copy-on-write set of primitive longs.
+ * <p>
+ * Lookups binary search a sorted array snapshot without locking, boxing or
+ * allocating, so they're safe from any thread; changes copy the array. Meant
+ * for small sets that are read far more often than they change (e.g. checked
+ * for every message fanned out).
+ * </p>
+ */
+public class LongSet {
+    private static final long[] EMPTY = new long[0];
+
+    private volatile long[] values = EMPTY; // sorted
+
+    /**
+     * @param value
+     * @return true if it wasn't in the set yet
+     */
+    public synchronized boolean add(long value) {
+        long[] current = values;
+        int index = Arrays.binarySearch(current, value);
+        if (index >= 0) {
+            return false;
+        }
+        index = -index - 1;
+        long[] updated = new long[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        updated[index] = value;
+        System.arraycopy(current, index, updated, index + 1, current.length - index);
+        values = updated;
+        return true;
+    }
+
+    /**
+     * @param value
+     * @return true if it was in the set
+     */
+    public synchronized boolean remove(long value) {
+        long[] current = values;
+        int index = Arrays.binarySearch(current, value);
+        if (index < 0) {
+            return false;
+        }
+        long[] updated = new long[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, index);
+        System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+        values = updated;
+        return true;
+    }
+
+    public boolean contains(long value) {
+        return Arrays.binarySearch(values, value) >= 0;
+    }
+
+    public int size() {
+        return values.length;
+    }
+
+    public synchronized void clear() {
+        values = EMPTY;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(values);
+    }
+}
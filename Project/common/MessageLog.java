@@ -0,0 +1,354 @@
+package Project.common;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * A room's messages on disk, one line of UTF-8 text per message stamped with
+ * when it was logged, so the chat can show recent history before the server
+ * says anything, export it without holding it in memory and search it.
+ * <p>
+ * Appends go into a memory-mapped region of the file ({@link #REGION_SIZE}
+ * at a time, the next one mapped as the current fills up), so writing a
+ * message is a copy into memory rather than a system call. The unwritten part
+ * of the last region is zeros; that's trimmed off on close, and found again
+ * (text never contains a zero byte) if the client didn't get to close it.
+ * Line breaks within a message are written as spaces.
+ * </p>
+ * <p>
+ * Every message is added to a {@link SearchIndex} by its offset in the file,
+ * in the background: the indexing task reads what was appended since it last
+ * ran from the file, a chunk at a time, so an append only copies its text and
+ * never waits on the indexing. On open, only the last {@link #REINDEX_BYTES}
+ * of what's already in the file are indexed.
+ * </p>
+ */
+public class MessageLog implements AutoCloseable {
+    public static final int REGION_SIZE = 1 << 20;
+    private static final byte NEWLINE = '\n';
+    private static final DateTimeFormatter STAMP = DateTimeFormatter.ofPattern("'['yyyy-MM-dd HH:mm:ss'] '");
+    // what STAMP writes, to tell a stamped line from a message that starts with '['
+    private static final Pattern STAMPED = Pattern.compile("\\[\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}\\] ");
+    private static final int STAMP_LENGTH = 22;
+    private static final int INDEX_CHUNK = 1 << 20; // bytes indexed per turn of the background indexing
+    // how much of a log that's opened again gets indexed, from the end
+    public static final long REINDEX_BYTES = Long.getLong("chat.search.reindexBytes", 64L << 20);
+    // lines read at most to fill a filtered search
+    private static final int SEARCH_SCAN_LIMIT = 4096;
+
+    private final Path file;
+    private final FileChannel channel;
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long size; // bytes of text, everything after is unwritten
+    private final SearchIndex index = new SearchIndex();
+    private long indexedTo; // everything before this is in the index, only moved by the indexing task
+    private boolean isIndexing = false; // an indexing task is queued or running, guarded by this
+
+    /**
+     * Opens (or creates) a log, continuing after what's already in it
+     *
+     * @param file
+     * @throws IOException
+     */
+    public MessageLog(Path file) throws IOException {
+        this.file = file;
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        size = findEnd();
+        map(size);
+        indexedTo = size > REINDEX_BYTES ? lineAfter(size - REINDEX_BYTES) : 0;
+        if (size > indexedTo) {
+            isIndexing = true;
+            SearchIndex.background.execute(this::indexAppended);
+        }
+    }
+
+    // where the first line starting after position starts
+    private long lineAfter(long position) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear().limit((int) Math.min(buffer.capacity(), size - position));
+            int read = channel.read(buffer, position);
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == NEWLINE) {
+                    return position + i + 1;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    // the end of the text: the file's length, less the zeros of a region that wasn't trimmed
+    private long findEnd() throws IOException {
+        long end = channel.size();
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (end > 0) {
+            int length = (int) Math.min(buffer.capacity(), end);
+            buffer.clear().limit(length);
+            channel.read(buffer, end - length);
+            for (int i = length - 1; i >= 0; i--) {
+                if (buffer.get(i) != 0) {
+                    return end - length + i + 1;
+                }
+            }
+            end -= length;
+        }
+        return 0;
+    }
+
+    private void map(long start) throws IOException {
+        regionStart = start;
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_SIZE);
+    }
+
+    /**
+     * @param message the message as shown (line breaks become spaces)
+     * @return its offset in the file
+     * @throws IOException
+     */
+    public synchronized long append(String message) throws IOException {
+        String text = message.replace('\r', ' ').replace('\n', ' ').replace('\0', ' ');
+        byte[] bytes = (STAMP.format(LocalDateTime.now()) + text + "\n").getBytes(StandardCharsets.UTF_8);
+        long start = size;
+        int written = 0;
+        while (written < bytes.length) {
+            if (!region.hasRemaining()) {
+                map(regionStart + REGION_SIZE);
+            }
+            int length = Math.min(region.remaining(), bytes.length - written);
+            region.put(bytes, written, length);
+            written += length;
+        }
+        size += bytes.length;
+        if (!isIndexing) {
+            isIndexing = true;
+            SearchIndex.background.execute(this::indexAppended);
+        }
+        return start;
+    }
+
+    /**
+     * @param count lines wanted
+     * @return up to the last count lines, oldest first
+     * @throws IOException
+     */
+    public synchronized List<String> tail(int count) throws IOException {
+        ArrayDeque<String> lines = new ArrayDeque<>(Math.max(0, count));
+        if (count <= 0 || size == 0) {
+            return new ArrayList<>(lines);
+        }
+        // read backwards a window at a time until there are enough line breaks
+        long end = size - 1; // skip the last line's break
+        long window = 8192;
+        while (true) {
+            long start = Math.max(0, end - window);
+            ByteBuffer text = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            int lineEnd = text.limit();
+            for (int i = text.limit() - 1; i >= 0 && lines.size() < count; i--) {
+                if (text.get(i) == NEWLINE) {
+                    lines.addFirst(decode(text, i + 1, lineEnd));
+                    lineEnd = i;
+                }
+            }
+            if (lines.size() == count) {
+                break;
+            }
+            if (start == 0) {
+                lines.addFirst(decode(text, 0, lineEnd)); // the file's first line
+                break;
+            }
+            if (lineEnd == text.limit() && window < size) {
+                window *= 2; // a line longer than the window, take a bigger bite
+                continue;
+            }
+            end = start + lineEnd;
+            window = 8192;
+        }
+        return new ArrayList<>(lines);
+    }
+
+    private static String decode(ByteBuffer text, int from, int to) {
+        byte[] bytes = new byte[to - from];
+        text.get(from, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies the log to a file, straight from the file system cache
+     *
+     * @param target
+     * @return bytes written
+     * @throws IOException
+     */
+    public synchronized long exportTo(Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            long position = 0;
+            while (position < size) {
+                position += channel.transferTo(position, size - position, out);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * @param query words the messages must all have
+     * @param limit most messages wanted
+     * @return the newest matching lines, newest first (ones not indexed yet
+     *         aren't found)
+     * @throws IOException
+     */
+    public List<String> search(String query, int limit) throws IOException {
+        return search(query, limit, 0, null);
+    }
+
+    /**
+     * @param query   words the messages must all have
+     * @param limit   most messages wanted
+     * @param from    the oldest offset wanted (i.e., {@link #size()} when the
+     *                reader started following the log)
+     * @param isShown which matching lines to keep, null for all; lines that
+     *                aren't are skipped, looking at no more than a few thousand
+     *                matches in all
+     * @return the newest matching lines, newest first (ones not indexed yet
+     *         aren't found)
+     * @throws IOException
+     */
+    public List<String> search(String query, int limit, long from, Predicate<String> isShown) throws IOException {
+        long[] offsets = index.search(query, isShown == null ? limit : Math.max(limit, SEARCH_SCAN_LIMIT), from);
+        long end = size();
+        List<String> lines = new ArrayList<>(Math.min(limit, offsets.length));
+        // what's before end is never written again, so it's read without holding up appends
+        for (int i = 0; i < offsets.length && lines.size() < limit; i++) {
+            String line = readLine(offsets[i], end);
+            if (isShown == null || isShown.test(line)) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    private String readLine(long offset, long end) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(256);
+        long position = offset;
+        int scanned = 0;
+        while (position < end) {
+            if (!buffer.hasRemaining()) {
+                buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer.flip());
+            }
+            buffer.limit((int) Math.min(buffer.capacity(), buffer.position() + end - position));
+            position += channel.read(buffer, position);
+            for (; scanned < buffer.position(); scanned++) {
+                if (buffer.get(scanned) == NEWLINE) {
+                    return decode(buffer, 0, scanned);
+                }
+            }
+        }
+        return decode(buffer, 0, buffer.position());
+    }
+
+    // indexes what was appended since the last run, a chunk per turn, reading it back from the file
+    private void indexAppended() {
+        try {
+            while (indexChunk()) {
+            }
+        } catch (ClosedChannelException e) {
+            // closed while indexing, nothing left to search
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Stopped indexing " + file + ", newer messages won't be found", e);
+        }
+    }
+
+    // false once caught up, which (under the same lock as append) ends this task
+    private boolean indexChunk() throws IOException {
+        long end;
+        synchronized (this) {
+            if (!channel.isOpen() || indexedTo >= size) {
+                isIndexing = false;
+                return false;
+            }
+            end = size;
+        }
+        long chunk = INDEX_CHUNK;
+        while (true) {
+            ByteBuffer text = ByteBuffer.allocate((int) Math.min(end - indexedTo, chunk));
+            while (text.hasRemaining()) {
+                if (channel.read(text, indexedTo + text.position()) < 0) {
+                    throw new IOException("Log shorter than written");
+                }
+            }
+            int lineStart = 0;
+            for (int i = 0; i < text.limit(); i++) {
+                if (text.get(i) == NEWLINE) {
+                    String line = decode(text, lineStart, i);
+                    index.add(indexedTo + lineStart, STAMPED.matcher(line).lookingAt()
+                            ? line.substring(STAMP_LENGTH)
+                            : line);
+                    lineStart = i + 1;
+                }
+            }
+            if (lineStart > 0) {
+                indexedTo += lineStart;
+                return true;
+            }
+            if (indexedTo + text.limit() == end) {
+                indexedTo = end; // no line break at the end, nothing more to index
+                return true;
+            }
+            chunk *= 2; // a line longer than the chunk
+        }
+    }
+
+    /**
+     * @return the search index, for its statistics
+     */
+    public SearchIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * @return bytes of text in the log
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /**
+     * Writes out the mapped region and trims the unwritten part off the file
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (!channel.isOpen()) {
+            return;
+        }
+        region.force();
+        region = null; // unmapped once collected; until then truncating may fail on some platforms
+        try {
+            channel.truncate(size);
+        } catch (IOException e) {
+            // left zero padded, the next open finds the end anyway
+        }
+        channel.close();
+    }
+}
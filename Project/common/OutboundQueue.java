@@ -0,0 +1,514 @@
+package Project.common;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
+
+/**
+ * Per-connection outbound payloads, queued by priority lane and written to a
+ * PayloadChannel by the queue's own writer thread, or (for processes with many
+ * connections) by a task on a shared executor that runs only while there's
+ * something to write.
+ * <p>
+ * Control payloads (ids, joins/leaves, disconnects, mute status, file acks)
+ * go out before queued chat, and chat before file data, so a join confirmation
+ * never waits behind a backlog of messages. A lane that's been passed over
+ * {@link #STARVATION_LIMIT} times in a row while it had work is served next
+ * regardless of priority. Sequence numbers are assigned as payloads are
+ * written, so the wire order is always the sequence order.
+ * </p>
+ * <p>
+ * Chat and file lanes together hold at most {@link #DEFAULT_LIMIT} payloads;
+ * offering more fails, which senders treat like a failed write (the peer isn't
+ * keeping up). Payloads still queued when the writer stops are handed to the
+ * channel's retransmit buffer so a resumed session replays them.
+ * </p>
+ * <p>
+ * A sender that wants to know when its payload went out can pass a future to
+ * {@link #offer(Payload, CompletableFuture)}: it's completed once the payload
+ * is written, and if the connection drops first it goes with the payload to
+ * the retransmit buffer, to be completed by the replay or failed if the
+ * session isn't resumed (see DeliveryState). Unsequenced payloads aren't
+ * replayed, so theirs are failed right away.
+ * </p>
+ * <p>
+ * A queue with a writer thread can also be set to let the offering thread
+ * write a payload itself when nothing is ahead of it, see
+ * {@link #setDirect(boolean)}.
+ * </p>
+ */
+public class OutboundQueue {
+    public static final int DEFAULT_LIMIT = Integer.getInteger("chat.outbound.limit", 4096);
+    // times in a row a waiting lane may be passed over before it's served anyway
+    public static final int STARVATION_LIMIT = Integer.getInteger("chat.outbound.starvationLimit", 32);
+    // unacknowledged payloads above which a direct queue stops writing on the offering thread
+    public static final int DIRECT_PENDING_LIMIT = Integer.getInteger("chat.outbound.directPending",
+            2 * PayloadChannel.ACK_INTERVAL);
+
+    /**
+     * Priority lanes, highest first
+     */
+    public enum Lane {
+        CONTROL, CHAT, BULK;
+
+        /**
+         * @param payload
+         * @return the lane the payload is sent on
+         */
+        public static Lane of(Payload payload) {
+            switch (payload.getPayloadType()) {
+                case CLIENT_CONNECT:
+                case CLIENT_ID:
+                case SYNC_CLIENT:
+                case DISCONNECT:
+                case ROOM_JOIN:
+                case ROOM_LIST:
+                case MUTE_STATUS:
+                case ACK:
+                case FILE_ACK:
+                    return CONTROL;
+                case FILE_OFFER:
+                case FILE_CHUNK:
+                    return BULK;
+                default:
+                    return CHAT;
+            }
+        }
+    }
+
+    /**
+     * A payload waiting on a lane
+     */
+    private static class Queued {
+        private final Payload payload;
+        private final long enqueuedAt; // nanoTime
+        private final CompletableFuture<Void> written; // may be null
+
+        private Queued(Payload payload, CompletableFuture<Void> written) {
+            this.payload = payload;
+            this.enqueuedAt = System.nanoTime();
+            this.written = written;
+        }
+
+        private void fail(IOException e) {
+            if (written != null) {
+                written.completeExceptionally(e);
+            }
+        }
+
+        // after a failed write; a sequenced payload was buffered by it and its future left for the replay
+        private void failUnlessReplayed(IOException e) {
+            if (!PayloadChannel.isSequenced(payload)) {
+                fail(e);
+            }
+        }
+    }
+
+    /**
+     * Queue and counters of one lane
+     */
+    private static class LaneQueue {
+        private final ArrayDeque<Queued> payloads = new ArrayDeque<>();
+        private int skipped = 0; // times passed over in a row while non-empty
+        private long written = 0;
+        private long rejected = 0;
+        private long promoted = 0; // served early by the starvation guard
+        private long direct = 0; // written by the offering thread
+        private int maxDepth = 0;
+        private long totalWaitNanos = 0;
+        private long maxWaitNanos = 0;
+    }
+
+    private final PayloadChannel channel;
+    private final Consumer<IOException> onFailure;
+    private final int limit;
+    private final LaneQueue[] lanes = new LaneQueue[Lane.values().length];
+    private final Thread writer; // null if written by the executor
+    private final Executor executor; // null if written by the writer thread
+    // an executor task is writing, or (with a writer thread) a payload is being written; guarded by this
+    private boolean isWriting = false;
+    private Thread writingThread = null; // the thread of that executor task, guarded by this
+    private boolean isDirect = false; // guarded by this
+    private IOException directFailure = null; // left for the writer thread to report, guarded by this
+    private boolean isClosed = false; // guarded by this
+
+    /**
+     * Starts the writer thread
+     *
+     * @param name      used for the thread name
+     * @param channel   where payloads are written
+     * @param onFailure called (on the writer thread) if a write fails
+     */
+    public OutboundQueue(String name, PayloadChannel channel, Consumer<IOException> onFailure) {
+        this(name, channel, onFailure, DEFAULT_LIMIT);
+    }
+
+    /**
+     * @param name      used for the thread name
+     * @param channel   where payloads are written
+     * @param onFailure called (on the writer thread) if a write fails
+     * @param limit     chat and file payloads that may be queued
+     */
+    public OutboundQueue(String name, PayloadChannel channel, Consumer<IOException> onFailure, int limit) {
+        this.channel = channel;
+        this.onFailure = onFailure;
+        this.limit = limit;
+        this.executor = null;
+        initLanes();
+        writer = new Thread(this::write, "writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Writes with a task on the executor whenever payloads are waiting instead
+     * of a thread of its own, so an idle connection holds no thread
+     *
+     * @param channel   where payloads are written
+     * @param onFailure called (on the executor) if a write fails
+     * @param executor  runs the writing; a write blocks while the socket is
+     *                  full, so it shouldn't be a small fixed pool
+     */
+    public OutboundQueue(PayloadChannel channel, Consumer<IOException> onFailure, Executor executor) {
+        this.channel = channel;
+        this.onFailure = onFailure;
+        this.limit = DEFAULT_LIMIT;
+        this.executor = executor;
+        initLanes();
+        writer = null;
+    }
+
+    /**
+     * Lets {@link #offer} write a payload on the offering thread when nothing
+     * is queued or being written and the peer is keeping up (no more than
+     * {@link #DIRECT_PENDING_LIMIT} payloads unacknowledged, so the socket has
+     * room and the write doesn't block). Fanning a message out to a room then
+     * costs a write per recipient instead of waking each recipient's writer
+     * thread; a backlog, file data and a lagging peer are still left to the
+     * writer thread.
+     * <p>
+     * Only for queues with a writer thread, and only if the offering threads
+     * may spend a socket write each (not a UI thread). It pays off for a
+     * message to a few recipients; a burst to many goes out faster queued,
+     * since the writer threads flush several payloads at once, so a sender
+     * fanning out widely passes isDirect false to {@link #offer(Payload,
+     * CompletableFuture, boolean)}.
+     * </p>
+     *
+     * @param isDirect
+     */
+    public synchronized void setDirect(boolean isDirect) {
+        if (isDirect && writer == null) {
+            throw new IllegalStateException("Direct writes need a writer thread");
+        }
+        this.isDirect = isDirect;
+    }
+
+    private void initLanes() {
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new LaneQueue();
+        }
+    }
+
+    /**
+     * Queues a payload on its lane
+     *
+     * @param payload
+     * @return false if the queue is closed or the payload's lane is full
+     */
+    public boolean offer(Payload payload) {
+        return offer(payload, null);
+    }
+
+    /**
+     * Queues a payload on its lane
+     *
+     * @param payload
+     * @param written completed (on the writer thread, or this one if written
+     *                directly) once the payload is written, failed if it never
+     *                is; may be null
+     * @return false if the queue is closed or the payload's lane is full (the
+     *         future is left alone)
+     */
+    public boolean offer(Payload payload, CompletableFuture<Void> written) {
+        return offer(payload, written, true);
+    }
+
+    /**
+     * Queues a payload on its lane
+     *
+     * @param payload
+     * @param written  see {@link #offer(Payload, CompletableFuture)}
+     * @param isDirect false to leave the payload to the writer thread even if
+     *                 the queue is set to direct writes
+     * @return false if the queue is closed or the payload's lane is full (the
+     *         future is left alone)
+     */
+    public boolean offer(Payload payload, CompletableFuture<Void> written, boolean isDirect) {
+        Queued direct;
+        synchronized (this) {
+            if (isClosed) {
+                return false;
+            }
+            Lane lane = Lane.of(payload);
+            LaneQueue queue = lanes[lane.ordinal()];
+            if (lane != Lane.CONTROL && getDepth(Lane.CHAT) + getDepth(Lane.BULK) >= limit) {
+                queue.rejected++;
+                return false;
+            }
+            if (isDirect && this.isDirect && !isWriting && lane != Lane.BULK && isEmpty()
+                    && channel.getState().getPending() <= DIRECT_PENDING_LIMIT) {
+                isWriting = true; // holds off the writer thread and other direct writes
+                queue.written++;
+                queue.direct++;
+                direct = new Queued(payload, written);
+            } else {
+                queue.payloads.add(new Queued(payload, written));
+                queue.maxDepth = Math.max(queue.maxDepth, queue.payloads.size());
+                if (executor != null && !isWriting) {
+                    isWriting = true;
+                    executor.execute(this::write);
+                }
+                notifyAll();
+                return true;
+            }
+        }
+        writeDirect(direct);
+        return true;
+    }
+
+    /**
+     * Writes a payload on the offering thread; a failure is left for the
+     * writer thread to report so the caller (a room fanning out) doesn't run
+     * the connection's cleanup
+     */
+    private void writeDirect(Queued direct) {
+        try {
+            if (direct.payload instanceof PingPayload) {
+                ((PingPayload) direct.payload).onWriting();
+            }
+            channel.write(direct.payload, true, direct.written);
+        } catch (IOException e) {
+            synchronized (this) {
+                isClosed = true;
+                directFailure = e;
+                isWriting = false;
+                notifyAll();
+            }
+            direct.failUnlessReplayed(e);
+            return;
+        }
+        synchronized (this) {
+            isWriting = false;
+            if (!isEmpty() || isClosed) {
+                notifyAll(); // the writer thread takes over what was queued meanwhile
+            }
+        }
+        if (direct.written != null) {
+            direct.written.complete(null);
+        }
+    }
+
+    /**
+     * Stops accepting payloads and waits for what's queued to be written. Only
+     * the first call waits.
+     *
+     * @param timeoutMs how long to wait for the writer, 0 to not wait
+     */
+    public void close(long timeoutMs) {
+        synchronized (this) {
+            if (isClosed) {
+                return;
+            }
+            isClosed = true;
+            notifyAll();
+        }
+        if (timeoutMs <= 0 || Thread.currentThread() == writer) {
+            return;
+        }
+        try {
+            if (writer != null) {
+                writer.join(timeoutMs);
+            } else {
+                awaitWritten(timeoutMs);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // the executor's version of joining the writer thread
+    private synchronized void awaitWritten(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        long remaining = timeoutMs;
+        while (isWriting && writingThread != Thread.currentThread() && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param lane
+     * @return payloads waiting on the lane
+     */
+    public synchronized int getDepth(Lane lane) {
+        return lanes[lane.ordinal()].payloads.size();
+    }
+
+    private boolean isEmpty() {
+        for (LaneQueue queue : lanes) {
+            if (!queue.payloads.isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Picks the lane to serve next: the highest priority one with work, unless
+     * another has been starved for too long
+     *
+     * @return the lane's index, or -1 if every lane is empty
+     */
+    private int next() {
+        int chosen = -1;
+        for (int i = 0; i < lanes.length; i++) {
+            if (lanes[i].payloads.isEmpty()) {
+                continue;
+            }
+            if (chosen < 0) {
+                chosen = i;
+            } else if (lanes[i].skipped >= STARVATION_LIMIT) {
+                chosen = i;
+                lanes[i].promoted++;
+                break;
+            }
+        }
+        for (int i = 0; i < lanes.length; i++) {
+            if (i == chosen) {
+                lanes[i].skipped = 0;
+            } else if (!lanes[i].payloads.isEmpty()) {
+                lanes[i].skipped++;
+            }
+        }
+        return chosen;
+    }
+
+    private void write() {
+        Queued queued = null;
+        boolean isClaimed = false; // this writer thread set isWriting
+        try {
+            while (true) {
+                boolean isLast;
+                synchronized (this) {
+                    int lane;
+                    if (isClaimed) {
+                        isWriting = false; // this thread's last payload is out
+                        isClaimed = false;
+                    }
+                    // with a writer thread, isWriting now means a direct write is in progress
+                    while (directFailure != null || (writer != null && isWriting) || (lane = next()) < 0) {
+                        if (directFailure != null) {
+                            throw directFailure;
+                        }
+                        if (executor != null) {
+                            stopWriting(); // the next offer starts another task
+                            return;
+                        }
+                        if (isClosed && !isWriting) {
+                            return;
+                        }
+                        wait();
+                    }
+                    if (writer != null) {
+                        isWriting = true;
+                        isClaimed = true;
+                    } else {
+                        writingThread = Thread.currentThread();
+                    }
+                    LaneQueue queue = lanes[lane];
+                    queued = queue.payloads.poll();
+                    long waited = System.nanoTime() - queued.enqueuedAt;
+                    queue.written++;
+                    queue.totalWaitNanos += waited;
+                    queue.maxWaitNanos = Math.max(queue.maxWaitNanos, waited);
+                    isLast = isEmpty();
+                }
+                if (queued.payload instanceof PingPayload) {
+                    ((PingPayload) queued.payload).onWriting(); // its time in this queue counts too
+                }
+                // only flush once the queue runs dry so a backlog goes out in as few packets as it can
+                channel.write(queued.payload, isLast, queued.written);
+                if (queued.written != null) {
+                    queued.written.complete(null);
+                }
+                queued = null;
+            }
+        } catch (IOException e) {
+            synchronized (this) {
+                isClosed = true;
+            }
+            if (queued != null) {
+                queued.failUnlessReplayed(e);
+            }
+            bufferUnsent(e);
+            synchronized (this) {
+                stopWriting();
+            }
+            onFailure.accept(e);
+        } catch (InterruptedException e) {
+            bufferUnsent(new IOException("Connection closed"));
+        }
+    }
+
+    // guarded by this
+    private void stopWriting() {
+        isWriting = false;
+        writingThread = null;
+        notifyAll();
+    }
+
+    /**
+     * Hands whatever is still queued to the retransmit buffer, in the order it
+     * would have been written, along with the senders' futures (completed when
+     * a resumed session replays them); only unsequenced payloads, which can't
+     * be replayed, are failed
+     */
+    private void bufferUnsent(IOException cause) {
+        List<Queued> lost = new ArrayList<>();
+        synchronized (this) {
+            int lane;
+            while ((lane = next()) >= 0) {
+                Queued queued = lanes[lane].payloads.poll();
+                if (!channel.buffer(queued.payload, queued.written)) {
+                    lost.add(queued);
+                }
+            }
+        }
+        // outside the lock, the futures' callbacks may call back into the queue
+        for (Queued queued : lost) {
+            queued.fail(cause);
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("OutboundQueue[");
+        for (Lane lane : Lane.values()) {
+            LaneQueue queue = lanes[lane.ordinal()];
+            if (lane.ordinal() > 0) {
+                sb.append(' ');
+            }
+            sb.append(String.format("%s(written=%d direct=%d queued=%d maxDepth=%d rejected=%d promoted=%d wait avg=%dus max=%dus)",
+                    lane, queue.written, queue.direct, queue.payloads.size(), queue.maxDepth, queue.rejected,
+                    queue.promoted,
+                    queue.written == 0 ? 0 : queue.totalWaitNanos / queue.written / 1000,
+                    queue.maxWaitNanos / 1000));
+        }
+        return sb.append(']').toString();
+    }
+}
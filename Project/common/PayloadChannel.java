@@ -0,0 +1,318 @@
+package Project.common;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Wraps the object streams of a connection and frames every Payload with a
+ * sequence number and a piggybacked cumulative ack.
+ * <p>
+ * Frame layout: {@code [long seq][long ack][Payload]}. A seq of 0 marks an
+ * unsequenced frame (handshakes and standalone ACKs) that's never buffered or
+ * deduplicated. Received duplicates and ACK payloads are consumed here and
+ * never reach the caller.
+ * </p>
+ * <p>
+ * Both halves of the handshake (CLIENT_CONNECT and CLIENT_ID) are unsequenced
+ * so they get through whether or not the peer still has the session. If it
+ * doesn't (the server restarted or the session expired), the client sees a
+ * token other than the one it offered and calls {@link #restart()}, since the
+ * server numbers its payloads from 1 again.
+ * </p>
+ * <p>
+ * Once compression is negotiated, sequenced payloads go through a PayloadCodec
+ * on their way out. Compressed payloads are always understood on the way in.
+ * </p>
+ */
+public class PayloadChannel {
+    // receiver sends a standalone ACK after this many payloads without replying
+    public static final int ACK_INTERVAL = 32;
+    // ObjectOutputStream keeps a reference to every written object until reset
+    private static final int RESET_INTERVAL = 256;
+
+    private final ObjectOutputStream out;
+    private final ObjectInputStream in;
+    private volatile DeliveryState state;
+    private int writesSinceReset = 0;
+    private volatile PayloadCodec codec = null; // created on first use, Deflater/Inflater hold native memory
+    private volatile boolean isCompressing = false;
+
+    /**
+     * @param output stream to write frames to
+     * @param input  stream to read frames from, or null for a write-only channel
+     * @param state  sequencing state (new, or carried over from a previous
+     *               connection to resume it)
+     * @throws IOException
+     */
+    public PayloadChannel(OutputStream output, InputStream input, DeliveryState state) throws IOException {
+        this.state = state;
+        out = new ObjectOutputStream(output);
+        out.flush();
+        in = input != null ? new ObjectInputStream(input) : null;
+    }
+
+    public DeliveryState getState() {
+        return state;
+    }
+
+    /**
+     * Turns compression of outgoing payloads on/off. Only enable it once the peer
+     * has said it can decompress.
+     *
+     * @param isCompressing
+     */
+    public void setCompression(boolean isCompressing) {
+        if (isCompressing) {
+            getCodec();
+        }
+        this.isCompressing = isCompressing;
+    }
+
+    public boolean isCompressing() {
+        return isCompressing;
+    }
+
+    /**
+     * @return the compression codec (and its stats), created if needed
+     */
+    public PayloadCodec getCodec() {
+        PayloadCodec c = codec;
+        if (c == null) {
+            synchronized (this) {
+                if (codec == null) {
+                    codec = new PayloadCodec();
+                }
+                c = codec;
+            }
+        }
+        return c;
+    }
+
+    /**
+     * @return compression stats, or null if nothing was compressed either way
+     */
+    public PayloadCodec getCodecIfUsed() {
+        return codec;
+    }
+
+    /**
+     * @param payload
+     * @return true if the payload takes part in sequencing/retransmission
+     */
+    public static boolean isSequenced(Payload payload) {
+        PayloadType type = payload.getPayloadType();
+        // the handshake has to get through whether or not the session was resumed; a stale ping is useless
+        return type != PayloadType.ACK && type != PayloadType.CLIENT_CONNECT && type != PayloadType.CLIENT_ID
+                && type != PayloadType.PING;
+    }
+
+    /**
+     * Sequences (if applicable) and writes a payload
+     *
+     * @param payload
+     * @throws IOException
+     */
+    public void write(Payload payload) throws IOException {
+        write(payload, true);
+    }
+
+    /**
+     * Sequences (if applicable) and writes a payload, optionally leaving it in
+     * the stream's buffer for a later write to flush
+     *
+     * @param payload
+     * @param isFlush
+     * @throws IOException
+     */
+    public synchronized void write(Payload payload, boolean isFlush) throws IOException {
+        write(payload, isFlush, null);
+    }
+
+    /**
+     * Sequences (if applicable) and writes a payload. If the write fails, a
+     * sequenced payload is already in the retransmit buffer, so the future is
+     * left for the replay that re-sends it (see {@link #buffer}); an
+     * unsequenced one's is the caller's to fail.
+     *
+     * @param payload
+     * @param isFlush
+     * @param written may be null
+     * @throws IOException
+     */
+    public synchronized void write(Payload payload, boolean isFlush, CompletableFuture<Void> written)
+            throws IOException {
+        long seq = isSequenced(payload) ? state.onSend(payload) : 0;
+        try {
+            writeFrame(seq, payload, isFlush);
+        } catch (IOException e) {
+            if (seq != 0 && written != null) {
+                state.awaitReplay(seq, written);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Sequences a payload without writing it; it goes out with the next replay
+     * (used for payloads still queued when a connection drops)
+     *
+     * @param payload
+     * @param written completed when the replay writes it, failed if it's lost
+     *                first (see DeliveryState); may be null
+     * @return false if the payload isn't sequenced, so it won't be replayed
+     *         (the future is left alone)
+     */
+    public synchronized boolean buffer(Payload payload, CompletableFuture<Void> written) {
+        if (!isSequenced(payload)) {
+            return false;
+        }
+        long seq = state.onSend(payload);
+        if (written != null) {
+            state.awaitReplay(seq, written);
+        }
+        return true;
+    }
+
+    /**
+     * Sends a standalone cumulative ack of everything received so far
+     *
+     * @throws IOException
+     */
+    public synchronized void sendAck() throws IOException {
+        Payload p = new Payload();
+        p.setPayloadType(PayloadType.ACK);
+        writeFrame(0, p, true);
+    }
+
+    /**
+     * Re-sends every buffered payload the peer hasn't acknowledged
+     *
+     * @throws IOException
+     */
+    public void replay() throws IOException {
+        List<CompletableFuture<Void>> replayed = new ArrayList<>();
+        try {
+            synchronized (this) {
+                DeliveryState current = state;
+                current.getUnacknowledged().forEachAfter(current.getPeerAck(), (seq, payload) -> {
+                    writeFrame(seq, payload, true);
+                    CompletableFuture<Void> written = current.onReplayed(seq);
+                    if (written != null) {
+                        replayed.add(written);
+                    }
+                });
+            }
+        } finally {
+            // outside the lock, the futures' callbacks may send
+            for (CompletableFuture<Void> written : replayed) {
+                written.complete(null);
+            }
+        }
+    }
+
+    /**
+     * Continues a previous session on this connection: adopts its state, applies
+     * the ack the peer has sent on this connection so far and replays what it
+     * missed
+     *
+     * @param previous state of the dropped connection
+     * @throws IOException
+     */
+    public void resume(DeliveryState previous) throws IOException {
+        synchronized (this) {
+            long peerAck = state.getPeerAck();
+            state = previous;
+            previous.onPeerAck(peerAck);
+        }
+        replay();
+    }
+
+    /**
+     * Starts over with new sequencing state, for when the peer couldn't resume
+     * the session (i.e., it restarted) and numbers from 1 again. Whatever the
+     * old state still held is dropped, and the futures of what it never wrote
+     * are failed.
+     */
+    public void restart() {
+        DeliveryState previous;
+        synchronized (this) {
+            previous = state;
+            state = new DeliveryState();
+        }
+        previous.failUnwritten(new IOException("Session not resumed"));
+    }
+
+    /**
+     * Blocks until the next new payload arrives
+     *
+     * @return the payload, or null if the peer wrote null
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Payload read() throws IOException, ClassNotFoundException {
+        while (true) {
+            long seq = in.readLong();
+            long ack = in.readLong();
+            Payload payload = (Payload) in.readObject();
+            DeliveryState current = state;
+            current.onPeerAck(ack);
+            if (seq != 0) {
+                if (!current.onReceive(seq)) {
+                    continue; // already delivered before a reconnect
+                }
+                if (current.isAckDue(ACK_INTERVAL)) {
+                    sendAck();
+                }
+            }
+            if (payload != null && payload.getPayloadType() == PayloadType.ACK) {
+                continue;
+            }
+            if (payload instanceof CompressedPayload) {
+                payload = getCodec().decode(payload);
+            }
+            return payload;
+        }
+    }
+
+    private void writeFrame(long seq, Payload payload, boolean isFlush) throws IOException {
+        long ack = state.getLastReceived();
+        if (isCompressing && seq != 0) {
+            payload = codec.encode(payload);
+        }
+        out.writeLong(seq);
+        out.writeLong(ack);
+        out.writeObject(payload);
+        if (isFlush) {
+            out.flush();
+        }
+        state.setLastAckSent(ack);
+        if (++writesSinceReset >= RESET_INTERVAL) {
+            out.reset();
+            writesSinceReset = 0;
+        }
+    }
+
+    /**
+     * Closes both streams, ignoring errors
+     */
+    public void close() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // already closed
+        }
+        try {
+            if (in != null) {
+                in.close();
+            }
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
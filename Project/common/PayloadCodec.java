@@ -0,0 +1,337 @@
+package Project.common;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Per-connection payload compression.
+ * <p>
+ * Large payloads are serialized into a reusable buffer and deflated against a
+ * preset dictionary built from serialized sample payloads (class descriptors,
+ * field names, markup tags), so the per-payload overhead of Java serialization
+ * compresses away too. Payloads estimated below the threshold, and ones that
+ * don't shrink, are sent as-is.
+ * The Deflater, Inflater, buffers and inner object streams live as long as the
+ * connection, so steady state compression only allocates the compressed bytes.
+ * </p>
+ * <p>
+ * Each side's codec is only used by its own channel: encode under the write
+ * lock, decode from the reading thread. Every payload starts with a stream
+ * reset, so each one decodes on its own (duplicates can be skipped).
+ * </p>
+ */
+public class PayloadCodec {
+    // offered/accepted during CLIENT_CONNECT unless disabled with -Dchat.compression=false
+    public static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("chat.compression", "true"));
+    // payloads estimated below this many bytes aren't worth compressing
+    public static final int DEFAULT_THRESHOLD = Integer.getInteger("chat.compression.threshold", 256);
+    private static final byte[] DICTIONARY = buildDictionary();
+
+    private final int threshold;
+    private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    private final Inflater inflater = new Inflater();
+    private final ExposedOutputStream encodeBuffer = new ExposedOutputStream(1024);
+    private final ObjectOutputStream encoder;
+    private byte[] deflateBuffer = new byte[1024];
+    private final ReusableInputStream decodeBuffer = new ReusableInputStream();
+    private final ObjectInputStream decoder;
+
+    // stats (written by one thread each, read by anyone)
+    private volatile long compressed = 0;
+    private volatile long attempted = 0;
+    private volatile long skipped = 0;
+    private volatile long rawBytes = 0;
+    private volatile long compressedBytes = 0;
+    private volatile long encodeNanos = 0;
+    private volatile long decompressed = 0;
+    private volatile long decodeNanos = 0;
+
+    public PayloadCodec() {
+        this(DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold minimum estimated payload size (in bytes) to compress
+     */
+    public PayloadCodec(int threshold) {
+        this.threshold = threshold;
+        try {
+            // the inner streams' headers are never sent: each payload starts with a
+            // reset and is self-contained, so an incompressible one can be dropped
+            encoder = new ObjectOutputStream(encodeBuffer);
+            encoder.flush();
+            byte[] header = decodeBuffer.prepare(encodeBuffer.size());
+            System.arraycopy(encodeBuffer.buffer(), 0, header, 0, encodeBuffer.size());
+            decoder = new ObjectInputStream(decodeBuffer);
+        } catch (IOException e) {
+            // in-memory streams
+            throw new IllegalStateException("Failed to create codec streams", e);
+        }
+    }
+
+    /**
+     * Compresses the payload if it's large enough and actually shrinks
+     *
+     * @param payload
+     * @return a CompressedPayload, or the payload itself
+     * @throws IOException
+     */
+    public Payload encode(Payload payload) throws IOException {
+        if (payload == null || estimateSize(payload) < threshold) {
+            skipped++;
+            return payload;
+        }
+        long start = System.nanoTime();
+        encodeBuffer.reset();
+        encoder.reset();
+        encoder.writeObject(payload);
+        encoder.flush();
+        int length = encodeBuffer.size();
+
+        deflater.reset();
+        deflater.setDictionary(DICTIONARY);
+        deflater.setInput(encodeBuffer.buffer(), 0, length);
+        deflater.finish();
+        int size = 0;
+        while (!deflater.finished()) {
+            if (size == deflateBuffer.length) {
+                deflateBuffer = Arrays.copyOf(deflateBuffer, size * 2);
+            }
+            size += deflater.deflate(deflateBuffer, size, deflateBuffer.length - size);
+        }
+        attempted++;
+        rawBytes += length;
+        if (size >= length) {
+            // incompressible, send it the regular way
+            compressedBytes += length;
+            skipped++;
+            encodeNanos += System.nanoTime() - start;
+            return payload;
+        }
+        compressedBytes += size;
+        compressed++;
+        CompressedPayload cp = new CompressedPayload(payload.getPayloadType(), Arrays.copyOf(deflateBuffer, size),
+                length);
+        encodeNanos += System.nanoTime() - start;
+        return cp;
+    }
+
+    /**
+     * Restores a payload produced by the peer's encode()
+     *
+     * @param payload
+     * @return the original payload, or the payload itself if it wasn't compressed
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    public Payload decode(Payload payload) throws IOException, ClassNotFoundException {
+        if (!(payload instanceof CompressedPayload)) {
+            return payload;
+        }
+        long start = System.nanoTime();
+        CompressedPayload cp = (CompressedPayload) payload;
+        byte[] raw = decodeBuffer.prepare(cp.getLength());
+        inflater.reset();
+        inflater.setInput(cp.getData());
+        try {
+            int size = inflater.inflate(raw, 0, cp.getLength());
+            if (size == 0 && inflater.needsDictionary()) {
+                inflater.setDictionary(DICTIONARY);
+                size = inflater.inflate(raw, 0, cp.getLength());
+            }
+            if (size != cp.getLength() || !inflater.finished()) {
+                throw new IOException(String.format("Corrupt compressed payload (%d of %d bytes)", size,
+                        cp.getLength()));
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt compressed payload", e);
+        }
+        Payload result = (Payload) decoder.readObject();
+        decompressed++;
+        decodeNanos += System.nanoTime() - start;
+        return result;
+    }
+
+    /**
+     * Cheap lower bound of a payload's serialized size (its text content), used to
+     * skip serializing payloads that are too small to compress
+     *
+     * @param payload
+     * @return estimated size in bytes
+     */
+    static int estimateSize(Payload payload) {
+        int size = length(payload.getMessage());
+        if (payload instanceof ConnectionPayload) {
+            size += length(((ConnectionPayload) payload).getClientName());
+        } else if (payload instanceof RoomResultsPayload) {
+            List<String> rooms = ((RoomResultsPayload) payload).getRooms();
+            if (rooms != null) {
+                for (String room : rooms) {
+                    size += length(room) + 2;
+                }
+            }
+        } else if (payload instanceof SearchPayload) {
+            for (String result : ((SearchPayload) payload).getResults()) {
+                size += length(result) + 2;
+            }
+        }
+        return size;
+    }
+
+    private static int length(String text) {
+        return text == null ? 0 : text.length();
+    }
+
+    /**
+     * Serializes a representative set of payloads so the dictionary holds the
+     * exact class descriptors and common strings the encoder will produce.
+     * Both sides build it the same way from the same classes.
+     */
+    private static byte[] buildDictionary() {
+        Payload message = new Payload();
+        message.setPayloadType(PayloadType.MESSAGE);
+        message.setMessage("<b></b><i></i><u></u><font color=\"red\"></font><font color=\"green\"></font>"
+                + "<font color=\"blue\"></font> rolled and got flipped a coin and got heads tails");
+        ConnectionPayload connection = new ConnectionPayload();
+        connection.setPayloadType(PayloadType.SYNC_CLIENT);
+        connection.setClientName("name");
+        RoomResultsPayload rooms = new RoomResultsPayload();
+        List<String> names = new ArrayList<>();
+        names.add("lobby");
+        rooms.setRooms(names);
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            ObjectOutputStream out = new ObjectOutputStream(buffer);
+            // deflate prefers matches near the end of the dictionary, so the most
+            // common payloads go last
+            for (Payload p : new Payload[] { rooms, connection, message }) {
+                out.reset();
+                out.writeObject(p);
+            }
+            out.flush();
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to build compression dictionary", e);
+        }
+    }
+
+    public long getCompressed() {
+        return compressed;
+    }
+
+    /**
+     * @return payloads that were serialized and deflated (compressed or not)
+     */
+    public long getAttempted() {
+        return attempted;
+    }
+
+    /**
+     * @return payloads sent uncompressed (below the threshold or incompressible)
+     */
+    public long getSkipped() {
+        return skipped;
+    }
+
+    public long getDecompressed() {
+        return decompressed;
+    }
+
+    /**
+     * @return compressed size over serialized size of the payloads that were
+     *         considered for compression (1 if none were)
+     */
+    public double getRatio() {
+        return rawBytes == 0 ? 1 : compressedBytes / (double) rawBytes;
+    }
+
+    /**
+     * @return bytes not sent thanks to compression
+     */
+    public long getSavedBytes() {
+        return rawBytes - compressedBytes;
+    }
+
+    public long getEncodeNanos() {
+        return encodeNanos;
+    }
+
+    public long getDecodeNanos() {
+        return decodeNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.ROOT,
+                "PayloadCodec[compressed=%d skipped=%d decompressed=%d ratio=%.2f saved=%dB encode=%.1fus/payload"
+                        + " decode=%.1fus/payload]",
+                compressed, skipped, decompressed, getRatio(), getSavedBytes(),
+                encodeNanos / 1000d / Math.max(1, attempted), decodeNanos / 1000d / Math.max(1, decompressed));
+    }
+
+    /**
+     * ByteArrayOutputStream that hands out its buffer instead of copying it
+     */
+    private static class ExposedOutputStream extends ByteArrayOutputStream {
+        ExposedOutputStream(int size) {
+            super(size);
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+    }
+
+    /**
+     * Input for the inner ObjectInputStream, refilled with each inflated payload
+     */
+    private static class ReusableInputStream extends InputStream {
+        private byte[] buffer = new byte[1024];
+        private int position = 0;
+        private int limit = 0;
+
+        /**
+         * @param length
+         * @return a buffer of at least length bytes that'll be read next
+         */
+        byte[] prepare(int length) {
+            if (buffer.length < length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            position = 0;
+            limit = length;
+            return buffer;
+        }
+
+        @Override
+        public int read() {
+            return position < limit ? buffer[position++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (position >= limit) {
+                return -1;
+            }
+            int n = Math.min(len, limit - position);
+            System.arraycopy(buffer, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return limit - position;
+        }
+    }
+}
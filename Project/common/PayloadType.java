@@ -14,5 +14,13 @@ public enum PayloadType {
     MUTE, //jah89 07-20-2024
     UNMUTE,
     PRIVATE_MESSAGE,
-    MUTE_STATUS //jah89 07-20-2024
+    MUTE_STATUS, //jah89 07-20-2024
+    ACK, // standalone cumulative acknowledgement (see PayloadChannel)
+    FILE_OFFER, // chunked file transfer (see FilePayload)
+    FILE_CHUNK,
+    FILE_ACK,
+    ROLL_STATS, // room's dice statistics (the server replies with a message)
+    CATCH_UP, // resumed client asking for the room messages it missed (see RoomMessagePayload)
+    SEARCH, // search of the room's history and its results (see SearchPayload)
+    PING // latency probe and its reply (see PingPayload)
 }
\ No newline at end of file
@@ -0,0 +1,68 @@
+package Project.common;
+
+/**
+ * A latency probe. The client sends it with its send time; the server sends
+ * it back on the same lane as room messages, after passing it through the
+ * room's mailbox, so the round trip is what a chat message would see. The
+ * reply carries how long the server held it, and how much of that was
+ * waiting for the room, so the client can tell network delay from server
+ * queueing.
+ * <p>
+ * Pings aren't sequenced: one lost with a dropped connection isn't worth
+ * replaying, and a replayed one would report a bogus round trip.
+ * </p>
+ */
+public class PingPayload extends Payload {
+    private long sentAt; // client's nanoTime, only meaningful to the client
+    private long roomNanos; // received until the room got to it
+    private long serverNanos; // received until written back
+    private transient long receivedAt; // server's nanoTime
+
+    public PingPayload() {
+        setPayloadType(PayloadType.PING);
+    }
+
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(long sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public long getRoomNanos() {
+        return roomNanos;
+    }
+
+    public long getServerNanos() {
+        return serverNanos;
+    }
+
+    /**
+     * Server side: the ping was just read
+     */
+    public void onReceived() {
+        receivedAt = System.nanoTime();
+    }
+
+    /**
+     * Server side: the room got to it
+     */
+    public void onRoomReached() {
+        roomNanos = System.nanoTime() - receivedAt;
+    }
+
+    /**
+     * Server side: it's about to be written back (see OutboundQueue)
+     */
+    public void onWriting() {
+        if (receivedAt != 0) {
+            serverNanos = System.nanoTime() - receivedAt;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("PingPayload Room [%sus] Server [%sus]", roomNanos / 1000, serverNanos / 1000);
+    }
+}
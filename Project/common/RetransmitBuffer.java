@@ -0,0 +1,104 @@
+package Project.common;
+
+import java.io.IOException;
+
+/**
+ * Bounded ring of sent-but-unacknowledged payloads, ordered by sequence number.
+ * When full, the oldest entry is dropped (and counted) so a peer that never
+ * acknowledges can't grow memory without bound.
+ */
+public class RetransmitBuffer {
+
+    /**
+     * Receives buffered entries during a replay
+     */
+    @FunctionalInterface
+    public interface Visitor {
+        void visit(long seq, Payload payload) throws IOException;
+    }
+
+    private final long[] seqs;
+    private final Payload[] payloads;
+    private int head = 0; // index of the oldest entry
+    private int size = 0;
+    private long dropped = 0;
+
+    public RetransmitBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Capacity must be at least 1");
+        }
+        seqs = new long[capacity];
+        payloads = new Payload[capacity];
+    }
+
+    /**
+     * Buffers a sent payload
+     *
+     * @param seq     its sequence number (must be greater than any buffered one)
+     * @param payload
+     */
+    public synchronized void add(long seq, Payload payload) {
+        if (size == payloads.length) {
+            payloads[head] = null;
+            head = (head + 1) % payloads.length;
+            size--;
+            dropped++;
+        }
+        int index = (head + size) % payloads.length;
+        seqs[index] = seq;
+        payloads[index] = payload;
+        size++;
+    }
+
+    /**
+     * Releases every entry up to and including the cumulative ack
+     *
+     * @param ack highest sequence number the peer has received
+     */
+    public synchronized void acknowledge(long ack) {
+        while (size > 0 && seqs[head] <= ack) {
+            payloads[head] = null;
+            head = (head + 1) % payloads.length;
+            size--;
+        }
+    }
+
+    /**
+     * Visits, oldest first, every buffered entry after the given sequence number
+     *
+     * @param seq
+     * @param visitor
+     * @throws IOException if the visitor fails
+     */
+    public synchronized void forEachAfter(long seq, Visitor visitor) throws IOException {
+        for (int i = 0; i < size; i++) {
+            int index = (head + i) % payloads.length;
+            if (seqs[index] > seq) {
+                visitor.visit(seqs[index], payloads[index]);
+            }
+        }
+    }
+
+    /**
+     * @return the oldest buffered sequence number, or 0 if empty
+     */
+    public synchronized long getOldestSeq() {
+        return size == 0 ? 0 : seqs[head];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return payloads.length;
+    }
+
+    /**
+     * @return how many unacknowledged entries were evicted because the buffer was
+     *         full (those can no longer be replayed)
+     */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,28 @@
+package Project.common;
+
+/**
+ * A room message numbered by its room, so a client coming back from a dropped
+ * connection can ask for what was said while it was gone.
+ * <p>
+ * As a MESSAGE it's a message broadcast to a room; as a CATCH_UP it's the
+ * client's request for the messages of the room named by the message after the
+ * sequence number it carries.
+ * </p>
+ */
+public class RoomMessagePayload extends Payload {
+    private long roomSeq; // 1 for a room's first message, 0 if unsequenced
+
+    public long getRoomSeq() {
+        return roomSeq;
+    }
+
+    public void setRoomSeq(long roomSeq) {
+        this.roomSeq = roomSeq;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RoomMessagePayload[%s] Seq [%s] Client Id [%s] Message: [%s]", getPayloadType(),
+                roomSeq, getClientId(), getMessage());
+    }
+}
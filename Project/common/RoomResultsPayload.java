@@ -3,8 +3,20 @@ package Project.common;
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * A page of a room search. The client sends the query (the message), which
+ * page it wants and an id for the search; the server answers with the same id
+ * and offset, that page of the matching rooms (sorted by name) and how many
+ * match in total, so the client can drop answers to searches it has since
+ * replaced.
+ */
 public class RoomResultsPayload extends Payload {
+    public static final int MAX_PAGE = 200; // most rooms the server sends at once
     private List<String> rooms = new ArrayList<String>();
+    private long requestId;
+    private int offset;
+    private int limit = MAX_PAGE;
+    private int total;
 
     public RoomResultsPayload() {
         setPayloadType(PayloadType.ROOM_LIST);
@@ -17,4 +29,42 @@ public class RoomResultsPayload extends Payload {
     public void setRooms(List<String> rooms) {
         this.rooms = rooms;
     }
-}
\ No newline at end of file
+
+    public long getRequestId() {
+        return requestId;
+    }
+
+    public void setRequestId(long requestId) {
+        this.requestId = requestId;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public void setOffset(int offset) {
+        this.offset = offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    public void setLimit(int limit) {
+        this.limit = limit;
+    }
+
+    public int getTotal() {
+        return total;
+    }
+
+    public void setTotal(int total) {
+        this.total = total;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RoomResultsPayload Request [%s] Query [%s] Offset [%s] Rooms [%s] of [%s]", requestId,
+                getMessage(), offset, rooms.size(), total);
+    }
+}
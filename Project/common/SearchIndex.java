@@ -0,0 +1,318 @@
+package Project.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Inverted index of a message log: for every word, the offsets of the messages
+ * containing it, in the order they were added.
+ * <p>
+ * Words are runs of letters and digits, lower-cased (and cut at
+ * {@link #MAX_TERM} characters). New offsets go into a plain array per word;
+ * every {@link #COMPACT_AFTER} of them a background task packs those arrays
+ * into their word's delta-encoded varints (usually a byte or two per message
+ * instead of eight), so adding a message stays cheap and the index stays small.
+ * A search finds the messages containing every word of the query; the lists
+ * it needs are copied under the lock and decoded after, so adds don't wait on
+ * a search for a common word. All methods are thread-safe.
+ * </p>
+ * <p>
+ * The index holds at most about {@link #MAX_MESSAGES} messages: they're kept
+ * in two generations of half that each, and once the newer one is full the
+ * older one is dropped and a new one started, so the oldest messages stop
+ * being found.
+ * </p>
+ */
+public class SearchIndex {
+    public static final int MAX_TERM = 32;
+    public static final int COMPACT_AFTER = Integer.getInteger("chat.search.compactAfter", 65_536);
+    public static final int MAX_MESSAGES = Integer.getInteger("chat.search.maxMessages", 500_000);
+    private static final long[] NONE = new long[0];
+    // initial indexing of logs and compaction, see MessageLog
+    static final ExecutorService background = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "search-index");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    // one word's messages: the packed ones, then the ones added since
+    private static class Postings {
+        private byte[] packed = null; // varint deltas, each from the previous offset (-1 before the first)
+        private int packedCount = 0;
+        private long packedLast = -1;
+        private long[] recent = new long[2];
+        private int recentCount = 0;
+
+        long last() {
+            return recentCount > 0 ? recent[recentCount - 1] : packedLast;
+        }
+
+        void add(long offset) {
+            if (recentCount == recent.length) {
+                recent = Arrays.copyOf(recent, recentCount * 2);
+            }
+            recent[recentCount++] = offset;
+        }
+
+        // re-packing copies what's packed, so it waits until that's worth it
+        boolean isWorthPacking() {
+            return recentCount >= Math.max(8, packedCount / 8);
+        }
+
+        void pack() {
+            int length = packed == null ? 0 : packed.length;
+            byte[] out = Arrays.copyOf(packed == null ? new byte[0] : packed, length + recentCount * 10);
+            long previous = packedLast;
+            for (int i = 0; i < recentCount; i++) {
+                long delta = recent[i] - previous;
+                previous = recent[i];
+                while ((delta & ~0x7FL) != 0) {
+                    out[length++] = (byte) ((delta & 0x7F) | 0x80);
+                    delta >>>= 7;
+                }
+                out[length++] = (byte) delta;
+            }
+            packed = Arrays.copyOf(out, length);
+            packedCount += recentCount;
+            packedLast = previous;
+            recent = new long[2];
+            recentCount = 0;
+        }
+
+        // packed is replaced, never changed, so only recent needs copying
+        Snapshot snapshot() {
+            return new Snapshot(packed, packedCount, Arrays.copyOf(recent, recentCount));
+        }
+    }
+
+    // a word's messages as they were when a search took them
+    private static class Snapshot {
+        private final byte[] packed;
+        private final int packedCount;
+        private final long[] recent;
+
+        Snapshot(byte[] packed, int packedCount, long[] recent) {
+            this.packed = packed;
+            this.packedCount = packedCount;
+            this.recent = recent;
+        }
+
+        int count() {
+            return packedCount + recent.length;
+        }
+
+        long[] toArray() {
+            long[] offsets = new long[count()];
+            long previous = -1;
+            int position = 0;
+            for (int i = 0; i < packedCount; i++) {
+                long delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = packed[position++];
+                    delta |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while (b < 0);
+                previous += delta;
+                offsets[i] = previous;
+            }
+            System.arraycopy(recent, 0, offsets, packedCount, recent.length);
+            return offsets;
+        }
+    }
+
+    // the words of up to half of MAX_MESSAGES messages
+    private static class Generation {
+        private final HashMap<String, Postings> terms = new HashMap<>();
+        private long messages = 0;
+    }
+
+    private Generation current = new Generation();
+    private Generation previous = null; // older messages, searched after current
+    private long unpacked = 0; // offsets added since the last compaction started
+    private boolean isCompacting = false;
+    private long messages = 0;
+
+    /**
+     * Indexes a message; offsets must be added in increasing order
+     *
+     * @param offset where the message is in its log
+     * @param text
+     */
+    public synchronized void add(long offset, String text) {
+        if (current.messages >= Math.max(1, MAX_MESSAGES / 2)) {
+            previous = current;
+            current = new Generation();
+        }
+        HashMap<String, Postings> terms = current.terms;
+        forEachTerm(text, term -> {
+            Postings postings = terms.get(term);
+            if (postings == null) {
+                postings = new Postings();
+                terms.put(term, postings);
+            }
+            if (postings.last() != offset) { // once per message, however often it has the word
+                postings.add(offset);
+                unpacked++;
+            }
+        });
+        current.messages++;
+        messages++;
+        if (unpacked >= COMPACT_AFTER && !isCompacting) {
+            isCompacting = true;
+            background.execute(this::compact);
+        }
+    }
+
+    /**
+     * @param query words to look for
+     * @param limit most offsets wanted
+     * @return offsets of the newest messages with every word of the query, newest
+     *         first (none for a query without words)
+     */
+    public long[] search(String query, int limit) {
+        return search(query, limit, 0);
+    }
+
+    /**
+     * @param query words to look for
+     * @param limit most offsets wanted
+     * @param from  the oldest offset wanted
+     * @return offsets of the newest messages from there on with every word of
+     *         the query, newest first (none for a query without words)
+     */
+    public long[] search(String query, int limit, long from) {
+        Set<String> words = new LinkedHashSet<>();
+        forEachTerm(query, words::add);
+        if (words.isEmpty() || limit <= 0) {
+            return NONE;
+        }
+        List<List<Snapshot>> generations = new ArrayList<>(2);
+        synchronized (this) {
+            for (Generation generation : new Generation[] { current, previous }) {
+                List<Snapshot> lists = generation == null ? null : snapshot(generation, words);
+                if (lists != null) {
+                    generations.add(lists);
+                }
+            }
+        }
+        long[] newest = new long[limit];
+        int found = 0;
+        for (int g = 0; g < generations.size() && found < limit; g++) {
+            long[] matches = intersect(generations.get(g));
+            for (int i = matches.length - 1; i >= 0 && found < limit && matches[i] >= from; i--) {
+                newest[found++] = matches[i];
+            }
+        }
+        return found == 0 ? NONE : Arrays.copyOf(newest, found);
+    }
+
+    // the query's words in one generation, null if any of them isn't in it
+    private static List<Snapshot> snapshot(Generation generation, Set<String> words) {
+        List<Snapshot> lists = new ArrayList<>(words.size());
+        for (String word : words) {
+            Postings postings = generation.terms.get(word);
+            if (postings == null) {
+                return null;
+            }
+            lists.add(postings.snapshot());
+        }
+        return lists;
+    }
+
+    // the offsets in every list, oldest first
+    private static long[] intersect(List<Snapshot> snapshots) {
+        // start from the rarest word, every other one can only narrow it down
+        List<Snapshot> lists = new ArrayList<>(snapshots);
+        lists.sort(Comparator.comparingInt(Snapshot::count));
+        long[] matches = lists.get(0).toArray();
+        int count = matches.length;
+        for (int i = 1; i < lists.size() && count > 0; i++) {
+            long[] other = lists.get(i).toArray();
+            int kept = 0;
+            for (int j = 0; j < count; j++) {
+                if (Arrays.binarySearch(other, matches[j]) >= 0) {
+                    matches[kept++] = matches[j];
+                }
+            }
+            count = kept;
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Packs the words' recent offsets; runs in the background once enough were
+     * added, one word at a time so adds and searches don't wait on all of it
+     */
+    public void compact() {
+        List<Postings> all;
+        synchronized (this) {
+            all = new ArrayList<>(current.terms.values());
+            if (previous != null) {
+                all.addAll(previous.terms.values());
+            }
+            unpacked = 0;
+        }
+        for (Postings postings : all) {
+            synchronized (this) {
+                if (postings.isWorthPacking()) {
+                    postings.pack();
+                }
+            }
+        }
+        synchronized (this) {
+            isCompacting = false;
+        }
+    }
+
+    /**
+     * @return messages indexed
+     */
+    public synchronized long getMessages() {
+        return messages;
+    }
+
+    /**
+     * @return distinct words indexed (a word in both generations counts twice)
+     */
+    public synchronized int getTerms() {
+        return current.terms.size() + (previous == null ? 0 : previous.terms.size());
+    }
+
+    private interface TermConsumer {
+        void accept(String term);
+    }
+
+    private static void forEachTerm(String text, TermConsumer consumer) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder term = new StringBuilder(MAX_TERM);
+        for (int i = 0, length = text.length(); i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM) {
+                    term.append(Character.toLowerCase(c));
+                }
+            } else if (term.length() > 0) {
+                consumer.accept(term.toString());
+                term.setLength(0);
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("SearchIndex[%s messages, %s searchable, %s words, %s unpacked]", messages,
+                current.messages + (previous == null ? 0 : previous.messages), getTerms(), unpacked);
+    }
+}
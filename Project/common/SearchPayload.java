@@ -0,0 +1,31 @@
+package Project.common;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A search of the current room's history: from the client, the words to look
+ * for (the message); from the server, the same words and the newest messages
+ * that have all of them, newest first.
+ */
+public class SearchPayload extends Payload {
+    public static final int MAX_RESULTS = Integer.getInteger("chat.search.maxResults", 100);
+    private List<String> results = new ArrayList<String>();
+
+    public SearchPayload() {
+        setPayloadType(PayloadType.SEARCH);
+    }
+
+    public List<String> getResults() {
+        return results;
+    }
+
+    public void setResults(List<String> results) {
+        this.results = results;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SearchPayload Query [%s] Results [%s]", getMessage(), results.size());
+    }
+}
@@ -0,0 +1,319 @@
+package Project.loadtest;
+
+import Project.common.LoggerUtil;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Headless multi-session load generator for capacity testing a local server.
+ * <p>
+ * Usage: {@code java Project.loadtest.LoadGenerator [--host 127.0.0.1] [--port 3000]
+ * [--clients 100] [--rooms 10] [--rate 1.0] [--duration 60] [--ramp 10]
+ * [--roll 0.05] [--flip 0.05] [--mute 0] [--churn 0.01] [--report 5]
+ * [--hot-clients 0] [--hot-senders all] [--hot-rate 1.0] [--server-dir .]}
+ * </p>
+ * <ul>
+ * <li>rate: chat messages per second per client</li>
+ * <li>roll/flip/mute/churn: chance per tick (instead of chatting) to roll, flip,
+ * toggle a mute or move to another random room</li>
+ * <li>server-dir: the server's working directory, where mutes save
+ * mutelist_&lt;name&gt;.txt files; the run's files are deleted from it at the end</li>
+ * <li>hot-clients: extra sessions that all sit in one "load-hot" room, of which
+ * hot-senders chat at hot-rate; used to check that a firehose room doesn't
+ * slow down the regular rooms</li>
+ * </ul>
+ * Reports delivery latency percentiles (send to receipt by any session in the
+ * room) and throughput every report interval and once more at the end. The hot
+ * room's latency is reported separately, and the final report includes how
+ * long room joins took to be confirmed.
+ */
+public class LoadGenerator {
+
+    /**
+     * Counters shared by every session of a run
+     */
+    public static class Stats {
+        final AtomicLong connected = new AtomicLong();
+        final AtomicLong messagesSent = new AtomicLong();
+        final AtomicLong messagesDelivered = new AtomicLong();
+        final AtomicLong actionsSent = new AtomicLong();
+        final AtomicLong payloadsReceived = new AtomicLong();
+        final AtomicLong roomJoins = new AtomicLong();
+        final AtomicLong errors = new AtomicLong();
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LatencyHistogram joinLatency = new LatencyHistogram(); // join request to confirmation
+    }
+
+    private String host = "127.0.0.1";
+    private int port = 3000;
+    private int clients = 100;
+    private int rooms = 10;
+    private double rate = 1.0;
+    private int durationSeconds = 60;
+    private int rampSeconds = 10;
+    private double rollChance = 0.05;
+    private double flipChance = 0.05;
+    private double muteChance = 0;
+    private double churnChance = 0.01;
+    private int reportSeconds = 5;
+    private String namePrefix = "load";
+    private int hotClients = 0;
+    private int hotSenders = -1; // all of them
+    private double hotRate = 1.0;
+    private String serverDir = ".";
+
+    private final Stats stats = new Stats();
+    private final Stats hotStats = new Stats();
+    private final List<LoadSession> sessions = new ArrayList<>();
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram hotTotal = new LatencyHistogram();
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--host":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--clients":
+                    clients = Integer.parseInt(value);
+                    break;
+                case "--rooms":
+                    rooms = Integer.parseInt(value);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(value);
+                    break;
+                case "--duration":
+                    durationSeconds = Integer.parseInt(value);
+                    break;
+                case "--ramp":
+                    rampSeconds = Integer.parseInt(value);
+                    break;
+                case "--roll":
+                    rollChance = Double.parseDouble(value);
+                    break;
+                case "--flip":
+                    flipChance = Double.parseDouble(value);
+                    break;
+                case "--mute":
+                    muteChance = Double.parseDouble(value);
+                    break;
+                case "--churn":
+                    churnChance = Double.parseDouble(value);
+                    break;
+                case "--report":
+                    reportSeconds = Integer.parseInt(value);
+                    break;
+                case "--name":
+                    namePrefix = value;
+                    break;
+                case "--hot-clients":
+                    hotClients = Integer.parseInt(value);
+                    break;
+                case "--hot-senders":
+                    hotSenders = Integer.parseInt(value);
+                    break;
+                case "--hot-rate":
+                    hotRate = Double.parseDouble(value);
+                    break;
+                case "--server-dir":
+                    serverDir = value;
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+            i++;
+        }
+    }
+
+    private void run() throws InterruptedException {
+        if (muteChance > 0 && !new File(serverDir).isDirectory()) {
+            LoggerUtil.INSTANCE.warning("Server directory " + serverDir
+                    + " not found, mute actions will leave mutelist_<name>.txt files on the server");
+        }
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(
+                Math.max(2, Runtime.getRuntime().availableProcessors()), r -> {
+                    Thread t = new Thread(r, "load-scheduler");
+                    t.setDaemon(true);
+                    return t;
+                });
+        long tickMicros = rate > 0 ? (long) (1_000_000 / rate) : 0;
+        long rampMicros = clients > 0 ? rampSeconds * 1_000_000L / clients : 0;
+        for (int i = 0; i < clients; i++) {
+            LoadSession session = new LoadSession(i, namePrefix, stats);
+            sessions.add(session);
+            String room = "load-" + (i % Math.max(1, rooms));
+            scheduler.schedule(() -> start(session, room), i * rampMicros, TimeUnit.MICROSECONDS);
+            if (tickMicros > 0) {
+                // random phase so the whole population doesn't send in lockstep
+                long offset = i * rampMicros + 500_000 + ThreadLocalRandom.current().nextLong(tickMicros);
+                scheduler.scheduleAtFixedRate(() -> tick(session), offset, tickMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+        long hotTickMicros = hotRate > 0 ? (long) (1_000_000 / hotRate) : 0;
+        long hotRampMicros = hotClients > 0 ? rampSeconds * 1_000_000L / hotClients : 0;
+        for (int i = 0; i < hotClients; i++) {
+            LoadSession session = new LoadSession(clients + i, namePrefix, hotStats);
+            sessions.add(session);
+            scheduler.schedule(() -> start(session, "load-hot"), i * hotRampMicros, TimeUnit.MICROSECONDS);
+            if (hotTickMicros > 0 && (hotSenders < 0 || i < hotSenders)) {
+                // senders start once the whole room has joined
+                long offset = rampSeconds * 1_000_000L + 500_000 + ThreadLocalRandom.current().nextLong(hotTickMicros);
+                scheduler.scheduleAtFixedRate(() -> {
+                    if (session.isReady()) {
+                        session.chat();
+                    }
+                }, offset, hotTickMicros, TimeUnit.MICROSECONDS);
+            }
+        }
+
+        long start = System.nanoTime();
+        long lastDelivered = 0;
+        long lastSent = 0;
+        long end = start + TimeUnit.SECONDS.toNanos(durationSeconds);
+        while (System.nanoTime() < end) {
+            Thread.sleep(reportSeconds * 1000L);
+            long delivered = stats.messagesDelivered.get();
+            long sent = stats.messagesSent.get();
+            report(String.format(Locale.ROOT, "[%4ds] connected=%d sent/s=%.1f delivered/s=%.1f errors=%d %s",
+                    TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start), stats.connected.get(),
+                    (sent - lastSent) / (double) reportSeconds, (delivered - lastDelivered) / (double) reportSeconds,
+                    stats.errors.get(), intervalLatency()));
+            if (hotClients > 0) {
+                report(String.format(Locale.ROOT, "       hot room: connected=%d sent=%d delivered=%d %s",
+                        hotStats.connected.get(), hotStats.messagesSent.get(), hotStats.messagesDelivered.get(),
+                        intervalLatency(hotStats, hotTotal)));
+            }
+            lastDelivered = delivered;
+            lastSent = sent;
+        }
+        scheduler.shutdownNow();
+        for (LoadSession session : sessions) {
+            session.disconnect();
+        }
+        if (muteChance > 0) {
+            deleteMuteLists();
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000d;
+        intervalLatency();
+        intervalLatency(hotStats, hotTotal);
+        report(String.format(Locale.ROOT,
+                "Final: clients=%d seconds=%.1f sent=%d delivered=%d actions=%d payloads=%d joins=%d errors=%d",
+                clients, seconds, stats.messagesSent.get(), stats.messagesDelivered.get(), stats.actionsSent.get(),
+                stats.payloadsReceived.get(), stats.roomJoins.get(), stats.errors.get()));
+        report(String.format(Locale.ROOT, "Throughput: sent=%.1f msg/s delivered=%.1f msg/s payloads=%.1f/s",
+                stats.messagesSent.get() / seconds, stats.messagesDelivered.get() / seconds,
+                stats.payloadsReceived.get() / seconds));
+        report("Latency: " + total.summary());
+        LatencyHistogram joins = new LatencyHistogram();
+        joins.add(stats.joinLatency);
+        joins.add(hotStats.joinLatency);
+        report("Join latency: " + joins.summary());
+        if (hotClients > 0) {
+            report(String.format(Locale.ROOT, "Hot room: clients=%d sent=%d delivered=%d errors=%d latency: %s",
+                    hotClients, hotStats.messagesSent.get(), hotStats.messagesDelivered.get(),
+                    hotStats.errors.get(), hotTotal.summary()));
+        }
+        report(String.format(Locale.ROOT,
+                "{\"clients\":%d,\"rooms\":%d,\"rate\":%.2f,\"seconds\":%.1f,\"sent\":%d,\"delivered\":%d,\"errors\":%d,\"p50us\":%d,\"p90us\":%d,\"p99us\":%d,\"p999us\":%d,\"maxus\":%d,\"hotClients\":%d,\"hotDelivered\":%d,\"hotP99us\":%d,\"joinP99us\":%d}",
+                clients, rooms, rate, seconds, stats.messagesSent.get(), stats.messagesDelivered.get(),
+                stats.errors.get(), total.getPercentile(50), total.getPercentile(90), total.getPercentile(99),
+                total.getPercentile(99.9), total.getMax(), hotClients, hotStats.messagesDelivered.get(),
+                hotTotal.getPercentile(99), joins.getPercentile(99)));
+    }
+
+    /**
+     * Deletes the mute lists the server saved for this run's sessions so they
+     * don't pile up in its working directory
+     */
+    private void deleteMuteLists() throws InterruptedException {
+        Thread.sleep(1000); // the server may still be handling mutes sent just before the disconnect
+        int deleted = 0;
+        for (LoadSession session : sessions) {
+            if (new File(serverDir, "mutelist_" + session.getName() + ".txt").delete()) {
+                deleted++;
+            }
+        }
+        LoggerUtil.INSTANCE.info("Deleted %d mute lists from %s", deleted, serverDir);
+    }
+
+    /**
+     * Moves the interval's latencies into the run total
+     *
+     * @return the interval's latency summary
+     */
+    private String intervalLatency() {
+        return intervalLatency(stats, total);
+    }
+
+    private static String intervalLatency(Stats from, LatencyHistogram into) {
+        String summary = from.latency.summary();
+        into.add(from.latency);
+        from.latency.reset();
+        return summary;
+    }
+
+    private void start(LoadSession session, String room) {
+        try {
+            session.connect(host, port);
+            session.joinRoom(room);
+        } catch (IOException e) {
+            stats.errors.incrementAndGet();
+            LoggerUtil.INSTANCE.warning(String.format("Session %s failed to connect: %s", session.getName(), e));
+        }
+    }
+
+    private void tick(LoadSession session) {
+        if (!session.isReady()) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        double roll = random.nextDouble();
+        if ((roll -= churnChance) < 0) {
+            session.joinRoom("load-" + random.nextInt(Math.max(1, rooms)));
+        } else if ((roll -= rollChance) < 0) {
+            session.roll(1 + random.nextInt(5), 6);
+        } else if ((roll -= flipChance) < 0) {
+            session.flip();
+        } else if ((roll -= muteChance) < 0) {
+            String target = session.anyKnownName();
+            if (target != null) {
+                session.mute(target, random.nextBoolean());
+            }
+        } else {
+            session.chat();
+        }
+    }
+
+    private static void report(String line) {
+        System.out.println(line);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setFileSizeLimit(2048 * 1024); // 2MB
+        config.setFileCount(1);
+        config.setLogLocation("loadtest.log");
+        config.setConsoleLogLevel(Level.WARNING);
+        LoggerUtil.INSTANCE.setConfig(config);
+
+        LoadGenerator generator = new LoadGenerator();
+        generator.parse(args);
+        generator.run();
+        LoggerUtil.INSTANCE.shutdown();
+        System.exit(0);
+    }
+}
@@ -0,0 +1,256 @@
+package Project.loadtest;
+
+import Project.common.ConnectionPayload;
+import Project.common.DeliveryState;
+import Project.common.LoggerUtil;
+import Project.common.Payload;
+import Project.common.PayloadCodec;
+import Project.common.PayloadChannel;
+import Project.common.PayloadType;
+import Project.common.RollPayload;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A single headless simulated user speaking the Payload protocol.
+ * Unlike Client there's no UI or singleton state, so thousands of these
+ * can share one JVM.
+ */
+public class LoadSession {
+    // prefix of generated chat lines; avoids the server's formatting markup characters
+    static final String MARKER = "lt ";
+
+    private final int index;
+    private final String name;
+    private final LoadGenerator.Stats stats;
+    private Socket socket;
+    private PayloadChannel channel;
+    private volatile boolean isRunning = false;
+    private volatile long clientId = -1;
+    private volatile String currentRoom = null;
+    private volatile String pendingRoom = null;
+    private volatile long joinStartedAt = 0; // nanoTime of the outstanding join, 0 if none
+    private final Set<String> knownNames = ConcurrentHashMap.newKeySet();
+
+    public LoadSession(int index, String namePrefix, LoadGenerator.Stats stats) {
+        this.index = index;
+        this.name = namePrefix + index;
+        this.stats = stats;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getClientId() {
+        return clientId;
+    }
+
+    public String getCurrentRoom() {
+        return currentRoom;
+    }
+
+    public boolean isReady() {
+        return isRunning && clientId != -1;
+    }
+
+    /**
+     * Connects, starts the listener thread and sends the client name
+     *
+     * @param host
+     * @param port
+     * @throws IOException
+     */
+    public void connect(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        socket.setTcpNoDelay(true);
+        channel = new PayloadChannel(socket.getOutputStream(), socket.getInputStream(), new DeliveryState());
+        isRunning = true;
+        Thread listener = new Thread(this::listen, "load-" + name);
+        listener.setDaemon(true);
+        listener.start();
+        ConnectionPayload cp = new ConnectionPayload();
+        cp.setClientName(name);
+        cp.setCompression(PayloadCodec.ENABLED);
+        send(cp);
+        stats.connected.incrementAndGet();
+    }
+
+    /**
+     * Moves to the room, creating it if the server says it doesn't exist
+     *
+     * @param room
+     */
+    public void joinRoom(String room) {
+        pendingRoom = room;
+        joinStartedAt = System.nanoTime();
+        send(PayloadType.ROOM_JOIN, room);
+    }
+
+    /**
+     * Sends a timestamped chat line used to measure end-to-end delivery latency
+     */
+    public void chat() {
+        send(PayloadType.MESSAGE, MARKER + index + " " + System.nanoTime());
+        stats.messagesSent.incrementAndGet();
+    }
+
+    public void roll(int rolls, int sides) {
+        RollPayload rp = new RollPayload();
+        rp.setPayloadType(PayloadType.ROLL);
+        rp.setRolls(rolls);
+        rp.setSides(sides);
+        send(rp);
+        stats.actionsSent.incrementAndGet();
+    }
+
+    public void flip() {
+        send(PayloadType.FLIP, name + " flipped a coin");
+        stats.actionsSent.incrementAndGet();
+    }
+
+    /**
+     * Mutes or unmutes another user in the room
+     *
+     * @param target name of the user to toggle
+     * @param mute   true to mute, false to unmute
+     */
+    public void mute(String target, boolean mute) {
+        send(mute ? PayloadType.MUTE : PayloadType.UNMUTE, target);
+        stats.actionsSent.incrementAndGet();
+    }
+
+    /**
+     * @return a name of another user seen in the current room, or null
+     */
+    public String anyKnownName() {
+        for (String known : knownNames) {
+            if (!known.equals(name)) {
+                return known;
+            }
+        }
+        return null;
+    }
+
+    public void disconnect() {
+        if (isRunning) {
+            Payload p = new Payload();
+            p.setPayloadType(PayloadType.DISCONNECT);
+            send(p);
+        }
+        close();
+    }
+
+    private void send(PayloadType type, String message) {
+        Payload p = new Payload();
+        p.setPayloadType(type);
+        p.setMessage(message);
+        send(p);
+    }
+
+    private void send(Payload p) {
+        if (!isRunning) {
+            return;
+        }
+        try {
+            channel.write(p);
+        } catch (IOException e) {
+            stats.errors.incrementAndGet();
+            close();
+        }
+    }
+
+    private void listen() {
+        try {
+            while (isRunning) {
+                Payload payload = channel.read();
+                if (payload == null) {
+                    break;
+                }
+                process(payload);
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            if (isRunning) {
+                stats.errors.incrementAndGet();
+                LoggerUtil.INSTANCE.fine(String.format("Session %s lost connection: %s", name, e.getMessage()));
+            }
+        } finally {
+            close();
+        }
+    }
+
+    private void process(Payload payload) {
+        stats.payloadsReceived.incrementAndGet();
+        switch (payload.getPayloadType()) {
+            case CLIENT_ID:
+                clientId = payload.getClientId();
+                channel.setCompression(((ConnectionPayload) payload).isCompression());
+                break;
+            case SYNC_CLIENT:
+                knownNames.add(((ConnectionPayload) payload).getClientName());
+                break;
+            case ROOM_JOIN:
+                ConnectionPayload cp = (ConnectionPayload) payload;
+                if (cp.getClientId() == clientId) {
+                    if (cp.isConnect()) {
+                        currentRoom = cp.getMessage();
+                        stats.roomJoins.incrementAndGet();
+                        long startedAt = joinStartedAt;
+                        if (startedAt != 0) {
+                            stats.joinLatency.record((System.nanoTime() - startedAt) / 1000);
+                            joinStartedAt = 0;
+                        }
+                    } else {
+                        knownNames.clear();
+                    }
+                } else if (cp.isConnect()) {
+                    knownNames.add(cp.getClientName());
+                } else {
+                    knownNames.remove(cp.getClientName());
+                }
+                break;
+            case DISCONNECT:
+                knownNames.remove(((ConnectionPayload) payload).getClientName());
+                break;
+            case MESSAGE:
+                onMessage(payload.getMessage());
+                break;
+            default:
+                break;
+        }
+    }
+
+    private void onMessage(String message) {
+        if (message == null) {
+            return;
+        }
+        if (message.startsWith(MARKER)) {
+            int space = message.lastIndexOf(' ');
+            try {
+                long sentAt = Long.parseLong(message.substring(space + 1));
+                stats.latency.record((System.nanoTime() - sentAt) / 1000);
+                stats.messagesDelivered.incrementAndGet();
+            } catch (NumberFormatException e) {
+                // not one of ours
+            }
+        } else if (pendingRoom != null && message.equals(String.format("Room %s doesn't exist", pendingRoom))) {
+            send(PayloadType.ROOM_CREATE, pendingRoom);
+            pendingRoom = null;
+        }
+    }
+
+    private void close() {
+        if (!isRunning) {
+            return;
+        }
+        isRunning = false;
+        stats.connected.decrementAndGet();
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package Project.loadtest;
+
+import Project.client.ClientSession;
+import Project.client.Interfaces.IConnectionEvents;
+import Project.client.Interfaces.IMessageEvents;
+import Project.client.Interfaces.IRoomEvents;
+import Project.common.LoggerUtil;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * Runs many real ClientSessions (the UI's client stack, unlike LoadSession) in
+ * one process to check what a session costs: all of them connect to the lobby,
+ * a few send a message each that every session should get, and the threads
+ * the process ended up with are counted by name.
+ * <p>
+ * Every join is announced to everyone already in the lobby, so the server is
+ * still busy with those well after the last session has its id. The messages
+ * are only timed once a probe sent behind the announcements has reached every
+ * session.
+ * </p>
+ * <p>
+ * Usage: {@code java Project.loadtest.SessionScale [--host 127.0.0.1] [--port 3000]
+ * [--sessions 1000] [--senders 20] [--timeout 30]}
+ * </p>
+ * <ul>
+ * <li>senders: sessions that send one message each, so sessions x senders
+ * messages should be delivered (20000 with the defaults)</li>
+ * <li>timeout: seconds to wait for each step (connecting, settling, delivering,
+ * disconnecting)</li>
+ * </ul>
+ * The sessions' local history is off unless chat.client.history is set.
+ */
+public class SessionScale {
+    private static final String MARKER = "scale-";
+    private static final String PROBE = "settle";
+
+    private String host = "127.0.0.1";
+    private int port = 3000;
+    private int sessionCount = 1000;
+    private int senders = 20;
+    private int timeoutSeconds = 30;
+
+    private final AtomicLong connected = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private final AtomicLong probed = new AtomicLong();
+
+    /**
+     * Counts what the runs measure and ignores the rest
+     */
+    private class Events implements IConnectionEvents, IMessageEvents, IRoomEvents {
+        @Override
+        public void onReceiveClientId(long id) {
+            connected.incrementAndGet();
+        }
+
+        @Override
+        public void onMessageReceive(long id, String message) {
+            if (message.startsWith(MARKER)) {
+                delivered.incrementAndGet();
+            } else if (message.startsWith(PROBE)) {
+                probed.incrementAndGet();
+            }
+        }
+
+        @Override
+        public void onClientDisconnect(long id, String clientName) {
+        }
+
+        @Override
+        public void onSyncClient(long id, String clientName) {
+        }
+
+        @Override
+        public void onResetUserList() {
+        }
+
+        @Override
+        public void onReconnecting(int attempt, long delayMs) {
+        }
+
+        @Override
+        public void onReconnectFinished(boolean isResumed) {
+        }
+
+        @Override
+        public void onReceiveHistory(String roomName, List<String> lines) {
+        }
+
+        @Override
+        public void onSearchResults(String query, List<String> results) {
+        }
+
+        @Override
+        public void onReceiveRoomList(long requestId, int offset, int total, List<String> rooms, String message) {
+        }
+
+        @Override
+        public void onRoomAction(long clientId, String clientName, String roomName, boolean isJoin) {
+        }
+    }
+
+    private void parse(String[] args) {
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : "";
+            switch (args[i]) {
+                case "--host":
+                    host = value;
+                    break;
+                case "--port":
+                    port = Integer.parseInt(value);
+                    break;
+                case "--sessions":
+                    sessionCount = Integer.parseInt(value);
+                    break;
+                case "--senders":
+                    senders = Integer.parseInt(value);
+                    break;
+                case "--timeout":
+                    timeoutSeconds = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown argument " + args[i]);
+            }
+            i++;
+        }
+    }
+
+    private void run() throws InterruptedException {
+        int baseThreads = Thread.activeCount();
+        List<ClientSession> sessions = new ArrayList<>();
+        Events events = new Events();
+        long start = System.nanoTime();
+        for (int i = 0; i < sessionCount; i++) {
+            ClientSession session = new ClientSession(events);
+            if (!session.connect(host, port, "scale" + i)) {
+                LoggerUtil.INSTANCE.warning("Session %s failed to connect", i);
+            }
+            sessions.add(session);
+        }
+        long connectedAt = awaitCount(connected, sessionCount, start);
+        report(String.format(Locale.ROOT, "Connected %d/%d sessions in %d ms, %d threads (%d before)",
+                connected.get(), sessionCount, TimeUnit.NANOSECONDS.toMillis(connectedAt - start),
+                Thread.activeCount(), baseThreads));
+
+        long probeStart = System.nanoTime();
+        sessions.get(0).sendMessage(PROBE);
+        long settledAt = awaitCount(probed, sessionCount, probeStart);
+        report(String.format(Locale.ROOT, "Settled (probe reached %d/%d sessions) in %d ms", probed.get(),
+                sessionCount, TimeUnit.NANOSECONDS.toMillis(settledAt - probeStart)));
+
+        int senderCount = Math.min(senders, sessions.size());
+        long expected = (long) senderCount * sessionCount;
+        long sendStart = System.nanoTime();
+        List<CompletableFuture<Void>> sent = new ArrayList<>();
+        for (int i = 0; i < senderCount; i++) {
+            sent.add(sessions.get(i).sendMessage(MARKER + i));
+        }
+        long failed = sent.stream().filter(f -> {
+            try {
+                f.get(timeoutSeconds, TimeUnit.SECONDS);
+                return false;
+            } catch (Exception e) {
+                return true;
+            }
+        }).count();
+        long deliveredAt = awaitCount(delivered, expected, sendStart);
+        report(String.format(Locale.ROOT, "Delivered %d/%d messages in %d ms (%d sends failed)", delivered.get(),
+                expected, TimeUnit.NANOSECONDS.toMillis(deliveredAt - sendStart), failed));
+        report("Threads by name: " + threadsByName());
+        Runtime runtime = Runtime.getRuntime();
+        report(String.format(Locale.ROOT, "Heap used: %d MB", (runtime.totalMemory() - runtime.freeMemory()) >> 20));
+
+        // each leave is announced to the rest of the lobby too, so the server takes a while to close them all
+        long disconnectStart = System.nanoTime();
+        for (ClientSession session : sessions) {
+            session.sendDisconnect();
+        }
+        long deadline = disconnectStart + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        long stillConnected;
+        while ((stillConnected = sessions.stream().filter(ClientSession::isConnected).count()) > 0
+                && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        report(String.format(Locale.ROOT, "After disconnecting: %d connected after %d ms, %d threads",
+                stillConnected, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - disconnectStart),
+                Thread.activeCount()));
+    }
+
+    /**
+     * @return when the count got there, or now if it didn't in time
+     */
+    private long awaitCount(AtomicLong count, long target, long start) throws InterruptedException {
+        long deadline = start + TimeUnit.SECONDS.toNanos(timeoutSeconds);
+        while (count.get() < target && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        return System.nanoTime();
+    }
+
+    // a pool's threads are numbered, so they're counted under the name without the number
+    private static Map<String, Integer> threadsByName() {
+        Map<String, Integer> names = new TreeMap<>();
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            names.merge(thread.getName().replaceAll("-?\\d+$", ""), 1, Integer::sum);
+        }
+        return names;
+    }
+
+    private static void report(String line) {
+        System.out.println(line);
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
+        config.setFileSizeLimit(2048 * 1024); // 2MB
+        config.setFileCount(1);
+        config.setLogLocation("sessionscale.log");
+        config.setConsoleLogLevel(Level.WARNING);
+        LoggerUtil.INSTANCE.setConfig(config);
+        if (System.getProperty("chat.client.history") == null) {
+            // a history file per session isn't what's being measured (read when ClientSession loads)
+            System.setProperty("chat.client.history", "");
+        }
+
+        SessionScale scale = new SessionScale();
+        scale.parse(args);
+        scale.run();
+        LoggerUtil.INSTANCE.shutdown();
+        System.exit(0);
+    }
+}
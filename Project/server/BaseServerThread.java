@@ -1,9 +1,10 @@
 package Project.server;
 
+import Project.common.DeliveryState;
+import Project.common.OutboundQueue;
 import Project.common.Payload;
+import Project.common.PayloadChannel;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.net.Socket;
 
 /**
@@ -12,16 +13,27 @@ import java.net.Socket;
 public abstract class BaseServerThread extends Thread {
     
     protected boolean isRunning = false; // control variable to stop this thread
-    protected ObjectOutputStream out; // exposed here for send()
+    protected PayloadChannel channel; // exposed here for send()
+    protected OutboundQueue outbound; // prioritized payloads waiting to be written to channel
     protected Socket client; // communication directly to "my" client
     
     /**
      * A wrapper method so we don't need to keep typing out the long/complex sysout
-     * line inside
+     * line inside. Only formatted if INFO is enabled; a format without args is
+     * logged as is.
      * 
-     * @param message
+     * @param format String.format pattern (or the plain message)
+     * @param args
      */
-    protected abstract void info(String message);
+    protected abstract void info(String format, Object... args);
+
+    /**
+     * Same as info() for per-payload detail, which is off by default
+     * 
+     * @param format String.format pattern (or the plain message)
+     * @param args
+     */
+    protected abstract void fine(String format, Object... args);
 
     /**
      * Triggered when object is fully initialized
@@ -34,27 +46,41 @@ public abstract class BaseServerThread extends Thread {
      */
     protected abstract void processPayload(Payload payload);
 
+    // how long a closing connection may take to write out what's still queued
+    private static final long FLUSH_TIMEOUT_MS = 500;
+    // let room workers write to a caught up client themselves instead of waking its writer thread
+    private static final boolean DIRECT_WRITES = Boolean.parseBoolean(System.getProperty("chat.outbound.direct", "true"));
+
     /**
-     * Sends the payload over the socket
+     * Queues the payload to be sent over the socket (control payloads ahead of
+     * chat, see OutboundQueue)
      * 
      * @param payload
      * @return true if no errors were encountered
      */
     protected boolean send(Payload payload) {
+        return send(payload, true);
+    }
+
+    /**
+     * Queues the payload to be sent over the socket
+     * 
+     * @param payload
+     * @param isDirect false to leave it to the writer thread even with direct
+     *                 writes on (i.e., one of many recipients of a broadcast)
+     * @return true if no errors were encountered
+     */
+    protected boolean send(Payload payload, boolean isDirect) {
         if(!isRunning){
             return true;
         }
-        try {
-            out.writeObject(payload);
-            out.flush();
-            return true;
-        } catch (IOException e) {
-            info("Error sending message to client (most likely disconnected)");
-            // comment this out to inspect the stack trace
-            // e.printStackTrace();
+        if (!outbound.offer(payload, null, isDirect)) {
+            info("Outbound queue full or closed, dropping connection %s", outbound);
+            outbound.close(0); // it's not keeping up, don't wait for it
             cleanup();
             return false;
         }
+        return true;
     }
     
     /**
@@ -70,9 +96,17 @@ public abstract class BaseServerThread extends Thread {
     @Override
     public void run() {
         info("Thread starting");
-        try (ObjectOutputStream out = new ObjectOutputStream(client.getOutputStream());
-                ObjectInputStream in = new ObjectInputStream(client.getInputStream());) {
-            this.out = out;
+        try {
+            // every payload is flushed as a whole frame; don't let Nagle hold it back waiting for an ack
+            client.setTcpNoDelay(true);
+            this.channel = new PayloadChannel(client.getOutputStream(), client.getInputStream(), new DeliveryState());
+            this.outbound = new OutboundQueue(getName(), channel, e -> {
+                info("Error sending message to client (most likely disconnected)");
+                // comment this out to inspect the stack trace
+                // e.printStackTrace();
+                cleanup();
+            });
+            outbound.setDirect(DIRECT_WRITES);
             isRunning = true;
             //onInitialized();
             Payload fromClient;
@@ -83,9 +117,9 @@ public abstract class BaseServerThread extends Thread {
              */
             while (isRunning) {
                 try{
-                    fromClient = (Payload) in.readObject(); // blocking method
+                    fromClient = channel.read(); // blocking method
                     if (fromClient != null) {
-                        info("Received from my client: " + fromClient);
+                        fine("Received from my client: %s", fromClient);
                         processPayload(fromClient);
                     }
                     else{
@@ -114,12 +148,24 @@ public abstract class BaseServerThread extends Thread {
         } finally {
             isRunning = false;
             info("Exited thread loop. Cleaning up connection");
+            if (channel != null && channel.getCodecIfUsed() != null) {
+                info("Compression %s", channel.getCodecIfUsed());
+            }
+            if (outbound != null) {
+                info("Outbound %s", outbound);
+            }
             cleanup();
         }
     }
 
     protected void cleanup() {
         info("ServerThread cleanup() start");
+        if (outbound != null) {
+            outbound.close(FLUSH_TIMEOUT_MS);
+        }
+        if (channel != null) {
+            channel.close();
+        }
         try {
             client.close();
         } catch (IOException e) {
@@ -0,0 +1,142 @@
+package Project.server;
+
+import java.util.SplittableRandom;
+
+/**
+ * Rolls dice for the server, so results can't be made up by a client and a
+ * huge roll can't tie up anyone's CPU.
+ * <p>
+ * Up to {@link #EXACT_LIMIT} dice are rolled one by one and summed. Past that
+ * the sum is drawn from the normal distribution it converges to (mean
+ * n(s+1)/2, variance n(s^2-1)/12), clamped to the possible range, so a roll
+ * costs the same whether it's a thousand dice or a billion. Each thread has
+ * its own SplittableRandom, so concurrent rolls never contend.
+ * </p>
+ */
+public final class DiceEngine {
+    public static final int MAX_ROLLS = Integer.getInteger("chat.roll.maxRolls", 1_000_000_000);
+    public static final int MAX_SIDES = Integer.getInteger("chat.roll.maxSides", 1_000_000);
+    // dice counts up to this are summed exactly
+    public static final int EXACT_LIMIT = Integer.getInteger("chat.roll.exactLimit", 1000);
+
+    private static final ThreadLocal<SplittableRandom> RANDOM = ThreadLocal.withInitial(SplittableRandom::new);
+
+    /**
+     * Per-room roll statistics
+     */
+    public static class Stats {
+        private long rolls = 0;
+        private long dice = 0;
+        private long approximated = 0;
+        private long rejected = 0;
+        private double zTotal = 0; // sum of each roll's standard score
+
+        private synchronized void record(int rolls, int sides, long result, boolean isApproximated) {
+            this.rolls++;
+            dice += rolls;
+            if (isApproximated) {
+                approximated++;
+            }
+            double deviation = Math.sqrt(rolls * ((double) sides * sides - 1) / 12);
+            if (deviation > 0) {
+                zTotal += (result - rolls * (sides + 1.0) / 2) / deviation;
+            }
+        }
+
+        private synchronized void reject() {
+            rejected++;
+        }
+
+        public synchronized long getRolls() {
+            return rolls;
+        }
+
+        public synchronized long getDice() {
+            return dice;
+        }
+
+        /**
+         * @return the average standard score of the room's rolls (0 for a fair
+         *         run of luck, positive when the room has rolled high)
+         */
+        public synchronized double getLuck() {
+            return rolls == 0 ? 0 : zTotal / rolls;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("%d rolls, %d dice (%d approximated), %d rejected, luck %+.2f", rolls, dice,
+                    approximated, rejected, getLuck());
+        }
+    }
+
+    private DiceEngine() {
+    }
+
+    /**
+     * @param rolls
+     * @param sides
+     * @return why the roll isn't allowed, or null if it is
+     */
+    public static String validate(int rolls, int sides) {
+        if (rolls < 1 || sides < 1) {
+            return "Rolls need at least one die with at least one side";
+        }
+        if (rolls > MAX_ROLLS) {
+            return String.format("Rolls are limited to %d dice", MAX_ROLLS);
+        }
+        if (sides > MAX_SIDES) {
+            return String.format("Dice are limited to %d sides", MAX_SIDES);
+        }
+        return null;
+    }
+
+    /**
+     * Rolls rolls dice of sides sides and adds them up
+     *
+     * @param rolls number of dice (validated)
+     * @param sides sides per die (validated)
+     * @param stats where to record the roll, may be null
+     * @return the total
+     */
+    public static long roll(int rolls, int sides, Stats stats) {
+        SplittableRandom random = RANDOM.get();
+        long result;
+        boolean isApproximated = rolls > EXACT_LIMIT && sides > 1;
+        if (sides == 1) {
+            result = rolls;
+        } else if (!isApproximated) {
+            result = 0;
+            for (int i = 0; i < rolls; i++) {
+                result += random.nextInt(sides) + 1;
+            }
+        } else {
+            double mean = rolls * (sides + 1.0) / 2;
+            double deviation = Math.sqrt(rolls * ((double) sides * sides - 1) / 12);
+            result = Math.round(mean + deviation * random.nextGaussian());
+            result = Math.max(rolls, Math.min((long) rolls * sides, result));
+        }
+        if (stats != null) {
+            stats.record(rolls, sides, result, isApproximated);
+        }
+        return result;
+    }
+
+    /**
+     * Counts a roll that was turned down
+     *
+     * @param stats
+     */
+    public static void reject(Stats stats) {
+        if (stats != null) {
+            stats.reject();
+        }
+    }
+
+    /**
+     * @return true for heads
+     */
+    public static boolean flip() {
+        return RANDOM.get().nextBoolean();
+    }
+}
@@ -0,0 +1,258 @@
+package Project.server;
+
+import Project.common.FilePayload;
+import Project.common.FileReceiver;
+import Project.common.FileSender;
+import Project.common.LoggerUtil;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Relays files shared to a room.
+ * <p>
+ * An upload is spooled to disk as its chunks arrive. Once complete, every
+ * other client in the sender's room (that hasn't muted them) is offered the
+ * file and it's streamed back out of the spool, one window at a time as each
+ * recipient acks. Uploads and downloads are keyed by client id so a resumed
+ * session continues where it stopped. The spool is deleted after the last
+ * download finishes, or when the transfer has been idle for too long.
+ * </p>
+ */
+public class FileRelay {
+    public static final long MAX_FILE_SIZE = Long.getLong("chat.file.maxSize", 64L * 1024 * 1024);
+    private static final long IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+
+    /**
+     * A file being received from its sender (and then relayed)
+     */
+    private static class Upload {
+        private final String key;
+        private final FileReceiver receiver;
+        private final Path spool;
+        private final AtomicInteger downloads = new AtomicInteger();
+        private volatile boolean isShared = false;
+
+        private Upload(String key, FileReceiver receiver, Path spool) {
+            this.key = key;
+            this.receiver = receiver;
+            this.spool = spool;
+        }
+    }
+
+    /**
+     * A relayed file being sent to one recipient
+     */
+    private static class Download {
+        private final Upload upload;
+        private final FileSender sender;
+
+        private Download(Upload upload, FileSender sender) {
+            this.upload = upload;
+            this.sender = sender;
+        }
+    }
+
+    private final Path spoolDir = Paths.get(System.getProperty("chat.file.spool",
+            Paths.get(System.getProperty("java.io.tmpdir"), "chat-spool").toString()));
+    private final ConcurrentHashMap<String, Upload> uploads = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Download> downloads = new ConcurrentHashMap<>();
+
+    private static String key(long clientId, long senderId, String transferId) {
+        return clientId + ":" + senderId + ":" + transferId;
+    }
+
+    /**
+     * Accepts (or resumes) an upload
+     *
+     * @param sender
+     * @param offer
+     */
+    protected void onOffer(ServerThread sender, FilePayload offer) {
+        sweep();
+        offer.setClientId(sender.getClientId()); // the sender is whoever uploads it
+        if (offer.getTransferId() == null || !offer.getTransferId().matches("[0-9a-f]{1,64}")) {
+            sender.send(FileReceiver.reject(offer, "Invalid transfer id"));
+            return;
+        }
+        String key = key(sender.getClientId(), sender.getClientId(), offer.getTransferId());
+        Upload upload = uploads.get(key);
+        if (upload != null) {
+            sender.send(upload.receiver.ack());
+            return;
+        }
+        if (offer.getSize() < 0 || offer.getSize() > MAX_FILE_SIZE) {
+            sender.send(FileReceiver.reject(offer, String.format("Files are limited to %d bytes", MAX_FILE_SIZE)));
+            return;
+        }
+        try {
+            Files.createDirectories(spoolDir);
+            Path spool = spoolDir.resolve(sender.getClientId() + "-" + offer.getTransferId() + ".part");
+            FileChannel target = FileChannel.open(spool, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            upload = new Upload(key, new FileReceiver(offer, target), spool);
+            uploads.put(key, upload);
+            LoggerUtil.INSTANCE.info("FileRelay: receiving %s from %s[%s]", upload.receiver,
+                    sender.getClientName(), sender.getClientId());
+            sender.send(upload.receiver.ack());
+            if (upload.receiver.isComplete()) {
+                share(sender, upload);
+            }
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("FileRelay: failed to spool " + offer.getFileName(), e);
+            sender.send(FileReceiver.reject(offer, "Server couldn't store the file"));
+        }
+    }
+
+    /**
+     * Spools a chunk of an upload and shares the file once it's complete
+     *
+     * @param sender
+     * @param chunk
+     */
+    protected void onChunk(ServerThread sender, FilePayload chunk) {
+        Upload upload = uploads.get(key(sender.getClientId(), sender.getClientId(), chunk.getTransferId()));
+        if (upload == null) {
+            sender.send(FileReceiver.reject(chunk, "Unknown or expired transfer"));
+            return;
+        }
+        try {
+            sender.send(upload.receiver.onChunk(chunk));
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("FileRelay: failed to spool " + upload.receiver, e);
+            sender.send(FileReceiver.reject(chunk, "Server couldn't store the file"));
+            remove(upload);
+            return;
+        }
+        if (upload.receiver.isComplete()) {
+            share(sender, upload);
+        }
+    }
+
+    private void share(ServerThread sender, Upload upload) {
+        if (upload.isShared) {
+            return;
+        }
+        upload.isShared = true;
+        upload.receiver.close();
+        // hold a reference so a recipient finishing early can't delete the spool mid-share
+        upload.downloads.incrementAndGet();
+        Room room = sender.getCurrentRoom();
+        int recipients = room == null ? 0 : room.shareFile(sender, this, upload.receiver.getTransferId());
+        LoggerUtil.INSTANCE.info("FileRelay: %s shared with %s recipients", upload.receiver,
+                recipients);
+        sender.sendMessage(String.format("Shared %s with %s user(s)", upload.receiver.getFileName(), recipients));
+        if (upload.downloads.decrementAndGet() <= 0) {
+            remove(upload);
+        }
+    }
+
+    /**
+     * Offers a completed upload to one recipient (called by the Room for each of
+     * its clients)
+     *
+     * @param recipient
+     * @param senderId
+     * @param transferId
+     * @return true if it was offered
+     */
+    protected boolean offer(ServerThread recipient, long senderId, String transferId) {
+        Upload upload = uploads.get(key(senderId, senderId, transferId));
+        if (upload == null) {
+            return false;
+        }
+        String key = key(recipient.getClientId(), senderId, transferId);
+        try {
+            FileSender fileSender = new FileSender(transferId, upload.receiver.getFileName(), senderId,
+                    FileChannel.open(upload.spool, StandardOpenOption.READ));
+            upload.downloads.incrementAndGet();
+            downloads.put(key, new Download(upload, fileSender));
+            fileSender.offer(sink(recipient));
+            return true;
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info(String.format("FileRelay: couldn't offer %s to %s", upload.receiver,
+                    recipient.getClientId()), e);
+            finish(key);
+            return false;
+        }
+    }
+
+    /**
+     * Sends the recipient more of a relayed file, as far as its ack allows
+     *
+     * @param recipient
+     * @param ack
+     */
+    protected void onAck(ServerThread recipient, FilePayload ack) {
+        String key = key(recipient.getClientId(), ack.getClientId(), ack.getTransferId());
+        Download download = downloads.get(key);
+        if (download == null) {
+            return;
+        }
+        try {
+            download.sender.onAck(ack, sink(recipient));
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.info(String.format("FileRelay: lost recipient %s of %s", recipient.getClientId(),
+                    download.sender), e);
+            // stays registered; a resumed session acks again and picks it back up
+            return;
+        }
+        if (download.sender.isComplete() || download.sender.isCancelled()) {
+            finish(key);
+        }
+    }
+
+    private static FileSender.Sink sink(ServerThread recipient) {
+        return payload -> {
+            if (!recipient.send(payload)) {
+                throw new IOException("Recipient disconnected");
+            }
+        };
+    }
+
+    private void finish(String key) {
+        Download download = downloads.remove(key);
+        if (download == null) {
+            return;
+        }
+        download.sender.close();
+        LoggerUtil.INSTANCE.info("FileRelay: finished %s", download.sender);
+        if (download.upload.downloads.decrementAndGet() <= 0) {
+            remove(download.upload);
+        }
+    }
+
+    private void remove(Upload upload) {
+        if (uploads.remove(upload.key, upload)) {
+            upload.receiver.close();
+            try {
+                Files.deleteIfExists(upload.spool);
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.info("FileRelay: couldn't delete " + upload.spool, e);
+            }
+        }
+    }
+
+    /**
+     * Drops transfers nobody has touched in a while (senders or recipients that
+     * went away mid transfer)
+     */
+    private void sweep() {
+        long cutoff = System.currentTimeMillis() - IDLE_TIMEOUT_MS;
+        downloads.forEach((key, download) -> {
+            if (download.sender.getLastActivity() < cutoff) {
+                finish(key);
+            }
+        });
+        uploads.values().forEach(upload -> {
+            if (!upload.isShared && upload.receiver.getLastActivity() < cutoff) {
+                remove(upload);
+            }
+        });
+    }
+}
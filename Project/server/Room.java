@@ -1,24 +1,97 @@
 package Project.server;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiPredicate;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import Project.common.LoggerUtil;
+import Project.common.MessageLog;
 import Project.common.Payload;
+import Project.common.PingPayload;
 import Project.common.RollPayload;
+import Project.common.RoomResultsPayload;
+import Project.common.RoomMessagePayload;
+import Project.common.SearchPayload;
 
 public class Room implements AutoCloseable {
     private String name; // unique name of the Room
     private volatile boolean isRunning = false;
     private ConcurrentHashMap<Long, ServerThread> clientsInRoom = new ConcurrentHashMap<Long, ServerThread>();
+    // broadcasts run on the shared scheduler's workers, never on the sender's thread
+    private final RoomScheduler scheduler;
+    private final RoomScheduler.Mailbox mailbox;
+    private final DiceEngine.Stats rollStats = new DiceEngine.Stats();
+    // the last HISTORY_SIZE messages, for clients catching up after a dropped connection;
+    // also orders numbering a message with submitting its broadcast
+    private final ArrayDeque<RoomMessagePayload> history = new ArrayDeque<>();
+    private long lastSeq = 0; // guarded by history
+    // message broadcasts numbered under history but submitted after it's released, in number order
+    private final ArrayDeque<Runnable> unsubmitted = new ArrayDeque<>(); // guarded by itself
+    private boolean isSubmitting = false; // a sender is draining unsubmitted, guarded by unsubmitted
+    // every message the room had since it was created, on disk and searchable; null if not kept
+    private MessageLog log; // guarded by history
 
     public final static String LOBBY = "lobby";
+    public final static int HISTORY_SIZE = Integer.getInteger("chat.room.history", 256);
+    // where rooms keep their logs, empty (the default) to not keep them; each room gets a new file,
+    // deleted when it closes, so a room's search never reaches into an earlier room of the same name
+    public final static String LOG_DIR = System.getProperty("chat.room.logDir", "");
+    // logs left behind by a server that stopped without closing its rooms are deleted after this long
+    public final static long LOG_RETENTION_HOURS = Long.getLong("chat.room.logRetentionHours", 24);
+    private static final DateTimeFormatter LOG_STAMP = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss-SSS")
+            .withZone(ZoneId.systemDefault());
+    private static final Pattern LOG_NAME = Pattern.compile("[a-z0-9_.-]+-\\d{8}-\\d{6}-\\d{3}(-\\d+)?\\.log");
+    // the sender's id in a logged line (names are logged without brackets so it's the first one)
+    private static final Pattern LOGGED_SENDER = Pattern.compile("\\[[^\\]]*\\] [^\\[\\]]*\\[(-?\\d+)\\]: ");
+    // rooms with more clients than this queue a broadcast for each client's writer thread
+    // instead of writing it on the room's worker (see OutboundQueue.setDirect)
+    public final static int DIRECT_FANOUT = Integer.getInteger("chat.room.directFanout", 16);
+    // a ping that waits longer than this for the room is logged, to line up with clients' lag reports
+    public final static long SLOW_PING_MS = Long.getLong("chat.room.slowPingMs", 100);
+
+    // nothing is built unless the level is enabled; a format without args is logged as is
+    private void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    // per-message detail, off by default
+    private void fine(String format, Object... args) {
+        log(Level.FINE, format, args);
+    }
 
-    private void info(String message) {
-        LoggerUtil.INSTANCE.info(String.format("Room[%s]: %s", name, message));
+    private void log(Level level, String format, Object... args) {
+        if (LoggerUtil.INSTANCE.isLoggable(level)) {
+            if (args.length == 0) {
+                LoggerUtil.INSTANCE.log(Room.class, level, "Room[%s]: %s", name, format);
+            } else {
+                LoggerUtil.INSTANCE.log(Room.class, level, "Room[%s]: " + format, LoggerUtil.withContext(args, name));
+            }
+        }
     }
 
     public Room(String name) {
+        this(name, Server.INSTANCE.getRoomScheduler());
+    }
+
+    protected Room(String name, RoomScheduler scheduler) {
         this.name = name;
+        this.scheduler = scheduler;
+        this.mailbox = new RoomScheduler.Mailbox(name);
+        this.log = LOG_DIR.isEmpty() ? null : openLog(name);
         isRunning = true;
         info("created");
     }
@@ -35,15 +108,22 @@ public class Room implements AutoCloseable {
             info("Attempting to add a client that already exists in the room");
             return;
         }
-        clientsInRoom.put(client.getClientId(), client);
+        synchronized (history) {
+            // every message after this one is broadcast to them, anything before it they'd have to catch up on
+            client.setRoomJoinSeq(lastSeq);
+            client.setRoomJoinOffset(log == null ? 0 : log.size()); // and the oldest they can search
+            clientsInRoom.put(client.getClientId(), client);
+        }
         client.setCurrentRoom(this);
 
-        // notify clients of someone joining
-        sendRoomStatus(client.getClientId(), client.getClientName(), true);
+        // the joiner hears about it right away (in order with the room they left),
+        // everyone else through the room's mailbox
+        client.sendRoomAction(client.getClientId(), client.getClientName(), getName(), true);
         // sync room state to joiner
         syncRoomList(client);
+        sendRoomStatus(client, true);
 
-        info(String.format("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName()));
+        info("%s[%s] joined the Room[%s]", client.getClientName(), client.getClientId(), getName());
 
     }
 
@@ -52,11 +132,12 @@ public class Room implements AutoCloseable {
             return;
         }
         // notify remaining clients of someone leaving
-        // happen before removal so leaving client gets the data
-        sendRoomStatus(client.getClientId(), client.getClientName(), false);
+        // the leaving client gets theirs directly so it arrives before anything from their next room
         clientsInRoom.remove(client.getClientId());
+        client.sendRoomAction(client.getClientId(), client.getClientName(), getName(), false);
+        sendRoomStatus(client, false);
 
-        info(String.format("%s[%s] left the room", client.getClientName(), client.getClientId(), getName()));
+        info("%s[%s] left the room", client.getClientName(), client.getClientId(), getName());
 
         autoCleanup();
 
@@ -75,13 +156,15 @@ public class Room implements AutoCloseable {
             return;
         }
         long id = client.getClientId();
-        sendDisconnect(client);
+        if (clientsInRoom.remove(id, client)) {
+            client.sendDisconnect(id, client.getClientName());
+            sendDisconnect(client);
+        }
         client.disconnect();
         // removedClient(client); // <-- use this just for normal room leaving
-        clientsInRoom.remove(client.getClientId());
 
         // Improved logging with user data
-        info(String.format("%s[%s] disconnected", client.getClientName(), id));
+        info("%s[%s] disconnected", client.getClientName(), id);
     }
 
     protected synchronized void disconnectAll() {
@@ -108,36 +191,69 @@ public class Room implements AutoCloseable {
     public void close() {
         // attempt to gracefully close and migrate clients
         if (!clientsInRoom.isEmpty()) {
-            sendMessage(null, "Room is shutting down, migrating to lobby");
-            info(String.format("migrating %s clients", name, clientsInRoom.size()));
+            info("migrating %s clients", name, clientsInRoom.size());
             clientsInRoom.values().removeIf(client -> {
+                // sent directly, a queued message would be skipped once they've moved
+                client.sendMessage("Room is shutting down, migrating to lobby");
                 Server.INSTANCE.joinRoom(Room.LOBBY, client);
                 return true;
             });
         }
+        closeLog(); // the log goes with the room
         Server.INSTANCE.removeRoom(this);
         isRunning = false;
         clientsInRoom.clear();
-        info(String.format("closed", name));
+        info("closed %s", mailbox);
     }
 
     // send/sync data to client(s)
 
+    /**
+     * Sends to a snapshot of the room's clients, in slices of at most the
+     * scheduler's quantum so a big room takes turns with the others. Clients that
+     * left before their slice runs are skipped; clients that fail to receive are
+     * disconnected.
+     * 
+     * @param delivery sends to one client, direct writes allowed or not (see
+     *                 {@link #DIRECT_FANOUT}), returns false if that failed
+     * @return false if the room has too much queued to take more
+     */
+    private boolean broadcast(BiPredicate<ServerThread, Boolean> delivery) {
+        ServerThread[] recipients = clientsInRoom.values().toArray(new ServerThread[0]);
+        if (recipients.length == 0) {
+            return true;
+        }
+        boolean isDirect = recipients.length <= DIRECT_FANOUT;
+        int slice = scheduler.getQuantum();
+        RoomScheduler.Task[] tasks = new RoomScheduler.Task[(recipients.length + slice - 1) / slice];
+        for (int t = 0; t < tasks.length; t++) {
+            final int from = t * slice;
+            final int to = Math.min(recipients.length, from + slice);
+            tasks[t] = new RoomScheduler.Task(to - from, () -> {
+                for (int i = from; i < to; i++) {
+                    ServerThread client = recipients[i];
+                    if (client.getCurrentRoom() != this) {
+                        continue;
+                    }
+                    if (!delivery.test(client, isDirect)) {
+                        info("Removing disconnected client[%s] from list", client.getClientId());
+                        disconnect(client);
+                    }
+                }
+            });
+        }
+        return scheduler.submit(mailbox, tasks);
+    }
+
     /**
      * Sends to all clients details of a disconnect client
      * 
      * @param client
      */
-    protected synchronized void sendDisconnect(ServerThread client) {
-        info(String.format("sending disconnect status to %s recipients", getName(), clientsInRoom.size()));
-        clientsInRoom.values().removeIf(clientInRoom -> {
-            boolean failedToSend = !clientInRoom.sendDisconnect(client.getClientId(), client.getClientName());
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
-                disconnect(client);
-            }
-            return failedToSend;
-        });
+    protected void sendDisconnect(ServerThread client) {
+        info("sending disconnect status to %s recipients", clientsInRoom.size());
+        Payload disconnect = ServerThread.disconnectPayload(client.getClientId(), client.getClientName());
+        broadcast((clientInRoom, isDirect) -> clientInRoom.send(disconnect, isDirect));
     }
 
     /**
@@ -155,22 +271,16 @@ public class Room implements AutoCloseable {
     }
 
     /**
-     * Syncs room status of one client to all connected clients
+     * Syncs room status of one client to the other clients in the room
      * 
-     * @param clientId
-     * @param clientName
+     * @param subject   the client joining/leaving
      * @param isConnect
      */
-    protected synchronized void sendRoomStatus(long clientId, String clientName, boolean isConnect) {
-        info(String.format("sending room status to %s recipients", getName(), clientsInRoom.size()));
-        clientsInRoom.values().removeIf(client -> {
-            boolean failedToSend = !client.sendRoomAction(clientId, clientName, getName(), isConnect);
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
-                disconnect(client);
-            }
-            return failedToSend;
-        });
+    protected void sendRoomStatus(ServerThread subject, boolean isConnect) {
+        info("sending room status to %s recipients", clientsInRoom.size());
+        Payload status = ServerThread.roomActionPayload(subject.getClientId(), subject.getClientName(), getName(),
+                isConnect);
+        broadcast((client, isDirect) -> client == subject || client.send(status, isDirect));
     }
 
     /**
@@ -178,38 +288,275 @@ public class Room implements AutoCloseable {
      * Internally calls processCommand and evaluates as necessary.
      * Note: Clients that fail to receive a message get removed from
      * connectedClients.
-     * Adding the synchronized keyword ensures that only one thread can execute
-     * these methods at a time,
-     * preventing concurrent modification issues and ensuring thread safety
+     * <p>
+     * The history lock only covers numbering the message, keeping it and
+     * logging it; the broadcast is submitted after (see submitInOrder), since a
+     * delivery run on this thread may disconnect a client, which needs the
+     * room's monitor.
+     * </p>
      * 
      * @param message
      * @param sender  ServerThread (client) sending the message or null if it's a
      *                server-generated message
      */
-    protected synchronized void sendMessage(ServerThread sender, String message) {
+    protected void sendMessage(ServerThread sender, String message) {
         if (!isRunning) {    //jah89 07-22-2024 
             return;
         }
     
         message = processMessageFormatting(message);
         long senderId = sender == null ? ServerThread.DEFAULT_CLIENT_ID : sender.getClientId();
-        final String finalMessage = message;
-    
-        info(String.format("sending message to %s recipients: %s", getName(), clientsInRoom.size(), message));
-        clientsInRoom.values().removeIf(client -> {
-            if (client.isClientMuted(senderId)) { //jah89 07-22-2024
-                info(String.format("Message from %s to %s avoided due to mute", senderId, client.getClientId()));
-                return false;
+        synchronized (history) {
+            // one payload shared by every recipient
+            long seq = ++lastSeq;
+            RoomMessagePayload shared = ServerThread.roomMessagePayload(senderId, message, seq);
+            if (HISTORY_SIZE > 0) {
+                if (history.size() == HISTORY_SIZE) {
+                    history.removeFirst();
+                }
+                history.addLast(shared);
             }
-            boolean failedToSend = !client.sendMessage(senderId, finalMessage);
-            if (failedToSend) {
-                info(String.format("Removing disconnected client[%s] from list", client.getClientId()));
-                disconnect(client);
+            appendToLog(senderId, sender == null ? "Room" : sender.getClientName(), message);
+
+            fine("sending message to %s recipients: %s", clientsInRoom.size(), message);
+            synchronized (unsubmitted) {
+                unsubmitted.add(() -> {
+                    boolean isQueued = broadcast((client, isDirect) -> {
+                        if (client.getRoomJoinSeq() >= seq) {
+                            return true; // joined after it was numbered, it's theirs to catch up on
+                        }
+                        if (client.isClientMuted(senderId)) { //jah89 07-22-2024
+                            fine("Message from %s to %s avoided due to mute", senderId, client.getClientId());
+                            return true;
+                        }
+                        return client.send(shared, isDirect);
+                    });
+                    if (!isQueued && sender != null) {
+                        sender.sendMessage("Room is too busy, your message wasn't delivered");
+                    }
+                });
             }
-            return failedToSend;
-        });
+        }
+        submitInOrder();
+    }
+
+    /**
+     * Submits the broadcasts sendMessage numbered, oldest first, one thread at
+     * a time (whichever sender finds nobody else at it) and holding no lock, so
+     * a delivery the scheduler runs on this thread may call back into the room
+     */
+    private void submitInOrder() {
+        synchronized (unsubmitted) {
+            if (isSubmitting) {
+                return;
+            }
+            isSubmitting = true;
+        }
+        while (true) {
+            Runnable next;
+            synchronized (unsubmitted) {
+                next = unsubmitted.poll();
+                if (next == null) {
+                    isSubmitting = false;
+                    return;
+                }
+            }
+            try {
+                next.run();
+            } catch (RuntimeException e) {
+                LoggerUtil.INSTANCE.severe("Broadcast failed in Room[" + name + "]", e);
+            }
+        }
+    }
+
+    // under the history lock, so the log's order is the broadcast order
+    private void appendToLog(long senderId, String senderName, String message) {
+        if (log == null) {
+            return;
+        }
+        try {
+            // a name with brackets could pass for someone else's id in LOGGED_SENDER
+            log.append(String.format("%s[%s]: %s", senderName.replace('[', '(').replace(']', ')'), senderId,
+                    message));
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Couldn't write to " + log.getFile() + ", not logging this room anymore", e);
+            closeLog();
+        }
     }
 
+    // a new file every time, even for the name of a room that was closed
+    private static MessageLog openLog(String name) {
+        String prefix = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_.-]", "_") + "-"
+                + LOG_STAMP.format(Instant.now());
+        Path file = Path.of(LOG_DIR, prefix + ".log");
+        for (int n = 2; Files.exists(file); n++) {
+            file = Path.of(LOG_DIR, prefix + "-" + n + ".log");
+        }
+        try {
+            return new MessageLog(file);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Couldn't open " + file + ", not logging this room", e);
+            return null;
+        }
+    }
+
+    private MessageLog getLog() {
+        synchronized (history) {
+            return log;
+        }
+    }
+
+    /**
+     * Closes and deletes the room's log, it's only kept as long as the room
+     */
+    protected void closeLog() {
+        synchronized (history) {
+            if (log == null) {
+                return;
+            }
+            try {
+                log.close();
+                Files.deleteIfExists(log.getFile());
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Error closing " + log.getFile(), e);
+            }
+            log = null;
+        }
+    }
+
+    /**
+     * Deletes room logs older than {@link #LOG_RETENTION_HOURS}: ones a server
+     * left behind when it stopped without closing its rooms
+     */
+    public static void expireLogs() {
+        if (LOG_DIR.isEmpty()) {
+            return;
+        }
+        File[] files = new File(LOG_DIR).listFiles((dir, name) -> LOG_NAME.matcher(name).matches());
+        if (files == null) {
+            return;
+        }
+        long oldest = System.currentTimeMillis() - TimeUnit.HOURS.toMillis(LOG_RETENTION_HOURS);
+        for (File file : files) {
+            if (file.lastModified() < oldest && file.delete()) {
+                LoggerUtil.INSTANCE.info("Deleted expired room log %s", file);
+            }
+        }
+    }
+
+    /**
+     * Searches what was said in the room since the client joined and sends them
+     * the newest messages with every word of the query, leaving out the ones
+     * from clients they muted (as the live view did). Runs on the client's
+     * thread, the room's mailbox isn't involved.
+     * 
+     * @param client
+     * @param query
+     */
+    protected void sendSearchResults(ServerThread client, String query) {
+        MessageLog log = getLog();
+        List<String> results = new ArrayList<>();
+        if (log != null) {
+            try {
+                long start = System.nanoTime();
+                results = log.search(query, SearchPayload.MAX_RESULTS, client.getRoomJoinOffset(), line -> {
+                    Matcher sender = LOGGED_SENDER.matcher(line);
+                    return !sender.lookingAt() || !client.isClientMuted(Long.parseLong(sender.group(1)));
+                });
+                fine("search [%s] found %s in %s us", query, results.size(), (System.nanoTime() - start) / 1000);
+            } catch (IOException e) {
+                LoggerUtil.INSTANCE.warning("Search of " + log.getFile() + " failed", e);
+                client.sendMessage("Search failed, try again later");
+                return;
+            }
+        }
+        client.sendSearchResults(query, results);
+    }
+
+    /**
+     * Answers a latency probe from the room's mailbox, behind whatever the room
+     * already has queued, so the client sees the delay its messages would
+     * 
+     * @param client
+     * @param ping
+     */
+    protected void sendPong(ServerThread client, PingPayload ping) {
+        Runnable reply = () -> {
+            ping.onRoomReached();
+            long waitedMs = ping.getRoomNanos() / 1_000_000;
+            if (waitedMs >= SLOW_PING_MS) {
+                info("ping from %s[%s] waited %s ms for the room (%s)", client.getClientName(), client.getClientId(),
+                        waitedMs, mailbox);
+            }
+            client.send(ping);
+        };
+        if (!isRunning || !scheduler.submit(mailbox, new RoomScheduler.Task(1, reply))) {
+            reply.run(); // too busy to queue it, which the client should hear about all the same
+        }
+    }
+
+    /**
+     * Sends a client (back in the room after a dropped connection) the messages
+     * said after the last one it got and before it rejoined. Those are still
+     * delivered through the room's mailbox so they can't overtake anything the
+     * room sent them before.
+     * 
+     * @param client
+     * @param since  the last message the client has
+     */
+    protected void sendMissed(ServerThread client, long since) {
+        long until = client.getRoomJoinSeq(); // everything after was broadcast to them
+        if (!isRunning || since >= until) {
+            return;
+        }
+        List<RoomMessagePayload> missed = new ArrayList<>();
+        long first = until + 1; // oldest one still in the history
+        synchronized (history) {
+            for (RoomMessagePayload p : history) {
+                if (p.getRoomSeq() > since && p.getRoomSeq() <= until) {
+                    first = Math.min(first, p.getRoomSeq());
+                    missed.add(p);
+                }
+            }
+        }
+        long lost = first - since - 1;
+        info("catching up %s[%s] on %s messages (%s no longer kept)", client.getClientName(),
+                client.getClientId(), missed.size(), lost);
+        // outside the history lock: the scheduler may run this here, and a failed send disconnects the client
+        scheduler.submit(mailbox, new RoomScheduler.Task(missed.size() + 1, () -> {
+            if (lost > 0) {
+                client.sendMessage(String.format("%d earlier messages are no longer available", lost));
+            }
+            for (RoomMessagePayload p : missed) {
+                if (!client.isClientMuted(p.getClientId()) && !client.send(p)) {
+                    return;
+                }
+            }
+        }));
+    }
+
+    /**
+     * Offers a file the sender finished uploading to everyone else in the room
+     * who hasn't muted them
+     * 
+     * @param sender
+     * @param relay
+     * @param transferId
+     * @return number of clients it was offered to
+     */
+    protected synchronized int shareFile(ServerThread sender, FileRelay relay, String transferId) {
+        if (!isRunning) {
+            return 0;
+        }
+        int offered = 0;
+        for (ServerThread client : clientsInRoom.values()) {
+            if (client != sender && !client.isClientMuted(sender.getClientId())
+                    && relay.offer(client, sender.getClientId(), transferId)) {
+                offered++;
+            }
+        }
+        return offered;
+    }
 
     // end send data to client(s)
 
@@ -228,8 +575,20 @@ public class Room implements AutoCloseable {
         }
     }
 
-    protected void handleListRooms(ServerThread sender, String roomQuery) {
-        sender.sendRooms(Server.INSTANCE.listRooms(roomQuery));
+    /**
+     * Sends the client the page of the room search it asked for
+     * 
+     * @param sender
+     * @param request the query, which page and the search's id
+     */
+    protected void handleListRooms(ServerThread sender, RoomResultsPayload request) {
+        List<String> matches = Server.INSTANCE.listRooms(request.getMessage());
+        int limit = request.getLimit() > 0 ? Math.min(request.getLimit(), RoomResultsPayload.MAX_PAGE)
+                : RoomResultsPayload.MAX_PAGE;
+        int from = Math.min(Math.max(0, request.getOffset()), matches.size());
+        int to = Math.min(matches.size(), from + limit);
+        // copied, a view would drag the whole list into the payload
+        sender.sendRooms(request.getRequestId(), from, matches.size(), new ArrayList<>(matches.subList(from, to)));
     }
 
     protected void clientDisconnect(ServerThread sender) {
@@ -237,30 +596,56 @@ public class Room implements AutoCloseable {
     }
 
     // jah89 07-04-2024
-    protected synchronized void processRollCommand(ServerThread sender, RollPayload rollPayload) { // jah89 07-04-2024
-        String message = String.format("<b>%s (roll result): %s</b>", sender.getClientName(), rollPayload.getMessage());
+    // the roll is made here from the requested dice; any text the client sent is ignored
+    protected void processRollCommand(ServerThread sender, RollPayload rollPayload) { // jah89 07-04-2024
+        String error = DiceEngine.validate(rollPayload.getRolls(), rollPayload.getSides());
+        if (error != null) {
+            DiceEngine.reject(rollStats);
+            sender.sendMessage(error);
+            return;
+        }
+        long result = DiceEngine.roll(rollPayload.getRolls(), rollPayload.getSides(), rollStats);
+        String message = String.format("<b>%s (roll result): %s rolled %dd%d and got %d</b>", sender.getClientName(),
+                sender.getClientName(), rollPayload.getRolls(), rollPayload.getSides(), result);
         sendMessage(sender, message);
     }
     
-    protected synchronized void processFlipCommand(ServerThread sender, Payload flipPayload) { // jah89 07-04-2024
-        String message = String.format("<b>%s (flip result): %s</b>", sender.getClientName(), flipPayload.getMessage());
+    protected void processFlipCommand(ServerThread sender, Payload flipPayload) { // jah89 07-04-2024
+        String message = String.format("<b>%s (flip result): %s flipped a coin and got %s</b>",
+                sender.getClientName(), sender.getClientName(), DiceEngine.flip() ? "heads" : "tails");
         sendMessage(sender, message);
     }
+
+    protected void sendRollStats(ServerThread sender) {
+        sender.sendMessage(String.format("Rolls in %s: %s", getName(), rollStats));
+    }
     // jah89 07-07-2024
-    private String processMessageFormatting(String message) {
+    // compiled once instead of by every String.replaceAll call
+    private static final Pattern BOLD = Pattern.compile("\\*\\*(.*?)\\*\\*");
+    private static final Pattern ITALICS = Pattern.compile("\\*(.*?)\\*");
+    private static final Pattern UNDERLINE = Pattern.compile("_(.*?)_");
+    private static final Pattern RED = Pattern.compile("#r(.*?)r#");
+    private static final Pattern GREEN = Pattern.compile("#g(.*?)g#");
+    private static final Pattern BLUE = Pattern.compile("#b(.*?)b#");
+
+    static String processMessageFormatting(String message) {
+        // most lines have no markup at all
+        if (message.indexOf('*') < 0 && message.indexOf('_') < 0 && message.indexOf('#') < 0) {
+            return message;
+        }
         // Bold **
-        message = message.replaceAll("\\*\\*(.*?)\\*\\*", "<b>$1</b>");
+        message = BOLD.matcher(message).replaceAll("<b>$1</b>");
 
         // Italics *
-        message = message.replaceAll("\\*(.*?)\\*", "<i>$1</i>");
+        message = ITALICS.matcher(message).replaceAll("<i>$1</i>");
 
         // Underline _ text_
-        message = message.replaceAll("_(.*?)_", "<u>$1</u>");
+        message = UNDERLINE.matcher(message).replaceAll("<u>$1</u>");
 
         // Colors #r text r#
-        message = message.replaceAll("#r(.*?)r#", "<red>$1</red>");
-        message = message.replaceAll("#g(.*?)g#", "<green>$1$</green>");
-        message = message.replaceAll("#b(.*?)b#", "<blue>$1</blue>");
+        message = RED.matcher(message).replaceAll("<red>$1</red>");
+        message = GREEN.matcher(message).replaceAll("<green>$1</green>");
+        message = BLUE.matcher(message).replaceAll("<blue>$1</blue>");
 
         return message;
     }
@@ -309,15 +694,5 @@ public class Room implements AutoCloseable {
         }
         return null; // Client not found
     }
-    public void sendPrivateMessage(ServerThread sender, long targetId, String message) { //jah89 07-20-2024
-        ServerThread target = getClient(targetId);
-        if (target == null) {
-            sender.sendMessage("User not found.");
-            return;
-        }
-        String formattedMessage = sender.getClientName() + " (private): " + message;
-        sender.sendMessage(formattedMessage);
-        target.sendMessage(formattedMessage);
-    }
     // end receive data from ServerThread
 }
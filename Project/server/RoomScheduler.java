@@ -0,0 +1,224 @@
+package Project.server;
+
+import Project.common.LoggerUtil;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/**
+ * Runs room work (message fan-out, room status broadcasts) on a fixed pool of
+ * workers, sharing them between rooms with deficit round robin.
+ * <p>
+ * Each room has a Mailbox of tasks, each with a cost (the number of
+ * recipients it sends to). Rooms with queued work take turns: on its turn a
+ * room's deficit grows by the quantum and it runs tasks while their cost fits
+ * in the deficit, then goes to the back of the line. A room with a huge
+ * audience therefore gets the same share of sends per turn as any other room
+ * instead of the share its senders' threads happen to grab, and small rooms
+ * never wait behind more than one turn of it. A mailbox only ever runs on one
+ * thread at a time, so a room's output stays in order.
+ * </p>
+ * <p>
+ * Work that fits in one quantum, submitted while its room has nothing queued or
+ * running, is run right away on the submitting thread instead of being handed
+ * to a worker. Quiet rooms skip the hand-off latency that way, and anything
+ * submitted meanwhile still queues behind it.
+ * </p>
+ * <p>
+ * A scheduler with 0 workers runs everything inline on the submitting thread
+ * (used by benchmarks).
+ * </p>
+ */
+public class RoomScheduler {
+    public static final int DEFAULT_WORKERS = Integer.getInteger("chat.scheduler.workers",
+            Math.max(2, Runtime.getRuntime().availableProcessors()));
+    // recipients a room may send to per turn (and the largest fan-out slice)
+    public static final int DEFAULT_QUANTUM = Integer.getInteger("chat.scheduler.quantum", 256);
+    // total queued cost (recipient sends) a room may have waiting before new work is refused
+    public static final long DEFAULT_MAILBOX_LIMIT = Long.getLong("chat.scheduler.mailboxLimit", 1_000_000L);
+
+    /**
+     * A unit of room work
+     */
+    public static class Task {
+        private final int cost;
+        private final Runnable work;
+
+        /**
+         * @param cost relative cost (recipients sent to), at least 1
+         * @param work
+         */
+        public Task(int cost, Runnable work) {
+            this.cost = Math.max(1, cost);
+            this.work = work;
+        }
+    }
+
+    /**
+     * Queued work of one room
+     */
+    public static class Mailbox {
+        private final String name;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>(); // guarded by this
+        private long queuedCost = 0; // guarded by this
+        private boolean isScheduled = false; // waiting in the ring or running; guarded by this
+        private long deficit = 0; // only touched by the worker running the mailbox
+        private volatile long executedCost = 0;
+        private volatile long rejected = 0;
+        private volatile long maxQueuedCost = 0;
+
+        public Mailbox(String name) {
+            this.name = name;
+        }
+
+        public synchronized long getQueuedCost() {
+            return queuedCost;
+        }
+
+        public long getExecutedCost() {
+            return executedCost;
+        }
+
+        public long getRejected() {
+            return rejected;
+        }
+
+        @Override
+        public synchronized String toString() {
+            return String.format("Mailbox[%s queued=%d maxQueued=%d executed=%d rejected=%d]", name, queuedCost,
+                    maxQueuedCost, executedCost, rejected);
+        }
+    }
+
+    // rooms with queued work, in turn order
+    private final LinkedBlockingQueue<Mailbox> ring = new LinkedBlockingQueue<>();
+    private final int quantum;
+    private final long mailboxLimit;
+    private final Thread[] workers;
+
+    public RoomScheduler() {
+        this(DEFAULT_WORKERS, DEFAULT_QUANTUM, DEFAULT_MAILBOX_LIMIT);
+    }
+
+    /**
+     * @param workers      number of worker threads (0 runs tasks inline)
+     * @param quantum      cost a room may run per turn
+     * @param mailboxLimit queued cost per room before submissions are refused
+     */
+    public RoomScheduler(int workers, int quantum, long mailboxLimit) {
+        this.quantum = Math.max(1, quantum);
+        this.mailboxLimit = mailboxLimit;
+        this.workers = new Thread[Math.max(0, workers)];
+        for (int i = 0; i < this.workers.length; i++) {
+            Thread worker = new Thread(this::work, "room-worker-" + i);
+            worker.setDaemon(true);
+            this.workers[i] = worker;
+            worker.start();
+        }
+    }
+
+    /**
+     * @return the largest cost a single task should have so it fits in one turn
+     */
+    public int getQuantum() {
+        return quantum;
+    }
+
+    /**
+     * Queues tasks for a room, all or none
+     *
+     * @param mailbox
+     * @param tasks   run in order
+     * @return false if the room already has too much work queued
+     */
+    public boolean submit(Mailbox mailbox, Task... tasks) {
+        if (workers.length == 0) {
+            for (Task task : tasks) {
+                run(mailbox, task);
+            }
+            return true;
+        }
+        long cost = 0;
+        for (Task task : tasks) {
+            cost += task.cost;
+        }
+        boolean isInline = false;
+        synchronized (mailbox) {
+            if (!mailbox.isScheduled && cost <= quantum) {
+                // idle room and a single turn's worth: claim it and run here
+                mailbox.isScheduled = true;
+                isInline = true;
+            }
+        }
+        if (isInline) {
+            for (Task task : tasks) {
+                run(mailbox, task);
+            }
+            synchronized (mailbox) {
+                if (mailbox.tasks.isEmpty()) {
+                    mailbox.isScheduled = false;
+                } else {
+                    ring.add(mailbox); // queued while we ran, a worker takes over
+                }
+            }
+            return true;
+        }
+        synchronized (mailbox) {
+            if (mailbox.queuedCost > 0 && mailbox.queuedCost + cost > mailboxLimit) {
+                mailbox.rejected++;
+                return false;
+            }
+            for (Task task : tasks) {
+                mailbox.tasks.add(task);
+            }
+            mailbox.queuedCost += cost;
+            mailbox.maxQueuedCost = Math.max(mailbox.maxQueuedCost, mailbox.queuedCost);
+            if (!mailbox.isScheduled) {
+                mailbox.isScheduled = true;
+                ring.add(mailbox);
+            }
+        }
+        return true;
+    }
+
+    private void work() {
+        while (true) {
+            Mailbox mailbox;
+            try {
+                mailbox = ring.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            mailbox.deficit += quantum;
+            while (true) {
+                Task task;
+                synchronized (mailbox) {
+                    task = mailbox.tasks.peek();
+                    if (task == null) {
+                        // idle rooms don't bank credit
+                        mailbox.deficit = 0;
+                        mailbox.isScheduled = false;
+                        break;
+                    }
+                    if (task.cost > mailbox.deficit) {
+                        // turn's over, back of the line
+                        ring.add(mailbox);
+                        break;
+                    }
+                    mailbox.tasks.poll();
+                    mailbox.queuedCost -= task.cost;
+                }
+                mailbox.deficit -= task.cost;
+                run(mailbox, task);
+            }
+        }
+    }
+
+    private static void run(Mailbox mailbox, Task task) {
+        try {
+            task.work.run();
+        } catch (Exception e) {
+            LoggerUtil.INSTANCE.severe("Room task failed in " + mailbox.name, e);
+        }
+        mailbox.executedCost += task.cost;
+    }
+}
@@ -1,11 +1,17 @@
 package Project.server;
 
+import Project.common.ConnectionPayload;
+import Project.common.DeliveryState;
 import Project.common.LoggerUtil;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.security.SecureRandom;
+import java.util.HexFormat;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 public enum Server {
@@ -14,22 +20,38 @@ public enum Server {
     {
         // statically initialize the server-side LoggerUtil
         LoggerUtil.LoggerConfig config = new LoggerUtil.LoggerConfig();
-        config.setFileSizeLimit(2048 * 1024); // 2MB
-        config.setFileCount(1);
+        config.setFileSizeLimit(Integer.getInteger("chat.log.fileSize", 2048 * 1024)); // 2MB
+        // rotated files are gzipped in the background (see LogArchiver), so keeping history is cheap
+        config.setFileCount(Integer.getInteger("chat.log.fileCount", 10));
         config.setLogLocation("server.log");
+        // per-payload/per-message detail is logged at FINE (-Dchat.log.level=FINE to see it)
+        Level level = Level.parse(System.getProperty("chat.log.level", "INFO"));
+        config.setFileLogLevel(level);
+        config.setConsoleLogLevel(level);
         // Set the logger configuration
         LoggerUtil.INSTANCE.setConfig(config);
     }
     private int port = 3000;
     // Use ConcurrentHashMap for thread-safe room management
     private final ConcurrentHashMap<String, Room> rooms = new ConcurrentHashMap<>();
+    // server-wide directory of initialized clients (independent of rooms) for direct routing
+    private final ConcurrentHashMap<Long, ServerThread> clientsById = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ServerThread> clientsByName = new ConcurrentHashMap<>();
+    // dropped sessions that can be resumed (by token) within RESUME_WINDOW_MS
+    private final ConcurrentHashMap<String, ParkedSession> parkedSessions = new ConcurrentHashMap<>();
+    private static final long RESUME_WINDOW_MS = 60_000;
+    private final SecureRandom tokenRandom = new SecureRandom();
     private boolean isRunning = true;
-    private long nextClientId = 1;
+    // callbacks arrive on each client's own thread, so ids must be handed out atomically
+    private final AtomicLong nextClientId = new AtomicLong(1);
+    private final FileRelay fileRelay = new FileRelay();
+    private final RoomScheduler roomScheduler = new RoomScheduler();
 
     private Server() {
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
             LoggerUtil.INSTANCE.info("JVM is shutting down. Perform cleanup tasks.");
             shutdown();
+            LoggerUtil.INSTANCE.shutdown(); // write out whatever the async log writer still holds
         }));
     }
 
@@ -39,6 +61,7 @@ public enum Server {
         LoggerUtil.INSTANCE.info("Listening on port " + this.port);
         // Simplified client connection loop
         try (ServerSocket serverSocket = new ServerSocket(port)) {
+            Room.expireLogs();
             createRoom(Room.LOBBY);// create the first room
             while (isRunning) {
                 LoggerUtil.INSTANCE.info("Waiting for next client");
@@ -69,6 +92,7 @@ public enum Server {
             // since empty rooms tell the server to remove themselves
             rooms.values().removeIf(room -> {
                 room.disconnectAll();
+                room.closeLog();
                 return true;
             });
         } catch (Exception e) {
@@ -83,17 +107,178 @@ public enum Server {
      * @param sClient
      */
     private void onClientInitialized(ServerThread sClient) {
-        sClient.sendClientId(nextClientId);
-        nextClientId++;
-        if (nextClientId < 0) {
-            nextClientId = 1;
-        }
+        sClient.sendClientId(nextClientId.getAndUpdate(id -> id + 1 < 0 ? 1 : id + 1));
+        registerClient(sClient);
         // add to lobby room
-        LoggerUtil.INSTANCE.info(String.format("Server: *%s[%s] initialized*",
-                sClient.getClientName(), sClient.getClientId()));
+        LoggerUtil.INSTANCE.info("Server: *%s[%s] initialized*",
+                sClient.getClientName(), sClient.getClientId());
         joinRoom(Room.LOBBY, sClient);
     }
 
+    /**
+     * Adds an initialized client to the server-wide directory
+     * 
+     * @param sClient
+     */
+    private void registerClient(ServerThread sClient) {
+        clientsById.put(sClient.getClientId(), sClient);
+        if (sClient.getClientName() != null) {
+            // names aren't unique; the most recent connection wins the name lookup
+            clientsByName.put(sClient.getClientName().toLowerCase(), sClient);
+        }
+    }
+
+    /**
+     * Removes a client from the server-wide directory (safe to call multiple
+     * times)
+     * 
+     * @param sClient
+     */
+    protected void unregisterClient(ServerThread sClient) {
+        clientsById.remove(sClient.getClientId(), sClient);
+        if (sClient.getClientName() != null) {
+            // only if the name is still ours, and then it goes back to another
+            // connection with the same name rather than to nobody
+            clientsByName.computeIfPresent(sClient.getClientName().toLowerCase(),
+                    (name, current) -> current != sClient ? current : findClientNamed(name));
+        }
+    }
+
+    // any registered client with the (lowercase) name, or null
+    private ServerThread findClientNamed(String name) {
+        for (ServerThread client : clientsById.values()) {
+            if (client.getClientName() != null && client.getClientName().toLowerCase().equals(name)) {
+                return client;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a new unguessable session resume token
+     */
+    protected String newSessionToken() {
+        byte[] bytes = new byte[16];
+        tokenRandom.nextBytes(bytes);
+        return HexFormat.of().formatHex(bytes);
+    }
+
+    /**
+     * State kept for a client whose connection dropped without a DISCONNECT
+     */
+    private static class ParkedSession {
+        private final long clientId;
+        private final String clientName;
+        private final String roomName;
+        private final DeliveryState state;
+        private final long expiresAt;
+
+        private ParkedSession(long clientId, String clientName, String roomName, DeliveryState state) {
+            this.clientId = clientId;
+            this.clientName = clientName;
+            this.roomName = roomName;
+            this.state = state;
+            this.expiresAt = System.currentTimeMillis() + RESUME_WINDOW_MS;
+        }
+    }
+
+    /**
+     * Keeps a dropped client's session so a reconnect can resume it
+     * 
+     * @param sClient  the dropped client
+     * @param roomName the room they were in (may be null)
+     * @param state    their delivery state (unacknowledged payloads get replayed)
+     */
+    protected void parkSession(ServerThread sClient, String roomName, DeliveryState state) {
+        long now = System.currentTimeMillis();
+        parkedSessions.values().removeIf(parked -> parked.expiresAt < now);
+        parkedSessions.put(sClient.getSessionToken(),
+                new ParkedSession(sClient.getClientId(), sClient.getClientName(), roomName, state));
+        LoggerUtil.INSTANCE.info("Server: parked session of %s[%s] %s", sClient.getClientName(),
+                sClient.getClientId(), state);
+    }
+
+    /**
+     * Attempts to resume a parked session on a new connection
+     * 
+     * @param sClient the new connection
+     * @param cp      its CLIENT_CONNECT payload
+     * @return true if resumed, false if it should be treated as a new client
+     */
+    protected boolean resumeSession(ServerThread sClient, ConnectionPayload cp) {
+        ParkedSession parked = parkedSessions.remove(cp.getSessionToken());
+        if (parked == null || parked.expiresAt < System.currentTimeMillis()
+                || !parked.clientName.equals(cp.getClientName())) {
+            return false;
+        }
+        try {
+            sClient.resume(parked.clientId, parked.clientName, cp.getSessionToken(), parked.state);
+        } catch (IOException e) {
+            LoggerUtil.INSTANCE.warning("Failed to resume session of " + parked.clientName, e);
+            return true; // the new connection is already broken
+        }
+        registerClient(sClient);
+        LoggerUtil.INSTANCE.info("Server: *%s[%s] resumed*", sClient.getClientName(),
+                sClient.getClientId());
+        if (parked.roomName == null || !joinRoom(parked.roomName, sClient)) {
+            joinRoom(Room.LOBBY, sClient);
+        }
+        return true;
+    }
+
+    protected RoomScheduler getRoomScheduler() {
+        return roomScheduler;
+    }
+
+    protected FileRelay getFileRelay() {
+        return fileRelay;
+    }
+
+    /**
+     * Finds a connected client regardless of the room they're in
+     * 
+     * @param clientId
+     * @return the client or null if not connected
+     */
+    protected ServerThread getClient(long clientId) {
+        return clientsById.get(clientId);
+    }
+
+    /**
+     * Finds a connected client by name (case-insensitive) regardless of the room
+     * they're in
+     * 
+     * @param clientName
+     * @return the client or null if not connected
+     */
+    protected ServerThread getClientByName(String clientName) {
+        return clientName == null ? null : clientsByName.get(clientName.toLowerCase());
+    }
+
+    /**
+     * Routes a private message directly between two clients via the directory.
+     * Doesn't touch any Room so it never waits on a room's lock.
+     * 
+     * @param sender
+     * @param targetId   id of the recipient or ServerThread.DEFAULT_CLIENT_ID to
+     *                   look up by name
+     * @param targetName name of the recipient (used when targetId isn't given)
+     * @param message
+     */
+    protected void sendPrivateMessage(ServerThread sender, long targetId, String targetName, String message) {
+        ServerThread target = targetId != ServerThread.DEFAULT_CLIENT_ID ? getClient(targetId)
+                : getClientByName(targetName);
+        if (target == null) {
+            sender.sendMessage("User not found.");
+            return;
+        }
+        String formattedMessage = sender.getClientName() + " (private): " + message;
+        sender.sendMessage(formattedMessage);
+        if (target != sender) {
+            target.sendMessage(formattedMessage);
+        }
+    }
+
     /**
      * Attempts to create a new Room and add it to the tracked rooms collection
      * 
@@ -107,7 +292,7 @@ public enum Server {
         }
         Room room = new Room(name);
         rooms.put(nameCheck, room);
-        LoggerUtil.INSTANCE.info(String.format("Created new Room %s", name));
+        LoggerUtil.INSTANCE.info("Created new Room %s", name);
         return true;
     }
 
@@ -132,17 +317,23 @@ public enum Server {
         return true;
     }
 
+    /**
+     * @param roomQuery part of the name, empty for every room
+     * @return names of the matching rooms, sorted (case insensitive) so pages of
+     *         it stay put between requests
+     */
     protected List<String> listRooms(String roomQuery) {
-        final String nameCheck = roomQuery.toLowerCase();
+        final String nameCheck = roomQuery == null ? "" : roomQuery.toLowerCase();
         return rooms.values().stream()
                 .filter(room -> room.getName().toLowerCase().contains(nameCheck))// find partially matched rooms
                 .map(room -> room.getName())// map room to String (name)
+                .sorted(String.CASE_INSENSITIVE_ORDER)
                 .collect(Collectors.toList()); // return a mutable list
     }
 
     protected void removeRoom(Room room) {
         rooms.remove(room.getName().toLowerCase());
-        LoggerUtil.INSTANCE.info(String.format("Server removed room %s", room.getName()));
+        LoggerUtil.INSTANCE.info("Server removed room %s", room.getName());
     }
 
     public static void main(String[] args) {
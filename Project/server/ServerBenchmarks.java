@@ -0,0 +1,132 @@
+package Project.server;
+
+import Project.bench.Bench;
+import Project.common.DeliveryState;
+import Project.common.Payload;
+import Project.common.PayloadChannel;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+
+/**
+ * Benchmarks for the server-side message path.
+ * Lives in the server package so it can drive Room/Server the same way
+ * ServerThread does without widening their visibility.
+ */
+public class ServerBenchmarks {
+
+    public static void run(Bench bench) throws IOException {
+        formatting(bench);
+        fanout(bench, 1);
+        fanout(bench, 10);
+        fanout(bench, 100);
+        fanout(bench, 1000);
+        muteLookups(bench, 0);
+        muteLookups(bench, 16);
+        muteLookups(bench, 1024);
+        listRooms(bench, 10);
+        listRooms(bench, 1000);
+        dice(bench, 1, 20);
+        dice(bench, 100, 6);
+        dice(bench, DiceEngine.EXACT_LIMIT, 6);
+        dice(bench, 100_000_000, 6);
+    }
+
+    private static void dice(Bench bench, int rolls, int sides) {
+        DiceEngine.Stats stats = new DiceEngine.Stats();
+        bench.run(String.format("diceEngine.roll.%dd%d", rolls, sides), () -> DiceEngine.roll(rolls, sides, stats));
+    }
+
+    private static void formatting(Bench bench) {
+        bench.run("room.processMessageFormatting.plain",
+                () -> Room.processMessageFormatting("just a regular chat message without markup"));
+        bench.run("room.processMessageFormatting.markup",
+                () -> Room.processMessageFormatting("**bold** *italic* _underline_ #rred r# #ggreen g# #bblue b#"));
+    }
+
+    private static void fanout(Bench bench, int recipients) throws IOException {
+        String name = "room.sendMessage.fanout" + recipients;
+        if (!bench.isSelected(name)) {
+            return;
+        }
+        // inline scheduler so each op measures the whole fan-out, not just queuing it
+        Room room = new Room("bench-fanout-" + recipients, new RoomScheduler(0, RoomScheduler.DEFAULT_QUANTUM,
+                RoomScheduler.DEFAULT_MAILBOX_LIMIT));
+        BenchSink sender = null;
+        for (int i = 0; i < recipients; i++) {
+            BenchSink sink = new BenchSink(1000 + i);
+            room.addClient(sink);
+            if (sender == null) {
+                sender = sink;
+            }
+        }
+        final BenchSink from = sender;
+        bench.run(name, () -> {
+            room.sendMessage(from, "hello **world**, this is a benchmark message");
+            return from;
+        });
+        room.disconnectAll();
+    }
+
+    private static void muteLookups(Bench bench, int muted) throws IOException {
+        BenchSink client = new BenchSink(1);
+        for (int i = 0; i < muted; i++) {
+            client.putMutedClient(1000 + i, "muted-" + i);
+        }
+        long hit = muted > 0 ? 1000 + muted / 2 : 1000;
+        long miss = 1_000_000;
+        bench.run("serverThread.isClientMuted.hit.muted" + muted, () -> client.isClientMuted(hit));
+        bench.run("serverThread.isClientMuted.miss.muted" + muted, () -> client.isClientMuted(miss));
+    }
+
+    private static void listRooms(Bench bench, int count) {
+        String name = "server.listRooms.rooms" + count;
+        if (!bench.isSelected(name)) {
+            return;
+        }
+        for (int i = 0; i < count; i++) {
+            Server.INSTANCE.createRoom("bench-list-" + count + "-" + i);
+        }
+        bench.run(name + ".partial", () -> Server.INSTANCE.listRooms("bench-list-" + count + "-1"));
+        bench.run(name + ".all", () -> Server.INSTANCE.listRooms(""));
+    }
+
+    /**
+     * ServerThread that writes through a real PayloadChannel into an in-memory
+     * sink instead of a socket. Writes happen inline on the sending thread (no
+     * OutboundQueue writer) so the benchmark measures the encoding work.
+     */
+    private static class BenchSink extends ServerThread {
+        private long writes = 0;
+
+        BenchSink(long id) throws IOException {
+            super(new Socket(), sink -> {
+            });
+            channel = new PayloadChannel(OutputStream.nullOutputStream(), null, new DeliveryState());
+            isRunning = true;
+            setClientName("sink-" + id);
+            sendClientId(id);
+        }
+
+        @Override
+        protected void onInitialized() {
+            // no server registration or mute list loading for benchmark clients
+        }
+
+        @Override
+        protected boolean send(Payload payload) {
+            boolean sent;
+            try {
+                channel.write(payload);
+                sent = true;
+            } catch (IOException e) {
+                sent = false;
+            }
+            // acknowledge like a healthy client would so the retransmit buffer stays small
+            if (++writes % PayloadChannel.ACK_INTERVAL == 0) {
+                channel.getState().onPeerAck(channel.getState().getLastSent());
+            }
+            return sent;
+        }
+    }
+}
@@ -1,11 +1,18 @@
 package Project.server;
 
 import Project.common.ConnectionPayload;
+import Project.common.DeliveryState;
+import Project.common.FilePayload;
 import Project.common.LoggerUtil;
+import Project.common.LongSet;
 import Project.common.Payload;
+import Project.common.PayloadCodec;
 import Project.common.PayloadType;
+import Project.common.PingPayload;
 import Project.common.RollPayload;
+import Project.common.RoomMessagePayload;
 import Project.common.RoomResultsPayload;
+import Project.common.SearchPayload;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
@@ -17,7 +24,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 
 /**
  * A server-side representation of a single client.
@@ -26,8 +35,13 @@ import java.util.function.Consumer;
 public class ServerThread extends BaseServerThread {
     public static final long DEFAULT_CLIENT_ID = -1;
     private Room currentRoom;
+    private volatile long roomJoinSeq = 0; // the room's last message when we joined it
+    private volatile long roomJoinOffset = 0; // where the room's log was when we joined it
     private long clientId;
     private String clientName;
+    private String sessionToken; // lets the client resume this session after a dropped connection
+    // set once disconnected by the server or parked, so the session is only parked once
+    private final AtomicBoolean isExplicitDisconnect = new AtomicBoolean();
     private Consumer<ServerThread> onInitializationComplete; // callback to inform when this object is ready
 
     /**
@@ -64,10 +78,30 @@ public class ServerThread extends BaseServerThread {
         return this.clientId;
     }
 
+    protected String getSessionToken() {
+        return sessionToken;
+    }
+
     protected Room getCurrentRoom() {
         return this.currentRoom;
     }
 
+    protected long getRoomJoinSeq() {
+        return roomJoinSeq;
+    }
+
+    protected void setRoomJoinSeq(long roomJoinSeq) {
+        this.roomJoinSeq = roomJoinSeq;
+    }
+
+    protected long getRoomJoinOffset() {
+        return roomJoinOffset;
+    }
+
+    protected void setRoomJoinOffset(long roomJoinOffset) {
+        this.roomJoinOffset = roomJoinOffset;
+    }
+
     protected void setCurrentRoom(Room room) {
         if (room == null) {
             throw new NullPointerException("Room argument can't be null");
@@ -82,21 +116,70 @@ public class ServerThread extends BaseServerThread {
     }
 
     @Override
-    protected void info(String message) {
-        LoggerUtil.INSTANCE.info(String.format("ServerThread[%s(%s)]: %s", getClientName(), getClientId(), message));
+    protected void info(String format, Object... args) {
+        log(Level.INFO, format, args);
+    }
+
+    @Override
+    protected void fine(String format, Object... args) {
+        log(Level.FINE, format, args);
+    }
+
+    private void log(Level level, String format, Object... args) {
+        if (LoggerUtil.INSTANCE.isLoggable(level)) {
+            if (args.length == 0) {
+                LoggerUtil.INSTANCE.log(ServerThread.class, level, "ServerThread[%s(%s)]: %s", getClientName(),
+                        getClientId(), format);
+            } else {
+                LoggerUtil.INSTANCE.log(ServerThread.class, level, "ServerThread[%s(%s)]: " + format,
+                        LoggerUtil.withContext(args, getClientName(), getClientId()));
+            }
+        }
     }
 
     @Override
     protected void cleanup() {
+        Server.INSTANCE.unregisterClient(this);
+        Room room = currentRoom;
         currentRoom = null;
         super.cleanup();
+        // cleanup may run more than once, and concurrently with disconnect(); only one of them gets past this
+        if (sessionToken != null && channel != null && isExplicitDisconnect.compareAndSet(false, true)) {
+            // connection dropped; leave the room and keep the session around so the client can resume it
+            if (room != null) {
+                room.removedClient(this);
+            }
+            Server.INSTANCE.parkSession(this, room == null ? null : room.getName(), channel.getState());
+        }
     }
 
     @Override
     protected void disconnect() {
+        isExplicitDisconnect.set(true);
         super.disconnect();
     }
 
+    /**
+     * Continues a session whose connection dropped: takes over its identity and
+     * delivery state, replays what the client missed, then re-sends the client
+     * id
+     * 
+     * @param clientId     the session's id
+     * @param clientName   the session's name
+     * @param sessionToken the session's resume token
+     * @param state        delivery state of the dropped connection
+     * @throws IOException
+     */
+    protected void resume(long clientId, String clientName, String sessionToken, DeliveryState state)
+            throws IOException {
+        this.clientName = clientName;
+        this.sessionToken = sessionToken;
+        loadMuteList();
+        channel.resume(state);
+        sendClientId(clientId);
+        info("Resumed session %s", state);
+    }
+
     // handle received message from the Client
     @Override
     protected void processPayload(Payload payload) {
@@ -104,13 +187,17 @@ public class ServerThread extends BaseServerThread {
             switch (payload.getPayloadType()) {
                 case CLIENT_CONNECT:
                     ConnectionPayload cp = (ConnectionPayload) payload;
+                    channel.setCompression(cp.isCompression() && PayloadCodec.ENABLED);
+                    if (cp.getSessionToken() != null && Server.INSTANCE.resumeSession(this, cp)) {
+                        break;
+                    }
                     setClientName(cp.getClientName());
                     break;
                 case MESSAGE:
                     if (!isClientMuted(payload.getClientId())) { // jah89 07-20-2024
                         currentRoom.sendMessage(this, payload.getMessage());
                     } else {
-                        info("Message from " + payload.getClientId() + " skipped due to being muted."); // jah89 07-20-2024
+                        fine("Message from %s skipped due to being muted.", payload.getClientId()); // jah89 07-20-2024
                     }
                     break;
                 case ROOM_CREATE:
@@ -120,7 +207,7 @@ public class ServerThread extends BaseServerThread {
                     currentRoom.handleJoinRoom(this, payload.getMessage());
                     break;
                 case ROOM_LIST:
-                    currentRoom.handleListRooms(this, payload.getMessage());
+                    currentRoom.handleListRooms(this, (RoomResultsPayload) payload);
                     break;
                 case DISCONNECT:
                     currentRoom.disconnect(this);
@@ -132,6 +219,23 @@ public class ServerThread extends BaseServerThread {
                 case FLIP:
                     currentRoom.processFlipCommand(this, payload);
                     break;
+                case ROLL_STATS:
+                    currentRoom.sendRollStats(this);
+                    break;
+                case SEARCH:
+                    currentRoom.sendSearchResults(this, payload.getMessage());
+                    break;
+                case PING:
+                    PingPayload ping = (PingPayload) payload;
+                    ping.onReceived();
+                    currentRoom.sendPong(this, ping);
+                    break;
+                case CATCH_UP:
+                    if (payload instanceof RoomMessagePayload
+                            && currentRoom.getName().equalsIgnoreCase(payload.getMessage())) {
+                        currentRoom.sendMissed(this, ((RoomMessagePayload) payload).getRoomSeq());
+                    }
+                    break;
                 case MUTE: // jah89 07-20-2024
                     currentRoom.handleMute(clientId, payload.getMessage());
                     break;
@@ -139,9 +243,20 @@ public class ServerThread extends BaseServerThread {
                     currentRoom.handleUnmute(clientId, payload.getMessage());
                     break;
                 case PRIVATE_MESSAGE:  //jah89 07-20-2024
-                    long targetId = payload.getClientId();
-                    String privateMessage = payload.getMessage();
-                    currentRoom.sendPrivateMessage(this, targetId, privateMessage);
+                    // a ConnectionPayload carries the target's name when the sender doesn't know their id
+                    String targetName = payload instanceof ConnectionPayload
+                            ? ((ConnectionPayload) payload).getClientName()
+                            : null;
+                    Server.INSTANCE.sendPrivateMessage(this, payload.getClientId(), targetName, payload.getMessage());
+                    break;
+                case FILE_OFFER:
+                    Server.INSTANCE.getFileRelay().onOffer(this, (FilePayload) payload);
+                    break;
+                case FILE_CHUNK:
+                    Server.INSTANCE.getFileRelay().onChunk(this, (FilePayload) payload);
+                    break;
+                case FILE_ACK:
+                    Server.INSTANCE.getFileRelay().onAck(this, (FilePayload) payload);
                     break;
                 default:
                     break;
@@ -153,19 +268,30 @@ public class ServerThread extends BaseServerThread {
 
     // send methods to pass data back to the Client
 
-    public boolean sendRooms(List<String> rooms) {
+    public boolean sendRooms(long requestId, int offset, int total, List<String> rooms) {
         RoomResultsPayload rrp = new RoomResultsPayload();
+        rrp.setRequestId(requestId);
+        rrp.setOffset(offset);
+        rrp.setTotal(total);
         rrp.setRooms(rooms);
         return send(rrp);
     }
 
+    public boolean sendSearchResults(String query, List<String> results) {
+        SearchPayload sp = new SearchPayload();
+        sp.setMessage(query);
+        sp.setResults(results);
+        return send(sp);
+    }
+
     public boolean sendClientSync(long clientId, String clientName) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setClientId(clientId);
         cp.setClientName(clientName);
         cp.setConnect(true);
         cp.setPayloadType(PayloadType.SYNC_CLIENT);
-        return send(cp);
+        // one per client in the room, queued so the writer thread flushes them together
+        return send(cp, false);
     }
 
     /**
@@ -187,14 +313,43 @@ public class ServerThread extends BaseServerThread {
      */
     public boolean sendMessage(long senderId, String message) {
         if (isClientMuted(senderId)) { // jah89 07-20-2024
-            info("Message from " + senderId + " skipped due to being muted."); // log message
+            fine("Message from %s skipped due to being muted.", senderId); // log message
             return true;
         }
+        return send(messagePayload(senderId, message));
+    }
+
+    /**
+     * Builds a MESSAGE payload. Payloads are never changed once sent, so a room
+     * builds one and sends that same instance to every recipient.
+     * 
+     * @param senderId
+     * @param message
+     * @return the payload
+     */
+    static Payload messagePayload(long senderId, String message) {
         Payload p = new Payload();
         p.setClientId(senderId);
         p.setMessage(message);
         p.setPayloadType(PayloadType.MESSAGE);
-        return send(p);
+        return p;
+    }
+
+    /**
+     * Builds a room's MESSAGE payload, shareable like messagePayload()
+     * 
+     * @param senderId
+     * @param message
+     * @param roomSeq  its number in the room
+     * @return the payload
+     */
+    static RoomMessagePayload roomMessagePayload(long senderId, String message, long roomSeq) {
+        RoomMessagePayload p = new RoomMessagePayload();
+        p.setClientId(senderId);
+        p.setMessage(message);
+        p.setPayloadType(PayloadType.MESSAGE);
+        p.setRoomSeq(roomSeq);
+        return p;
     }
 
     /**
@@ -207,13 +362,18 @@ public class ServerThread extends BaseServerThread {
      * @return success of sending the payload
      */
     public boolean sendRoomAction(long clientId, String clientName, String room, boolean isJoin) {
+        return send(roomActionPayload(clientId, clientName, room, isJoin));
+    }
+
+    // shareable like messagePayload()
+    static ConnectionPayload roomActionPayload(long clientId, String clientName, String room, boolean isJoin) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.ROOM_JOIN);
         cp.setConnect(isJoin); // <-- determine if join or leave
         cp.setMessage(room);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
+        return cp;
     }
 
     /**
@@ -224,12 +384,17 @@ public class ServerThread extends BaseServerThread {
      * @return success of sending the payload
      */
     public boolean sendDisconnect(long clientId, String clientName) {
+        return send(disconnectPayload(clientId, clientName));
+    }
+
+    // shareable like messagePayload()
+    static ConnectionPayload disconnectPayload(long clientId, String clientName) {
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.DISCONNECT);
         cp.setConnect(false);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
-        return send(cp);
+        return cp;
     }
 
     /**
@@ -240,20 +405,27 @@ public class ServerThread extends BaseServerThread {
      */
     public boolean sendClientId(long clientId) {
         this.clientId = clientId;
+        if (sessionToken == null) {
+            sessionToken = Server.INSTANCE.newSessionToken();
+        }
         ConnectionPayload cp = new ConnectionPayload();
         cp.setPayloadType(PayloadType.CLIENT_ID);
         cp.setConnect(true);
         cp.setClientId(clientId);
         cp.setClientName(clientName);
+        cp.setSessionToken(sessionToken);
+        cp.setCompression(channel != null && channel.isCompressing());
         return send(cp);
     }
 
     // jah89 07-20-2024
-    private Map<Long, String> mutedClients = new HashMap<>();
+    private Map<Long, String> mutedClients = new HashMap<>(); // names, for the saved list
+    // checked for every message fanned out to us, from room worker threads
+    private final LongSet mutedIds = new LongSet();
 
     public void addMutedClient(long clientId) {
         if (!isClientMuted(clientId)) { // Only proceed if the client is not already muted
-            mutedClients.put(clientId, currentRoom.getClient(clientId).getClientName());
+            putMutedClient(clientId, currentRoom.getClient(clientId).getClientName());
             saveMuteList(); // Save the mute list after adding a client
             ServerThread target = currentRoom.getClient(clientId);
             if (target != null) {
@@ -263,13 +435,14 @@ public class ServerThread extends BaseServerThread {
         } else {
             // Send message indicating the client is already muted
             sendMessage(this.clientId, "User " + currentRoom.getClient(clientId).getClientName() + " is already muted."); 
-            info("Client " + clientId + " is already muted."); // Log message indicating the client is already muted
+            info("Client %s is already muted.", clientId); // Log message indicating the client is already muted
         }
     }
     
     public void removeMutedClient(long clientId) {
         if (isClientMuted(clientId)) { // Only proceed if the client is currently muted
             mutedClients.remove(clientId);
+            mutedIds.remove(clientId);
             saveMuteList(); // Save the mute list after removing a client
             ServerThread target = currentRoom.getClient(clientId);
             if (target != null) {
@@ -279,7 +452,7 @@ public class ServerThread extends BaseServerThread {
         } else {
             // Send message indicating the client is not muted
             sendMessage(this.clientId, "User " + currentRoom.getClient(clientId).getClientName() + " is not muted."); 
-            info("Client " + clientId + " is not muted."); // Log message indicating the client is not muted
+            info("Client %s is not muted.", clientId); // Log message indicating the client is not muted
         }
     }
     
@@ -292,7 +465,18 @@ public class ServerThread extends BaseServerThread {
     }
     
     public boolean isClientMuted(long clientId) {
-        return mutedClients.containsKey(clientId);
+        return mutedIds.contains(clientId);
+    }
+
+    /**
+     * Tracks a muted client without notifying anyone or persisting the list
+     * 
+     * @param clientId
+     * @param clientName
+     */
+    void putMutedClient(long clientId, String clientName) {
+        mutedClients.put(clientId, clientName);
+        mutedIds.add(clientId);
     }
 
     // jah89 07-26-2024
@@ -319,7 +503,7 @@ public class ServerThread extends BaseServerThread {
                 while ((line = reader.readLine()) != null) {
                     String[] parts = line.split(":");
                     if (parts.length == 2) {
-                        mutedClients.put(Long.parseLong(parts[0]), parts[1]);
+                        putMutedClient(Long.parseLong(parts[0]), parts[1]);
                     }
                 }
                 reader.close();
@@ -11,6 +11,12 @@ elif [ "$input" = "client" ]; then
 elif [ "$input" = "ui" ]; then
 	java $1.client.ClientUI
 	# Milestone 3's new entry point
+elif [ "$input" = "bench" ]; then
+    java $1.bench.BenchRunner "${@:3}"
+    # microbenchmarks, i.e. ./run.sh Project bench --filter room --out base.json
+elif [ "$input" = "load" ]; then
+    java $1.loadtest.LoadGenerator "${@:3}"
+    # headless load generator, i.e. ./run.sh Project load --port 3000 --clients 500 --rate 2
 else
-    echo "Must specify client or server"
+    echo "Must specify client, server, ui, bench or load"
 fi